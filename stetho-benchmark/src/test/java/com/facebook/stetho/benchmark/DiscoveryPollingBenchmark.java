@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import android.net.LocalSocket;
+import com.facebook.stetho.inspector.ChromeDiscoveryHandler;
+import com.facebook.stetho.server.LeakyBufferedInputStream;
+import com.facebook.stetho.server.SocketLike;
+import com.facebook.stetho.server.http.HandlerRegistry;
+import com.facebook.stetho.server.http.LightHttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays what {@code chrome://inspect} does while it is open: a connection per poll, each
+ * asking for {@code /json/version} and then {@code /json} over keep-alive.  One operation is
+ * one such connection served end to end by {@link LightHttpServer} and
+ * {@link ChromeDiscoveryHandler}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiscoveryPollingBenchmark {
+  private static final String POLL_REQUESTS =
+      "GET /json/version HTTP/1.1\r\n" +
+      "Host: localhost\r\n" +
+      "\r\n" +
+      "GET /json HTTP/1.1\r\n" +
+      "Host: localhost\r\n" +
+      "\r\n";
+
+  private LightHttpServer mServer;
+  private byte[] mRequestBytes;
+  private CountingSocket mSocket;
+
+  @Setup
+  public void setUp() throws IOException {
+    HandlerRegistry registry = new HandlerRegistry();
+    new FakeAppDiscoveryHandler().register(registry);
+    mServer = new LightHttpServer(registry);
+    mRequestBytes = POLL_REQUESTS.getBytes("US-ASCII");
+    mSocket = new CountingSocket();
+  }
+
+  @Benchmark
+  public long pollDiscovery() throws IOException {
+    mSocket.bytesWritten = 0;
+    SocketLike socketLike = new SocketLike(
+        mSocket,
+        new LeakyBufferedInputStream(new ByteArrayInputStream(mRequestBytes), 256));
+    mServer.serve(socketLike);
+    return mSocket.bytesWritten;
+  }
+
+  /**
+   * Answers the {@link android.content.Context} lookups with constants so the handler can run
+   * on the plain JVM.
+   */
+  private static class FakeAppDiscoveryHandler extends ChromeDiscoveryHandler {
+    public FakeAppDiscoveryHandler() {
+      super(null /* context */, "/inspector");
+    }
+
+    @Override
+    protected String getPackageName() {
+      return "com.facebook.stetho.benchmark";
+    }
+
+    @Override
+    protected CharSequence getAppLabel() {
+      return "Benchmark";
+    }
+
+    @Override
+    protected String getAppVersionName() {
+      return "1.0";
+    }
+  }
+
+  private static class CountingSocket extends LocalSocket {
+    public long bytesWritten;
+
+    private final OutputStream mOutput = new OutputStream() {
+      @Override
+      public void write(int b) {
+        bytesWritten++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        bytesWritten += len;
+      }
+    };
+
+    @Override
+    public OutputStream getOutputStream() {
+      return mOutput;
+    }
+  }
+}
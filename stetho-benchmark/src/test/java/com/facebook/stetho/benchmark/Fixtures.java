@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import com.facebook.stetho.inspector.protocol.module.Network;
+import com.facebook.stetho.inspector.protocol.module.Page;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Representative protocol payloads shared by the benchmarks.
+ */
+public final class Fixtures {
+  private Fixtures() {
+  }
+
+  public static Network.RequestWillBeSentParams createRequestWillBeSentParams()
+      throws JSONException {
+    JSONObject headers = new JSONObject();
+    headers.put("Accept", "application/json");
+    headers.put("Accept-Encoding", "gzip");
+    headers.put("Connection", "Keep-Alive");
+    headers.put("Host", "graph.example.com");
+    headers.put("User-Agent", "okhttp/3.11.0");
+
+    Network.Request request = new Network.Request();
+    request.url = "https://graph.example.com/v2.0/me/feed?fields=id,message&limit=25";
+    request.method = "GET";
+    request.headers = headers;
+
+    Network.Initiator initiator = new Network.Initiator();
+    initiator.type = Network.InitiatorType.SCRIPT;
+
+    Network.RequestWillBeSentParams params = new Network.RequestWillBeSentParams();
+    params.requestId = "42";
+    params.frameId = "1";
+    params.loaderId = "1";
+    params.documentURL = request.url;
+    params.request = request;
+    params.timestamp = 1234567.890;
+    params.initiator = initiator;
+    params.type = Page.ResourceType.XHR;
+    return params;
+  }
+}
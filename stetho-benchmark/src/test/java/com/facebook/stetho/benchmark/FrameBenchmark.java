@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import com.facebook.stetho.websocket.Frame;
+import com.facebook.stetho.websocket.FrameHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a server frame with {@link Frame#writeTo} and decoding a masked client frame, both
+ * with {@link Frame#readFrom} (a new payload array per frame) and with the header/payload split
+ * that {@link com.facebook.stetho.websocket.ReadHandler} uses to read into a reused buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameBenchmark {
+  @Param({"100", "16384"})
+  public int payloadLength;
+
+  private Frame mOutgoingFrame;
+  private ByteArrayOutputStream mSink;
+  private BufferedOutputStream mOutput;
+
+  private ByteArrayInputStream mIncomingBytes;
+  private BufferedInputStream mInput;
+  private Frame mIncomingFrame;
+  private byte[] mPayloadBuffer;
+
+  @Setup
+  public void setUp() throws IOException {
+    byte[] payload = new byte[payloadLength];
+    Arrays.fill(payload, (byte) 'x');
+
+    mOutgoingFrame = FrameHelper.createTextFrame(payload, payload.length);
+    mSink = new ByteArrayOutputStream(payloadLength + 16);
+    mOutput = new BufferedOutputStream(mSink);
+
+    // Clients must mask their frames, which writeTo does in place so use a copy.
+    Frame clientFrame = FrameHelper.createTextFrame(payload.clone(), payload.length);
+    clientFrame.hasMask = true;
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    BufferedOutputStream encodedOutput = new BufferedOutputStream(encoded);
+    clientFrame.writeTo(encodedOutput);
+    encodedOutput.flush();
+
+    mIncomingBytes = new ByteArrayInputStream(encoded.toByteArray());
+    mInput = new BufferedInputStream(mIncomingBytes);
+    mIncomingFrame = new Frame();
+    mPayloadBuffer = new byte[payloadLength];
+  }
+
+  @Benchmark
+  public int writeTo() throws IOException {
+    mSink.reset();
+    mOutgoingFrame.writeTo(mOutput);
+    mOutput.flush();
+    return mSink.size();
+  }
+
+  @Benchmark
+  public byte[] readFrom() throws IOException {
+    mIncomingBytes.reset();
+    mIncomingFrame.readFrom(mInput);
+    return mIncomingFrame.payloadData;
+  }
+
+  @Benchmark
+  public byte[] readIntoBuffer() throws IOException {
+    mIncomingBytes.reset();
+    mIncomingFrame.readHeaderFrom(mInput);
+    mIncomingFrame.readPayloadFrom(mInput, mPayloadBuffer, 0);
+    return mPayloadBuffer;
+  }
+}
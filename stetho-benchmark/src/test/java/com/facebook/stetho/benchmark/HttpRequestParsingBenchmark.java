@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import android.net.LocalSocket;
+import com.facebook.stetho.server.LeakyBufferedInputStream;
+import com.facebook.stetho.server.SocketLike;
+import com.facebook.stetho.server.http.ExactPathMatcher;
+import com.facebook.stetho.server.http.HandlerRegistry;
+import com.facebook.stetho.server.http.HttpHandler;
+import com.facebook.stetho.server.http.LightHttpBody;
+import com.facebook.stetho.server.http.LightHttpRequest;
+import com.facebook.stetho.server.http.LightHttpResponse;
+import com.facebook.stetho.server.http.LightHttpServer;
+import com.facebook.stetho.server.http.PreEncodedHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request line and header parsing in {@link LightHttpServer}, isolated from response encoding
+ * by a handler that answers every request with the same pre-encoded {@code 204}.  One
+ * operation is a connection carrying {@link #REQUEST_COUNT} keep-alive requests with the
+ * headers Chrome actually sends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HttpRequestParsingBenchmark {
+  private static final int REQUEST_COUNT = 8;
+
+  private static final String PATH = "/json/version";
+
+  private static final String REQUEST =
+      "GET " + PATH + " HTTP/1.1\r\n" +
+      "Host: localhost:9222\r\n" +
+      "Connection: keep-alive\r\n" +
+      "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
+          "(KHTML, like Gecko) Chrome/70.0.3538.77 Safari/537.36\r\n" +
+      "Accept: text/html,application/xhtml+xml,application/xml;q=0.9," +
+          "image/webp,image/apng,*/*;q=0.8\r\n" +
+      "Accept-Encoding: gzip, deflate, br\r\n" +
+      "Accept-Language: en-US,en;q=0.9\r\n" +
+      "\r\n";
+
+  private LightHttpServer mServer;
+  private byte[] mRequestBytes;
+  private DiscardingSocket mSocket;
+
+  @Setup
+  public void setUp() throws IOException {
+    final PreEncodedHttpResponse noContent =
+        PreEncodedHttpResponse.create(204, "No Content", LightHttpBody.create("", "text/plain"));
+    HandlerRegistry registry = new HandlerRegistry();
+    registry.register(new ExactPathMatcher(PATH), new HttpHandler() {
+      @Override
+      public boolean handleRequest(
+          SocketLike socket,
+          LightHttpRequest request,
+          LightHttpResponse response) {
+        response.preEncoded = noContent;
+        return true;
+      }
+    });
+    mServer = new LightHttpServer(registry);
+
+    StringBuilder requests = new StringBuilder(REQUEST.length() * REQUEST_COUNT);
+    for (int i = 0; i < REQUEST_COUNT; i++) {
+      requests.append(REQUEST);
+    }
+    mRequestBytes = requests.toString().getBytes("US-ASCII");
+    mSocket = new DiscardingSocket();
+  }
+
+  @Benchmark
+  public long serveRequests() throws IOException {
+    mSocket.bytesWritten = 0;
+    SocketLike socketLike = new SocketLike(
+        mSocket,
+        new LeakyBufferedInputStream(new ByteArrayInputStream(mRequestBytes), 1024));
+    mServer.serve(socketLike);
+    return mSocket.bytesWritten;
+  }
+
+  private static class DiscardingSocket extends LocalSocket {
+    public long bytesWritten;
+
+    private final OutputStream mOutput = new OutputStream() {
+      @Override
+      public void write(int b) {
+        bytesWritten++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        bytesWritten += len;
+      }
+    };
+
+    @Override
+    public OutputStream getOutputStream() {
+      return mOutput;
+    }
+  }
+}
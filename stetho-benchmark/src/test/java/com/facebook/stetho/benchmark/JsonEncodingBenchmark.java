@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import com.facebook.stetho.inspector.protocol.module.Network;
+import com.facebook.stetho.json.JsonWriter;
+import com.facebook.stetho.json.ObjectMapper;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serializing a protocol object through a {@link JSONObject} tree (the reflective
+ * {@link ObjectMapper} path) against streaming it with the generated codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonEncodingBenchmark {
+  private ObjectMapper mObjectMapper;
+  private Network.RequestWillBeSentParams mParams;
+
+  @Setup
+  public void setUp() throws JSONException {
+    mObjectMapper = new ObjectMapper();
+    mParams = Fixtures.createRequestWillBeSentParams();
+  }
+
+  @Benchmark
+  public String jsonObjectTree() {
+    return mObjectMapper.convertValue(mParams, JSONObject.class).toString();
+  }
+
+  @Benchmark
+  public String generatedCodec() {
+    JsonWriter writer = new JsonWriter();
+    mObjectMapper.writeValue(writer, mParams);
+    return writer.toString();
+  }
+}
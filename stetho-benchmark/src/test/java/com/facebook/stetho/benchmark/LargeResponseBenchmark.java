@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import com.facebook.stetho.common.Utf8Charset;
+import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcResponse;
+import com.facebook.stetho.inspector.protocol.module.Database;
+import com.facebook.stetho.json.JsonWriter;
+import com.facebook.stetho.json.ObjectMapper;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes a large {@code Database.executeSQL} response the old way (result tree, response tree,
+ * String, then UTF-8 bytes) and the streaming way.  Run with the GC profiler enabled (as
+ * {@link RunBenchmarks} does) and compare {@code gc.alloc.rate.norm} to see the difference in
+ * bytes allocated per response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LargeResponseBenchmark {
+  @Param({"10000"})
+  public int rowCount;
+
+  private ObjectMapper mObjectMapper;
+  private Database.ExecuteSQLResponse mResult;
+
+  @Setup
+  public void setUp() {
+    mObjectMapper = new ObjectMapper();
+    mResult = new Database.ExecuteSQLResponse();
+    mResult.columnNames = new ArrayList<>();
+    mResult.columnNames.add("_id");
+    mResult.columnNames.add("name");
+    mResult.columnNames.add("payload");
+    mResult.values = new ArrayList<>();
+    for (int i = 0; i < rowCount; i++) {
+      mResult.values.add(String.valueOf(i));
+      mResult.values.add("row " + i);
+      mResult.values.add("{\"some\":\"json\",\"stored\":\"in\",\"column\":" + i + "}");
+    }
+  }
+
+  @Benchmark
+  public byte[] jsonObjectTree() {
+    JsonRpcResponse response = new JsonRpcResponse();
+    response.id = 1;
+    response.result = mObjectMapper.convertValue(mResult, JSONObject.class);
+    JSONObject jsonObject = mObjectMapper.convertValue(response, JSONObject.class);
+    return Utf8Charset.encodeUTF8(jsonObject.toString());
+  }
+
+  @Benchmark
+  public int streaming() {
+    JsonWriter writer = new JsonWriter();
+    writer.beginObject();
+    writer.name("id").value(1);
+    writer.name("result");
+    mObjectMapper.writeValue(writer, mResult);
+    writer.endObject();
+    return writer.size();
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import com.facebook.stetho.inspector.network.MimeMatcher;
+import com.facebook.stetho.inspector.protocol.module.Page;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MimeMatcher#match} with the same rules as
+ * {@link com.facebook.stetho.inspector.network.ResourceTypeHelper}, which runs it once per
+ * response.  The parameters cover an early literal match, a late literal match, a wildcard
+ * match and falling through to the catch-all rule.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MimeMatcherBenchmark {
+  @Param({"text/css", "application/json", "image/webp", "application/octet-stream"})
+  public String mimeType;
+
+  private MimeMatcher<Page.ResourceType> mMatcher;
+
+  @Setup
+  public void setUp() {
+    mMatcher = new MimeMatcher<>();
+    mMatcher.addRule("text/css", Page.ResourceType.STYLESHEET);
+    mMatcher.addRule("image/*", Page.ResourceType.IMAGE);
+    mMatcher.addRule("application/x-javascript", Page.ResourceType.SCRIPT);
+    mMatcher.addRule("text/javascript", Page.ResourceType.XHR);
+    mMatcher.addRule("application/json", Page.ResourceType.XHR);
+    mMatcher.addRule("text/*", Page.ResourceType.DOCUMENT);
+    mMatcher.addRule("*", Page.ResourceType.OTHER);
+  }
+
+  @Benchmark
+  public Page.ResourceType match() {
+    return mMatcher.match(mimeType);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.json.annotation.JsonProperty;
+import com.facebook.stetho.json.annotation.JsonValue;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the reflective {@link ObjectMapper} conversions in both directions.  The types used
+ * here live outside of the packages handled by the codec generator so that every conversion
+ * goes through reflection; run with the GC profiler to see allocations per conversion.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ObjectMapperBenchmark {
+  private ObjectMapper mObjectMapper;
+  private Message mMessage;
+  private JSONObject mMessageJson;
+
+  @Setup
+  public void setUp() throws JSONException {
+    mObjectMapper = new ObjectMapper();
+    mMessage = new Message();
+    mMessage.id = 42;
+    mMessage.timestamp = 1234567.891;
+    mMessage.level = Level.WARNING;
+    mMessage.text = "Something happened";
+    mMessage.entries = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      Entry entry = new Entry();
+      entry.name = "entry" + i;
+      entry.value = "value" + i;
+      entry.level = Level.values()[i % Level.values().length];
+      mMessage.entries.add(entry);
+    }
+    mMessageJson = mObjectMapper.convertValue(mMessage, JSONObject.class);
+  }
+
+  @Benchmark
+  public JSONObject toJSONObject() {
+    return mObjectMapper.convertValue(mMessage, JSONObject.class);
+  }
+
+  @Benchmark
+  public Message fromJSONObject() {
+    return mObjectMapper.convertValue(mMessageJson, Message.class);
+  }
+
+  public enum Level {
+    DEBUG("debug"),
+    INFO("info"),
+    WARNING("warning"),
+    ERROR("error");
+
+    private final String mProtocolValue;
+
+    Level(String protocolValue) {
+      mProtocolValue = protocolValue;
+    }
+
+    @JsonValue
+    public String getProtocolValue() {
+      return mProtocolValue;
+    }
+  }
+
+  public static class Message {
+    @JsonProperty(required = true)
+    public int id;
+
+    @JsonProperty
+    public double timestamp;
+
+    @JsonProperty(required = true)
+    public Level level;
+
+    @JsonProperty
+    public String text;
+
+    @JsonProperty
+    public List<Entry> entries;
+  }
+
+  public static class Entry {
+    @JsonProperty(required = true)
+    public String name;
+
+    @JsonProperty
+    public String value;
+
+    @JsonProperty
+    public Level level;
+  }
+}
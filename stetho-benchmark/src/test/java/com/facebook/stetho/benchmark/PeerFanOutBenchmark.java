@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import com.facebook.stetho.inspector.helper.ChromePeerManager;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.protocol.module.Network;
+import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.websocket.SimpleSession;
+import com.facebook.stetho.websocket.StreamingMessage;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding a notification separately for every connected peer against encoding it
+ * once in {@link ChromePeerManager#sendNotificationToPeers} and sharing the result.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PeerFanOutBenchmark {
+  private static final String METHOD = "Network.requestWillBeSent";
+
+  @Param({"1", "2", "4"})
+  public int peerCount;
+
+  private ChromePeerManager mPeerManager;
+  private JsonRpcPeer[] mPeers;
+  private Network.RequestWillBeSentParams mParams;
+
+  @Setup
+  public void setUp(Blackhole blackhole) throws JSONException {
+    ObjectMapper objectMapper = new ObjectMapper();
+    BlackholeSession session = new BlackholeSession(blackhole);
+    mPeerManager = new ChromePeerManager();
+    mPeers = new JsonRpcPeer[peerCount];
+    for (int i = 0; i < peerCount; i++) {
+      mPeers[i] = new JsonRpcPeer(objectMapper, session);
+      mPeerManager.addPeer(mPeers[i]);
+    }
+    mParams = Fixtures.createRequestWillBeSentParams();
+  }
+
+  @Benchmark
+  public void encodePerPeer() {
+    for (JsonRpcPeer peer : mPeers) {
+      peer.invokeMethod(METHOD, mParams, null /* callback */);
+    }
+  }
+
+  @Benchmark
+  public void encodeOnce() {
+    mPeerManager.sendNotificationToPeers(METHOD, mParams);
+  }
+
+  private static class BlackholeSession implements SimpleSession {
+    private final Blackhole mBlackhole;
+
+    public BlackholeSession(Blackhole blackhole) {
+      mBlackhole = blackhole;
+    }
+
+    @Override
+    public void sendText(String payload) {
+      mBlackhole.consume(payload);
+    }
+
+    @Override
+    public void sendText(byte[] payload, int payloadLen) {
+      mBlackhole.consume(payload);
+    }
+
+    @Override
+    public void sendText(StreamingMessage message) {
+      mBlackhole.consume(message);
+    }
+
+    @Override
+    public void sendBinary(byte[] payload) {
+      mBlackhole.consume(payload);
+    }
+
+    @Override
+    public void close(int closeReason, String reasonPhrase) {
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest;
+import com.facebook.stetho.json.JsonReader;
+import com.facebook.stetho.json.LazyJsonObject;
+import com.facebook.stetho.json.ObjectMapper;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing an incoming request: {@link #treeAndMapper} is how requests used to be decoded (a
+ * {@link JSONObject} for the whole message, then {@link ObjectMapper} into
+ * {@link JsonRpcRequest}) and {@link #pullParser} is what the server does now.  Both end with the
+ * params as a {@link JSONObject}, which is what domain methods receive.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestParsingBenchmark {
+  private static final String REQUEST =
+      "{\"id\":1234,\"method\":\"DOM.setAttributesAsText\",\"params\":{\"nodeId\":42," +
+      "\"text\":\"class=\\\"header main\\\" style=\\\"color: red\\\"\",\"name\":\"class\"}}";
+
+  private ObjectMapper mObjectMapper;
+
+  @Setup
+  public void setUp() {
+    mObjectMapper = new ObjectMapper();
+  }
+
+  @Benchmark
+  public JSONObject treeAndMapper() throws JSONException {
+    JsonRpcRequest request =
+        mObjectMapper.convertValue(new JSONObject(REQUEST), JsonRpcRequest.class);
+    return request.params;
+  }
+
+  @Benchmark
+  public JSONObject pullParser() throws JSONException {
+    JsonReader reader = new JsonReader(REQUEST);
+    LazyJsonObject params = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("params".equals(name)) {
+        params = reader.nextLazyJsonObject();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return params.get();
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import com.facebook.stetho.inspector.network.DecompressionHelper;
+import com.facebook.stetho.inspector.network.ResponseHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The app-side cost of intercepting a response body: reading a 256KB JSON response to EOF
+ * through the stream returned by
+ * {@link DecompressionHelper#teeInputWithDecompression}, which copies everything read into the
+ * body store and, for {@code gzip}, inflates it on the way.  No peer is attached, matching an
+ * app that has Stetho enabled but no DevTools window open on the Network tab.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseHandlingInputStreamBenchmark {
+  private static final int BODY_LENGTH = 256 * 1024;
+
+  @Param({"identity", "gzip"})
+  public String encoding;
+
+  private byte[] mResponseBytes;
+  private byte[] mReadBuffer;
+  private DiscardingOutputStream mBodyOutput;
+  private CountingResponseHandler mResponseHandler;
+
+  @Setup
+  public void setUp() throws IOException {
+    StringBuilder body = new StringBuilder(BODY_LENGTH);
+    body.append('[');
+    for (int i = 0; body.length() < BODY_LENGTH - 64; i++) {
+      body.append("{\"id\":").append(i)
+          .append(",\"name\":\"item ").append(i)
+          .append("\",\"enabled\":").append(i % 3 == 0)
+          .append("},");
+    }
+    body.append("{}]");
+    byte[] bodyBytes = body.toString().getBytes("UTF-8");
+
+    if ("gzip".equals(encoding)) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+      gzip.write(bodyBytes);
+      gzip.close();
+      mResponseBytes = compressed.toByteArray();
+    } else {
+      mResponseBytes = bodyBytes;
+    }
+
+    mReadBuffer = new byte[8192];
+    mBodyOutput = new DiscardingOutputStream();
+    mResponseHandler = new CountingResponseHandler();
+  }
+
+  @Benchmark
+  public long readToEof() throws IOException {
+    mBodyOutput.bytesWritten = 0;
+    InputStream in = DecompressionHelper.teeInputWithDecompression(
+        null /* peerManager */,
+        "1" /* requestId */,
+        new ByteArrayInputStream(mResponseBytes),
+        mBodyOutput,
+        "identity".equals(encoding) ? null : encoding,
+        mResponseHandler);
+    try {
+      while (in.read(mReadBuffer) != -1) {
+        // Discard, like an app handing the body off to its parser.
+      }
+    } finally {
+      in.close();
+    }
+    return mBodyOutput.bytesWritten;
+  }
+
+  private static class DiscardingOutputStream extends OutputStream {
+    public long bytesWritten;
+
+    @Override
+    public void write(int b) {
+      bytesWritten++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      bytesWritten += len;
+    }
+  }
+
+  private static class CountingResponseHandler implements ResponseHandler {
+    public long bytesRead;
+
+    @Override
+    public void onRead(int numBytes) {
+      bytesRead += numBytes;
+    }
+
+    @Override
+    public void onReadDecoded(int numBytes) {
+    }
+
+    @Override
+    public void onEOF() {
+    }
+
+    @Override
+    public void onError(IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
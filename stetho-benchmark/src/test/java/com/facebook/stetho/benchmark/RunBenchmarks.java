@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Entry point which runs every JMH benchmark in this package.  Gradle's unit test task is the
+ * only convenient way to get a JVM with the library's classpath so we piggy back on it, but
+ * skip unless {@code -Pbenchmark} is passed so that regular test runs stay fast.
+ * <p>
+ * Benchmarks run in-process ({@code forks(0)}) because the Gradle test worker's classpath is
+ * not visible to a forked JVM.  The GC profiler is enabled so that allocation per operation
+ * ({@code gc.alloc.rate.norm}) is reported alongside timings.
+ * <p>
+ * Besides the usual console summary, results are written as JSON to the path in the
+ * {@code stetho.benchmark.result} system property ({@code build/reports/benchmarks/results.json}
+ * under Gradle) so that runs from different revisions can be compared.
+ */
+@RunWith(JUnit4.class)
+public class RunBenchmarks {
+  @Test
+  public void runBenchmarks() throws RunnerException {
+    Assume.assumeTrue(Boolean.getBoolean("stetho.benchmark"));
+
+    File resultFile = new File(System.getProperty("stetho.benchmark.result", "results.json"));
+    File resultDir = resultFile.getAbsoluteFile().getParentFile();
+    if (!resultDir.isDirectory() && !resultDir.mkdirs()) {
+      throw new IllegalStateException("Could not create " + resultDir);
+    }
+
+    Options options = new OptionsBuilder()
+        .include(RunBenchmarks.class.getPackage().getName() + ".*Benchmark")
+        .forks(0)
+        .warmupIterations(3)
+        .measurementIterations(5)
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result(resultFile.getPath())
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark;
+
+import com.facebook.stetho.inspector.elements.ShadowDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ShadowDocument.UpdateBuilder} on a synthetic tree of {@code fanOut ^ depth} leaves,
+ * driven the way {@link com.facebook.stetho.inspector.elements.Document} drives it: every update
+ * walks the whole tree breadth first and reports each element's children.
+ * <p>
+ * {@code initialBuild} populates an empty document, as happens when DOM inspection is enabled.
+ * {@code incrementalUpdate} walks an already populated document in which one mid-level element
+ * alternately loses and regains its last subtree, which is the common steady state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShadowDocumentBenchmark {
+  @Param({"4"})
+  public int fanOut;
+
+  @Param({"3", "6"})
+  public int depth;
+
+  private Object mRoot;
+  private Map<Object, List<Object>> mChildren;
+  private Object mToggledElement;
+  private List<Object> mToggledChildren;
+  private ArrayDeque<Object> mQueue;
+
+  private ShadowDocument mDocument;
+  private boolean mToggled;
+
+  @Setup
+  public void setUp() {
+    mRoot = new Object();
+    mChildren = new IdentityHashMap<>();
+    mQueue = new ArrayDeque<>();
+    createChildren(mRoot, depth);
+
+    mToggledElement = mRoot;
+    for (int i = 0; i < depth / 2; i++) {
+      mToggledElement = mChildren.get(mToggledElement).get(0);
+    }
+    List<Object> children = mChildren.get(mToggledElement);
+    mToggledChildren = new ArrayList<>(children.subList(0, children.size() - 1));
+
+    mDocument = new ShadowDocument(mRoot);
+    update(mDocument, false /* toggled */);
+    mToggled = false;
+  }
+
+  private void createChildren(Object element, int remainingDepth) {
+    if (remainingDepth == 0) {
+      mChildren.put(element, Collections.<Object>emptyList());
+      return;
+    }
+    List<Object> children = new ArrayList<>(fanOut);
+    for (int i = 0; i < fanOut; i++) {
+      Object child = new Object();
+      children.add(child);
+      createChildren(child, remainingDepth - 1);
+    }
+    mChildren.put(element, children);
+  }
+
+  @Benchmark
+  public ShadowDocument initialBuild() {
+    ShadowDocument document = new ShadowDocument(mRoot);
+    update(document, false /* toggled */);
+    return document;
+  }
+
+  @Benchmark
+  public ShadowDocument incrementalUpdate() {
+    mToggled = !mToggled;
+    update(mDocument, mToggled);
+    return mDocument;
+  }
+
+  private void update(ShadowDocument document, boolean toggled) {
+    ShadowDocument.UpdateBuilder builder = document.beginUpdate();
+    mQueue.add(mRoot);
+    while (!mQueue.isEmpty()) {
+      Object element = mQueue.remove();
+      List<Object> children = (toggled && element == mToggledElement)
+          ? mToggledChildren
+          : mChildren.get(element);
+      mQueue.addAll(children);
+      builder.setElementChildren(element, children);
+    }
+    builder.build().commit();
+  }
+}
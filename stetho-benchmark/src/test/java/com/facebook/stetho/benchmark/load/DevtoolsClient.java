@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark.load;
+
+import com.facebook.stetho.websocket.CloseCodes;
+import com.facebook.stetho.websocket.Frame;
+import com.facebook.stetho.websocket.FrameHelper;
+
+import javax.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Minimal WebSocket client playing the part of the DevTools front-end.  Messages are framed
+ * with Stetho's own {@link Frame} (masked, as clients must) and every message received from
+ * the server is handed to a {@link Listener} on a dedicated reader thread.  Compression is
+ * never offered so that the byte counts reflect the uncompressed protocol.
+ */
+class DevtoolsClient implements Closeable {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The sample nonce from RFC 6455, the server's answer to it is not checked.
+   */
+  private static final String WEBSOCKET_KEY = "dGhlIHNhbXBsZSBub25jZQ==";
+
+  public interface Listener {
+    /**
+     * @param message Text of the message.
+     * @param wireBytes Size of the frame carrying the message, including its header.
+     */
+    void onMessage(String message, int wireBytes);
+  }
+
+  private final Socket mSocket;
+  private final BufferedInputStream mInput;
+  private final BufferedOutputStream mOutput;
+  private final Listener mListener;
+  private final AtomicReference<IOException> mReadFailure = new AtomicReference<>();
+
+  @Nullable
+  private Thread mReaderThread;
+
+  public DevtoolsClient(int port, Listener listener) throws IOException {
+    mSocket = new Socket(InetAddress.getByName(null), port);
+    mSocket.setTcpNoDelay(true);
+    mInput = new BufferedInputStream(mSocket.getInputStream(), 64 * 1024);
+    mOutput = new BufferedOutputStream(mSocket.getOutputStream());
+    mListener = listener;
+  }
+
+  /**
+   * Upgrade the connection and start delivering messages to the listener.
+   */
+  public void connect(String path) throws IOException {
+    String request =
+        "GET " + path + " HTTP/1.1\r\n" +
+        "Host: localhost\r\n" +
+        "Upgrade: websocket\r\n" +
+        "Connection: Upgrade\r\n" +
+        "Sec-WebSocket-Key: " + WEBSOCKET_KEY + "\r\n" +
+        "Sec-WebSocket-Version: 13\r\n" +
+        "\r\n";
+    mOutput.write(request.getBytes(UTF_8));
+    mOutput.flush();
+
+    String statusLine = readHeaderLine();
+    if (!statusLine.startsWith("HTTP/1.1 101")) {
+      throw new IOException("Upgrade refused: " + statusLine);
+    }
+    while (readHeaderLine().length() > 0) {
+      // Skip the response headers.
+    }
+
+    mReaderThread = new Thread("DevtoolsClient") {
+      @Override
+      public void run() {
+        try {
+          readMessages();
+        } catch (IOException e) {
+          mReadFailure.set(e);
+        }
+      }
+    };
+    mReaderThread.start();
+  }
+
+  public synchronized void sendText(String message) throws IOException {
+    byte[] payload = message.getBytes(UTF_8);
+    Frame frame = FrameHelper.createTextFrame(payload, payload.length);
+    frame.hasMask = true;
+    frame.writeTo(mOutput);
+    mOutput.flush();
+  }
+
+  /**
+   * @return The exception which stopped the reader thread, if any.
+   */
+  @Nullable
+  public IOException getReadFailure() {
+    return mReadFailure.get();
+  }
+
+  /**
+   * Perform the closing handshake and wait for the server to end the connection.  Failures are
+   * not reported since the connection may already be gone, see {@link #getReadFailure}.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (mReaderThread != null && mReaderThread.isAlive()) {
+        synchronized (this) {
+          Frame frame = FrameHelper.createCloseFrame(CloseCodes.NORMAL_CLOSURE, "Done");
+          frame.hasMask = true;
+          frame.writeTo(mOutput);
+          mOutput.flush();
+        }
+        mReaderThread.join();
+      }
+    } catch (IOException e) {
+      // The server already went away.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      mSocket.close();
+    }
+  }
+
+  private void readMessages() throws IOException {
+    Frame frame = new Frame();
+    while (true) {
+      frame.readFrom(mInput);
+      int payloadLen = (int) frame.payloadLen;
+      switch (frame.opcode) {
+        case Frame.OPCODE_TEXT_FRAME:
+          if (!frame.fin) {
+            throw new IOException("Fragmented messages are not supported");
+          }
+          mListener.onMessage(
+              new String(frame.payloadData, 0, payloadLen, UTF_8),
+              headerLength(payloadLen) + payloadLen);
+          break;
+        case Frame.OPCODE_CONNECTION_CLOSE:
+          return;
+        default:
+          // Nothing else is expected from Stetho, and none of it would matter.
+          break;
+      }
+    }
+  }
+
+  /**
+   * Size of an unmasked frame header given the length encoding rules of RFC 6455.
+   */
+  private static int headerLength(int payloadLen) {
+    if (payloadLen <= 125) {
+      return 2;
+    } else if (payloadLen <= 0xffff) {
+      return 4;
+    } else {
+      return 10;
+    }
+  }
+
+  private String readHeaderLine() throws IOException {
+    StringBuilder line = new StringBuilder();
+    int b;
+    while ((b = mInput.read()) != '\n') {
+      if (b == -1) {
+        throw new IOException("Connection closed during upgrade");
+      }
+      if (b != '\r') {
+        line.append((char) b);
+      }
+    }
+    return line.toString();
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark.load;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.PackageManager;
+
+import java.io.File;
+
+/**
+ * Just enough of a {@link Context} for the socket handlers and the {@code Network} domain to
+ * run on the host JVM.
+ */
+class HarnessContext extends ContextWrapper {
+  private final File mFilesDir;
+
+  public HarnessContext(File filesDir) {
+    super(null /* base */);
+    mFilesDir = filesDir;
+  }
+
+  @Override
+  public Context getApplicationContext() {
+    return this;
+  }
+
+  @Override
+  public String getPackageName() {
+    return "com.facebook.stetho.benchmark";
+  }
+
+  @Override
+  public File getFilesDir() {
+    return mFilesDir;
+  }
+
+  @Override
+  public int checkPermission(String permission, int pid, int uid) {
+    return PackageManager.PERMISSION_GRANTED;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark.load;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link LoadHarness} at a steady rate typical of a busy app and then flat out, printing a
+ * report for each.  Like {@link com.facebook.stetho.benchmark.RunBenchmarks} this is skipped
+ * unless {@code -Pbenchmark} is passed.
+ */
+@RunWith(JUnit4.class)
+public class RunLoadHarness {
+  private static final int PRODUCER_THREADS = 4;
+  private static final int REQUESTS_PER_PRODUCER = 5000;
+
+  @Test
+  public void runPaced() throws Exception {
+    run("paced, 2000 requests/s", 2000);
+  }
+
+  @Test
+  public void runSaturated() throws Exception {
+    run("saturated", 0 /* requestsPerSecond */);
+  }
+
+  private static void run(String name, int requestsPerSecond) throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean("stetho.benchmark"));
+
+    LoadHarness.Report report =
+        new LoadHarness(PRODUCER_THREADS, REQUESTS_PER_PRODUCER, requestsPerSecond).run();
+    System.out.println("LoadHarness (" + name + "):");
+    System.out.println(report);
+    assertTrue("No events delivered", report.getDeliveredEvents() > 0);
+  }
+}
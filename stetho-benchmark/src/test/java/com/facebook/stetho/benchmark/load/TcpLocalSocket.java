@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark.load;
+
+import android.net.Credentials;
+import android.net.LocalSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * {@link LocalSocket} backed by a loopback TCP connection so that the socket handlers can be
+ * driven on the host JVM, where there is no abstract namespace to bind to.
+ */
+class TcpLocalSocket extends LocalSocket {
+  /**
+   * Reported for every connection.  {@link com.facebook.stetho.server.SecureSocketHandler}
+   * only logs the peer's identity and {@link HarnessContext} grants every permission check.
+   */
+  private static final Credentials PEER_CREDENTIALS =
+      new Credentials(0 /* pid */, 0 /* uid */, 0 /* gid */);
+
+  private final Socket mSocket;
+
+  public TcpLocalSocket(Socket socket) {
+    mSocket = socket;
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return mSocket.getInputStream();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return mSocket.getOutputStream();
+  }
+
+  @Override
+  public Credentials getPeerCredentials() {
+    return PEER_CREDENTIALS;
+  }
+
+  @Override
+  public boolean isConnected() {
+    return mSocket.isConnected();
+  }
+
+  @Override
+  public boolean isClosed() {
+    return mSocket.isClosed();
+  }
+
+  @Override
+  public void shutdownInput() throws IOException {
+    mSocket.shutdownInput();
+  }
+
+  @Override
+  public void shutdownOutput() throws IOException {
+    mSocket.shutdownOutput();
+  }
+
+  @Override
+  public void close() throws IOException {
+    mSocket.close();
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.benchmark.load;
+
+import com.facebook.stetho.server.LocalSocketServer;
+import com.facebook.stetho.server.SocketHandler;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stand-in for {@link LocalSocketServer} which listens on an ephemeral loopback TCP port and
+ * hands each connection to the {@link SocketHandler} on a thread of its own, the way
+ * {@link LocalSocketServer#UNBOUNDED_WORKERS} does.
+ */
+class TcpSocketServer {
+  private final String mFriendlyName;
+  private final SocketHandler mSocketHandler;
+  private final ServerSocket mServerSocket;
+  private final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+
+  @Nullable
+  private Thread mListenerThread;
+
+  public TcpSocketServer(String friendlyName, SocketHandler socketHandler) throws IOException {
+    mFriendlyName = friendlyName;
+    mSocketHandler = socketHandler;
+    mServerSocket = new ServerSocket(0 /* port */, 50 /* backlog */, InetAddress.getByName(null));
+  }
+
+  public int getPort() {
+    return mServerSocket.getLocalPort();
+  }
+
+  /**
+   * @return The first exception thrown by the socket handler, if any.
+   */
+  @Nullable
+  public Throwable getFailure() {
+    return mFailure.get();
+  }
+
+  public synchronized void start() {
+    if (mListenerThread != null) {
+      throw new IllegalStateException("Already started");
+    }
+    mListenerThread = new Thread("TcpSocketServer-" + mFriendlyName) {
+      @Override
+      public void run() {
+        listen();
+      }
+    };
+    mListenerThread.start();
+  }
+
+  public synchronized void stop() throws InterruptedException {
+    try {
+      mServerSocket.close();
+    } catch (IOException e) {
+      // Nothing to do, the listener exits either way.
+    }
+    if (mListenerThread != null) {
+      mListenerThread.join();
+    }
+  }
+
+  private void listen() {
+    int connectionId = 0;
+    while (true) {
+      final Socket socket;
+      try {
+        socket = mServerSocket.accept();
+      } catch (SocketException e) {
+        // Closed by stop().
+        return;
+      } catch (IOException e) {
+        mFailure.compareAndSet(null, e);
+        return;
+      }
+      new Thread("TcpSocketServer-" + mFriendlyName + "-" + (++connectionId)) {
+        @Override
+        public void run() {
+          serve(socket);
+        }
+      }.start();
+    }
+  }
+
+  private void serve(Socket socket) {
+    TcpLocalSocket localSocket = new TcpLocalSocket(socket);
+    try {
+      mSocketHandler.onAccepted(localSocket);
+    } catch (Throwable t) {
+      mFailure.compareAndSet(null, t);
+    } finally {
+      try {
+        localSocket.close();
+      } catch (IOException e) {
+        // Ignore.
+      }
+    }
+  }
+}
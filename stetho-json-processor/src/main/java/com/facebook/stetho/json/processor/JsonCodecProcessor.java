@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a {@code <BinaryName>$$JsonCodec} class implementing
+ * {@code com.facebook.stetho.json.JsonCodec} for each class with {@code @JsonProperty} fields in
+ * the configured packages.  The generated code mirrors the semantics of the reflective
+ * {@code ObjectMapper} but accesses fields directly and streams output to a {@code JsonWriter}.
+ * <p>
+ * Anything the generated code can't handle statically is delegated to {@code JsonCodecs} at
+ * runtime, which in turn falls back to reflection, so a class is never worse off for having a
+ * codec.
+ * <p>
+ * The set of packages is controlled by the {@value #OPTION_PACKAGES} option (a comma separated
+ * list) and defaults to the Chrome DevTools protocol and JSON-RPC packages.
+ */
+@SupportedAnnotationTypes(JsonCodecProcessor.JSON_PROPERTY)
+@SupportedOptions(JsonCodecProcessor.OPTION_PACKAGES)
+public class JsonCodecProcessor extends AbstractProcessor {
+  static final String JSON_PROPERTY = "com.facebook.stetho.json.annotation.JsonProperty";
+  static final String JSON_VALUE = "com.facebook.stetho.json.annotation.JsonValue";
+  static final String OPTION_PACKAGES = "stetho.json.packages";
+
+  private static final String DEFAULT_PACKAGES =
+      "com.facebook.stetho.inspector.protocol.module," +
+      "com.facebook.stetho.inspector.jsonrpc.protocol";
+
+  private static final String CODEC_SUFFIX = "$$JsonCodec";
+  private static final String JSON_CODEC = "com.facebook.stetho.json.JsonCodec";
+  private static final String JSON_CODECS = "com.facebook.stetho.json.JsonCodecs";
+  private static final String JSON_WRITER = "com.facebook.stetho.json.JsonWriter";
+  private static final String JSON_OBJECT = "org.json.JSONObject";
+  private static final String JSON_ARRAY = "org.json.JSONArray";
+  private static final String JSON_EXCEPTION = "org.json.JSONException";
+
+  private final Set<String> mGenerated = new HashSet<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement jsonProperty = processingEnv.getElementUtils().getTypeElement(JSON_PROPERTY);
+    if (jsonProperty == null) {
+      return false;
+    }
+
+    Set<String> packages = getPackages();
+    Set<TypeElement> types = new LinkedHashSet<>();
+    for (Element element : roundEnv.getElementsAnnotatedWith(jsonProperty)) {
+      if (element.getKind() == ElementKind.FIELD) {
+        types.add((TypeElement) element.getEnclosingElement());
+      }
+    }
+
+    for (TypeElement type : types) {
+      String packageName = getPackage(type).getQualifiedName().toString();
+      if (!packages.contains(packageName)) {
+        continue;
+      }
+      String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+      if (!mGenerated.add(binaryName)) {
+        continue;
+      }
+      if (type.getKind() != ElementKind.CLASS ||
+          !type.getTypeParameters().isEmpty() ||
+          !isAccessible(type, packageName)) {
+        note(type, "no JSON codec generated, using reflection");
+        continue;
+      }
+      try {
+        generateCodec(type, packageName, binaryName);
+      } catch (IOException e) {
+        processingEnv.getMessager().printMessage(
+            Diagnostic.Kind.ERROR,
+            "Unable to write JSON codec: " + e,
+            type);
+      }
+    }
+    return false;
+  }
+
+  private Set<String> getPackages() {
+    String option = processingEnv.getOptions().get(OPTION_PACKAGES);
+    Set<String> packages = new HashSet<>();
+    for (String name : Arrays.asList((option != null ? option : DEFAULT_PACKAGES).split(","))) {
+      name = name.trim();
+      if (!name.isEmpty()) {
+        packages.add(name);
+      }
+    }
+    return packages;
+  }
+
+  private void generateCodec(TypeElement type, String packageName, String binaryName)
+      throws IOException {
+    String codecName = binaryName.substring(packageName.length() + 1) + CODEC_SUFFIX;
+    String typeName = type.getQualifiedName().toString();
+
+    // Same view of the fields as Class#getFields(): public, non-static and inherited.  A field in
+    // a subclass hides one of the same name in a super class.
+    Map<String, VariableElement> fields = new LinkedHashMap<>();
+    for (TypeElement current = type; current != null; current = getSuperclass(current)) {
+      for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+        Set<Modifier> modifiers = field.getModifiers();
+        String name = field.getSimpleName().toString();
+        if (modifiers.contains(Modifier.PUBLIC) &&
+            !modifiers.contains(Modifier.STATIC) &&
+            !fields.containsKey(name)) {
+          fields.put(name, field);
+        }
+      }
+    }
+
+    JavaFileObject file =
+        processingEnv.getFiler().createSourceFile(packageName + "." + codecName, type);
+    PrintWriter out = new PrintWriter(file.openWriter());
+    try {
+      out.println("// Generated by " + JsonCodecProcessor.class.getSimpleName() +
+          ", do not edit.");
+      out.println();
+      out.println("package " + packageName + ";");
+      out.println();
+      out.println("public final class " + codecName);
+      out.println("    implements " + JSON_CODEC + "<" + typeName + "> {");
+      writeWriteMethod(out, typeName, fields.values(), packageName);
+      out.println();
+      writeReadMethod(out, type, typeName, fields.values(), packageName);
+      out.println("}");
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeWriteMethod(
+      PrintWriter out,
+      String typeName,
+      Iterable<VariableElement> fields,
+      String packageName) {
+    out.println("  @Override");
+    out.println("  public void write(" + JSON_WRITER + " writer, " + typeName + " value) {");
+    out.println("    writer.beginObject();");
+    for (VariableElement field : fields) {
+      AnnotationMirror property = getAnnotation(field, JSON_PROPERTY);
+      if (property == null) {
+        continue;
+      }
+      String name = field.getSimpleName().toString();
+      String access = "value." + name;
+      TypeMirror fieldType = field.asType();
+      String nameCall = "writer.name(\"" + name + "\")";
+      if (fieldType.getKind().isPrimitive()) {
+        if (fieldType.getKind() == TypeKind.CHAR) {
+          out.println("    " + nameCall + ".value(String.valueOf(" + access + "));");
+        } else {
+          out.println("    " + nameCall + ".value(" + access + ");");
+        }
+        continue;
+      }
+      out.println("    if (" + access + " != null) {");
+      out.println("      " + nameCall + ";");
+      out.println("      " + getWriteValueStatement(fieldType, access, packageName));
+      if (isRequired(property)) {
+        out.println("    } else {");
+        out.println("      " + nameCall + ".nullValue();");
+      }
+      out.println("    }");
+    }
+    out.println("    writer.endObject();");
+    out.println("  }");
+  }
+
+  private String getWriteValueStatement(TypeMirror type, String access, String packageName) {
+    String typeName = getErasedName(type);
+    if ("java.lang.String".equals(typeName) ||
+        JSON_OBJECT.equals(typeName) ||
+        JSON_ARRAY.equals(typeName)) {
+      return "writer.value(" + access + ");";
+    } else if ("java.lang.Integer".equals(typeName) ||
+        "java.lang.Long".equals(typeName) ||
+        "java.lang.Short".equals(typeName) ||
+        "java.lang.Byte".equals(typeName)) {
+      return "writer.value(" + access + ".longValue());";
+    } else if ("java.lang.Double".equals(typeName)) {
+      return "writer.value(" + access + ".doubleValue());";
+    } else if ("java.lang.Float".equals(typeName)) {
+      return "writer.value(" + access + ".floatValue());";
+    } else if ("java.lang.Boolean".equals(typeName)) {
+      return "writer.value(" + access + ".booleanValue());";
+    }
+
+    TypeElement element = getTypeElement(type);
+    if (element != null &&
+        element.getKind() == ElementKind.ENUM &&
+        isAccessible(element, packageName)) {
+      ExecutableElement jsonValue = getJsonValueMethod(element);
+      if (jsonValue != null &&
+          "java.lang.String".equals(getErasedName(jsonValue.getReturnType()))) {
+        return "writer.value(" + access + "." + jsonValue.getSimpleName() + "());";
+      }
+    }
+
+    // Nested objects, lists and anything else are dispatched at runtime so that subclasses and
+    // classes without codecs behave exactly as they do with ObjectMapper.
+    return JSON_CODECS + ".writeValue(writer, " + access + ");";
+  }
+
+  private void writeReadMethod(
+      PrintWriter out,
+      TypeElement type,
+      String typeName,
+      Iterable<VariableElement> fields,
+      String packageName) {
+    List<String> statements = canInstantiate(type) ? new ArrayList<String>() : null;
+    for (VariableElement field : fields) {
+      if (statements == null) {
+        break;
+      }
+      if (field.getModifiers().contains(Modifier.FINAL)) {
+        continue;
+      }
+      String statement = getReadStatement(field, packageName);
+      if (statement == null) {
+        note(field, "unsupported field type, reading " + typeName + " with reflection");
+        statements = null;
+      } else {
+        statements.add(statement);
+      }
+    }
+
+    out.println("  @Override");
+    out.println("  @SuppressWarnings(\"unchecked\")");
+    out.println("  public " + typeName + " read(" + JSON_OBJECT + " jsonObject)");
+    out.println("      throws " + JSON_EXCEPTION + " {");
+    if (statements == null) {
+      out.println("    return " + JSON_CODECS + ".readReflectively(jsonObject, " + typeName +
+          ".class);");
+    } else {
+      out.println("    " + typeName + " instance = new " + typeName + "();");
+      if (!statements.isEmpty()) {
+        out.println("    Object value;");
+      }
+      for (String statement : statements) {
+        out.println(statement);
+      }
+      out.println("    return instance;");
+    }
+    out.println("  }");
+  }
+
+  /**
+   * @return Statements reading {@code field} from {@code jsonObject}, or null if the type isn't
+   *     supported.
+   */
+  private String getReadStatement(VariableElement field, String packageName) {
+    String name = field.getSimpleName().toString();
+    String target = "instance." + name;
+    String prefix = "    value = jsonObject.opt(\"" + name + "\");\n    ";
+    TypeMirror type = field.asType();
+
+    String primitiveReader = getPrimitiveReader(type.getKind());
+    if (primitiveReader != null) {
+      // Absent primitives keep their default value.
+      return prefix + "if (!" + JSON_CODECS + ".isNull(value)) {\n" +
+          "      " + target + " = " + JSON_CODECS + "." + primitiveReader + "(value);\n" +
+          "    }";
+    } else if (type.getKind().isPrimitive()) {
+      return null;
+    }
+
+    String typeName = getErasedName(type);
+    if (typeName == null) {
+      return null;
+    }
+    String boxedReader = getBoxedReader(typeName);
+    if (boxedReader != null) {
+      return prefix + target + " = " + JSON_CODECS + ".isNull(value) ? null : " +
+          typeName + ".valueOf(" + JSON_CODECS + "." + boxedReader + "(value));";
+    } else if ("java.lang.String".equals(typeName)) {
+      return prefix + target + " = " + JSON_CODECS + ".readString(value);";
+    } else if ("java.lang.Object".equals(typeName)) {
+      return prefix + target + " = " + JSON_CODECS + ".isNull(value) ? null : value;";
+    } else if ("java.util.List".equals(typeName)) {
+      String elementType = "java.lang.Object";
+      List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+      if (arguments.size() == 1) {
+        TypeMirror argument = arguments.get(0);
+        TypeElement argumentElement = getTypeElement(argument);
+        if (argumentElement != null && argumentElement.getTypeParameters().isEmpty()) {
+          if (!isAccessible(argumentElement, packageName)) {
+            return null;
+          }
+          elementType = argumentElement.getQualifiedName().toString();
+        }
+      }
+      return prefix + target + " = (java.util.List) " + JSON_CODECS + ".readList(value, " +
+          elementType + ".class);";
+    }
+
+    TypeElement element = getTypeElement(type);
+    if (element == null ||
+        !element.getTypeParameters().isEmpty() ||
+        !isAccessible(element, packageName)) {
+      return null;
+    }
+    if (element.getKind() == ElementKind.ENUM) {
+      return prefix + target + " = " + JSON_CODECS + ".readEnum(value, " + typeName + ".class);";
+    } else if (element.getKind() == ElementKind.CLASS) {
+      return prefix + target + " = " + JSON_CODECS + ".readValue(value, " + typeName + ".class);";
+    }
+    return null;
+  }
+
+  private static String getPrimitiveReader(TypeKind kind) {
+    switch (kind) {
+      case BOOLEAN:
+        return "readBoolean";
+      case BYTE:
+        return "readByte";
+      case SHORT:
+        return "readShort";
+      case INT:
+        return "readInt";
+      case LONG:
+        return "readLong";
+      case FLOAT:
+        return "readFloat";
+      case DOUBLE:
+        return "readDouble";
+      default:
+        return null;
+    }
+  }
+
+  private static String getBoxedReader(String typeName) {
+    switch (typeName) {
+      case "java.lang.Boolean":
+        return "readBoolean";
+      case "java.lang.Byte":
+        return "readByte";
+      case "java.lang.Short":
+        return "readShort";
+      case "java.lang.Integer":
+        return "readInt";
+      case "java.lang.Long":
+        return "readLong";
+      case "java.lang.Float":
+        return "readFloat";
+      case "java.lang.Double":
+        return "readDouble";
+      default:
+        return null;
+    }
+  }
+
+  private boolean canInstantiate(TypeElement type) {
+    if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+      return false;
+    }
+    if (type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC)) {
+      return false;
+    }
+    for (ExecutableElement constructor :
+        ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty()) {
+        return !constructor.getModifiers().contains(Modifier.PRIVATE);
+      }
+    }
+    return false;
+  }
+
+  private static ExecutableElement getJsonValueMethod(TypeElement type) {
+    for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+      if (getAnnotation(method, JSON_VALUE) != null &&
+          method.getModifiers().contains(Modifier.PUBLIC) &&
+          method.getParameters().isEmpty()) {
+        return method;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isRequired(AnnotationMirror property) {
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        property.getElementValues().entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals("required")) {
+        return Boolean.TRUE.equals(entry.getValue().getValue());
+      }
+    }
+    return false;
+  }
+
+  private static AnnotationMirror getAnnotation(Element element, String annotationName) {
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+      if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+        return mirror;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Generated code lives in the same package as {@code type} so anything that isn't private
+   * (and, outside of that package, anything that is public) may be referenced.
+   */
+  private static boolean isAccessible(TypeElement type, String packageName) {
+    boolean samePackage = getPackage(type).getQualifiedName().contentEquals(packageName);
+    for (Element element = type;
+        element.getKind() != ElementKind.PACKAGE;
+        element = element.getEnclosingElement()) {
+      Set<Modifier> modifiers = element.getModifiers();
+      if (modifiers.contains(Modifier.PRIVATE) ||
+          (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static PackageElement getPackage(Element element) {
+    while (element.getKind() != ElementKind.PACKAGE) {
+      element = element.getEnclosingElement();
+    }
+    return (PackageElement) element;
+  }
+
+  private static TypeElement getSuperclass(TypeElement type) {
+    TypeElement superclass = getTypeElement(type.getSuperclass());
+    if (superclass == null || superclass.getQualifiedName().contentEquals("java.lang.Object")) {
+      return null;
+    }
+    return superclass;
+  }
+
+  private static TypeElement getTypeElement(TypeMirror type) {
+    if (type.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    return (TypeElement) ((DeclaredType) type).asElement();
+  }
+
+  private static String getErasedName(TypeMirror type) {
+    TypeElement element = getTypeElement(type);
+    return element != null ? element.getQualifiedName().toString() : null;
+  }
+
+  private void note(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a {@code <BinaryName>$$MethodInvokers} class implementing
+ * {@code ChromeDevtoolsMethodInvoker.Provider} for each class declaring
+ * {@code @ChromeDevtoolsMethod} methods, so that {@code MethodDispatcher} can call them
+ * directly instead of through {@code Method#invoke}.
+ * <p>
+ * Methods that don't have the signature the dispatcher expects, or that aren't accessible from
+ * the same package, are left out and the dispatcher keeps invoking those reflectively (and
+ * reporting any problem with them at runtime as it always has).
+ */
+@SupportedAnnotationTypes(MethodInvokerProcessor.CHROME_DEVTOOLS_METHOD)
+public class MethodInvokerProcessor extends AbstractProcessor {
+  static final String CHROME_DEVTOOLS_METHOD =
+      "com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod";
+
+  private static final String PROVIDER_SUFFIX = "$$MethodInvokers";
+  private static final String METHOD_INVOKER =
+      "com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethodInvoker";
+  private static final String CHROME_DEVTOOLS_DOMAIN =
+      "com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain";
+  private static final String JSON_RPC_PEER = "com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer";
+  private static final String JSON_RPC_EXCEPTION =
+      "com.facebook.stetho.inspector.jsonrpc.JsonRpcException";
+  private static final String EXCEPTION_UTIL = "com.facebook.stetho.common.ExceptionUtil";
+  private static final String JSON_OBJECT = "org.json.JSONObject";
+
+  private final Set<String> mGenerated = new HashSet<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement annotation =
+        processingEnv.getElementUtils().getTypeElement(CHROME_DEVTOOLS_METHOD);
+    if (annotation == null ||
+        processingEnv.getElementUtils().getTypeElement(METHOD_INVOKER) == null) {
+      return false;
+    }
+
+    Map<TypeElement, List<ExecutableElement>> methodsByType = new LinkedHashMap<>();
+    for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+      if (element.getKind() != ElementKind.METHOD) {
+        continue;
+      }
+      TypeElement type = (TypeElement) element.getEnclosingElement();
+      List<ExecutableElement> methods = methodsByType.get(type);
+      if (methods == null) {
+        methods = new ArrayList<>();
+        methodsByType.put(type, methods);
+      }
+      methods.add((ExecutableElement) element);
+    }
+
+    for (Map.Entry<TypeElement, List<ExecutableElement>> entry : methodsByType.entrySet()) {
+      TypeElement type = entry.getKey();
+      String packageName = getPackage(type).getQualifiedName().toString();
+      String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+      if (!mGenerated.add(binaryName)) {
+        continue;
+      }
+      if (type.getKind() != ElementKind.CLASS ||
+          !type.getTypeParameters().isEmpty() ||
+          !isAccessible(type)) {
+        note(type, "no method invokers generated, using reflection");
+        continue;
+      }
+
+      // Keyed by name, which is all the dispatcher looks methods up by.  Overloads are left to
+      // reflection.
+      Map<String, ExecutableElement> methods = new LinkedHashMap<>();
+      Set<String> overloaded = new HashSet<>();
+      for (ExecutableElement method : entry.getValue()) {
+        String name = method.getSimpleName().toString();
+        if (methods.put(name, method) != null) {
+          overloaded.add(name);
+        }
+      }
+      methods.keySet().removeAll(overloaded);
+      for (ExecutableElement method : new ArrayList<>(methods.values())) {
+        if (!isInvokable(method)) {
+          note(method, "no method invoker generated, using reflection");
+          methods.remove(method.getSimpleName().toString());
+        }
+      }
+      if (methods.isEmpty()) {
+        continue;
+      }
+
+      try {
+        generateProvider(type, packageName, binaryName, methods.values());
+      } catch (IOException e) {
+        processingEnv.getMessager().printMessage(
+            Diagnostic.Kind.ERROR,
+            "Unable to write method invokers: " + e,
+            type);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Mirrors the checks in {@code MethodDispatcher#isDevtoolsMethod}, plus what the generated
+   * code itself needs.
+   */
+  private boolean isInvokable(ExecutableElement method) {
+    Set<Modifier> modifiers = method.getModifiers();
+    if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC)) {
+      return false;
+    }
+    if (!method.getTypeParameters().isEmpty()) {
+      return false;
+    }
+    List<? extends VariableElement> parameters = method.getParameters();
+    if (parameters.size() != 2 ||
+        !isType(parameters.get(0).asType(), JSON_RPC_PEER) ||
+        !isType(parameters.get(1).asType(), JSON_OBJECT)) {
+      return false;
+    }
+    return true;
+  }
+
+  private void generateProvider(
+      TypeElement type,
+      String packageName,
+      String binaryName,
+      Iterable<ExecutableElement> methods) throws IOException {
+    String providerName = binaryName.substring(packageName.length() + 1) + PROVIDER_SUFFIX;
+    String typeName = type.getQualifiedName().toString();
+
+    JavaFileObject file =
+        processingEnv.getFiler().createSourceFile(packageName + "." + providerName, type);
+    PrintWriter out = new PrintWriter(file.openWriter());
+    try {
+      out.println("// Generated by " + MethodInvokerProcessor.class.getSimpleName() +
+          ", do not edit.");
+      out.println();
+      out.println("package " + packageName + ";");
+      out.println();
+      out.println("public final class " + providerName);
+      out.println("    implements " + METHOD_INVOKER + ".Provider {");
+      out.println("  @Override");
+      out.println("  public " + METHOD_INVOKER + " get(String methodName) {");
+      out.println("    switch (methodName) {");
+      for (ExecutableElement method : methods) {
+        String name = method.getSimpleName().toString();
+        out.println("      case \"" + name + "\":");
+        out.println("        return new " + METHOD_INVOKER + "() {");
+        out.println("          @Override");
+        out.println("          public Object invoke(");
+        out.println("              " + CHROME_DEVTOOLS_DOMAIN + " domain,");
+        out.println("              " + JSON_RPC_PEER + " peer,");
+        out.println("              " + JSON_OBJECT + " params)");
+        out.println("              throws " + JSON_RPC_EXCEPTION + " {");
+        writeInvocation(out, method, "((" + typeName + ") domain)." + name + "(peer, params)");
+        out.println("          }");
+        out.println("        };");
+      }
+      out.println("      default:");
+      out.println("        return null;");
+      out.println("    }");
+      out.println("  }");
+      out.println("}");
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeInvocation(PrintWriter out, ExecutableElement method, String call) {
+    boolean returnsVoid = method.getReturnType().getKind() == TypeKind.VOID;
+    boolean wrapExceptions = throwsOtherCheckedExceptions(method);
+    String indent = "            ";
+    if (wrapExceptions) {
+      out.println(indent + "try {");
+      indent += "  ";
+    }
+    if (returnsVoid) {
+      out.println(indent + call + ";");
+      out.println(indent + "return null;");
+    } else {
+      out.println(indent + "return " + call + ";");
+    }
+    if (wrapExceptions) {
+      out.println("            } catch (Exception e) {");
+      out.println("              " + EXCEPTION_UTIL + ".propagateIfInstanceOf(e, " +
+          JSON_RPC_EXCEPTION + ".class);");
+      out.println("              throw " + EXCEPTION_UTIL + ".propagate(e);");
+      out.println("            }");
+    }
+  }
+
+  /**
+   * @return Whether {@code method} declares checked exceptions other than
+   *     {@code JsonRpcException}, which the generated {@code invoke} can't rethrow as they are.
+   */
+  private boolean throwsOtherCheckedExceptions(ExecutableElement method) {
+    Types types = processingEnv.getTypeUtils();
+    TypeMirror jsonRpcException =
+        processingEnv.getElementUtils().getTypeElement(JSON_RPC_EXCEPTION).asType();
+    TypeMirror runtimeException =
+        processingEnv.getElementUtils().getTypeElement("java.lang.RuntimeException").asType();
+    TypeMirror error = processingEnv.getElementUtils().getTypeElement("java.lang.Error").asType();
+    for (TypeMirror thrown : method.getThrownTypes()) {
+      if (!types.isAssignable(thrown, jsonRpcException) &&
+          !types.isAssignable(thrown, runtimeException) &&
+          !types.isAssignable(thrown, error)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isType(TypeMirror type, String qualifiedName) {
+    TypeElement element = processingEnv.getElementUtils().getTypeElement(qualifiedName);
+    return element != null && processingEnv.getTypeUtils().isSameType(type, element.asType());
+  }
+
+  /**
+   * Generated code lives in the same package as {@code type}, so anything on the way to it that
+   * isn't private may be referenced.
+   */
+  private static boolean isAccessible(TypeElement type) {
+    for (Element element = type;
+        element.getKind() != ElementKind.PACKAGE;
+        element = element.getEnclosingElement()) {
+      if (element.getModifiers().contains(Modifier.PRIVATE)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static PackageElement getPackage(Element element) {
+    while (element.getKind() != ElementKind.PACKAGE) {
+      element = element.getEnclosingElement();
+    }
+    return (PackageElement) element;
+  }
+
+  private void note(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+  }
+}
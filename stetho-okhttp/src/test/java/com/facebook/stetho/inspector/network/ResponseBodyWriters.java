@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+/**
+ * Reaches into {@link ResponseBodyWriter} for tests outside of its package.
+ */
+public final class ResponseBodyWriters {
+  private ResponseBodyWriters() {
+  }
+
+  /**
+   * Wait until the shared writer has recorded and reported everything read so far.
+   */
+  public static void awaitIdle() throws InterruptedException {
+    ResponseBodyWriter.get().awaitIdle();
+  }
+}
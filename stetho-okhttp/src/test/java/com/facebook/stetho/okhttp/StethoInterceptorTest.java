@@ -12,6 +12,7 @@ import android.os.Build;
 import com.facebook.stetho.inspector.network.DecompressionHelper;
 import com.facebook.stetho.inspector.network.NetworkEventReporter;
 import com.facebook.stetho.inspector.network.NetworkEventReporterImpl;
+import com.facebook.stetho.inspector.network.ResponseBodyWriters;
 import com.facebook.stetho.inspector.network.ResponseHandler;
 import com.squareup.okhttp.Connection;
 import com.squareup.okhttp.Interceptor;
@@ -78,7 +79,7 @@ public class StethoInterceptorTest {
   }
 
   @Test
-  public void testHappyPath() throws IOException {
+  public void testHappyPath() throws IOException, InterruptedException {
     InOrder inOrder = Mockito.inOrder(mMockEventReporter);
     hookAlmostRealRequestWillBeSent(mMockEventReporter);
     ByteArrayOutputStream capturedOutput =
@@ -115,6 +116,8 @@ public class StethoInterceptorTest {
         .responseHeadersReceived(any(NetworkEventReporter.InspectorResponse.class));
 
     String filteredResponseString = filteredResponse.body().string();
+    // The body is copied and reported on the writer thread once the stream is closed.
+    ResponseBodyWriters.awaitIdle();
     String interceptedOutput = capturedOutput.toString();
 
     inOrder.verify(mMockEventReporter).dataReceived(anyString(), anyInt(), anyInt());
@@ -166,7 +169,7 @@ public class StethoInterceptorTest {
   }
 
   @Test
-  public void testWithResponseCompression() throws IOException {
+  public void testWithResponseCompression() throws IOException, InterruptedException {
     ByteArrayOutputStream capturedOutput = hookAlmostRealInterpretResponseStream(mMockEventReporter);
 
     byte[] uncompressedData = repeat(".", 1024).getBytes();
@@ -185,6 +188,7 @@ public class StethoInterceptorTest {
 
     // Verify that the final output and the caller both saw the uncompressed stream.
     assertArrayEquals(uncompressedData, response.body().bytes());
+    ResponseBodyWriters.awaitIdle();
     assertArrayEquals(uncompressedData, capturedOutput.toByteArray());
 
     // And verify that the StethoInterceptor was able to see both.
@@ -1,2 +1,3 @@
 -keep class com.facebook.stetho.** { *; }
 -dontwarn com.facebook.stetho.**
+-dontwarn org.brotli.dec.**
@@ -21,6 +21,7 @@ import com.facebook.stetho.dumpapp.plugins.CrashDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.FilesDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.HprofDumperPlugin;
 import com.facebook.stetho.dumpapp.plugins.SharedPreferencesDumperPlugin;
+import com.facebook.stetho.dumpapp.plugins.TelemetryDumperPlugin;
 import com.facebook.stetho.inspector.DevtoolsSocketHandler;
 import com.facebook.stetho.inspector.console.RuntimeReplFactory;
 import com.facebook.stetho.inspector.database.ContentProviderDatabaseDriver;
@@ -50,6 +51,7 @@ import com.facebook.stetho.inspector.protocol.module.Network;
 import com.facebook.stetho.inspector.protocol.module.Page;
 import com.facebook.stetho.inspector.protocol.module.Profiler;
 import com.facebook.stetho.inspector.protocol.module.Runtime;
+import com.facebook.stetho.inspector.protocol.module.Telemetry;
 import com.facebook.stetho.inspector.protocol.module.Worker;
 import com.facebook.stetho.inspector.runtime.RhinoDetectingRuntimeReplFactory;
 import com.facebook.stetho.server.AddressNameHelper;
@@ -223,6 +225,7 @@ public class Stetho {
       provideIfDesired(new SharedPreferencesDumperPlugin(mContext));
       provideIfDesired(new CrashDumperPlugin());
       provideIfDesired(new FilesDumperPlugin(mContext));
+      provideIfDesired(new TelemetryDumperPlugin());
       return mDelegate.finish();
     }
   }
@@ -385,6 +388,8 @@ public class Stetho {
               mRuntimeRepl != null ?
               mRuntimeRepl :
               new RhinoDetectingRuntimeReplFactory(mContext)));
+      provideIfDesired(new com.facebook.stetho.inspector.protocol.module.Stetho());
+      provideIfDesired(new Telemetry());
       provideIfDesired(new Worker());
       if (Build.VERSION.SDK_INT >= DatabaseConstants.MIN_API_LEVEL) {
         Database database = new Database();
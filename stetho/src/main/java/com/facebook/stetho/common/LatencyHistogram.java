@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.common;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed bucket histogram of durations which can be recorded from any thread without locking.
+ * Buckets are coarse (roughly 1-2.5-5 steps from 50us to 1s) since the point is to spot
+ * outliers, not to measure precisely; the exact total and maximum are kept alongside.
+ * <p>
+ * Readers see each counter individually up to date but not necessarily consistent with one
+ * another while recording is in progress.
+ */
+@ThreadSafe
+public final class LatencyHistogram {
+  private static final long[] BUCKET_UPPER_BOUNDS_NANOS = new long[] {
+      TimeUnit.MICROSECONDS.toNanos(50),
+      TimeUnit.MICROSECONDS.toNanos(100),
+      TimeUnit.MICROSECONDS.toNanos(250),
+      TimeUnit.MICROSECONDS.toNanos(500),
+      TimeUnit.MILLISECONDS.toNanos(1),
+      TimeUnit.MICROSECONDS.toNanos(2500),
+      TimeUnit.MILLISECONDS.toNanos(5),
+      TimeUnit.MILLISECONDS.toNanos(10),
+      TimeUnit.MILLISECONDS.toNanos(25),
+      TimeUnit.MILLISECONDS.toNanos(50),
+      TimeUnit.MILLISECONDS.toNanos(100),
+      TimeUnit.MILLISECONDS.toNanos(250),
+      TimeUnit.MILLISECONDS.toNanos(500),
+      TimeUnit.SECONDS.toNanos(1),
+      Long.MAX_VALUE,
+  };
+
+  private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_UPPER_BOUNDS_NANOS.length);
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mTotalNanos = new AtomicLong();
+  private final AtomicLong mMaxNanos = new AtomicLong();
+
+  public static int getBucketCount() {
+    return BUCKET_UPPER_BOUNDS_NANOS.length;
+  }
+
+  /**
+   * @return Inclusive upper bound of the bucket, {@link Long#MAX_VALUE} for the last one.
+   */
+  public static long getBucketUpperBoundNanos(int bucket) {
+    return BUCKET_UPPER_BOUNDS_NANOS[bucket];
+  }
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    mBuckets.incrementAndGet(findBucket(nanos));
+    mCount.incrementAndGet();
+    mTotalNanos.addAndGet(nanos);
+    long max;
+    do {
+      max = mMaxNanos.get();
+    } while (nanos > max && !mMaxNanos.compareAndSet(max, nanos));
+  }
+
+  public long getCount() {
+    return mCount.get();
+  }
+
+  public long getBucketValue(int bucket) {
+    return mBuckets.get(bucket);
+  }
+
+  public long getTotalNanos() {
+    return mTotalNanos.get();
+  }
+
+  public long getMaxNanos() {
+    return mMaxNanos.get();
+  }
+
+  public long getMeanNanos() {
+    long count = mCount.get();
+    return count > 0 ? mTotalNanos.get() / count : 0;
+  }
+
+  /**
+   * Estimate a percentile as the upper bound of the bucket it falls in, capped at the maximum
+   * seen so that the open ended last bucket still gives a useful answer.
+   *
+   * @param percentile Between 0 and 100.
+   * @return The estimate, or 0 if nothing has been recorded.
+   */
+  public long getPercentileNanos(double percentile) {
+    Util.throwIfNot(percentile >= 0 && percentile <= 100, "percentile=%s", percentile);
+    long total = 0;
+    long[] values = new long[BUCKET_UPPER_BOUNDS_NANOS.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = mBuckets.get(i);
+      total += values[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < values.length; i++) {
+      seen += values[i];
+      if (seen >= rank) {
+        return Math.min(BUCKET_UPPER_BOUNDS_NANOS[i], mMaxNanos.get());
+      }
+    }
+    return mMaxNanos.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKET_UPPER_BOUNDS_NANOS.length; i++) {
+      mBuckets.set(i, 0);
+    }
+    mCount.set(0);
+    mTotalNanos.set(0);
+    mMaxNanos.set(0);
+  }
+
+  private static int findBucket(long nanos) {
+    int last = BUCKET_UPPER_BOUNDS_NANOS.length - 1;
+    for (int i = 0; i < last; i++) {
+      if (nanos <= BUCKET_UPPER_BOUNDS_NANOS[i]) {
+        return i;
+      }
+    }
+    return last;
+  }
+}
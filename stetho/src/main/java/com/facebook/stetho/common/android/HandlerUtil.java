@@ -11,6 +11,7 @@ import android.os.Handler;
 import android.os.Looper;
 import com.facebook.stetho.common.UncheckedCallable;
 import com.facebook.stetho.common.Util;
+import com.facebook.stetho.telemetry.StethoTelemetry;
 
 public final class HandlerUtil {
   private HandlerUtil() {
@@ -120,11 +121,13 @@ public final class HandlerUtil {
     protected abstract V onRun();
 
     public V invoke(Handler handler) {
+      long startNanos = System.nanoTime();
       if (!handler.post(this)) {
         throw new RuntimeException("Handler.post() returned false");
       }
 
       join();
+      StethoTelemetry.get().getPostAndWaitTime().record(System.nanoTime() - startNanos);
 
       if (mException != null) {
         throw new RuntimeException(mException);
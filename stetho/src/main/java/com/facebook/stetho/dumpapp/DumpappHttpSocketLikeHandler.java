@@ -71,7 +71,7 @@ public class DumpappHttpSocketLikeHandler implements SocketLikeHandler {
       boolean getMethod = !postMethod && "GET".equals(request.method);
 
       if (getMethod || postMethod) {
-        List<String> argv = request.uri.getQueryParameters(QUERY_PARAM_ARGV);
+        List<String> argv = request.getUri().getQueryParameters(QUERY_PARAM_ARGV);
 
         ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
         Framer framer = new Framer(
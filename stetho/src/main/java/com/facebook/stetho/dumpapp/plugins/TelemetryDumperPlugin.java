@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.dumpapp.plugins;
+
+import com.facebook.stetho.common.LatencyHistogram;
+import com.facebook.stetho.dumpapp.ArgsHelper;
+import com.facebook.stetho.dumpapp.DumpUsageException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+import com.facebook.stetho.inspector.MethodCallStats;
+import com.facebook.stetho.telemetry.StethoTelemetry;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prints the counters kept by {@link StethoTelemetry} and {@link MethodCallStats}, which is
+ * also what the {@code Telemetry} and {@code Stetho} inspector domains report.
+ */
+public class TelemetryDumperPlugin implements DumperPlugin {
+  private static final String NAME = "telemetry";
+
+  private static final int DEFAULT_METHOD_LIMIT = 10;
+
+  public TelemetryDumperPlugin() {
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public void dump(DumperContext dumpContext) throws DumpUsageException {
+    PrintStream out = dumpContext.getStdout();
+    Iterator<String> argsIter = dumpContext.getArgsAsList().iterator();
+
+    String command = ArgsHelper.nextOptionalArg(argsIter, "print");
+    if ("print".equals(command)) {
+      doPrint(out, parseLimit(ArgsHelper.nextOptionalArg(argsIter, null)));
+    } else if ("reset".equals(command)) {
+      StethoTelemetry.get().reset();
+      MethodCallStats.resetAll();
+    } else {
+      doUsage(out);
+      throw new DumpUsageException("Unsupported command: " + command);
+    }
+  }
+
+  private static int parseLimit(String limit) throws DumpUsageException {
+    if (limit == null) {
+      return DEFAULT_METHOD_LIMIT;
+    }
+    try {
+      return Integer.parseInt(limit);
+    } catch (NumberFormatException e) {
+      throw new DumpUsageException("Expected a number of methods, got: " + limit);
+    }
+  }
+
+  private void doUsage(PrintStream out) {
+    final String cmdName = "dumpapp " + NAME;
+    out.println("Usage: " + cmdName + " [print [<methods>]]");
+    out.println("       " + cmdName + " reset");
+    out.println();
+    out.println(cmdName + " print: Show protocol traffic and timings (the default)");
+    out.println("    <methods>: How many of the most expensive protocol methods to list " +
+        "(default: " + DEFAULT_METHOD_LIMIT + ")");
+    out.println();
+    out.println(cmdName + " reset: Clear all counters");
+  }
+
+  private void doPrint(PrintStream out, int methodLimit) {
+    StethoTelemetry telemetry = StethoTelemetry.get();
+
+    out.println("Messages (in / out):");
+    List<StethoTelemetry.DomainMessageCounts> messageCounts = telemetry.getMessageCounts();
+    Collections.sort(messageCounts, new Comparator<StethoTelemetry.DomainMessageCounts>() {
+      @Override
+      public int compare(
+          StethoTelemetry.DomainMessageCounts lhs,
+          StethoTelemetry.DomainMessageCounts rhs) {
+        return lhs.getDomain().compareTo(rhs.getDomain());
+      }
+    });
+    for (StethoTelemetry.DomainMessageCounts counts : messageCounts) {
+      out.println(String.format(Locale.US, "  %-20s %8d / %d",
+          counts.getDomain(),
+          counts.getMessagesIn(),
+          counts.getMessagesOut()));
+    }
+    out.println();
+
+    out.println("Timings (count, mean / p50 / p99 / max ms):");
+    printTiming(out, "ObjectMapper", telemetry.getSerializationTime());
+    printTiming(out, "WebSocket write", telemetry.getWebSocketWriteLatency());
+    printTiming(out, "postAndWait", telemetry.getPostAndWaitTime());
+    printTiming(out, "Document.updateTree", telemetry.getDocumentUpdateTime());
+    out.println();
+
+    out.println(String.format(Locale.US,
+        "WebSocket queue: %d frames, %d bytes (peak %d bytes)",
+        telemetry.getWebSocketQueuedFrames(),
+        telemetry.getWebSocketQueuedBytes(),
+        telemetry.getPeakWebSocketQueuedBytes()));
+    out.println();
+
+    out.println("Most expensive methods (count, errors, total / mean / p99 / max ms):");
+    List<MethodCallStats> methods = MethodCallStats.getCalledMethods();
+    Collections.sort(methods, new Comparator<MethodCallStats>() {
+      @Override
+      public int compare(MethodCallStats lhs, MethodCallStats rhs) {
+        long lhsTotal = lhs.getLatency().getTotalNanos();
+        long rhsTotal = rhs.getLatency().getTotalNanos();
+        return lhsTotal < rhsTotal ? 1 : (lhsTotal == rhsTotal ? 0 : -1);
+      }
+    });
+    for (int i = 0, N = Math.min(methodLimit, methods.size()); i < N; i++) {
+      MethodCallStats stats = methods.get(i);
+      LatencyHistogram latency = stats.getLatency();
+      out.println(String.format(Locale.US, "  %-40s %8d %6d  %.1f / %.2f / %.2f / %.2f",
+          stats.getMethodName(),
+          latency.getCount(),
+          stats.getErrorCount(),
+          toMillis(latency.getTotalNanos()),
+          toMillis(latency.getMeanNanos()),
+          toMillis(latency.getPercentileNanos(99)),
+          toMillis(latency.getMaxNanos())));
+    }
+  }
+
+  private static void printTiming(PrintStream out, String name, LatencyHistogram histogram) {
+    out.println(String.format(Locale.US, "  %-20s %8d  %.2f / %.2f / %.2f / %.2f",
+        name,
+        histogram.getCount(),
+        toMillis(histogram.getMeanNanos()),
+        toMillis(histogram.getPercentileNanos(50)),
+        toMillis(histogram.getPercentileNanos(99)),
+        toMillis(histogram.getMaxNanos())));
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1000000.0;
+  }
+}
@@ -7,7 +7,10 @@
 
 package com.facebook.stetho.inspector;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -16,17 +19,25 @@ import android.util.Log;
 
 import com.facebook.stetho.common.LogRedirector;
 import com.facebook.stetho.common.Util;
+import com.facebook.stetho.inspector.jsonrpc.DeferredResult;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.PendingRequest;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.StreamingJsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.protocol.EmptyResult;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
-import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcResponse;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.json.JsonReader;
+import com.facebook.stetho.json.JsonWriter;
+import com.facebook.stetho.json.LazyJsonObject;
 import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.telemetry.StethoTelemetry;
 import com.facebook.stetho.websocket.CloseCodes;
 import com.facebook.stetho.websocket.SimpleEndpoint;
 import com.facebook.stetho.websocket.SimpleSession;
+import com.facebook.stetho.websocket.StreamingMessage;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -103,51 +114,174 @@ public class ChromeDevtoolsServer implements SimpleEndpoint {
 
   private void handleRemoteMessage(JsonRpcPeer peer, String message)
       throws IOException, MessageHandlingException, JSONException {
-    // Parse as a generic JSONObject first since we don't know if this is a request or response.
-    JSONObject messageNode = new JSONObject(message);
-    if (messageNode.has("method")) {
-      handleRemoteRequest(peer, messageNode);
-    } else if (messageNode.has("result")) {
-      handleRemoteResponse(peer, messageNode);
+    // Only scan the top level of the message since we don't know yet if this is a request or a
+    // response.  The params of a request are captured unparsed and left to the dispatcher.
+    JsonReader reader = new JsonReader(message);
+    Long id = null;
+    String method = null;
+    LazyJsonObject params = null;
+    boolean hasResult = false;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("id".equals(name) && reader.peek() != JsonReader.Token.NULL) {
+        id = reader.nextLong();
+      } else if ("method".equals(name)) {
+        method = reader.nextString();
+      } else if ("params".equals(name)) {
+        params = reader.nextLazyJsonObject();
+      } else {
+        hasResult |= "result".equals(name);
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    StethoTelemetry.get().recordMessageIn(method);
+
+    if (method != null) {
+      handleRemoteRequest(peer, id, method, params);
+    } else if (hasResult) {
+      handleRemoteResponse(peer, new JSONObject(message));
     } else {
       throw new MessageHandlingException("Improper JSON-RPC message: " + message);
     }
   }
 
-  private void handleRemoteRequest(JsonRpcPeer peer, JSONObject requestNode)
-      throws MessageHandlingException {
-    JsonRpcRequest request;
-    request = mObjectMapper.convertValue(
-        requestNode,
-        JsonRpcRequest.class);
+  private void handleRemoteRequest(
+      final JsonRpcPeer peer,
+      @Nullable final Long id,
+      final String method,
+      @Nullable LazyJsonObject params) {
+    // Slow methods may complete later on another thread so that they don't stall the rest of
+    // this peer's requests; the response is sent from whichever thread completes the result.
+    mMethodDispatcher.dispatchAsync(peer, method, params).addListener(
+        new DeferredResult.Listener<JsonRpcResult>() {
+          @Override
+          public void onResult(@Nullable JsonRpcResult result) {
+            sendResponse(peer, id, method, result, null /* error */);
+          }
 
-    JSONObject result = null;
-    JSONObject error = null;
-    try {
-      result = mMethodDispatcher.dispatch(peer,
-          request.method,
-          request.params);
-    } catch (JsonRpcException e) {
-      logDispatchException(e);
-      error = mObjectMapper.convertValue(e.getErrorMessage(), JSONObject.class);
-    }
-    if (request.id != null) {
-      JsonRpcResponse response = new JsonRpcResponse();
-      response.id = request.id;
-      response.result = result;
-      response.error = error;
-      JSONObject jsonObject = mObjectMapper.convertValue(response, JSONObject.class);
-      String responseString;
-      try {
-        responseString = jsonObject.toString();
-      } catch (OutOfMemoryError e) {
-        // JSONStringer can cause an OOM when the Json to handle is too big.
-        response.result = null;
-        response.error = mObjectMapper.convertValue(e.getMessage(), JSONObject.class);
-        jsonObject = mObjectMapper.convertValue(response, JSONObject.class);
-        responseString = jsonObject.toString();
+          @Override
+          public void onException(JsonRpcException e) {
+            logDispatchException(e);
+            sendResponse(peer, id, method, null /* result */, e.getErrorMessage());
+          }
+        });
+  }
+
+  private void sendResponse(
+      JsonRpcPeer peer,
+      @Nullable Long id,
+      String method,
+      @Nullable JsonRpcResult result,
+      @Nullable JsonRpcError error) {
+    if (result instanceof StreamingJsonRpcResult) {
+      StreamingJsonRpcResult streamingResult = (StreamingJsonRpcResult) result;
+      if (id == null) {
+        closeQuietly(streamingResult);
+        return;
       }
-      peer.getWebSocket().sendText(responseString);
+      peer.getWebSocket().sendText(new StreamingResponse(id, streamingResult));
+      StethoTelemetry.get().recordMessageOut(method);
+      return;
+    }
+    if (id == null) {
+      return;
+    }
+    // Stream the response straight into the UTF-8 buffer that is handed to the WebSocket so
+    // that a large result never exists as a JSONObject tree and a String at the same time.
+    JsonWriter writer;
+    try {
+      writer = new JsonWriter();
+      writeResponse(writer, id, result, error);
+    } catch (OutOfMemoryError e) {
+      // Very large results (such as a huge DOM or SQL result set) can still exhaust the heap.
+      writer = new JsonWriter();
+      writeResponse(
+          writer,
+          id,
+          null /* result */,
+          new JsonRpcError(
+              JsonRpcError.ErrorCode.INTERNAL_ERROR,
+              String.valueOf(e.getMessage()),
+              null /* data */));
+    }
+    peer.getWebSocket().sendText(writer.getBuffer(), writer.size());
+    StethoTelemetry.get().recordMessageOut(method);
+  }
+
+  /**
+   * Writes the equivalent of a {@link JsonRpcResponse}.
+   */
+  private void writeResponse(
+      JsonWriter writer,
+      long id,
+      @Nullable JsonRpcResult result,
+      @Nullable JsonRpcError error) {
+    writer.beginObject();
+    writer.name("id").value(id);
+    if (error != null) {
+      writer.name("error");
+      mObjectMapper.writeValue(writer, error);
+    } else if (result == null || result instanceof EmptyResult) {
+      writer.name("result").beginObject().endObject();
+    } else {
+      writer.name("result");
+      mObjectMapper.writeValue(writer, result);
+    }
+    writer.endObject();
+  }
+
+  private static void closeQuietly(StreamingJsonRpcResult result) {
+    try {
+      result.close();
+    } catch (IOException e) {
+      LogRedirector.w(TAG, "Error closing streaming result", e);
+    }
+  }
+
+  /**
+   * The equivalent of a {@link JsonRpcResponse} whose result is copied straight into the
+   * WebSocket frames rather than built up front.  If the result fails before any of it has
+   * been sent, an {@code INTERNAL_ERROR} response goes out in its place.
+   */
+  private class StreamingResponse implements StreamingMessage {
+    private final long mId;
+    private final StreamingJsonRpcResult mResult;
+
+    public StreamingResponse(long id, StreamingJsonRpcResult result) {
+      mId = id;
+      mResult = result;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      JsonWriter prefix = new JsonWriter();
+      prefix.beginObject();
+      prefix.name("id").value(mId);
+      prefix.name("result");
+      prefix.writeTo(out);
+      mResult.writeTo(out);
+      out.write('}');
+    }
+
+    @Override
+    public void writeFailureTo(OutputStream out, IOException error) throws IOException {
+      JsonWriter writer = new JsonWriter();
+      writeResponse(
+          writer,
+          mId,
+          null /* result */,
+          new JsonRpcError(
+              JsonRpcError.ErrorCode.INTERNAL_ERROR,
+              String.valueOf(error.getMessage()),
+              null /* data */));
+      writer.writeTo(out);
+    }
+
+    @Override
+    public void close() throws IOException {
+      mResult.close();
     }
   }
 
@@ -12,6 +12,7 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import com.facebook.stetho.common.ProcessUtil;
+import com.facebook.stetho.common.Utf8Charset;
 import com.facebook.stetho.server.http.ExactPathMatcher;
 import com.facebook.stetho.server.http.HandlerRegistry;
 import com.facebook.stetho.server.http.HttpHandler;
@@ -20,6 +21,7 @@ import com.facebook.stetho.server.SocketLike;
 import com.facebook.stetho.server.http.LightHttpBody;
 import com.facebook.stetho.server.http.LightHttpRequest;
 import com.facebook.stetho.server.http.LightHttpResponse;
+import com.facebook.stetho.server.http.PreEncodedHttpResponse;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -52,11 +54,23 @@ public class ChromeDiscoveryHandler implements HttpHandler {
    */
   private static final String PROTOCOL_VERSION = "1.1";
 
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
   private final Context mContext;
   private final String mInspectorPath;
 
-  @Nullable private LightHttpBody mVersionResponse;
-  @Nullable private LightHttpBody mPageListResponse;
+  // Chrome polls these endlessly while chrome://inspect is open, so they're fully encoded
+  // (headers and all) once and written out as-is thereafter.
+  @Nullable private PreEncodedHttpResponse mVersionResponse;
+  @Nullable private PreEncodedHttpResponse mPageListResponse;
+  @Nullable private PreEncodedHttpResponse mActivateResponse;
+
+  /**
+   * Title that {@link #mPageListResponse} was encoded with.
+   */
+  @Nullable private String mPageListTitle;
+
+  @Nullable private CharSequence mAppLabel;
 
   public ChromeDiscoveryHandler(Context context, String inspectorPath) {
     mContext = context;
@@ -71,7 +85,7 @@ public class ChromeDiscoveryHandler implements HttpHandler {
 
   @Override
   public boolean handleRequest(SocketLike socket, LightHttpRequest request, LightHttpResponse response) {
-    String path = request.uri.getPath();
+    String path = request.path;
     try {
       if (PATH_VERSION.equals(path)) {
         handleVersion(response);
@@ -92,7 +106,7 @@ public class ChromeDiscoveryHandler implements HttpHandler {
     return true;
   }
 
-  private void handleVersion(LightHttpResponse response)
+  private synchronized void handleVersion(LightHttpResponse response)
       throws JSONException {
     if (mVersionResponse == null) {
       JSONObject reply = new JSONObject();
@@ -100,42 +114,49 @@ public class ChromeDiscoveryHandler implements HttpHandler {
       reply.put("User-Agent", USER_AGENT);
       reply.put("Protocol-Version", PROTOCOL_VERSION);
       reply.put("Browser", getAppLabelAndVersion());
-      reply.put("Android-Package", mContext.getPackageName());
-      mVersionResponse = LightHttpBody.create(reply.toString(), "application/json");
+      reply.put("Android-Package", getPackageName());
+      mVersionResponse = createSuccessfulResponse(
+          LightHttpBody.create(reply.toString(), "application/json"));
     }
-    setSuccessfulResponse(response, mVersionResponse);
+    response.preEncoded = mVersionResponse;
   }
 
-  private void handlePageList(LightHttpResponse response)
+  private synchronized void handlePageList(LightHttpResponse response)
       throws JSONException {
-    if (mPageListResponse == null) {
+    String title = getPageTitle();
+    if (mPageListResponse == null || !title.equals(mPageListTitle)) {
       JSONArray reply = new JSONArray();
       JSONObject page = new JSONObject();
       page.put("type", "app");
-      page.put("title", makeTitle());
+      page.put("title", title);
       page.put("id", PAGE_ID);
       page.put("description", "");
 
       page.put("webSocketDebuggerUrl", "ws://" + mInspectorPath);
-      Uri chromeFrontendUrl = new Uri.Builder()
-          .scheme("http")
-          .authority("chrome-devtools-frontend.appspot.com")
-          .appendEncodedPath("serve_rev")
-          .appendEncodedPath(WEBKIT_REV)
-          .appendEncodedPath("devtools.html")
-          .appendQueryParameter("ws", mInspectorPath)
-          .build();
-      page.put("devtoolsFrontendUrl", chromeFrontendUrl.toString());
+      String chromeFrontendUrl =
+          "http://chrome-devtools-frontend.appspot.com/serve_rev/" + WEBKIT_REV +
+          "/devtools.html?ws=" + encodeQueryParameter(mInspectorPath);
+      page.put("devtoolsFrontendUrl", chromeFrontendUrl);
 
       reply.put(page);
-      mPageListResponse = LightHttpBody.create(reply.toString(), "application/json");
+      mPageListResponse = createSuccessfulResponse(
+          LightHttpBody.create(reply.toString(), "application/json"));
+      mPageListTitle = title;
     }
-    setSuccessfulResponse(response, mPageListResponse);
+    response.preEncoded = mPageListResponse;
   }
 
-  private String makeTitle() {
+  /**
+   * Title of the page shown by {@code chrome://inspect}.  Checked on every poll of the page
+   * list, which is re-encoded only when this changes, so it should be cheap to compute.
+   */
+  protected String getPageTitle() {
+    if (mAppLabel == null) {
+      mAppLabel = getAppLabel();
+    }
+
     StringBuilder b = new StringBuilder();
-    b.append(getAppLabel());
+    b.append(mAppLabel);
 
     b.append(" (powered by Stetho)");
 
@@ -149,37 +170,65 @@ public class ChromeDiscoveryHandler implements HttpHandler {
     return b.toString();
   }
 
-  private void handleActivate(LightHttpResponse response) {
-    // Arbitrary response seem acceptable :)
-    setSuccessfulResponse(
-        response,
-        LightHttpBody.create("Target activation ignored\n", "text/plain"));
+  private synchronized void handleActivate(LightHttpResponse response) {
+    if (mActivateResponse == null) {
+      // Arbitrary response seem acceptable :)
+      mActivateResponse = createSuccessfulResponse(
+          LightHttpBody.create("Target activation ignored\n", "text/plain"));
+    }
+    response.preEncoded = mActivateResponse;
   }
 
-  private static void setSuccessfulResponse(
-      LightHttpResponse response,
-      LightHttpBody body) {
-    response.code = HttpStatus.HTTP_OK;
-    response.reasonPhrase = "OK";
-    response.body = body;
+  private static PreEncodedHttpResponse createSuccessfulResponse(LightHttpBody body) {
+    return PreEncodedHttpResponse.create(HttpStatus.HTTP_OK, "OK", body);
   }
 
   private String getAppLabelAndVersion() {
-    StringBuilder b = new StringBuilder();
-    PackageManager pm = mContext.getPackageManager();
-    b.append(getAppLabel());
-    b.append('/');
-    try {
-      PackageInfo info = pm.getPackageInfo(mContext.getPackageName(), 0 /* flags */);
-      b.append(info.versionName);
-    } catch (PackageManager.NameNotFoundException e) {
-      throw new RuntimeException(e);
+    return getAppLabel() + "/" + getAppVersionName();
+  }
+
+  /**
+   * Same encoding as {@link Uri#encode(String)}, which we avoid so that this class doesn't need
+   * the Android framework for anything but the {@link Context} lookups below.
+   */
+  private static String encodeQueryParameter(String value) {
+    StringBuilder b = new StringBuilder(value.length());
+    byte[] bytes = value.getBytes(Utf8Charset.INSTANCE);
+    for (byte v : bytes) {
+      char c = (char) (v & 0xff);
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+          "_-!.~'()*".indexOf(c) >= 0) {
+        b.append(c);
+      } else {
+        b.append('%');
+        b.append(HEX_DIGITS[c >> 4]);
+        b.append(HEX_DIGITS[c & 0xf]);
+      }
     }
     return b.toString();
   }
 
-  private CharSequence getAppLabel() {
+  /**
+   * Package name reported to Chrome.  Along with {@link #getAppLabel()} and
+   * {@link #getAppVersionName()} this is only consulted when a response is first built, and
+   * may be overridden to run without a real {@link Context}, as the discovery benchmark does.
+   */
+  protected String getPackageName() {
+    return mContext.getPackageName();
+  }
+
+  protected CharSequence getAppLabel() {
     PackageManager pm = mContext.getPackageManager();
     return pm.getApplicationLabel(mContext.getApplicationInfo());
   }
+
+  protected String getAppVersionName() {
+    PackageManager pm = mContext.getPackageManager();
+    try {
+      PackageInfo info = pm.getPackageInfo(mContext.getPackageName(), 0 /* flags */);
+      return info.versionName;
+    } catch (PackageManager.NameNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs methods which are known to be slow (database queries, reading response bodies from disk,
+ * evaluating arbitrary code) on one serial background lane per domain so that they can't hold
+ * up cheap, latency sensitive methods such as {@code DOM.highlightNode}.  Everything else is
+ * run directly on the socket thread, as before.
+ * <p>
+ * Each lane runs its requests in the order received, so methods within an offloaded domain
+ * keep the same relative ordering they always had.  Idle lanes release their thread.
+ */
+@ThreadSafe
+public class DefaultMethodExecutorPolicy implements MethodExecutorPolicy {
+  private static final String THREAD_NAME_PREFIX = "StethoMethod-";
+  private static final long LANE_KEEP_ALIVE_SEC = 30;
+
+  /**
+   * Keys are either a domain name (every method in the domain) or a fully qualified method name
+   * ({@code Domain.method}); values are the lane to run on.
+   */
+  private static final Map<String, String> sDefaultLanes = new HashMap<>();
+
+  static {
+    sDefaultLanes.put("Database", "Database");
+    sDefaultLanes.put("Runtime", "Runtime");
+    sDefaultLanes.put("Network.getResponseBody", "NetworkBody");
+  }
+
+  @GuardedBy("this")
+  private final Map<String, Executor> mLanes = new HashMap<>();
+
+  @Nullable
+  @Override
+  public Executor getExecutor(String domainName, String methodName) {
+    String lane = sDefaultLanes.get(domainName + "." + methodName);
+    if (lane == null) {
+      lane = sDefaultLanes.get(domainName);
+    }
+    return lane != null ? getLane(lane) : null;
+  }
+
+  private synchronized Executor getLane(String lane) {
+    Executor executor = mLanes.get(lane);
+    if (executor == null) {
+      executor = createSerialExecutor(THREAD_NAME_PREFIX + lane);
+      mLanes.put(lane, executor);
+    }
+    return executor;
+  }
+
+  private static Executor createSerialExecutor(final String threadName) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        1 /* corePoolSize */,
+        1 /* maximumPoolSize */,
+        LANE_KEEP_ALIVE_SEC,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.facebook.stetho.common.LatencyHistogram;
+
+/**
+ * Call count and latency of a single protocol method, as seen by {@link MethodDispatcher}.
+ * Latency is measured from just before the method is invoked until its result is available,
+ * so a method returning a {@link com.facebook.stetho.inspector.jsonrpc.DeferredResult} is
+ * charged for the time until that completes.  Stats are kept per process and shared by every
+ * dispatcher that serves a method of the same name.
+ */
+@ThreadSafe
+public final class MethodCallStats {
+  private static final ConcurrentHashMap<String, MethodCallStats> sStats =
+      new ConcurrentHashMap<>();
+
+  private final String mMethodName;
+  private final AtomicLong mErrorCount = new AtomicLong();
+  private final LatencyHistogram mLatency = new LatencyHistogram();
+
+  private MethodCallStats(String methodName) {
+    mMethodName = methodName;
+  }
+
+  /**
+   * @param methodName Fully qualified protocol method name such as {@code Network.enable}.
+   */
+  public static MethodCallStats forMethod(String methodName) {
+    MethodCallStats stats = sStats.get(methodName);
+    if (stats == null) {
+      MethodCallStats newStats = new MethodCallStats(methodName);
+      stats = sStats.putIfAbsent(methodName, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * @return Stats of every method which has been called at least once since the last reset.
+   */
+  public static List<MethodCallStats> getCalledMethods() {
+    List<MethodCallStats> called = new ArrayList<>();
+    for (MethodCallStats stats : sStats.values()) {
+      if (stats.getCallCount() > 0) {
+        called.add(stats);
+      }
+    }
+    return called;
+  }
+
+  public static void resetAll() {
+    for (MethodCallStats stats : sStats.values()) {
+      stats.mErrorCount.set(0);
+      stats.mLatency.reset();
+    }
+  }
+
+  public String getMethodName() {
+    return mMethodName;
+  }
+
+  public long getCallCount() {
+    return mLatency.getCount();
+  }
+
+  /**
+   * @return Number of calls which failed with a JSON-RPC error or an unchecked exception.
+   */
+  public long getErrorCount() {
+    return mErrorCount.get();
+  }
+
+  public LatencyHistogram getLatency() {
+    return mLatency;
+  }
+
+  void record(long startNanos, boolean error) {
+    mLatency.record(System.nanoTime() - startNanos);
+    if (error) {
+      mErrorCount.incrementAndGet();
+    }
+  }
+}
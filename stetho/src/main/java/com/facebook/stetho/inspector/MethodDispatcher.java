@@ -8,7 +8,6 @@
 package com.facebook.stetho.inspector;
 
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import java.lang.reflect.InvocationTargetException;
@@ -16,9 +15,12 @@ import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import com.facebook.stetho.common.ExceptionUtil;
+import com.facebook.stetho.common.LogUtil;
 import com.facebook.stetho.common.Util;
+import com.facebook.stetho.inspector.jsonrpc.DeferredResult;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
@@ -26,103 +28,330 @@ import com.facebook.stetho.inspector.jsonrpc.protocol.EmptyResult;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethodInvoker;
+import com.facebook.stetho.json.LazyJsonObject;
 import com.facebook.stetho.json.ObjectMapper;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+/**
+ * Routes JSON-RPC requests to the {@link ChromeDevtoolsMethod} methods of the registered
+ * domains.  Methods may either return their result directly or return a {@link DeferredResult}
+ * which is completed later, and a {@link MethodExecutorPolicy} decides which methods are run
+ * off of the peer's socket thread.
+ * <p>
+ * Methods are called through invokers generated at build time where available, and the call
+ * count and latency of each method are recorded in its {@link MethodCallStats}.
+ */
 @ThreadSafe
 public class MethodDispatcher {
-  @GuardedBy("this")
-  private Map<String, MethodDispatchHelper> mMethods;
+  /**
+   * Built on first use and then only ever read, so lookups don't need to take the lock.
+   */
+  @Nullable
+  private volatile Map<String, MethodDispatchHelper> mMethods;
 
   private final ObjectMapper mObjectMapper;
   private final Iterable<ChromeDevtoolsDomain> mDomainHandlers;
+  private final MethodExecutorPolicy mExecutorPolicy;
 
   public MethodDispatcher(
       ObjectMapper objectMapper,
       Iterable<ChromeDevtoolsDomain> domainHandlers) {
-    mObjectMapper = objectMapper;
+    this(objectMapper, domainHandlers, new DefaultMethodExecutorPolicy());
+  }
+
+  public MethodDispatcher(
+      ObjectMapper objectMapper,
+      Iterable<ChromeDevtoolsDomain> domainHandlers,
+      MethodExecutorPolicy executorPolicy) {
+    mObjectMapper = Util.throwIfNull(objectMapper);
     mDomainHandlers = domainHandlers;
+    mExecutorPolicy = Util.throwIfNull(executorPolicy);
   }
 
-  private synchronized MethodDispatchHelper findMethodDispatcher(String methodName) {
-    if (mMethods == null) {
-      mMethods = buildDispatchTable(mObjectMapper, mDomainHandlers);
+  @Nullable
+  private MethodDispatchHelper findMethodDispatcher(String methodName) {
+    Map<String, MethodDispatchHelper> methods = mMethods;
+    if (methods == null) {
+      synchronized (this) {
+        methods = mMethods;
+        if (methods == null) {
+          methods = buildDispatchTable(mDomainHandlers, mExecutorPolicy);
+          mMethods = methods;
+        }
+      }
     }
-    return mMethods.get(methodName);
+    return methods.get(methodName);
   }
 
   public JSONObject dispatch(JsonRpcPeer peer, String methodName, @Nullable JSONObject params)
       throws JsonRpcException {
-    MethodDispatchHelper dispatchHelper = findMethodDispatcher(methodName);
+    JsonRpcResult result = dispatchForResult(peer, methodName, params);
+    if (result == null || result instanceof EmptyResult) {
+      return new JSONObject();
+    }
+    return mObjectMapper.convertValue(result, JSONObject.class);
+  }
+
+  /**
+   * Same as {@link #dispatch} but returns the method's result without converting it to a
+   * {@link JSONObject} so that the caller can stream it directly.  The method is invoked on
+   * the calling thread regardless of the {@link MethodExecutorPolicy}, and this call blocks
+   * if it returns a {@link DeferredResult}.
+   *
+   * @return The result, or null if the method returned nothing.
+   */
+  @Nullable
+  public JsonRpcResult dispatchForResult(
+      JsonRpcPeer peer,
+      String methodName,
+      @Nullable JSONObject params)
+      throws JsonRpcException {
+    MethodDispatchHelper dispatchHelper = getMethodDispatcherOrThrow(methodName);
+    long startNanos = System.nanoTime();
+    boolean error = true;
+    try {
+      Object result = dispatchHelper.invoke(peer, params);
+      if (result instanceof DeferredResult) {
+        try {
+          result = ((DeferredResult<?>) result).get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
+              e.toString(),
+              null /* data */));
+        }
+      }
+      error = false;
+      return (JsonRpcResult) result;
+    } finally {
+      dispatchHelper.stats.record(startNanos, error);
+    }
+  }
+
+  /**
+   * Dispatch on the executor chosen by the {@link MethodExecutorPolicy} (or the calling thread
+   * if there is none).  {@code params} are parsed on that executor just before the method is
+   * invoked, and not at all if there is no such method; if they turn out to be malformed the
+   * peer gets an invalid params error.  Unchecked exceptions thrown by a method which runs on
+   * the calling thread are propagated as they are by {@link #dispatch}; those thrown on another
+   * executor are logged and reported to the peer as an internal error.
+   *
+   * @return The pending result, which may already be complete.
+   */
+  public DeferredResult<JsonRpcResult> dispatchAsync(
+      final JsonRpcPeer peer,
+      final String methodName,
+      @Nullable final LazyJsonObject params) {
+    final DeferredResult<JsonRpcResult> deferred = new DeferredResult<>();
+    final MethodDispatchHelper dispatchHelper = findMethodDispatcher(methodName);
     if (dispatchHelper == null) {
-      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.METHOD_NOT_FOUND,
-          "Not implemented: " + methodName,
-          null /* data */));
+      deferred.setException(createMethodNotFoundException(methodName));
+    } else if (dispatchHelper.executor == null) {
+      invokeInto(dispatchHelper, peer, params, deferred);
+    } else {
+      dispatchHelper.executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            invokeInto(dispatchHelper, peer, params, deferred);
+          } catch (RuntimeException e) {
+            LogUtil.e(e, "Error dispatching " + methodName);
+            if (deferred.isDone()) {
+              // Thrown by one of deferred's listeners, the result itself is already out.
+              return;
+            }
+            deferred.setException(new JsonRpcException(new JsonRpcError(
+                JsonRpcError.ErrorCode.INTERNAL_ERROR,
+                e.toString(),
+                null /* data */)));
+          }
+        }
+      });
     }
+    return deferred;
+  }
+
+  private static void invokeInto(
+      MethodDispatchHelper dispatchHelper,
+      JsonRpcPeer peer,
+      @Nullable LazyJsonObject params,
+      final DeferredResult<JsonRpcResult> deferred) {
+    final MethodCallStats stats = dispatchHelper.stats;
+    final long startNanos = System.nanoTime();
+    Object result;
     try {
-      return dispatchHelper.invoke(peer, params);
-    } catch (InvocationTargetException e) {
-      Throwable cause = e.getCause();
-      ExceptionUtil.propagateIfInstanceOf(cause, JsonRpcException.class);
-      throw ExceptionUtil.propagate(cause);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException(e);
+      result = dispatchHelper.invoke(peer, params != null ? parseParams(params) : null);
+    } catch (JsonRpcException e) {
+      stats.record(startNanos, true /* error */);
+      deferred.setException(e);
+      return;
+    } catch (RuntimeException e) {
+      stats.record(startNanos, true /* error */);
+      throw e;
+    }
+    if (result instanceof DeferredResult) {
+      ((DeferredResult<JsonRpcResult>) result).addListener(
+          new DeferredResult.Listener<JsonRpcResult>() {
+            @Override
+            public void onResult(@Nullable JsonRpcResult result) {
+              stats.record(startNanos, false /* error */);
+              deferred.set(result);
+            }
+
+            @Override
+            public void onException(JsonRpcException e) {
+              stats.record(startNanos, true /* error */);
+              deferred.setException(e);
+            }
+          });
+    } else {
+      stats.record(startNanos, false /* error */);
+      deferred.set((JsonRpcResult) result);
+    }
+  }
+
+  private static JSONObject parseParams(LazyJsonObject params) throws JsonRpcException {
+    try {
+      return params.get();
     } catch (JSONException e) {
-      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
-          e.toString(),
+      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INVALID_PARAMS,
+          e.getMessage(),
           null /* data */));
     }
   }
 
+  private MethodDispatchHelper getMethodDispatcherOrThrow(String methodName)
+      throws JsonRpcException {
+    MethodDispatchHelper dispatchHelper = findMethodDispatcher(methodName);
+    if (dispatchHelper == null) {
+      throw createMethodNotFoundException(methodName);
+    }
+    return dispatchHelper;
+  }
+
+  private static JsonRpcException createMethodNotFoundException(String methodName) {
+    return new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.METHOD_NOT_FOUND,
+        "Not implemented: " + methodName,
+        null /* data */));
+  }
+
   private static class MethodDispatchHelper {
-    private final ObjectMapper mObjectMapper;
     private final ChromeDevtoolsDomain mInstance;
-    private final Method mMethod;
+    private final ChromeDevtoolsMethodInvoker mInvoker;
+
+    @Nullable
+    public final Executor executor;
 
-    public MethodDispatchHelper(ObjectMapper objectMapper,
+    public final MethodCallStats stats;
+
+    public MethodDispatchHelper(
         ChromeDevtoolsDomain instance,
-        Method method) {
-      mObjectMapper = objectMapper;
+        ChromeDevtoolsMethodInvoker invoker,
+        @Nullable Executor executor,
+        MethodCallStats stats) {
       mInstance = instance;
+      mInvoker = invoker;
+      this.executor = executor;
+      this.stats = stats;
+    }
+
+    /**
+     * @return A {@link JsonRpcResult}, a {@link DeferredResult} or null.
+     */
+    @Nullable
+    public Object invoke(JsonRpcPeer peer, @Nullable JSONObject params)
+        throws JsonRpcException {
+      return mInvoker.invoke(mInstance, peer, params);
+    }
+  }
+
+  /**
+   * Fallback for methods of classes that the annotation processor didn't generate a
+   * {@link ChromeDevtoolsMethodInvoker.Provider} for.
+   */
+  private static class ReflectiveMethodInvoker implements ChromeDevtoolsMethodInvoker {
+    private final Method mMethod;
+
+    public ReflectiveMethodInvoker(Method method) {
       mMethod = method;
     }
 
-    public JSONObject invoke(JsonRpcPeer peer, @Nullable JSONObject params)
-        throws InvocationTargetException, IllegalAccessException, JSONException, JsonRpcException {
-      Object internalResult = mMethod.invoke(mInstance, peer, params);
-      if (internalResult == null || internalResult instanceof EmptyResult) {
-        return new JSONObject();
-      } else {
-        JsonRpcResult convertableResult = (JsonRpcResult)internalResult;
-        return mObjectMapper.convertValue(convertableResult, JSONObject.class);
+    @Nullable
+    @Override
+    public Object invoke(ChromeDevtoolsDomain domain, JsonRpcPeer peer, @Nullable JSONObject params)
+        throws JsonRpcException {
+      try {
+        return mMethod.invoke(domain, peer, params);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        ExceptionUtil.propagateIfInstanceOf(cause, JsonRpcException.class);
+        throw ExceptionUtil.propagate(cause);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
       }
     }
   }
 
   private static Map<String, MethodDispatchHelper> buildDispatchTable(
-      ObjectMapper objectMapper,
-      Iterable<ChromeDevtoolsDomain> domainHandlers) {
-    Util.throwIfNull(objectMapper);
+      Iterable<ChromeDevtoolsDomain> domainHandlers,
+      MethodExecutorPolicy executorPolicy) {
     HashMap<String, MethodDispatchHelper> methods = new HashMap<String, MethodDispatchHelper>();
+    HashMap<Class<?>, ChromeDevtoolsMethodInvoker.Provider> providers = new HashMap<>();
     for (ChromeDevtoolsDomain domainHandler : Util.throwIfNull(domainHandlers)) {
       Class<?> handlerClass = domainHandler.getClass();
       String domainName = handlerClass.getSimpleName();
 
       for (Method method : handlerClass.getMethods()) {
         if (isDevtoolsMethod(method)) {
+          String methodName = domainName + "." + method.getName();
           MethodDispatchHelper dispatchHelper = new MethodDispatchHelper(
-              objectMapper,
               domainHandler,
-              method);
-          methods.put(domainName + "." + method.getName(), dispatchHelper);
+              getInvoker(method, providers),
+              executorPolicy.getExecutor(domainName, method.getName()),
+              MethodCallStats.forMethod(methodName));
+          methods.put(methodName, dispatchHelper);
         }
       }
     }
     return Collections.unmodifiableMap(methods);
   }
 
+  private static ChromeDevtoolsMethodInvoker getInvoker(
+      Method method,
+      Map<Class<?>, ChromeDevtoolsMethodInvoker.Provider> providers) {
+    Class<?> declaringClass = method.getDeclaringClass();
+    ChromeDevtoolsMethodInvoker.Provider provider;
+    if (providers.containsKey(declaringClass)) {
+      provider = providers.get(declaringClass);
+    } else {
+      provider = loadInvokerProvider(declaringClass);
+      providers.put(declaringClass, provider);
+    }
+    ChromeDevtoolsMethodInvoker invoker =
+        provider != null ? provider.get(method.getName()) : null;
+    return invoker != null ? invoker : new ReflectiveMethodInvoker(method);
+  }
+
+  @Nullable
+  private static ChromeDevtoolsMethodInvoker.Provider loadInvokerProvider(Class<?> type) {
+    try {
+      Class<?> providerClass = Class.forName(
+          type.getName() + ChromeDevtoolsMethodInvoker.PROVIDER_SUFFIX,
+          true /* initialize */,
+          type.getClassLoader());
+      return (ChromeDevtoolsMethodInvoker.Provider) providerClass.newInstance();
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (InstantiationException e) {
+      throw new IllegalStateException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   /**
    * Determines if the method is a {@link ChromeDevtoolsMethod}, and validates accordingly
    * if it is.
@@ -151,8 +380,9 @@ public class MethodDispatcher {
 
       Class<?> returnType = method.getReturnType();
       if (!returnType.equals(void.class)) {
-        Util.throwIfNot(JsonRpcResult.class.isAssignableFrom(returnType),
-            "%s: expected JsonRpcResult return type, got %s",
+        Util.throwIfNot(JsonRpcResult.class.isAssignableFrom(returnType) ||
+            DeferredResult.class.equals(returnType),
+            "%s: expected JsonRpcResult or DeferredResult return type, got %s",
             methodName,
             returnType.getName());
       }
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector;
+
+import javax.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Decides where {@link MethodDispatcher} runs each
+ * {@link com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod}.  Consulted once per
+ * method when the dispatch table is built.
+ */
+public interface MethodExecutorPolicy {
+  /**
+   * @param domainName Domain name, such as {@code "Database"}.
+   * @param methodName Method name within the domain, such as {@code "executeSQL"}.
+   *
+   * @return Executor to run the method on, or null to run it directly on the peer's socket
+   *     thread.  Requests for methods sharing an executor are run in the order that they were
+   *     received only if the executor itself is serial.
+   */
+  @Nullable
+  Executor getExecutor(String domainName, String methodName);
+}
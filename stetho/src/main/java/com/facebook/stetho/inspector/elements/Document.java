@@ -7,13 +7,13 @@
 
 package com.facebook.stetho.inspector.elements;
 
-import android.os.SystemClock;
 import com.facebook.stetho.common.Accumulator;
 import com.facebook.stetho.common.ArrayListAccumulator;
 import com.facebook.stetho.common.LogUtil;
 import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.helper.ObjectIdMapper;
 import com.facebook.stetho.inspector.helper.ThreadBoundProxy;
+import com.facebook.stetho.telemetry.StethoTelemetry;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 public final class Document extends ThreadBoundProxy {
@@ -334,7 +335,7 @@ public final class Document extends ThreadBoundProxy {
   }
 
   private void updateTree() {
-    long startTimeMs = SystemClock.elapsedRealtime();
+    long startNanos = System.nanoTime();
 
     ShadowDocument.Update docUpdate = createShadowDocumentUpdate();
     boolean isEmpty = docUpdate.isEmpty();
@@ -344,7 +345,9 @@ public final class Document extends ThreadBoundProxy {
       applyDocumentUpdate(docUpdate);
     }
 
-    long deltaMs = SystemClock.elapsedRealtime() - startTimeMs;
+    long deltaNanos = System.nanoTime() - startNanos;
+    StethoTelemetry.get().getDocumentUpdateTime().record(deltaNanos);
+    long deltaMs = TimeUnit.NANOSECONDS.toMillis(deltaNanos);
     LogUtil.d(
         "Document.updateTree() completed in %s ms%s",
         Long.toString(deltaMs),
@@ -7,7 +7,6 @@
 
 package com.facebook.stetho.inspector.helper;
 
-import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import java.nio.channels.NotYetConnectedException;
@@ -20,6 +19,7 @@ import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.jsonrpc.DisconnectReceiver;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.PendingRequestCallback;
+import com.facebook.stetho.telemetry.StethoTelemetry;
 
 /**
  * Interface glue that allows a particular domain to manage the enabled peers.  The way the
@@ -110,19 +110,30 @@ public class ChromePeerManager {
 
   public void sendNotificationToPeers(String method,
       Object params) {
-    sendMessageToPeers(method, params, null /* callback */);
+    JsonRpcPeer[] peers = getReceivingPeersSnapshot();
+    if (peers.length == 0) {
+      return;
+    }
+
+    // Notifications are identical for every peer, so serialize once and fan out the result
+    // rather than paying for the conversion per peer.
+    byte[] message = peers[0].encodeNotification(method, params);
+    int sent = 0;
+    for (JsonRpcPeer peer : peers) {
+      try {
+        peer.sendEncodedMessage(message);
+        sent++;
+      } catch (NotYetConnectedException e) {
+        LogRedirector.e(TAG, "Error delivering data to Chrome", e);
+      }
+    }
+    StethoTelemetry.get().recordMessagesOut(method, sent);
   }
 
   public void invokeMethodOnPeers(String method,
       Object params,
       PendingRequestCallback callback) {
     Util.throwIfNull(callback);
-    sendMessageToPeers(method, params, callback);
-  }
-
-  private void sendMessageToPeers(String method,
-      Object params,
-      @Nullable PendingRequestCallback callback) {
     JsonRpcPeer[] peers = getReceivingPeersSnapshot();
     for (JsonRpcPeer peer : peers) {
       try {
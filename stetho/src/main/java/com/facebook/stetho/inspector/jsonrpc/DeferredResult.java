@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.jsonrpc;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.facebook.stetho.common.Util;
+
+/**
+ * Result of a {@link com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod} which is
+ * produced at some later time, possibly on another thread.  Methods may return this instead of
+ * a {@link JsonRpcResult} so that they do not need to hold up the peer's socket thread while
+ * the result is computed; the response is sent as soon as {@link #set} or {@link #setException}
+ * is called.
+ */
+@ThreadSafe
+public final class DeferredResult<T extends JsonRpcResult> {
+  public interface Listener<T extends JsonRpcResult> {
+    void onResult(@Nullable T result);
+    void onException(JsonRpcException e);
+  }
+
+  @GuardedBy("this")
+  private boolean mDone;
+
+  @GuardedBy("this")
+  private T mResult;
+
+  @GuardedBy("this")
+  private JsonRpcException mException;
+
+  @GuardedBy("this")
+  private List<Listener<? super T>> mListeners;
+
+  /**
+   * Complete successfully.  A null result is sent to the peer as an empty object.
+   *
+   * @throws IllegalStateException If the result was already set.
+   */
+  public void set(@Nullable T result) {
+    complete(result, null /* exception */);
+  }
+
+  /**
+   * Complete with an error which is sent to the peer as the JSON-RPC error response.
+   *
+   * @throws IllegalStateException If the result was already set.
+   */
+  public void setException(JsonRpcException e) {
+    complete(null /* result */, Util.throwIfNull(e));
+  }
+
+  public synchronized boolean isDone() {
+    return mDone;
+  }
+
+  /**
+   * Register a listener to be notified on the completing thread, or immediately on the calling
+   * thread if the result is already available.
+   */
+  public void addListener(Listener<? super T> listener) {
+    Util.throwIfNull(listener);
+    T result;
+    JsonRpcException exception;
+    synchronized (this) {
+      if (!mDone) {
+        if (mListeners == null) {
+          mListeners = new ArrayList<>(1);
+        }
+        mListeners.add(listener);
+        return;
+      }
+      result = mResult;
+      exception = mException;
+    }
+    notifyListener(listener, result, exception);
+  }
+
+  /**
+   * Block until the result is available.
+   */
+  @Nullable
+  public T get() throws JsonRpcException, InterruptedException {
+    synchronized (this) {
+      while (!mDone) {
+        wait();
+      }
+      if (mException != null) {
+        throw mException;
+      }
+      return mResult;
+    }
+  }
+
+  private void complete(@Nullable T result, @Nullable JsonRpcException exception) {
+    List<Listener<? super T>> listeners;
+    synchronized (this) {
+      Util.throwIfNot(!mDone, "Result already set");
+      mDone = true;
+      mResult = result;
+      mException = exception;
+      listeners = mListeners;
+      mListeners = null;
+      notifyAll();
+    }
+    if (listeners != null) {
+      for (int i = 0, N = listeners.size(); i < N; i++) {
+        notifyListener(listeners.get(i), result, exception);
+      }
+    }
+  }
+
+  private static <T extends JsonRpcResult> void notifyListener(
+      Listener<? super T> listener,
+      @Nullable T result,
+      @Nullable JsonRpcException exception) {
+    if (exception != null) {
+      listener.onException(exception);
+    } else {
+      listener.onResult(result);
+    }
+  }
+}
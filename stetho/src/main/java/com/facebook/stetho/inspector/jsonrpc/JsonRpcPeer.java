@@ -19,7 +19,9 @@ import android.database.Observable;
 
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcRequest;
 import com.facebook.stetho.common.Util;
+import com.facebook.stetho.json.JsonWriter;
 import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.telemetry.StethoTelemetry;
 import com.facebook.stetho.websocket.SimpleSession;
 
 import org.json.JSONObject;
@@ -52,15 +54,54 @@ public class JsonRpcPeer {
     Util.throwIfNull(method);
 
     Long requestId = (callback != null) ? preparePendingRequest(callback) : null;
+    JsonWriter writer = new JsonWriter();
+    encodeRequest(writer, requestId, method, paramsObject);
+    mPeer.sendText(writer.getBuffer(), writer.size());
+    StethoTelemetry.get().recordMessageOut(method);
+  }
 
-    // magic, can basically convert anything for some amount of runtime overhead...
-    JSONObject params = mObjectMapper.convertValue(paramsObject, JSONObject.class);
+  /**
+   * Serialize a JSON-RPC notification (a request without an id) so that the same message can
+   * be delivered to any number of peers via {@link #sendEncodedMessage}.  Notifications carry
+   * no per-peer state so there is no need to pay the serialization cost more than once.
+   *
+   * @return The UTF-8 encoded message.
+   */
+  public byte[] encodeNotification(String method, Object paramsObject) {
+    Util.throwIfNull(method);
+    JsonWriter writer = new JsonWriter();
+    encodeRequest(writer, null /* requestId */, method, paramsObject);
+    return writer.toByteArray();
+  }
 
-    JsonRpcRequest message = new JsonRpcRequest(requestId, method, params);
-    String requestString;
-    JSONObject jsonObject = mObjectMapper.convertValue(message, JSONObject.class);
-    requestString = jsonObject.toString();
-    mPeer.sendText(requestString);
+  /**
+   * Send a message previously produced by {@link #encodeNotification}.  Unlike
+   * {@link #invokeMethod} this doesn't count the message in {@link StethoTelemetry} as the
+   * method isn't known here; callers fanning out a notification count it themselves.
+   */
+  public void sendEncodedMessage(byte[] message) throws NotYetConnectedException {
+    mPeer.sendText(message, message.length);
+  }
+
+  /**
+   * Streams the equivalent of a {@link JsonRpcRequest} without first converting the params to a
+   * {@link JSONObject}.
+   */
+  private void encodeRequest(
+      JsonWriter writer,
+      @Nullable Long requestId,
+      String method,
+      Object paramsObject) {
+    writer.beginObject();
+    if (requestId != null) {
+      writer.name("id").value(requestId.longValue());
+    }
+    writer.name("method").value(method);
+    if (paramsObject != null) {
+      writer.name("params");
+      mObjectMapper.writeValue(writer, paramsObject);
+    }
+    writer.endObject();
   }
 
   public void registerDisconnectReceiver(DisconnectReceiver callback) {
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.jsonrpc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A result too large to be held in memory, which writes its own JSON directly into the outgoing
+ * WebSocket message once the message reaches the front of the session's write queue.
+ * <p>
+ * Any resources should be acquired before the result is returned so that failures can still be
+ * reported as a {@link JsonRpcException}; a failure while writing leaves the peer with a
+ * truncated message.  {@link #close()} is always called exactly once.
+ */
+public interface StreamingJsonRpcResult extends JsonRpcResult, Closeable {
+  /**
+   * Write the result as a single UTF-8 encoded JSON value.
+   */
+  void writeTo(OutputStream out) throws IOException;
+}
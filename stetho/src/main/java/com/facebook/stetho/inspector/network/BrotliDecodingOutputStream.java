@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.common.Util;
+
+import org.brotli.dec.BrotliInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An {@link OutputStream} filter which decodes Brotli data (RFC 7932) before it is written to
+ * the specified destination output stream, using the pure Java decoder from
+ * {@code org.brotli:dec}.  That dependency is optional; this class must not be touched unless
+ * {@link ContentDecoderRegistry#isBrotliAvailable()} says it is present.
+ * <p>
+ * The decoder can only pull its input from an {@link InputStream} and cannot be suspended
+ * when it runs out, so rather than give every body a thread of its own the encoded body is
+ * collected in memory and decoded on the writing thread when the stream is closed.  At most
+ * {@link #MAX_BUFFERED_BYTES} are collected; anything beyond that is discarded, the body is
+ * decoded as far as it goes and {@link #close()} reports the truncation.
+ */
+class BrotliDecodingOutputStream extends FilterOutputStream {
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * At the ratios Brotli achieves for text this already decodes to about
+   * {@link ResponseBodyFileManager#DEFAULT_MAX_BODY_BYTES}, more than would be kept anyway.
+   */
+  static final int MAX_BUFFERED_BYTES = 1024 * 1024;
+
+  private final int mMaxBufferedBytes;
+  private byte[] mEncoded = new byte[BUFFER_SIZE];
+  private int mEncodedLength;
+  private long mDiscardedBytes;
+  private boolean mClosed;
+
+  public static BrotliDecodingOutputStream create(OutputStream finalOut) {
+    return new BrotliDecodingOutputStream(finalOut, MAX_BUFFERED_BYTES);
+  }
+
+  // @VisibleForTesting
+  BrotliDecodingOutputStream(OutputStream out, int maxBufferedBytes) {
+    super(out);
+    mMaxBufferedBytes = maxBufferedBytes;
+  }
+
+  @Override
+  public void write(int oneByte) throws IOException {
+    checkNotClosed();
+    if (ensureCapacity(1) < 1) {
+      mDiscardedBytes++;
+      return;
+    }
+    mEncoded[mEncodedLength++] = (byte) oneByte;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkNotClosed();
+    int count = ensureCapacity(len);
+    System.arraycopy(b, off, mEncoded, mEncodedLength, count);
+    mEncodedLength += count;
+    mDiscardedBytes += len - count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (mClosed) {
+      return;
+    }
+    mClosed = true;
+    try {
+      IOException decodingError = null;
+      try {
+        InputStream in = new BrotliInputStream(
+            new ByteArrayInputStream(mEncoded, 0, mEncodedLength));
+        try {
+          Util.copy(in, out, new byte[BUFFER_SIZE]);
+        } finally {
+          in.close();
+        }
+      } catch (IOException e) {
+        decodingError = e;
+      }
+      // Decoding a truncated body is bound to fail, what matters is why it was truncated.
+      if (mDiscardedBytes > 0) {
+        throw new IOException(
+            "Brotli body truncated, " + mDiscardedBytes + " bytes over the " +
+                mMaxBufferedBytes + " byte limit were not decoded");
+      }
+      if (decodingError != null) {
+        throw decodingError;
+      }
+    } finally {
+      mEncoded = null;
+      super.close();
+    }
+  }
+
+  /**
+   * Grow {@link #mEncoded} towards room for {@code count} more bytes, within the limit.
+   *
+   * @return Number of those bytes which fit.
+   */
+  private int ensureCapacity(int count) {
+    int wanted = (int) Math.min((long) mEncodedLength + count, mMaxBufferedBytes);
+    if (wanted > mEncoded.length) {
+      int newLength = (int) Math.min((long) mEncoded.length * 2, mMaxBufferedBytes);
+      mEncoded = Arrays.copyOf(mEncoded, Math.max(newLength, wanted));
+    }
+    return Math.max(0, wanted - mEncodedLength);
+  }
+
+  private void checkNotClosed() throws IOException {
+    if (mClosed) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Reverses one {@code Content-Encoding} so that bodies can be shown as they were before the
+ * server encoded them.  Decoders are looked up by encoding name in the
+ * {@link ContentDecoderRegistry}.
+ */
+public interface ContentDecoder {
+  /**
+   * Create a stream which decodes everything written to it and writes the result to
+   * {@code out}.  The stream is used by one thread at a time but not necessarily a background
+   * one: response bodies are decoded on Stetho's writer thread, request bodies on the app's
+   * thread as they are sent, so decoding should not block or hand work to other threads.  The
+   * stream must close {@code out} when it is closed.  Decoding errors should be thrown from
+   * {@code write} or {@code close}; they are reported to the inspector console.
+   */
+  OutputStream decode(OutputStream out) throws IOException;
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.common.ReflectionUtil;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * {@link ContentDecoder}s keyed by {@code Content-Encoding}.  The shared instance knows
+ * {@code gzip}, {@code deflate}, {@code zstd} and {@code identity} out of the box, and
+ * {@code br} when {@code org.brotli:dec} is on the classpath.  Apps may register decoders for
+ * anything else their servers send.
+ */
+@ThreadSafe
+public class ContentDecoderRegistry {
+  static final String GZIP_ENCODING = "gzip";
+  static final String DEFLATE_ENCODING = "deflate";
+  static final String ZSTD_ENCODING = "zstd";
+  static final String BROTLI_ENCODING = "br";
+  static final String IDENTITY_ENCODING = "identity";
+
+  private static final String BROTLI_DECODER_CLASS = "org.brotli.dec.BrotliInputStream";
+
+  private static ContentDecoderRegistry sInstance;
+
+  private final Map<String, ContentDecoder> mRegistry = new HashMap<>();
+
+  public static synchronized ContentDecoderRegistry get() {
+    if (sInstance == null) {
+      sInstance = new ContentDecoderRegistry();
+      sInstance.registerDefaults();
+    }
+    return sInstance;
+  }
+
+  // @VisibleForTesting
+  ContentDecoderRegistry() {
+  }
+
+  // @VisibleForTesting
+  void registerDefaults() {
+    ContentDecoder gzip = new ContentDecoder() {
+      @Override
+      public OutputStream decode(OutputStream out) {
+        return GunzippingOutputStream.create(out);
+      }
+    };
+    register(GZIP_ENCODING, gzip);
+    register("x-gzip", gzip);
+    register(DEFLATE_ENCODING, new ContentDecoder() {
+      @Override
+      public OutputStream decode(OutputStream out) {
+        return new InflaterOutputStream(out);
+      }
+    });
+    register(ZSTD_ENCODING, new ContentDecoder() {
+      @Override
+      public OutputStream decode(OutputStream out) {
+        return ZstdDecodingOutputStream.create(out);
+      }
+    });
+    register(IDENTITY_ENCODING, new ContentDecoder() {
+      @Override
+      public OutputStream decode(OutputStream out) {
+        return out;
+      }
+    });
+    if (isBrotliAvailable()) {
+      register(BROTLI_ENCODING, new BrotliDecoder());
+    }
+  }
+
+  // @VisibleForTesting
+  static boolean isBrotliAvailable() {
+    return ReflectionUtil.tryGetClassForName(BROTLI_DECODER_CLASS) != null;
+  }
+
+  /**
+   * @param contentEncoding Encoding name as it appears in the {@code Content-Encoding} header,
+   *     matched without regard to case.
+   */
+  public synchronized void register(String contentEncoding, ContentDecoder decoder) {
+    mRegistry.put(normalize(contentEncoding), decoder);
+  }
+
+  @Nullable
+  public synchronized ContentDecoder lookup(String contentEncoding) {
+    return mRegistry.get(normalize(contentEncoding));
+  }
+
+  public synchronized boolean unregister(String contentEncoding) {
+    return mRegistry.remove(normalize(contentEncoding)) != null;
+  }
+
+  /**
+   * Wrap {@code out} in the decoders needed to reverse a {@code Content-Encoding} header value.
+   * Multiple encodings are listed in the order they were applied, so they are decoded from
+   * last to first.
+   *
+   * @return Stream to write the encoded body to, or null if any of the encodings has no
+   *     registered decoder.
+   */
+  @Nullable
+  public OutputStream createDecodingStream(String contentEncoding, OutputStream out)
+      throws IOException {
+    String[] encodings = contentEncoding.split(",");
+    ContentDecoder[] decoders = new ContentDecoder[encodings.length];
+    for (int i = 0; i < encodings.length; i++) {
+      decoders[i] = lookup(encodings[i]);
+      if (decoders[i] == null) {
+        return null;
+      }
+    }
+    OutputStream stream = out;
+    for (ContentDecoder decoder : decoders) {
+      stream = decoder.decode(stream);
+    }
+    return stream;
+  }
+
+  private static String normalize(String contentEncoding) {
+    return contentEncoding.trim().toLowerCase(Locale.US);
+  }
+
+  /**
+   * Kept out of {@link #registerDefaults()} so that {@link BrotliDecodingOutputStream}, which
+   * links against {@code org.brotli:dec}, is only loaded once that is known to be present.
+   */
+  private static class BrotliDecoder implements ContentDecoder {
+    @Override
+    public OutputStream decode(OutputStream out) {
+      return BrotliDecodingOutputStream.create(out);
+    }
+  }
+}
@@ -14,13 +14,9 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.InflaterOutputStream;
 
 // @VisibleForTest
 public class DecompressionHelper {
-  static final String GZIP_ENCODING = "gzip";
-  static final String DEFLATE_ENCODING = "deflate";
-
   public static InputStream teeInputWithDecompression(
       NetworkPeerManager peerManager,
       String requestId,
@@ -32,16 +28,12 @@ public class DecompressionHelper {
     CountingOutputStream decompressedCounter = null;
 
     if (contentEncoding != null) {
-      boolean gzipEncoding = GZIP_ENCODING.equals(contentEncoding);
-      boolean deflateEncoding = DEFLATE_ENCODING.equals(contentEncoding);
-
-      if (gzipEncoding || deflateEncoding) {
-        decompressedCounter = new CountingOutputStream(decompressedOutput);
-        if (gzipEncoding) {
-          output = GunzippingOutputStream.create(decompressedCounter);
-        } else if (deflateEncoding) {
-          output = new InflaterOutputStream(decompressedCounter);
-        }
+      CountingOutputStream counter = new CountingOutputStream(decompressedOutput);
+      OutputStream decodingOutput =
+          ContentDecoderRegistry.get().createDecodingStream(contentEncoding, counter);
+      if (decodingOutput != null) {
+        decompressedCounter = counter;
+        output = decodingOutput;
       } else {
         CLog.writeToConsole(
             peerManager,
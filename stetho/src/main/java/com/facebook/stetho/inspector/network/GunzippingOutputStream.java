@@ -7,98 +7,261 @@
 
 package com.facebook.stetho.inspector.network;
 
-import com.facebook.stetho.common.ExceptionUtil;
-import com.facebook.stetho.common.Util;
-
+import java.io.EOFException;
 import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.zip.GZIPInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 /**
  * An {@link OutputStream} filter which decompresses gzip data before it is written to the
  * specified destination output stream.  This is functionally equivalent to
- * {@link java.util.zip.InflaterOutputStream} but provides gzip header awareness.  The
- * implementation however is very different to avoid actually interpreting the gzip header.
+ * {@link java.util.zip.InflaterOutputStream} but provides gzip header awareness.  The gzip
+ * framing (RFC 1952) is parsed incrementally as bytes are written and the deflate data in
+ * between is fed straight to an {@link Inflater} on the writing thread.
+ * <p>
+ * Like {@link java.util.zip.GZIPInputStream}, concatenated members are decoded one after
+ * another and anything following a complete member which isn't a gzip header is ignored.
  */
 class GunzippingOutputStream extends FilterOutputStream {
-  private final Future<Void> mCopyFuture;
+  private static final int BUFFER_SIZE = 8 * 1024;
 
-  private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+  private static final int HEADER_SIZE = 10;
+  private static final int TRAILER_SIZE = 8;
 
-  public static GunzippingOutputStream create(OutputStream finalOut) throws IOException {
-    PipedInputStream pipeIn = new PipedInputStream();
-    PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+  private static final int ID1 = 0x1f;
+  private static final int ID2 = 0x8b;
+  private static final int CM_DEFLATE = 8;
 
-    Future<Void> copyFuture = sExecutor.submit(
-        new GunzippingCallable(pipeIn, finalOut));
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
 
-    return new GunzippingOutputStream(pipeOut, copyFuture);
+  private enum State {
+    HEADER,
+    EXTRA_LENGTH,
+    EXTRA,
+    NAME,
+    COMMENT,
+    HEADER_CRC,
+    BODY,
+    TRAILER,
+    GARBAGE,
   }
 
-  private GunzippingOutputStream(OutputStream out, Future<Void> copyFuture) throws IOException {
+  private final Inflater mInflater = new Inflater(true /* nowrap */);
+  private final CRC32 mCrc = new CRC32();
+  private final byte[] mInflateBuffer = new byte[BUFFER_SIZE];
+
+  /**
+   * Collects the fixed size parts of the framing, which may be split across writes.
+   */
+  private final byte[] mFieldBuffer = new byte[HEADER_SIZE];
+  private int mFieldLength;
+
+  private final byte[] mSingleByte = new byte[1];
+
+  private State mState = State.HEADER;
+  private int mFlags;
+  private int mExtraRemaining;
+  private boolean mMemberSeen;
+  private boolean mClosed;
+
+  public static GunzippingOutputStream create(OutputStream finalOut) {
+    return new GunzippingOutputStream(finalOut);
+  }
+
+  private GunzippingOutputStream(OutputStream out) {
     super(out);
-    mCopyFuture = copyFuture;
+  }
+
+  @Override
+  public void write(int oneByte) throws IOException {
+    mSingleByte[0] = (byte) oneByte;
+    write(mSingleByte, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (mClosed) {
+      throw new IOException("Stream closed");
+    }
+    int end = off + len;
+    while (off < end) {
+      switch (mState) {
+        case BODY:
+          off = inflate(b, off, end);
+          break;
+        case GARBAGE:
+          return;
+        default:
+          onFramingByte(b[off++] & 0xff);
+          break;
+      }
+    }
   }
 
   @Override
   public void close() throws IOException {
-    boolean success = false;
+    if (mClosed) {
+      return;
+    }
+    mClosed = true;
     try {
-      super.close();
-      success = true;
-    } finally {
-      try {
-        getAndRethrow(mCopyFuture);
-      } catch (IOException e) {
-        if (success) {
-          throw e;
-        }
+      // A partial header after a complete member is trailing garbage, as with GZIPInputStream.
+      if (mState != State.GARBAGE && !(mState == State.HEADER && mMemberSeen)) {
+        throw new EOFException("Unexpected end of gzip stream");
       }
+    } finally {
+      mInflater.end();
+      super.close();
     }
   }
 
-  private static <T> T getAndRethrow(Future<T> future) throws IOException {
-    while (true) {
-      try {
-        return future.get();
-      } catch (InterruptedException e) {
-        // Continue...
-      } catch (ExecutionException e) {
-        Throwable cause = e.getCause();
-        ExceptionUtil.propagateIfInstanceOf(cause, IOException.class);
-        ExceptionUtil.propagate(cause);
+  /**
+   * @return Offset of the first byte in {@code b} which was not consumed by the inflater.
+   */
+  private int inflate(byte[] b, int off, int end) throws IOException {
+    mInflater.setInput(b, off, end - off);
+    try {
+      while (true) {
+        int count = mInflater.inflate(mInflateBuffer);
+        if (count > 0) {
+          mCrc.update(mInflateBuffer, 0, count);
+          out.write(mInflateBuffer, 0, count);
+        } else if (mInflater.finished()) {
+          mState = State.TRAILER;
+          mFieldLength = 0;
+          return end - mInflater.getRemaining();
+        } else if (mInflater.needsInput()) {
+          return end;
+        } else if (mInflater.needsDictionary()) {
+          throw new ZipException("Unexpected preset dictionary in gzip stream");
+        }
       }
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage());
     }
   }
 
-  private static class GunzippingCallable implements Callable<Void> {
-    private final InputStream mIn;
-    private final OutputStream mOut;
+  private void onFramingByte(int value) throws IOException {
+    if (mState != State.HEADER_CRC && mState != State.TRAILER) {
+      mCrc.update(value);
+    }
+    switch (mState) {
+      case HEADER:
+        if (!collectField(value, HEADER_SIZE)) {
+          return;
+        }
+        if ((mFieldBuffer[0] & 0xff) != ID1 || (mFieldBuffer[1] & 0xff) != ID2) {
+          if (mMemberSeen) {
+            mState = State.GARBAGE;
+            return;
+          }
+          throw new ZipException("Not in GZIP format");
+        }
+        if (mFieldBuffer[2] != CM_DEFLATE) {
+          throw new ZipException("Unsupported compression method " + mFieldBuffer[2]);
+        }
+        mFlags = mFieldBuffer[3] & 0xff;
+        nextHeaderField();
+        break;
+      case EXTRA_LENGTH:
+        if (collectField(value, 2)) {
+          mExtraRemaining = readUnsignedShort(0);
+          mState = State.EXTRA;
+          if (mExtraRemaining == 0) {
+            nextHeaderField();
+          }
+        }
+        break;
+      case EXTRA:
+        if (--mExtraRemaining == 0) {
+          nextHeaderField();
+        }
+        break;
+      case NAME:
+      case COMMENT:
+        if (value == 0) {
+          nextHeaderField();
+        }
+        break;
+      case HEADER_CRC:
+        if (collectField(value, 2)) {
+          if (readUnsignedShort(0) != (int) (mCrc.getValue() & 0xffff)) {
+            throw new ZipException("Corrupt GZIP header");
+          }
+          startBody();
+        }
+        break;
+      case TRAILER:
+        if (collectField(value, TRAILER_SIZE)) {
+          if (readUnsignedInt(0) != mCrc.getValue()) {
+            throw new ZipException("Corrupt GZIP trailer");
+          }
+          if (readUnsignedInt(4) != (mInflater.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Corrupt GZIP trailer");
+          }
+          mMemberSeen = true;
+          mState = State.HEADER;
+          mCrc.reset();
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unexpected state " + mState);
+    }
+  }
 
-    public GunzippingCallable(InputStream in, OutputStream out) {
-      mIn = in;
-      mOut = out;
+  /**
+   * Move on to the next optional header field announced by the flags, or to the compressed
+   * data if there are none left.
+   */
+  private void nextHeaderField() {
+    mFieldLength = 0;
+    if ((mFlags & FEXTRA) != 0) {
+      mFlags &= ~FEXTRA;
+      mState = State.EXTRA_LENGTH;
+    } else if ((mFlags & FNAME) != 0) {
+      mFlags &= ~FNAME;
+      mState = State.NAME;
+    } else if ((mFlags & FCOMMENT) != 0) {
+      mFlags &= ~FCOMMENT;
+      mState = State.COMMENT;
+    } else if ((mFlags & FHCRC) != 0) {
+      mFlags &= ~FHCRC;
+      mState = State.HEADER_CRC;
+    } else {
+      startBody();
     }
+  }
 
-    @Override
-    public Void call() throws IOException {
-      GZIPInputStream in = new GZIPInputStream(mIn);
-      try {
-        Util.copy(in, mOut, new byte[1024]);
-      } finally {
-        in.close();
-        mOut.close();
-      }
-      return null;
+  private void startBody() {
+    mInflater.reset();
+    mCrc.reset();
+    mState = State.BODY;
+  }
+
+  /**
+   * @return True once {@code size} bytes have been collected into {@link #mFieldBuffer}.
+   */
+  private boolean collectField(int value, int size) {
+    mFieldBuffer[mFieldLength++] = (byte) value;
+    if (mFieldLength == size) {
+      mFieldLength = 0;
+      return true;
     }
+    return false;
+  }
+
+  private int readUnsignedShort(int offset) {
+    return (mFieldBuffer[offset] & 0xff) | ((mFieldBuffer[offset + 1] & 0xff) << 8);
+  }
+
+  private long readUnsignedInt(int offset) {
+    return readUnsignedShort(offset) | ((long) readUnsignedShort(offset + 2) << 16);
   }
 }
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.facebook.stetho.common.LogUtil;
+import com.facebook.stetho.common.Util;
+import com.facebook.stetho.inspector.helper.ChromePeerManager;
+import com.facebook.stetho.inspector.protocol.module.Network;
+
+/**
+ * Moves delivery of network events off of the thread that reported them.  Callers (typically
+ * the OkHttp or URLConnection thread which performed the request) capture an immutable
+ * snapshot of the event parameters and hand it off here; serialization and the WebSocket
+ * write happen on a single dedicated dispatcher thread so that the only cost paid by the
+ * caller is a non-blocking enqueue.
+ * <p>
+ * The queue is bounded.  When it is full, events are either dropped outright
+ * ({@link OverflowPolicy#DROP}) or, under {@link OverflowPolicy#COALESCE},
+ * {@code Network.dataReceived} is merged into a single pending event per request which is
+ * delivered as soon as the dispatcher catches up, while the events which mark each stage of a
+ * request are queued regardless.  Events which cannot be delivered are counted and can be
+ * queried via {@link #getDroppedEventCount()}.
+ */
+@ThreadSafe
+public class NetworkEventDispatcher {
+  private static final String THREAD_NAME = "StethoNetworkEvents";
+
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  public enum OverflowPolicy {
+    /**
+     * Discard any event which does not fit in the queue.
+     */
+    DROP,
+
+    /**
+     * Merge {@code Network.dataReceived} events for the same request while the queue is full.
+     * {@code Network.requestWillBeSent}, {@code responseReceived}, {@code loadingFinished} and
+     * {@code loadingFailed} are queued beyond the capacity instead, since there is at most one
+     * of each per request and without them the request never completes in the UI.  Anything
+     * else which does not fit is discarded.
+     */
+    COALESCE,
+  }
+
+  private static NetworkEventDispatcher sInstance;
+
+  private final ConcurrentLinkedQueue<Event> mQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger mQueueSize = new AtomicInteger();
+
+  /**
+   * {@code Network.dataReceived} events which overflowed the queue and are waiting to be
+   * delivered, keyed by request id.
+   */
+  private final ConcurrentHashMap<String, Event> mCoalescedEvents = new ConcurrentHashMap<>();
+
+  private final AtomicLong mDroppedEventCount = new AtomicLong();
+  private final AtomicLong mCoalescedEventCount = new AtomicLong();
+
+  private final AtomicBoolean mStarted = new AtomicBoolean();
+  private volatile Thread mDispatcherThread;
+  private volatile boolean mDispatcherWaiting;
+
+  private volatile int mCapacity;
+  private volatile OverflowPolicy mOverflowPolicy;
+
+  public static synchronized NetworkEventDispatcher get() {
+    if (sInstance == null) {
+      sInstance = new NetworkEventDispatcher(DEFAULT_CAPACITY, OverflowPolicy.COALESCE);
+    }
+    return sInstance;
+  }
+
+  // @VisibleForTesting
+  NetworkEventDispatcher(int capacity, OverflowPolicy overflowPolicy) {
+    setCapacity(capacity);
+    setOverflowPolicy(overflowPolicy);
+  }
+
+  /**
+   * Maximum number of events which may be waiting for delivery at once.  Defaults to
+   * {@link #DEFAULT_CAPACITY}.
+   */
+  public void setCapacity(int capacity) {
+    Util.throwIfNot(capacity > 0, "capacity must be positive, got %s", capacity);
+    mCapacity = capacity;
+  }
+
+  public int getCapacity() {
+    return mCapacity;
+  }
+
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    mOverflowPolicy = Util.throwIfNull(overflowPolicy);
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return mOverflowPolicy;
+  }
+
+  /**
+   * @return Number of events discarded because the queue was full.
+   */
+  public long getDroppedEventCount() {
+    return mDroppedEventCount.get();
+  }
+
+  /**
+   * @return Number of {@code Network.dataReceived} events which were merged into an already
+   *     pending event rather than delivered individually.
+   */
+  public long getCoalescedEventCount() {
+    return mCoalescedEventCount.get();
+  }
+
+  /**
+   * @return Number of events currently waiting for delivery.
+   */
+  public int getQueueSize() {
+    return mQueueSize.get();
+  }
+
+  /**
+   * Enqueue a notification for delivery to all peers registered with {@code peerManager}.
+   * The {@code params} object must not be modified by the caller after this call.
+   *
+   * @return True if the event was queued or coalesced; false if it was dropped.
+   */
+  public boolean post(ChromePeerManager peerManager, String method, Object params) {
+    ensureStarted();
+    Event event = new Event(peerManager, method, params);
+    if (tryReserveSlot()) {
+      mQueue.offer(event);
+      wakeDispatcher();
+      return true;
+    }
+    if (mOverflowPolicy == OverflowPolicy.COALESCE) {
+      if (params instanceof Network.DataReceivedParams) {
+        coalesce(event);
+        wakeDispatcher();
+        return true;
+      }
+      if (isRequestStage(params)) {
+        mQueueSize.incrementAndGet();
+        mQueue.offer(event);
+        wakeDispatcher();
+        return true;
+      }
+    }
+    mDroppedEventCount.incrementAndGet();
+    return false;
+  }
+
+  private boolean tryReserveSlot() {
+    while (true) {
+      int size = mQueueSize.get();
+      if (size >= mCapacity) {
+        return false;
+      }
+      if (mQueueSize.compareAndSet(size, size + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private void coalesce(Event event) {
+    Network.DataReceivedParams params = (Network.DataReceivedParams) event.params;
+    while (true) {
+      Event pending = mCoalescedEvents.putIfAbsent(params.requestId, event);
+      if (pending == null) {
+        return;
+      }
+      Network.DataReceivedParams pendingParams = (Network.DataReceivedParams) pending.params;
+      Network.DataReceivedParams merged = new Network.DataReceivedParams();
+      merged.requestId = params.requestId;
+      merged.timestamp = params.timestamp;
+      merged.dataLength = pendingParams.dataLength + params.dataLength;
+      merged.encodedDataLength = pendingParams.encodedDataLength + params.encodedDataLength;
+      if (mCoalescedEvents.replace(
+          params.requestId,
+          pending,
+          new Event(event.peerManager, event.method, merged))) {
+        mCoalescedEventCount.incrementAndGet();
+        return;
+      }
+    }
+  }
+
+  private void ensureStarted() {
+    if (!mStarted.get() && mStarted.compareAndSet(false, true)) {
+      Thread thread = new Thread(mDispatchLoop, THREAD_NAME);
+      thread.setDaemon(true);
+      mDispatcherThread = thread;
+      thread.start();
+    }
+  }
+
+  private void wakeDispatcher() {
+    if (mDispatcherWaiting) {
+      LockSupport.unpark(mDispatcherThread);
+    }
+  }
+
+  private final Runnable mDispatchLoop = new Runnable() {
+    @Override
+    public void run() {
+      while (true) {
+        Event event = mQueue.poll();
+        if (event != null) {
+          mQueueSize.decrementAndGet();
+          deliverCoalescedFor(getRequestId(event.params));
+          deliver(event);
+        } else if (!mCoalescedEvents.isEmpty()) {
+          deliverAllCoalesced();
+        } else {
+          mDispatcherWaiting = true;
+          // Re-check after publishing the waiting flag so that we can't miss a wakeup from
+          // a producer that enqueued in between.
+          if (mQueue.isEmpty() && mCoalescedEvents.isEmpty()) {
+            LockSupport.park(this);
+          }
+          mDispatcherWaiting = false;
+        }
+      }
+    }
+  };
+
+  /**
+   * Make sure any merged data events for this request are delivered before subsequent events
+   * for the same request (such as {@code Network.loadingFinished}).
+   */
+  private void deliverCoalescedFor(@Nullable String requestId) {
+    if (requestId != null && !mCoalescedEvents.isEmpty()) {
+      Event coalesced = mCoalescedEvents.remove(requestId);
+      if (coalesced != null) {
+        deliver(coalesced);
+      }
+    }
+  }
+
+  private void deliverAllCoalesced() {
+    Iterator<Map.Entry<String, Event>> iterator = mCoalescedEvents.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Event> entry = iterator.next();
+      if (mCoalescedEvents.remove(entry.getKey(), entry.getValue())) {
+        deliver(entry.getValue());
+      }
+    }
+  }
+
+  private static void deliver(Event event) {
+    try {
+      event.peerManager.sendNotificationToPeers(event.method, event.params);
+    } catch (RuntimeException e) {
+      // Never let a single bad event take down the dispatcher thread.
+      LogUtil.e(e, "Error delivering " + event.method);
+    }
+  }
+
+  private static boolean isRequestStage(Object params) {
+    return params instanceof Network.RequestWillBeSentParams ||
+        params instanceof Network.ResponseReceivedParams ||
+        params instanceof Network.LoadingFinishedParams ||
+        params instanceof Network.LoadingFailedParams;
+  }
+
+  @Nullable
+  private static String getRequestId(Object params) {
+    if (params instanceof Network.DataReceivedParams) {
+      return ((Network.DataReceivedParams) params).requestId;
+    } else if (params instanceof Network.LoadingFinishedParams) {
+      return ((Network.LoadingFinishedParams) params).requestId;
+    } else if (params instanceof Network.LoadingFailedParams) {
+      return ((Network.LoadingFailedParams) params).requestId;
+    }
+    return null;
+  }
+
+  private static class Event {
+    public final ChromePeerManager peerManager;
+    public final String method;
+    public final Object params;
+
+    public Event(ChromePeerManager peerManager, String method, Object params) {
+      this.peerManager = peerManager;
+      this.method = method;
+      this.params = params;
+    }
+  }
+}
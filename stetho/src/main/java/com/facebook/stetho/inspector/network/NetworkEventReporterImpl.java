@@ -29,9 +29,13 @@ import java.util.concurrent.atomic.AtomicInteger;
  * system of network traffic.  Callers can safely eagerly access this class and store a
  * reference if they wish.  When WebKit Inspector clients are connected, the internal
  * implementation will be automatically wired up to them.
+ * <p>
+ * Each callback only captures a snapshot of the event on the calling thread; serialization and
+ * delivery to peers happen asynchronously on the {@link NetworkEventDispatcher} thread.
  */
 public class NetworkEventReporterImpl implements NetworkEventReporter {
   private final AtomicInteger mNextRequestId = new AtomicInteger(0);
+  private final NetworkEventDispatcher mEventDispatcher = NetworkEventDispatcher.get();
   @Nullable
   private ResourceTypeHelper mResourceTypeHelper;
 
@@ -103,7 +107,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       // received (providing the type).  This delay is very noticable on slow networks.
       params.type = Page.ResourceType.OTHER;
 
-      peerManager.sendNotificationToPeers("Network.requestWillBeSent", params);
+      postEvent(peerManager, "Network.requestWillBeSent", params);
     }
   }
 
@@ -152,7 +156,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
           initAsyncPrettyPrinterForResponse(response, peerManager);
       receivedParams.type =
           determineResourceType(asyncPrettyPrinter, contentType, getResourceTypeHelper());
-      peerManager.sendNotificationToPeers("Network.responseReceived", receivedParams);
+      postEvent(peerManager, "Network.responseReceived", receivedParams);
     }
   }
 
@@ -266,7 +270,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       Network.LoadingFinishedParams finishedParams = new Network.LoadingFinishedParams();
       finishedParams.requestId = requestId;
       finishedParams.timestamp = stethoNow() / 1000.0;
-      peerManager.sendNotificationToPeers("Network.loadingFinished", finishedParams);
+      postEvent(peerManager, "Network.loadingFinished", finishedParams);
     }
   }
 
@@ -283,7 +287,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       failedParams.timestamp = stethoNow() / 1000.0;
       failedParams.errorText = errorText;
       failedParams.type = Page.ResourceType.OTHER;
-      peerManager.sendNotificationToPeers("Network.loadingFailed", failedParams);
+      postEvent(peerManager, "Network.loadingFailed", failedParams);
     }
   }
 
@@ -310,7 +314,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       dataReceivedParams.timestamp = stethoNow() / 1000.0;
       dataReceivedParams.dataLength = dataLength;
       dataReceivedParams.encodedDataLength = encodedDataLength;
-      peerManager.sendNotificationToPeers("Network.dataReceived", dataReceivedParams);
+      postEvent(peerManager, "Network.dataReceived", dataReceivedParams);
     }
   }
 
@@ -333,7 +337,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       Network.WebSocketCreatedParams params = new Network.WebSocketCreatedParams();
       params.requestId = requestId;
       params.url = url;
-      peerManager.sendNotificationToPeers("Network.webSocketCreated", params);
+      postEvent(peerManager, "Network.webSocketCreated", params);
     }
   }
 
@@ -344,7 +348,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       Network.WebSocketClosedParams params = new Network.WebSocketClosedParams();
       params.requestId = requestId;
       params.timestamp = stethoNow() / 1000.0;
-      peerManager.sendNotificationToPeers("Network.webSocketClosed", params);
+      postEvent(peerManager, "Network.webSocketClosed", params);
     }
   }
 
@@ -360,7 +364,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       Network.WebSocketRequest requestJSON = new Network.WebSocketRequest();
       requestJSON.headers = formatHeadersAsJSON(request);
       params.request = requestJSON;
-      peerManager.sendNotificationToPeers("Network.webSocketWillSendHandshakeRequest", params);
+      postEvent(peerManager, "Network.webSocketWillSendHandshakeRequest", params);
     }
   }
 
@@ -382,7 +386,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       responseJSON.status = response.statusCode();
       responseJSON.statusText = response.reasonPhrase();
       params.response = responseJSON;
-      peerManager.sendNotificationToPeers("Network.webSocketHandshakeResponseReceived", params);
+      postEvent(peerManager, "Network.webSocketHandshakeResponseReceived", params);
     }
   }
 
@@ -394,7 +398,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       params.requestId = frame.requestId();
       params.timestamp = stethoNow() / 1000.0;
       params.response = convertFrame(frame);
-      peerManager.sendNotificationToPeers("Network.webSocketFrameSent", params);
+      postEvent(peerManager, "Network.webSocketFrameSent", params);
     }
   }
 
@@ -406,7 +410,7 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       params.requestId = frame.requestId();
       params.timestamp = stethoNow() / 1000.0;
       params.response = convertFrame(frame);
-      peerManager.sendNotificationToPeers("Network.webSocketFrameReceived", params);
+      postEvent(peerManager, "Network.webSocketFrameReceived", params);
     }
   }
 
@@ -426,10 +430,14 @@ public class NetworkEventReporterImpl implements NetworkEventReporter {
       params.requestId = requestId;
       params.timestamp = stethoNow() / 1000.0;
       params.errorMessage = errorMessage;
-      peerManager.sendNotificationToPeers("Network.webSocketFrameError", params);
+      postEvent(peerManager, "Network.webSocketFrameError", params);
     }
   }
 
+  private void postEvent(NetworkPeerManager peerManager, String method, Object params) {
+    mEventDispatcher.post(peerManager, method, params);
+  }
+
   private static JSONObject formatHeadersAsJSON(InspectorHeaders headers) {
     JSONObject json = new JSONObject();
     for (int i = 0; i < headers.headerCount(); i++) {
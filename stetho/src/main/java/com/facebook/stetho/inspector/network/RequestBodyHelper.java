@@ -12,7 +12,6 @@ import javax.annotation.Nullable;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.InflaterOutputStream;
 
 /**
  * Helper which manages provides computed request sizes as well as transparent decompression.
@@ -37,13 +36,13 @@ public class RequestBodyHelper {
   }
 
   public OutputStream createBodySink(@Nullable String contentEncoding) throws IOException {
-    OutputStream deflatingOutput;
+    OutputStream deflatingOutput = null;
     ByteArrayOutputStream deflatedOutput = new ByteArrayOutputStream();
-    if (DecompressionHelper.GZIP_ENCODING.equals(contentEncoding)) {
-      deflatingOutput = GunzippingOutputStream.create(deflatedOutput);
-    } else if (DecompressionHelper.DEFLATE_ENCODING.equals(contentEncoding)) {
-      deflatingOutput = new InflaterOutputStream(deflatedOutput);
-    } else {
+    if (contentEncoding != null) {
+      deflatingOutput =
+          ContentDecoderRegistry.get().createDecodingStream(contentEncoding, deflatedOutput);
+    }
+    if (deflatingOutput == null) {
       deflatingOutput = deflatedOutput;
     }
 
@@ -14,4 +14,10 @@ package com.facebook.stetho.inspector.network;
 public class ResponseBodyData {
   public String data;
   public boolean base64Encoded;
+
+  /**
+   * Set when only part of the body (possibly none of it) was kept within
+   * {@link ResponseBodyFileManager}'s budget.
+   */
+  public boolean truncated;
 }
@@ -7,8 +7,8 @@
 
 package com.facebook.stetho.inspector.network;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,51 +28,104 @@ import android.content.Context;
 import android.util.Base64;
 import android.util.Base64OutputStream;
 
+import javax.annotation.Nullable;
+
 import com.facebook.stetho.common.ExceptionUtil;
 import com.facebook.stetho.common.LogRedirector;
 import com.facebook.stetho.common.Util;
 
 /**
  * Manages temporary files created by {@link ChromeHttpFlowObserver} to serve request bodies.
+ * The bodies themselves are stored in a {@link ResponseBodyLog}, which keeps them within a
+ * byte budget (see {@link #setLimits}).  Bodies cut short by that budget are reported through
+ * {@link ResponseBodyData#truncated} so that the frontend can tell the user why a body is
+ * incomplete.
  */
 public class ResponseBodyFileManager {
   private static final String TAG = "ResponseBodyFileManager";
-  private static final String FILENAME_PREFIX = "network-response-body-";
   private static final int PRETTY_PRINT_TIMEOUT_SEC = 10;
+  private static final int BASE64_BUFFER_SIZE = 8 * 1024;
+
+  public static final long DEFAULT_MAX_TOTAL_BYTES = 32 * 1024 * 1024;
+  public static final long DEFAULT_MAX_BODY_BYTES = 8 * 1024 * 1024;
 
-  private final Context mContext;
+  private final ResponseBodyLog mBodyLog;
   private final Map<String, AsyncPrettyPrinter> mRequestIdMap = Collections.synchronizedMap(
       new HashMap<String, AsyncPrettyPrinter>());
 
   public ResponseBodyFileManager(Context context) {
-    mContext = context;
+    this(
+        context.getFilesDir(),
+        DEFAULT_MAX_TOTAL_BYTES,
+        DEFAULT_MAX_BODY_BYTES,
+        ResponseBodyLog.DEFAULT_SEGMENT_BYTES);
+  }
+
+  // @VisibleForTesting
+  ResponseBodyFileManager(
+      File directory,
+      long maxTotalBytes,
+      long maxBodyBytes,
+      int segmentBytes) {
+    mBodyLog = new ResponseBodyLog(
+        directory,
+        maxTotalBytes,
+        maxBodyBytes,
+        segmentBytes,
+        new ResponseBodyLog.EvictionListener() {
+          @Override
+          public void onEvicted(String requestId) {
+            mRequestIdMap.remove(requestId);
+          }
+        });
+  }
+
+  /**
+   * Change the storage budget, evicting bodies right away if they no longer fit.  Bodies
+   * already being recorded keep growing up to the new {@code maxBodyBytes}.
+   *
+   * @param maxTotalBytes Size of all stored bodies together.
+   * @param maxBodyBytes Size at which a single body is truncated, no larger than
+   *     {@code maxTotalBytes}.
+   */
+  public void setLimits(long maxTotalBytes, long maxBodyBytes) {
+    mBodyLog.setLimits(maxTotalBytes, maxBodyBytes);
+  }
+
+  /**
+   * @return Total size of the stored bodies, as counted against {@code maxTotalBytes}.
+   */
+  public long getTotalBytes() {
+    return mBodyLog.getTotalBytes();
   }
 
   public void cleanupFiles() {
-    for (File file : mContext.getFilesDir().listFiles()) {
-      if (file.getName().startsWith(FILENAME_PREFIX)) {
-        if (!file.delete()) {
-          LogRedirector.w(TAG, "Failed to delete " + file.getAbsolutePath());
-        }
-      }
-    }
+    mBodyLog.clear();
+    mRequestIdMap.clear();
     LogRedirector.i(TAG, "Cleaned up temporary network files.");
   }
 
   public ResponseBodyData readFile(String requestId) throws IOException {
-    InputStream in = mContext.openFileInput(getFilename(requestId));
+    ResponseBodyLog.Snapshot snapshot = mBodyLog.read(requestId);
+    if (snapshot == null) {
+      ResponseBodyData bodyData = new ResponseBodyData();
+      bodyData.data = "";
+      bodyData.truncated = true;
+      return bodyData;
+    }
+    InputStream in = snapshot.inputStream;
     try {
-      int firstByte = in.read();
-      if (firstByte == -1) {
-        throw new EOFException("Failed to read base64Encode byte");
-      }
       ResponseBodyData bodyData = new ResponseBodyData();
-      bodyData.base64Encoded = firstByte != 0;
+      bodyData.base64Encoded = snapshot.base64Encoded;
+      bodyData.truncated = snapshot.truncated;
 
       AsyncPrettyPrinter asyncPrettyPrinter = mRequestIdMap.get(requestId);
-      if (asyncPrettyPrinter != null) {
-        // TODO: this line blocks for up to 10 seconds and create problems as described
-        // in issue #243 allow asynchronous dispatch for MethodDispatcher
+      if (snapshot.base64Encoded) {
+        bodyData.data = readAsBase64(in);
+      } else if (asyncPrettyPrinter != null) {
+        // This can block for up to 10 seconds (see issue #243).  Network.getResponseBody is
+        // dispatched on its own lane by DefaultMethodExecutorPolicy so only other body requests
+        // wait behind it.
         bodyData.data = prettyPrintContentWithTimeOut(asyncPrettyPrinter, in);
       } else {
         bodyData.data = Util.readAsUTF8(in);
@@ -84,6 +137,39 @@ public class ResponseBodyFileManager {
     }
   }
 
+  /**
+   * Open a body to be copied out as it is stored rather than read into a {@link String} first.
+   *
+   * @return The body, or null if it is to be pretty printed and must go through
+   *     {@link #readFile} instead.
+   */
+  @Nullable
+  public ResponseBodyStream openResponseBody(String requestId) throws IOException {
+    ResponseBodyLog.Snapshot snapshot = mBodyLog.read(requestId);
+    if (snapshot == null) {
+      return new ResponseBodyStream(
+          new ByteArrayInputStream(new byte[0]),
+          false /* base64Encoded */,
+          true /* truncated */);
+    }
+    if (!snapshot.base64Encoded && mRequestIdMap.get(requestId) != null) {
+      snapshot.inputStream.close();
+      return null;
+    }
+    return new ResponseBodyStream(
+        snapshot.inputStream,
+        snapshot.base64Encoded,
+        snapshot.truncated);
+  }
+
+  private static String readAsBase64(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream encodingStream = new Base64OutputStream(out, Base64.NO_WRAP);
+    Util.copy(in, encodingStream, new byte[BASE64_BUFFER_SIZE]);
+    encodingStream.close();
+    return out.toString("US-ASCII");
+  }
+
   private String prettyPrintContentWithTimeOut(
       AsyncPrettyPrinter asyncPrettyPrinter,
       InputStream in) throws IOException {
@@ -109,19 +195,13 @@ public class ResponseBodyFileManager {
     }
   }
 
+  /**
+   * @param base64Encode Whether the body should be served base64 encoded.  The body is always
+   *     recorded as is and only encoded if and when it is fetched, so most of them never are.
+   */
   public OutputStream openResponseBodyFile(String requestId, boolean base64Encode)
       throws IOException {
-    OutputStream out = mContext.openFileOutput(getFilename(requestId), Context.MODE_PRIVATE);
-    out.write(base64Encode ? 1 : 0);
-    if (base64Encode) {
-      return new Base64OutputStream(out, Base64.DEFAULT);
-    } else {
-      return out;
-    }
-  }
-
-  private static String getFilename(String requestId) {
-    return FILENAME_PREFIX + requestId;
+    return mBodyLog.open(requestId, base64Encode);
   }
 
   /**
@@ -0,0 +1,507 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.facebook.stetho.common.LogRedirector;
+import com.facebook.stetho.common.Util;
+
+/**
+ * Append-only storage for captured bodies.  Bodies are appended, interleaved as they arrive,
+ * to a handful of large segment files and an in-memory index remembers which extents of which
+ * segment make up each body.  This avoids creating and deleting a file per request, which is
+ * by far the most expensive part of capturing on flash storage.
+ * <p>
+ * The log is kept within a byte budget: a single body stops being recorded once it reaches
+ * {@code maxBodyBytes} and whole segments are deleted, least recently written or read first,
+ * once all of them together exceed {@code maxTotalBytes}.  Every body with data in a deleted
+ * segment is evicted.
+ */
+@ThreadSafe
+class ResponseBodyLog {
+  private static final String TAG = "ResponseBodyLog";
+  private static final String SEGMENT_PREFIX = "network-response-bodies-";
+
+  /**
+   * Files written by earlier versions, which stored one body per file.
+   */
+  private static final String LEGACY_FILENAME_PREFIX = "network-response-body-";
+
+  public static final int DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+
+  /**
+   * Segments are kept small enough relative to the budget that evicting one doesn't throw
+   * away too much at once.
+   */
+  private static final int MIN_SEGMENTS = 4;
+
+  /**
+   * Extents at least this large are memory mapped rather than copied through positioned reads.
+   */
+  private static final int MAP_THRESHOLD = 256 * 1024;
+
+  /**
+   * How many evicted request ids to remember so that a later fetch can be answered with an
+   * explanation rather than an error.
+   */
+  private static final int MAX_EVICTED_IDS = 1000;
+
+  public interface EvictionListener {
+    void onEvicted(String requestId);
+  }
+
+  private final File mDirectory;
+  private final int mSegmentBytes;
+  private final EvictionListener mEvictionListener;
+
+  @GuardedBy("this")
+  private final Map<String, Body> mBodies = new HashMap<>();
+
+  @GuardedBy("this")
+  private final List<Segment> mSegments = new ArrayList<>();
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Boolean> mEvictedIds =
+      new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+          return size() > MAX_EVICTED_IDS;
+        }
+      };
+
+  @GuardedBy("this")
+  @Nullable
+  private Segment mActiveSegment;
+
+  @GuardedBy("this")
+  private int mNextSegmentId;
+
+  @GuardedBy("this")
+  private long mUseCount;
+
+  @GuardedBy("this")
+  private long mMaxTotalBytes;
+
+  @GuardedBy("this")
+  private long mMaxBodyBytes;
+
+  @GuardedBy("this")
+  private long mTotalBytes;
+
+  /**
+   * Segments left behind by a previous process are only known to the file system, so the
+   * directory is listed once and the in-memory index is used from then on.
+   */
+  @GuardedBy("this")
+  private boolean mStaleFilesRemoved;
+
+  public ResponseBodyLog(
+      File directory,
+      long maxTotalBytes,
+      long maxBodyBytes,
+      int segmentBytes,
+      EvictionListener evictionListener) {
+    mDirectory = directory;
+    mSegmentBytes = segmentBytes;
+    mEvictionListener = evictionListener;
+    setLimits(maxTotalBytes, maxBodyBytes);
+  }
+
+  /**
+   * @see ResponseBodyFileManager#setLimits
+   */
+  public synchronized void setLimits(long maxTotalBytes, long maxBodyBytes) {
+    Util.throwIfNot(maxBodyBytes > 0 && maxBodyBytes <= maxTotalBytes);
+    mMaxTotalBytes = maxTotalBytes;
+    mMaxBodyBytes = maxBodyBytes;
+    trimToBudget();
+  }
+
+  /**
+   * @return Total size of the segments, as counted against {@code maxTotalBytes}.
+   */
+  public synchronized long getTotalBytes() {
+    return mTotalBytes;
+  }
+
+  // @VisibleForTesting
+  synchronized int getSegmentCount() {
+    return mSegments.size();
+  }
+
+  /**
+   * Start recording a body, replacing any previous one with the same request id.
+   */
+  public OutputStream open(String requestId, boolean base64Encoded) {
+    Body body = new Body(requestId, base64Encoded);
+    synchronized (this) {
+      mBodies.put(requestId, body);
+      mEvictedIds.remove(requestId);
+    }
+    return new BodyOutputStream(body);
+  }
+
+  /**
+   * @return The body as recorded so far, or null if it was evicted.
+   * @throws FileNotFoundException No body was recorded for {@code requestId}.
+   */
+  @Nullable
+  public synchronized Snapshot read(String requestId) throws IOException {
+    Body body = mBodies.get(requestId);
+    if (body == null) {
+      if (mEvictedIds.containsKey(requestId)) {
+        return null;
+      }
+      throw new FileNotFoundException("No response body recorded for request " + requestId);
+    }
+    // Open the segments while holding the lock so that none of them can be deleted first.
+    // Once open they remain readable even if evicted.
+    ExtentInputStream in = new ExtentInputStream(body.extents.size());
+    try {
+      Map<Segment, FileChannel> channels = new HashMap<>();
+      long useCount = ++mUseCount;
+      for (Extent extent : body.extents) {
+        FileChannel channel = channels.get(extent.segment);
+        if (channel == null) {
+          RandomAccessFile file = new RandomAccessFile(extent.segment.file, "r");
+          in.addFile(file);
+          channel = file.getChannel();
+          channels.put(extent.segment, channel);
+          extent.segment.lastUse = useCount;
+        }
+        in.addExtent(channel, extent.offset, extent.length);
+      }
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    return new Snapshot(body.base64Encoded, body.truncated, in);
+  }
+
+  /**
+   * Delete every segment.
+   */
+  public synchronized void clear() {
+    if (!mStaleFilesRemoved) {
+      mStaleFilesRemoved = true;
+      removeStaleFiles();
+    }
+    closeActiveSegment();
+    for (Segment segment : mSegments) {
+      deleteFile(segment.file);
+    }
+    mSegments.clear();
+    mBodies.clear();
+    mEvictedIds.clear();
+    mTotalBytes = 0;
+  }
+
+  @GuardedBy("this")
+  private void removeStaleFiles() {
+    File[] files = mDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (name.startsWith(SEGMENT_PREFIX) || name.startsWith(LEGACY_FILENAME_PREFIX)) {
+        deleteFile(file);
+      }
+    }
+  }
+
+  private synchronized void append(Body body, byte[] b, int off, int len) throws IOException {
+    if (mBodies.get(body.requestId) != body) {
+      // Evicted or replaced while still being written; there's no point recording the rest.
+      return;
+    }
+    int count = (int) Math.max(0, Math.min(len, mMaxBodyBytes - body.size));
+    if (count < len) {
+      body.truncated = true;
+    }
+    if (count == 0) {
+      return;
+    }
+
+    Segment segment = getWritableSegment();
+    long offset = segment.length;
+    segment.out.write(b, off, count);
+    segment.length += count;
+    segment.lastUse = ++mUseCount;
+    segment.bodies.add(body);
+    mTotalBytes += count;
+    body.size += count;
+
+    Extent last = body.extents.isEmpty() ? null : body.extents.get(body.extents.size() - 1);
+    if (last != null && last.segment == segment && last.offset + last.length == offset) {
+      last.length += count;
+    } else {
+      body.extents.add(new Extent(segment, offset, count));
+    }
+
+    trimToBudget();
+  }
+
+  @GuardedBy("this")
+  private Segment getWritableSegment() throws IOException {
+    long segmentBytes = Math.min(mSegmentBytes, Math.max(1, mMaxTotalBytes / MIN_SEGMENTS));
+    if (mActiveSegment != null && mActiveSegment.length >= segmentBytes) {
+      closeActiveSegment();
+    }
+    if (mActiveSegment == null) {
+      File file = new File(mDirectory, SEGMENT_PREFIX + mNextSegmentId++);
+      Segment segment = new Segment(file, new FileOutputStream(file));
+      mSegments.add(segment);
+      mActiveSegment = segment;
+    }
+    return mActiveSegment;
+  }
+
+  @GuardedBy("this")
+  private void closeActiveSegment() {
+    if (mActiveSegment != null) {
+      try {
+        mActiveSegment.out.close();
+      } catch (IOException e) {
+        LogRedirector.w(TAG, "Failed to close " + mActiveSegment.file.getAbsolutePath(), e);
+      }
+      mActiveSegment.out = null;
+      mActiveSegment = null;
+    }
+  }
+
+  @GuardedBy("this")
+  private void trimToBudget() {
+    while (mTotalBytes > mMaxTotalBytes) {
+      Segment leastRecentlyUsed = null;
+      for (Segment segment : mSegments) {
+        if (segment != mActiveSegment &&
+            (leastRecentlyUsed == null || segment.lastUse < leastRecentlyUsed.lastUse)) {
+          leastRecentlyUsed = segment;
+        }
+      }
+      if (leastRecentlyUsed == null) {
+        return;
+      }
+      evict(leastRecentlyUsed);
+    }
+  }
+
+  @GuardedBy("this")
+  private void evict(Segment segment) {
+    mSegments.remove(segment);
+    mTotalBytes -= segment.length;
+    deleteFile(segment.file);
+    for (Body body : segment.bodies) {
+      if (mBodies.get(body.requestId) == body) {
+        mBodies.remove(body.requestId);
+        mEvictedIds.put(body.requestId, Boolean.TRUE);
+        mEvictionListener.onEvicted(body.requestId);
+      }
+    }
+  }
+
+  private static void deleteFile(File file) {
+    if (!file.delete() && file.exists()) {
+      LogRedirector.w(TAG, "Failed to delete " + file.getAbsolutePath());
+    }
+  }
+
+  /**
+   * A body as recorded at the time of {@link #read}.  The caller must close
+   * {@link #inputStream}.
+   */
+  public static class Snapshot {
+    /**
+     * Whether the body is to be served base64 encoded.  {@link #inputStream} always yields the
+     * body as recorded.
+     */
+    public final boolean base64Encoded;
+    public final boolean truncated;
+    public final InputStream inputStream;
+
+    public Snapshot(boolean base64Encoded, boolean truncated, InputStream inputStream) {
+      this.base64Encoded = base64Encoded;
+      this.truncated = truncated;
+      this.inputStream = inputStream;
+    }
+  }
+
+  private static class Segment {
+    public final File file;
+    @Nullable public FileOutputStream out;
+    public long length;
+    public long lastUse;
+    public final Set<Body> bodies = new HashSet<>();
+
+    public Segment(File file, FileOutputStream out) {
+      this.file = file;
+      this.out = out;
+    }
+  }
+
+  private static class Extent {
+    public final Segment segment;
+    public final long offset;
+    public int length;
+
+    public Extent(Segment segment, long offset, int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static class Body {
+    public final String requestId;
+    public final boolean base64Encoded;
+    public final List<Extent> extents = new ArrayList<>();
+    public long size;
+    public boolean truncated;
+
+    public Body(String requestId, boolean base64Encoded) {
+      this.requestId = requestId;
+      this.base64Encoded = base64Encoded;
+    }
+  }
+
+  private class BodyOutputStream extends OutputStream {
+    private final Body mBody;
+    private final byte[] mSingleByte = new byte[1];
+
+    public BodyOutputStream(Body body) {
+      mBody = body;
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+      mSingleByte[0] = (byte) oneByte;
+      write(mSingleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      append(mBody, b, off, len);
+    }
+  }
+
+  /**
+   * Reads a body's extents back in order.
+   */
+  private static class ExtentInputStream extends InputStream {
+    private final List<RandomAccessFile> mFiles = new ArrayList<>();
+    private final byte[] mSingleByte = new byte[1];
+    private final List<FileChannel> mChannels;
+    private final long[] mOffsets;
+    private final int[] mLengths;
+    private int mExtentCount;
+
+    private int mExtent;
+    private int mPosition;
+    @Nullable private MappedByteBuffer mMapped;
+
+    public ExtentInputStream(int extentCount) {
+      mChannels = new ArrayList<>(extentCount);
+      mOffsets = new long[extentCount];
+      mLengths = new int[extentCount];
+    }
+
+    public void addFile(RandomAccessFile file) {
+      mFiles.add(file);
+    }
+
+    public void addExtent(FileChannel channel, long offset, int length) {
+      mChannels.add(channel);
+      mOffsets[mExtentCount] = offset;
+      mLengths[mExtentCount] = length;
+      mExtentCount++;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return read(mSingleByte, 0, 1) == -1 ? -1 : mSingleByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (mExtent < mExtentCount) {
+        int remaining = mLengths[mExtent] - mPosition;
+        if (remaining == 0) {
+          mExtent++;
+          mPosition = 0;
+          mMapped = null;
+          continue;
+        }
+        int count = Math.min(len, remaining);
+        FileChannel channel = mChannels.get(mExtent);
+        if (mLengths[mExtent] >= MAP_THRESHOLD) {
+          if (mMapped == null) {
+            mMapped = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                mOffsets[mExtent],
+                mLengths[mExtent]);
+          }
+          mMapped.get(b, off, count);
+        } else {
+          count = channel.read(ByteBuffer.wrap(b, off, count), mOffsets[mExtent] + mPosition);
+          if (count == -1) {
+            throw new EOFException("Response body segment is shorter than expected");
+          }
+        }
+        mPosition += count;
+        return count;
+      }
+      return -1;
+    }
+
+    @Override
+    public int available() {
+      return mExtent < mExtentCount ? mLengths[mExtent] - mPosition : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      IOException error = null;
+      for (RandomAccessFile file : mFiles) {
+        try {
+          file.close();
+        } catch (IOException e) {
+          error = e;
+        }
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+  }
+}
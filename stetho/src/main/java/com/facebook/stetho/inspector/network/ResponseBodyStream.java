@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stored response body to be read incrementally, as it was recorded.  The streaming
+ * counterpart of {@link ResponseBodyData}.
+ */
+public class ResponseBodyStream implements Closeable {
+  public final InputStream inputStream;
+
+  /**
+   * Whether the body must be base64 encoded before it is served; {@link #inputStream} always
+   * yields the raw bytes.
+   */
+  public final boolean base64Encoded;
+
+  /**
+   * Set when only part of the body (possibly none of it) was kept within
+   * {@link ResponseBodyFileManager}'s budget.
+   */
+  public final boolean truncated;
+
+  ResponseBodyStream(InputStream inputStream, boolean base64Encoded, boolean truncated) {
+    this.inputStream = inputStream;
+    this.base64Encoded = base64Encoded;
+    this.truncated = truncated;
+  }
+
+  @Override
+  public void close() throws IOException {
+    inputStream.close();
+  }
+}
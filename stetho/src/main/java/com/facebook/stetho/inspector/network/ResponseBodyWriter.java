@@ -0,0 +1,544 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.facebook.stetho.common.LogUtil;
+import com.facebook.stetho.common.Util;
+import com.facebook.stetho.inspector.console.CLog;
+import com.facebook.stetho.inspector.helper.ChromePeerManager;
+import com.facebook.stetho.inspector.protocol.module.Console;
+
+/**
+ * Moves the recording of response bodies off of the thread reading the response.  The reading
+ * thread copies each chunk it reads into a fixed size buffer borrowed from a shared pool and
+ * hands full buffers off to a single dedicated writer thread, which performs the file I/O
+ * (and decompression, see {@link DecompressionHelper}) and invokes the
+ * {@link ResponseHandler} callbacks in the order the data was read.
+ * <p>
+ * Memory held by pending body data is bounded by {@link #getCapacity()}: buffers are allocated
+ * lazily in units of {@link #CHUNK_SIZE} bytes until the capacity is reached and are recycled
+ * once written.  The reading thread never waits for a buffer; when none is available it stops
+ * recording that body, and the inspector is shown the data recorded up to that point and a
+ * warning on the console.  A buffer held by a {@link Sink} which is abandoned without being
+ * finished or closed is counted against the capacity only until the sink is garbage collected.
+ */
+@ThreadSafe
+public class ResponseBodyWriter {
+  private static final String THREAD_NAME = "StethoResponseBodies";
+
+  public static final int CHUNK_SIZE = 8 * 1024;
+  public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+  private static ResponseBodyWriter sInstance;
+
+  private final ConcurrentLinkedQueue<Task> mQueue = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Tasks which have been queued but not yet run to completion.
+   */
+  private final AtomicInteger mPendingTaskCount = new AtomicInteger();
+
+  private final Object mPoolLock = new Object();
+
+  @GuardedBy("mPoolLock")
+  private final ArrayList<byte[]> mFreeChunks = new ArrayList<>();
+
+  @GuardedBy("mPoolLock")
+  private int mAllocatedChunkCount;
+
+  /**
+   * Sinks which currently hold a chunk.  Should one be garbage collected without giving its
+   * chunk back, the chunk is gone with it and its reference turns up in
+   * {@link #mCollectedSinks}.
+   */
+  @GuardedBy("mPoolLock")
+  private final HashSet<Reference<Sink>> mChunkHolders = new HashSet<>();
+
+  private final ReferenceQueue<Sink> mCollectedSinks = new ReferenceQueue<>();
+
+  private final AtomicLong mDroppedByteCount = new AtomicLong();
+
+  private final AtomicBoolean mStarted = new AtomicBoolean();
+  private volatile Thread mWriterThread;
+  private volatile boolean mWriterWaiting;
+
+  private volatile int mCapacity;
+
+  public static synchronized ResponseBodyWriter get() {
+    if (sInstance == null) {
+      sInstance = new ResponseBodyWriter(DEFAULT_CAPACITY);
+    }
+    return sInstance;
+  }
+
+  // @VisibleForTesting
+  ResponseBodyWriter(int capacity) {
+    setCapacity(capacity);
+  }
+
+  /**
+   * Maximum number of bytes of buffer memory which may be used for pending body data at once.
+   * Defaults to {@link #DEFAULT_CAPACITY}.  Lowering the capacity does not free buffers which
+   * are in use, they are released as the writer gets to them.
+   */
+  public void setCapacity(int capacity) {
+    Util.throwIfNot(
+        capacity >= CHUNK_SIZE,
+        "capacity must be at least %s bytes, got %s",
+        CHUNK_SIZE,
+        capacity);
+    mCapacity = capacity;
+  }
+
+  public int getCapacity() {
+    return mCapacity;
+  }
+
+  /**
+   * @return Number of body bytes which were not recorded because no buffer was available.
+   */
+  public long getDroppedByteCount() {
+    return mDroppedByteCount.get();
+  }
+
+  /**
+   * Begin recording a new response body.
+   *
+   * @see ResponseHandlingInputStream
+   */
+  public Sink open(
+      String requestId,
+      OutputStream outputStream,
+      @Nullable CountingOutputStream decompressedCounter,
+      ChromePeerManager networkPeerManager,
+      ResponseHandler responseHandler) {
+    return new Sink(
+        requestId,
+        outputStream,
+        decompressedCounter,
+        networkPeerManager,
+        responseHandler);
+  }
+
+  /**
+   * Wait until every task queued so far has been run by the writer thread.
+   */
+  // @VisibleForTesting
+  void awaitIdle() throws InterruptedException {
+    synchronized (mPendingTaskCount) {
+      while (mPendingTaskCount.get() > 0) {
+        mPendingTaskCount.wait();
+      }
+    }
+  }
+
+  /**
+   * @return A chunk now held by {@code holder}, or null if the pool is exhausted.
+   */
+  @Nullable
+  private byte[] acquireChunk(Reference<Sink> holder) {
+    synchronized (mPoolLock) {
+      reclaimChunksOfCollectedSinks();
+      byte[] chunk;
+      int freeCount = mFreeChunks.size();
+      if (freeCount > 0) {
+        chunk = mFreeChunks.remove(freeCount - 1);
+      } else if ((long) (mAllocatedChunkCount + 1) * CHUNK_SIZE <= mCapacity) {
+        mAllocatedChunkCount++;
+        chunk = new byte[CHUNK_SIZE];
+      } else {
+        return null;
+      }
+      mChunkHolders.add(holder);
+      return chunk;
+    }
+  }
+
+  /**
+   * The chunk held by {@code holder} has been handed to the writer thread.
+   */
+  private void releaseHold(Reference<Sink> holder) {
+    synchronized (mPoolLock) {
+      mChunkHolders.remove(holder);
+    }
+  }
+
+  @GuardedBy("mPoolLock")
+  private void reclaimChunksOfCollectedSinks() {
+    Reference<? extends Sink> collected;
+    while ((collected = mCollectedSinks.poll()) != null) {
+      if (mChunkHolders.remove(collected)) {
+        mAllocatedChunkCount--;
+      }
+    }
+  }
+
+  private void releaseChunk(byte[] chunk) {
+    synchronized (mPoolLock) {
+      if ((long) mAllocatedChunkCount * CHUNK_SIZE > mCapacity) {
+        // The capacity was lowered, let this one go.
+        mAllocatedChunkCount--;
+      } else {
+        mFreeChunks.add(chunk);
+      }
+    }
+  }
+
+  private void submit(Task task) {
+    ensureStarted();
+    mPendingTaskCount.incrementAndGet();
+    mQueue.offer(task);
+    if (mWriterWaiting) {
+      LockSupport.unpark(mWriterThread);
+    }
+  }
+
+  private void ensureStarted() {
+    if (!mStarted.get() && mStarted.compareAndSet(false, true)) {
+      Thread thread = new Thread(mWriteLoop, THREAD_NAME);
+      thread.setDaemon(true);
+      mWriterThread = thread;
+      thread.start();
+    }
+  }
+
+  private final Runnable mWriteLoop = new Runnable() {
+    @Override
+    public void run() {
+      while (true) {
+        Task task = mQueue.poll();
+        if (task != null) {
+          try {
+            task.sink.run(task);
+          } catch (RuntimeException e) {
+            // Never let a misbehaving ResponseHandler take down the writer thread.
+            LogUtil.e(e, "Error recording response body for request " + task.sink.mRequestId);
+          } finally {
+            if (task.chunk != null) {
+              releaseChunk(task.chunk);
+            }
+          }
+          if (mPendingTaskCount.decrementAndGet() == 0) {
+            synchronized (mPendingTaskCount) {
+              mPendingTaskCount.notifyAll();
+            }
+          }
+        } else {
+          mWriterWaiting = true;
+          // Re-check after publishing the waiting flag so that we can't miss a wakeup from
+          // a reader that enqueued in between.
+          if (mQueue.isEmpty()) {
+            LockSupport.park(this);
+          }
+          mWriterWaiting = false;
+        }
+      }
+    }
+  };
+
+  private enum TaskType {
+    WRITE,
+    EOF,
+    ERROR,
+    CLOSE,
+  }
+
+  private static class Task {
+    public final Sink sink;
+    public final TaskType type;
+    @Nullable public final byte[] chunk;
+    public final int chunkLength;
+    public final int readCount;
+    public final long droppedBytes;
+    @Nullable public final IOException error;
+
+    public Task(
+        Sink sink,
+        TaskType type,
+        @Nullable byte[] chunk,
+        int chunkLength,
+        int readCount,
+        long droppedBytes,
+        @Nullable IOException error) {
+      this.sink = sink;
+      this.type = type;
+      this.chunk = chunk;
+      this.chunkLength = chunkLength;
+      this.readCount = readCount;
+      this.droppedBytes = droppedBytes;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Recording of a single response body.  The {@code write}, {@code finish}, {@code fail} and
+   * {@code close} methods must be called from one thread at a time, typically the thread
+   * reading the response; everything else happens on the writer thread.  A sink which is
+   * abandoned without {@link #finish()} or {@link #close()} keeps its partially filled buffer
+   * out of the pool until the sink is garbage collected.
+   */
+  @NotThreadSafe
+  public final class Sink {
+    private final String mRequestId;
+    private final OutputStream mOutputStream;
+    @Nullable private final CountingOutputStream mDecompressedCounter;
+    private final ChromePeerManager mNetworkPeerManager;
+    private final ResponseHandler mResponseHandler;
+    private final Reference<Sink> mReference;
+
+    // State owned by the reading thread.
+    @Nullable private byte[] mChunk;
+    private int mChunkLength;
+    private int mUnreportedReadCount;
+    private long mDroppedBytes;
+    private boolean mDone;
+
+    // State owned by the writer thread.
+    private boolean mOutputClosed;
+    private long mLastDecompressedCount;
+
+    private Sink(
+        String requestId,
+        OutputStream outputStream,
+        @Nullable CountingOutputStream decompressedCounter,
+        ChromePeerManager networkPeerManager,
+        ResponseHandler responseHandler) {
+      mRequestId = requestId;
+      mOutputStream = outputStream;
+      mDecompressedCounter = decompressedCounter;
+      mNetworkPeerManager = networkPeerManager;
+      mResponseHandler = responseHandler;
+      mReference = new WeakReference<>(this, mCollectedSinks);
+    }
+
+    /**
+     * Record a byte read from the response.
+     */
+    public void write(int oneByte) {
+      if (mDone) {
+        return;
+      }
+      mUnreportedReadCount++;
+      if (!ensureChunk()) {
+        drop(1);
+        return;
+      }
+      mChunk[mChunkLength++] = (byte) oneByte;
+      if (mChunkLength == CHUNK_SIZE) {
+        submitChunk(TaskType.WRITE);
+      }
+    }
+
+    /**
+     * Record bytes read from the response.  The data is copied, {@code b} may be reused as soon
+     * as this method returns.
+     */
+    public void write(byte[] b, int off, int len) {
+      if (mDone) {
+        return;
+      }
+      mUnreportedReadCount += len;
+      while (len > 0) {
+        if (!ensureChunk()) {
+          drop(len);
+          return;
+        }
+        int count = Math.min(len, CHUNK_SIZE - mChunkLength);
+        System.arraycopy(b, off, mChunk, mChunkLength, count);
+        mChunkLength += count;
+        off += count;
+        len -= count;
+        if (mChunkLength == CHUNK_SIZE) {
+          submitChunk(TaskType.WRITE);
+        }
+      }
+    }
+
+    /**
+     * The response was read to the end.  Closes the output stream and reports
+     * {@link ResponseHandler#onEOF()}.
+     */
+    public void finish() {
+      if (!mDone) {
+        mDone = true;
+        submitChunk(TaskType.EOF);
+      }
+    }
+
+    /**
+     * Reading the response failed.  Reports {@link ResponseHandler#onError(IOException)}, the
+     * body may still be completed by a later {@link #finish()} or {@link #close()}.
+     */
+    public void fail(IOException error) {
+      if (!mDone) {
+        submit(
+            new Task(
+                this,
+                TaskType.ERROR,
+                null /* chunk */,
+                0 /* chunkLength */,
+                takeUnreportedReadCount(),
+                mDroppedBytes,
+                error));
+      }
+    }
+
+    /**
+     * Closes the output stream without reporting the end of the body.  Does nothing if
+     * {@link #finish()} has already been called.
+     */
+    public void close() {
+      if (!mDone) {
+        mDone = true;
+        submitChunk(TaskType.CLOSE);
+      }
+    }
+
+    /**
+     * @return True if {@link #mChunk} has room for at least one more byte, false if the body
+     *     is being truncated.
+     */
+    private boolean ensureChunk() {
+      if (mDroppedBytes > 0) {
+        // Once a gap appears the rest of the body is useless, don't keep taking buffers.
+        return false;
+      }
+      if (mChunk == null) {
+        mChunk = acquireChunk(mReference);
+        mChunkLength = 0;
+      }
+      return mChunk != null;
+    }
+
+    private void drop(int count) {
+      mDroppedBytes += count;
+      mDroppedByteCount.addAndGet(count);
+    }
+
+    private void submitChunk(TaskType type) {
+      submit(
+          new Task(
+              this,
+              type,
+              mChunk,
+              mChunkLength,
+              takeUnreportedReadCount(),
+              mDroppedBytes,
+              null /* error */));
+      if (mChunk != null) {
+        releaseHold(mReference);
+      }
+      mChunk = null;
+      mChunkLength = 0;
+    }
+
+    private int takeUnreportedReadCount() {
+      int count = mUnreportedReadCount;
+      mUnreportedReadCount = 0;
+      return count;
+    }
+
+    /**
+     * Runs on the writer thread.
+     */
+    private void run(Task task) {
+      if (task.readCount > 0) {
+        mResponseHandler.onRead(task.readCount);
+      }
+      if (task.chunk != null && task.chunkLength > 0) {
+        writeToOutputStream(task.chunk, task.chunkLength);
+      }
+      switch (task.type) {
+        case WRITE:
+          break;
+        case ERROR:
+          mResponseHandler.onError(task.error);
+          break;
+        case EOF:
+          closeOutputStreamQuietly(task.droppedBytes);
+          mResponseHandler.onEOF();
+          break;
+        case CLOSE:
+          closeOutputStreamQuietly(task.droppedBytes);
+          break;
+      }
+    }
+
+    private void writeToOutputStream(byte[] b, int count) {
+      if (mOutputClosed) {
+        return;
+      }
+      try {
+        mOutputStream.write(b, 0, count);
+        reportDecodedSizeIfApplicable();
+      } catch (IOException e) {
+        CLog.writeToConsole(
+            mNetworkPeerManager,
+            Console.MessageLevel.ERROR,
+            Console.MessageSource.NETWORK,
+            "Could not write response body to the stream " + e);
+        closeOutputStreamQuietly(0 /* droppedBytes */);
+      }
+    }
+
+    private void closeOutputStreamQuietly(long droppedBytes) {
+      if (mOutputClosed) {
+        return;
+      }
+      mOutputClosed = true;
+      if (droppedBytes > 0) {
+        CLog.writeToConsole(
+            mNetworkPeerManager,
+            Console.MessageLevel.WARNING,
+            Console.MessageSource.NETWORK,
+            "Response body for request " + mRequestId + " was truncated, " + droppedBytes +
+                " bytes could not be buffered");
+      }
+      try {
+        mOutputStream.close();
+        reportDecodedSizeIfApplicable();
+      } catch (IOException e) {
+        // A truncated body can easily fail to decompress, that has already been reported.
+        if (droppedBytes == 0) {
+          CLog.writeToConsole(
+              mNetworkPeerManager,
+              Console.MessageLevel.ERROR,
+              Console.MessageSource.NETWORK,
+              "Could not close the output stream" + e);
+        }
+      }
+    }
+
+    private void reportDecodedSizeIfApplicable() {
+      if (mDecompressedCounter != null) {
+        long currentCount = mDecompressedCounter.getCount();
+        int delta = (int) (currentCount - mLastDecompressedCount);
+        mResponseHandler.onReadDecoded(delta);
+        mLastDecompressedCount = currentCount;
+      }
+    }
+  }
+}
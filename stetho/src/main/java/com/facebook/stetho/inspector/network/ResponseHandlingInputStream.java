@@ -13,7 +13,6 @@ import com.facebook.stetho.inspector.protocol.module.Console;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -24,6 +23,10 @@ import java.io.OutputStream;
  * {@link OutputStream}. This also guarantees that we will attempt to reach EOF on the
  * {@link InputStream} passing all data to the {@link OutputStream}.
  * This is done to allow us to guarantee all responses are represented in the webkit inspector.
+ * <p>
+ * The thread reading this stream only copies the data; writing it to the {@link OutputStream}
+ * and calling the {@link ResponseHandler} happen later on the {@link ResponseBodyWriter}
+ * thread.  Like most streams, instances must not be read from multiple threads at once.
  */
 // @VisibleForTest
 public final class ResponseHandlingInputStream extends FilterInputStream {
@@ -33,26 +36,14 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
   private static final int BUFFER_SIZE = 1024;
 
   private final String mRequestId;
-  private final OutputStream mOutputStream;
-  @Nullable private final CountingOutputStream mDecompressedCounter;
   private final ChromePeerManager mNetworkPeerManager;
-  private final ResponseHandler mResponseHandler;
+  private final ResponseBodyWriter.Sink mSink;
 
-  /**
-   * This stream will no longer be usable if {@link #close()} has been called on this stream.
-   */
-  @GuardedBy("this")
-  private boolean mClosed;
-
-  @GuardedBy("this")
   private boolean mEofSeen;
 
   @Nullable
-  @GuardedBy("this")
   private byte[] mSkipBuffer;
 
-  private long mLastDecompressedCount = 0;
-
   /**
    * @param inputStream
    * @param requestId the requestId to use when we call the {@link NetworkEventReporter}
@@ -72,19 +63,39 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
       @Nullable CountingOutputStream decompressedCounter,
       ChromePeerManager networkPeerManager,
       ResponseHandler responseHandler) {
+    this(
+        inputStream,
+        requestId,
+        outputStream,
+        decompressedCounter,
+        networkPeerManager,
+        responseHandler,
+        ResponseBodyWriter.get());
+  }
+
+  // @VisibleForTesting
+  ResponseHandlingInputStream(
+      InputStream inputStream,
+      String requestId,
+      OutputStream outputStream,
+      @Nullable CountingOutputStream decompressedCounter,
+      ChromePeerManager networkPeerManager,
+      ResponseHandler responseHandler,
+      ResponseBodyWriter responseBodyWriter) {
     super(inputStream);
     mRequestId = requestId;
-    mOutputStream = outputStream;
-    mDecompressedCounter = decompressedCounter;
     mNetworkPeerManager = networkPeerManager;
-    mResponseHandler = responseHandler;
-    mClosed = false;
+    mSink = responseBodyWriter.open(
+        requestId,
+        outputStream,
+        decompressedCounter,
+        networkPeerManager,
+        responseHandler);
   }
 
-  private synchronized int checkEOF(int n) {
+  private int checkEOF(int n) {
     if (n == -1) {
-      closeOutputStreamQuietly();
-      mResponseHandler.onEOF();
+      mSink.finish();
       mEofSeen = true;
     }
     return n;
@@ -95,8 +106,7 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
     try {
       int result = checkEOF(in.read());
       if (result != -1) {
-        mResponseHandler.onRead(1);
-        writeToOutputStream(result);
+        mSink.write(result);
       }
       return result;
     } catch (IOException ex) {
@@ -114,8 +124,7 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
     try {
       int result = checkEOF(in.read(b, off, len));
       if (result != -1) {
-        mResponseHandler.onRead(result);
-        writeToOutputStream(b, off, result);
+        mSink.write(b, off, result);
       }
       return result;
     } catch (IOException ex) {
@@ -124,8 +133,8 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
   }
 
   @Override
-  public synchronized long skip(long n) throws IOException {
-    byte[] buffer = getSkipBufferLocked();
+  public long skip(long n) throws IOException {
+    byte[] buffer = getSkipBuffer();
     long total = 0;
     while (total < n) {
       long bytesDiff = n - total;
@@ -140,7 +149,7 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
   }
 
   @Nonnull
-  private byte[] getSkipBufferLocked() {
+  private byte[] getSkipBuffer() {
     if (mSkipBuffer == null) {
       mSkipBuffer = new byte[BUFFER_SIZE];
     }
@@ -185,27 +194,7 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
       }
     } finally {
       super.close();
-      closeOutputStreamQuietly();
-    }
-  }
-
-  /**
-   * Attempts to close all the output stream, and swallows any exceptions.
-   */
-  private synchronized void closeOutputStreamQuietly() {
-    if (!mClosed) {
-      try {
-        mOutputStream.close();
-        reportDecodedSizeIfApplicable();
-      } catch (IOException e) {
-        CLog.writeToConsole(
-            mNetworkPeerManager,
-            Console.MessageLevel.ERROR,
-            Console.MessageSource.NETWORK,
-            "Could not close the output stream" + e);
-      } finally {
-        mClosed = true;
-      }
+      mSink.close();
     }
   }
 
@@ -216,61 +205,7 @@ public final class ResponseHandlingInputStream extends FilterInputStream {
    * @return
    */
   private IOException handleIOException(IOException ex) {
-    mResponseHandler.onError(ex);
+    mSink.fail(ex);
     return ex;
   }
-
-  private void reportDecodedSizeIfApplicable() {
-    if (mDecompressedCounter != null) {
-      long currentCount = mDecompressedCounter.getCount();
-      int delta = (int)(currentCount - mLastDecompressedCount);
-      mResponseHandler.onReadDecoded(delta);
-      mLastDecompressedCount = currentCount;
-    }
-  }
-
-  /**
-   * Writes the byte to all the output streams. If we get an exception when writing to any
-   * of the streams, we close all the streams, and then propagate the first exception that
-   * occurred when writing.
-   */
-  private synchronized void writeToOutputStream(int oneByte) {
-    if (mClosed) {
-      return;
-    }
-
-    try {
-      mOutputStream.write(oneByte);
-      reportDecodedSizeIfApplicable();
-    } catch (IOException e) {
-      handleIOExceptionWritingToStream(e);
-    }
-  }
-
-  /**
-   * Same as {@link #writeToOutputStream(int)}, but we write a buffer instead.
-   */
-  private synchronized void writeToOutputStream(byte[] b, int offset, int count) {
-    if (mClosed) {
-      return;
-    }
-
-    try {
-      mOutputStream.write(b, offset, count);
-      reportDecodedSizeIfApplicable();
-    } catch (IOException e) {
-      handleIOExceptionWritingToStream(e);
-    }
-  }
-
-  private void handleIOExceptionWritingToStream(IOException e) {
-    CLog.writeToConsole(
-        mNetworkPeerManager,
-        Console.MessageLevel.ERROR,
-        Console.MessageSource.NETWORK,
-        "Could not write response body to the stream " + e);
-
-    closeOutputStreamQuietly();
-  }
-
 }
@@ -0,0 +1,1042 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} filter which decodes Zstandard data (RFC 8878) before it is written
+ * to the specified destination output stream.  Like {@link GunzippingOutputStream} the framing
+ * is parsed incrementally as bytes are written and decoding happens on the writing thread.
+ * <p>
+ * At most one block (128KB) of input is buffered at a time.  The decoded history needed to
+ * resolve matches grows with the output up to the frame's window size, which is limited to
+ * {@link #MAX_WINDOW_SIZE}.  Concatenated frames are decoded one after another and skippable
+ * frames are ignored.  Dictionaries are not supported and content checksums are not verified.
+ */
+class ZstdDecodingOutputStream extends FilterOutputStream {
+  private static final int FRAME_MAGIC = 0xFD2FB528;
+  private static final int SKIPPABLE_FRAME_MAGIC = 0x184D2A50;
+  private static final int SKIPPABLE_FRAME_MAGIC_MASK = 0xFFFFFFF0;
+
+  private static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+  /**
+   * Largest window we agree to allocate, the minimum RFC 8878 recommends decoders support.
+   */
+  static final int MAX_WINDOW_SIZE = 8 * 1024 * 1024;
+
+  private static final int BLOCK_TYPE_RAW = 0;
+  private static final int BLOCK_TYPE_RLE = 1;
+  private static final int BLOCK_TYPE_COMPRESSED = 2;
+
+  private static final int LITERALS_TYPE_RAW = 0;
+  private static final int LITERALS_TYPE_RLE = 1;
+  private static final int LITERALS_TYPE_COMPRESSED = 2;
+
+  private static final int MAX_HUFFMAN_BITS = 11;
+  private static final int MAX_HUFFMAN_WEIGHTS_ACCURACY_LOG = 6;
+
+  private static final int MODE_PREDEFINED = 0;
+  private static final int MODE_RLE = 1;
+  private static final int MODE_FSE_COMPRESSED = 2;
+  private static final int MODE_REPEAT = 3;
+
+  private static final int LITERAL_LENGTHS = 0;
+  private static final int OFFSETS = 1;
+  private static final int MATCH_LENGTHS = 2;
+
+  private static final int[] MAX_SYMBOLS = { 35, 31, 52 };
+  private static final int[] MAX_ACCURACY_LOGS = { 9, 8, 9 };
+
+  private static final int[] LITERAL_LENGTH_BASELINES = {
+      0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+      16, 18, 20, 22, 24, 28, 32, 40, 48, 64, 128, 256, 512, 1024, 2048, 4096,
+      8192, 16384, 32768, 65536 };
+  private static final int[] LITERAL_LENGTH_EXTRA_BITS = {
+      0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+      1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10, 11, 12,
+      13, 14, 15, 16 };
+
+  private static final int[] MATCH_LENGTH_BASELINES = {
+      3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18,
+      19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34,
+      35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 131, 259, 515, 1027, 2051,
+      4099, 8195, 16387, 32771, 65539 };
+  private static final int[] MATCH_LENGTH_EXTRA_BITS = {
+      0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+      0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+      1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11,
+      12, 13, 14, 15, 16 };
+
+  private static final FseTable[] PREDEFINED_TABLES = {
+      FseTable.predefined(6, new short[] {
+          4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1,
+          2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1,
+          -1, -1, -1, -1 }),
+      FseTable.predefined(5, new short[] {
+          1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+          1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1 }),
+      FseTable.predefined(6, new short[] {
+          1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+          1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+          1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1,
+          -1, -1, -1, -1, -1 }),
+  };
+
+  private enum State {
+    MAGIC,
+    FRAME_HEADER_DESCRIPTOR,
+    FRAME_HEADER,
+    BLOCK_HEADER,
+    BLOCK,
+    CHECKSUM,
+    SKIPPABLE_FRAME_SIZE,
+    SKIPPABLE_FRAME,
+  }
+
+  private final byte[] mSingleByte = new byte[1];
+
+  /**
+   * Collects the unit of input (header, block, ...) expected by {@link #mState}.
+   */
+  private byte[] mInput = new byte[16];
+  private int mInputLength;
+  private int mNeeded;
+
+  private State mState;
+  private boolean mFrameSeen;
+  private boolean mClosed;
+  private long mSkipRemaining;
+
+  // Frame state.
+  private int mFrameHeaderDescriptor;
+  private int mWindowSize;
+  private int mBlockMaximumSize;
+  private byte[] mHistory = new byte[0];
+  private int mHistoryLength;
+  private final int[] mRepeatOffsets = new int[3];
+  private final FseTable[] mSequenceTables = new FseTable[3];
+  private boolean mHuffmanTableValid;
+
+  // Block state.
+  private boolean mLastBlock;
+  private int mBlockType;
+  private int mRleBlockSize;
+  private byte[] mLiterals = new byte[0];
+  private int mLiteralsLength;
+
+  // Scratch space, reused across blocks.
+  private final BackwardBitReader mBits = new BackwardBitReader();
+  private final FseTable[] mScratchTables = {
+      new FseTable(MAX_ACCURACY_LOGS[LITERAL_LENGTHS]),
+      new FseTable(MAX_ACCURACY_LOGS[OFFSETS]),
+      new FseTable(MAX_ACCURACY_LOGS[MATCH_LENGTHS]),
+  };
+  private final FseTable mHuffmanWeightsTable = new FseTable(MAX_HUFFMAN_WEIGHTS_ACCURACY_LOG);
+  private final int[] mHuffmanWeights = new int[256];
+  private final byte[] mHuffmanSymbols = new byte[1 << MAX_HUFFMAN_BITS];
+  private final byte[] mHuffmanNumberOfBits = new byte[1 << MAX_HUFFMAN_BITS];
+  private int mHuffmanMaxBits;
+
+  public static ZstdDecodingOutputStream create(OutputStream finalOut) {
+    return new ZstdDecodingOutputStream(finalOut);
+  }
+
+  private ZstdDecodingOutputStream(OutputStream out) {
+    super(out);
+    expectInput(State.MAGIC, 4);
+  }
+
+  @Override
+  public void write(int oneByte) throws IOException {
+    mSingleByte[0] = (byte) oneByte;
+    write(mSingleByte, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (mClosed) {
+      throw new IOException("Stream closed");
+    }
+    while (len > 0) {
+      if (mState == State.SKIPPABLE_FRAME) {
+        int count = (int) Math.min(len, mSkipRemaining);
+        off += count;
+        len -= count;
+        mSkipRemaining -= count;
+        if (mSkipRemaining == 0) {
+          mFrameSeen = true;
+          expectInput(State.MAGIC, 4);
+        }
+      } else {
+        int count = Math.min(len, mNeeded - mInputLength);
+        System.arraycopy(b, off, mInput, mInputLength, count);
+        mInputLength += count;
+        off += count;
+        len -= count;
+        if (mInputLength == mNeeded) {
+          onInputReady();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (mClosed) {
+      return;
+    }
+    mClosed = true;
+    try {
+      if (mState != State.MAGIC || mInputLength != 0 || !mFrameSeen) {
+        throw new EOFException("Unexpected end of zstd stream");
+      }
+    } finally {
+      super.close();
+    }
+  }
+
+  private void expectInput(State state, int count) {
+    mState = state;
+    mNeeded = count;
+    mInputLength = 0;
+    if (mInput.length < count) {
+      mInput = new byte[Math.max(count, Math.min(mInput.length * 2, MAX_BLOCK_SIZE))];
+    }
+  }
+
+  private void onInputReady() throws IOException {
+    // Units of input may be empty (such as a raw block of size 0), handle those right away.
+    do {
+      onUnitReady();
+    } while (mNeeded == 0 && mState != State.SKIPPABLE_FRAME);
+  }
+
+  private void onUnitReady() throws IOException {
+    switch (mState) {
+      case MAGIC:
+        int magic = (int) readLittleEndian(mInput, 0, 4);
+        if (magic == FRAME_MAGIC) {
+          expectInput(State.FRAME_HEADER_DESCRIPTOR, 1);
+        } else if ((magic & SKIPPABLE_FRAME_MAGIC_MASK) == SKIPPABLE_FRAME_MAGIC) {
+          expectInput(State.SKIPPABLE_FRAME_SIZE, 4);
+        } else {
+          throw new IOException("Not in zstd format");
+        }
+        break;
+      case FRAME_HEADER_DESCRIPTOR:
+        int descriptor = mInput[0] & 0xff;
+        if ((descriptor & 0x08) != 0) {
+          throw corrupt("reserved frame header bit set");
+        }
+        mFrameHeaderDescriptor = descriptor;
+        expectInput(
+            State.FRAME_HEADER,
+            (isSingleSegment() ? 0 : 1) + getDictionaryIdSize() + getFrameContentSizeSize());
+        break;
+      case FRAME_HEADER:
+        startFrame();
+        expectInput(State.BLOCK_HEADER, 3);
+        break;
+      case BLOCK_HEADER:
+        onBlockHeader((int) readLittleEndian(mInput, 0, 3));
+        break;
+      case BLOCK:
+        decodeBlock();
+        if (!mLastBlock) {
+          expectInput(State.BLOCK_HEADER, 3);
+        } else if ((mFrameHeaderDescriptor & 0x04) != 0) {
+          expectInput(State.CHECKSUM, 4);
+        } else {
+          mFrameSeen = true;
+          expectInput(State.MAGIC, 4);
+        }
+        break;
+      case CHECKSUM:
+        mFrameSeen = true;
+        expectInput(State.MAGIC, 4);
+        break;
+      case SKIPPABLE_FRAME_SIZE:
+        mSkipRemaining = readLittleEndian(mInput, 0, 4);
+        if (mSkipRemaining > 0) {
+          mState = State.SKIPPABLE_FRAME;
+          mNeeded = 0;
+          mInputLength = 0;
+        } else {
+          mFrameSeen = true;
+          expectInput(State.MAGIC, 4);
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unexpected state " + mState);
+    }
+  }
+
+  private boolean isSingleSegment() {
+    return (mFrameHeaderDescriptor & 0x20) != 0;
+  }
+
+  private int getDictionaryIdSize() {
+    switch (mFrameHeaderDescriptor & 3) {
+      case 0:
+        return 0;
+      case 1:
+        return 1;
+      case 2:
+        return 2;
+      default:
+        return 4;
+    }
+  }
+
+  private int getFrameContentSizeSize() {
+    switch (mFrameHeaderDescriptor >> 6) {
+      case 0:
+        return isSingleSegment() ? 1 : 0;
+      case 1:
+        return 2;
+      case 2:
+        return 4;
+      default:
+        return 8;
+    }
+  }
+
+  private void startFrame() throws IOException {
+    int pos = 0;
+    long windowSize = 0;
+    if (!isSingleSegment()) {
+      int windowDescriptor = mInput[pos++] & 0xff;
+      long windowBase = 1L << (10 + (windowDescriptor >> 3));
+      windowSize = windowBase + (windowBase / 8) * (windowDescriptor & 7);
+    }
+    int dictionaryIdSize = getDictionaryIdSize();
+    if (readLittleEndian(mInput, pos, dictionaryIdSize) != 0) {
+      throw new IOException("zstd dictionaries are not supported");
+    }
+    pos += dictionaryIdSize;
+    int contentSizeSize = getFrameContentSizeSize();
+    if (isSingleSegment()) {
+      windowSize = readLittleEndian(mInput, pos, contentSizeSize);
+      if (contentSizeSize == 2) {
+        windowSize += 256;
+      }
+    }
+    if (windowSize < 0 || windowSize > MAX_WINDOW_SIZE) {
+      throw new IOException("zstd window size of " + windowSize + " bytes is not supported");
+    }
+
+    mWindowSize = (int) windowSize;
+    mBlockMaximumSize = Math.min(mWindowSize, MAX_BLOCK_SIZE);
+    mHistoryLength = 0;
+    mRepeatOffsets[0] = 1;
+    mRepeatOffsets[1] = 4;
+    mRepeatOffsets[2] = 8;
+    mSequenceTables[LITERAL_LENGTHS] = null;
+    mSequenceTables[OFFSETS] = null;
+    mSequenceTables[MATCH_LENGTHS] = null;
+    mHuffmanTableValid = false;
+  }
+
+  private void onBlockHeader(int header) throws IOException {
+    mLastBlock = (header & 1) != 0;
+    mBlockType = (header >> 1) & 3;
+    int blockSize = header >>> 3;
+    if (blockSize > mBlockMaximumSize) {
+      throw corrupt("block larger than " + mBlockMaximumSize + " bytes");
+    }
+    switch (mBlockType) {
+      case BLOCK_TYPE_RAW:
+      case BLOCK_TYPE_COMPRESSED:
+        expectInput(State.BLOCK, blockSize);
+        break;
+      case BLOCK_TYPE_RLE:
+        mRleBlockSize = blockSize;
+        expectInput(State.BLOCK, 1);
+        break;
+      default:
+        throw corrupt("reserved block type");
+    }
+  }
+
+  private void decodeBlock() throws IOException {
+    ensureHistoryCapacity();
+    int blockStart = mHistoryLength;
+    switch (mBlockType) {
+      case BLOCK_TYPE_RAW:
+        System.arraycopy(mInput, 0, mHistory, mHistoryLength, mNeeded);
+        mHistoryLength += mNeeded;
+        break;
+      case BLOCK_TYPE_RLE:
+        fill(mHistory, mHistoryLength, mRleBlockSize, mInput[0]);
+        mHistoryLength += mRleBlockSize;
+        break;
+      default:
+        decodeCompressedBlock(mInput, 0, mNeeded);
+        break;
+    }
+    if (mHistoryLength > blockStart) {
+      out.write(mHistory, blockStart, mHistoryLength - blockStart);
+    }
+  }
+
+  /**
+   * Make room for one more block of output, discarding history which has fallen out of the
+   * window.  The buffer grows with the output rather than being sized to the window up front
+   * since the window is often far larger than the content.
+   */
+  private void ensureHistoryCapacity() {
+    if (mHistoryLength + mBlockMaximumSize <= mHistory.length) {
+      return;
+    }
+    if (mHistoryLength > mWindowSize) {
+      System.arraycopy(mHistory, mHistoryLength - mWindowSize, mHistory, 0, mWindowSize);
+      mHistoryLength = mWindowSize;
+      if (mHistoryLength + mBlockMaximumSize <= mHistory.length) {
+        return;
+      }
+    }
+    int maximumCapacity = mWindowSize + Math.max(2 * mBlockMaximumSize, mWindowSize / 2);
+    int capacity = Math.max(mHistory.length * 2, 4 * mBlockMaximumSize);
+    capacity = Math.min(capacity, maximumCapacity);
+    capacity = Math.max(capacity, mHistoryLength + mBlockMaximumSize);
+    byte[] history = new byte[capacity];
+    System.arraycopy(mHistory, 0, history, 0, mHistoryLength);
+    mHistory = history;
+  }
+
+  private void decodeCompressedBlock(byte[] in, int off, int end) throws IOException {
+    int pos = decodeLiterals(in, off, end);
+    decodeSequences(in, pos, end);
+  }
+
+  /**
+   * Decode the literals section of a compressed block into {@link #mLiterals}.
+   *
+   * @return Offset of the sequences section.
+   */
+  private int decodeLiterals(byte[] in, int off, int end) throws IOException {
+    checkAvailable(off, 1, end);
+    int literalsType = in[off] & 3;
+    int sizeFormat = (in[off] >> 2) & 3;
+    int headerSize;
+    int regeneratedSize;
+    if (literalsType == LITERALS_TYPE_RAW || literalsType == LITERALS_TYPE_RLE) {
+      headerSize = sizeFormat == 3 ? 3 : sizeFormat == 1 ? 2 : 1;
+      checkAvailable(off, headerSize, end);
+      int header = (int) readLittleEndian(in, off, headerSize);
+      regeneratedSize = header >>> (headerSize == 1 ? 3 : 4);
+      ensureLiteralsCapacity(regeneratedSize);
+      int pos = off + headerSize;
+      if (literalsType == LITERALS_TYPE_RAW) {
+        checkAvailable(pos, regeneratedSize, end);
+        System.arraycopy(in, pos, mLiterals, 0, regeneratedSize);
+        return pos + regeneratedSize;
+      } else {
+        checkAvailable(pos, 1, end);
+        fill(mLiterals, 0, regeneratedSize, in[pos]);
+        return pos + 1;
+      }
+    }
+
+    int compressedSize;
+    headerSize = sizeFormat < 2 ? 3 : sizeFormat + 2;
+    checkAvailable(off, headerSize, end);
+    long header = readLittleEndian(in, off, headerSize);
+    int sizeBits = 6 + 4 * headerSize - 8;
+    int sizeMask = (1 << sizeBits) - 1;
+    regeneratedSize = (int) (header >>> 4) & sizeMask;
+    compressedSize = (int) (header >>> (4 + sizeBits)) & sizeMask;
+    ensureLiteralsCapacity(regeneratedSize);
+
+    int pos = off + headerSize;
+    int literalsEnd = pos + compressedSize;
+    checkAvailable(pos, compressedSize, end);
+    if (literalsType == LITERALS_TYPE_COMPRESSED) {
+      pos = readHuffmanTable(in, pos, literalsEnd);
+    } else if (!mHuffmanTableValid) {
+      throw corrupt("treeless literals without a previous Huffman table");
+    }
+
+    if (sizeFormat == 0) {
+      decodeHuffmanStream(in, pos, literalsEnd, 0, regeneratedSize);
+    } else {
+      checkAvailable(pos, 6, literalsEnd);
+      int size1 = (int) readLittleEndian(in, pos, 2);
+      int size2 = (int) readLittleEndian(in, pos + 2, 2);
+      int size3 = (int) readLittleEndian(in, pos + 4, 2);
+      pos += 6;
+      int size4 = literalsEnd - pos - size1 - size2 - size3;
+      int segmentSize = (regeneratedSize + 3) / 4;
+      int lastSegmentSize = regeneratedSize - 3 * segmentSize;
+      if (size4 < 1 || lastSegmentSize < 0) {
+        throw corrupt("bad Huffman jump table");
+      }
+      decodeHuffmanStream(in, pos, pos + size1, 0, segmentSize);
+      pos += size1;
+      decodeHuffmanStream(in, pos, pos + size2, segmentSize, segmentSize);
+      pos += size2;
+      decodeHuffmanStream(in, pos, pos + size3, 2 * segmentSize, segmentSize);
+      pos += size3;
+      decodeHuffmanStream(in, pos, literalsEnd, 3 * segmentSize, lastSegmentSize);
+    }
+    return literalsEnd;
+  }
+
+  private void ensureLiteralsCapacity(int regeneratedSize) throws IOException {
+    if (regeneratedSize > mBlockMaximumSize) {
+      throw corrupt("literals larger than the block");
+    }
+    if (mLiterals.length < regeneratedSize) {
+      mLiterals = new byte[mBlockMaximumSize];
+    }
+    mLiteralsLength = regeneratedSize;
+  }
+
+  /**
+   * Read a Huffman tree description and build the decoding table for it.
+   *
+   * @return Offset of the first byte after the description.
+   */
+  private int readHuffmanTable(byte[] in, int off, int end) throws IOException {
+    checkAvailable(off, 1, end);
+    int header = in[off] & 0xff;
+    int pos = off + 1;
+    int[] weights = mHuffmanWeights;
+    int weightCount;
+    if (header < 128) {
+      checkAvailable(pos, header, end);
+      weightCount = decodeHuffmanWeights(in, pos, pos + header);
+      pos += header;
+    } else {
+      weightCount = header - 127;
+      int size = (weightCount + 1) / 2;
+      checkAvailable(pos, size, end);
+      for (int i = 0; i < weightCount; i++) {
+        int b = in[pos + i / 2] & 0xff;
+        weights[i] = (i & 1) == 0 ? b >> 4 : b & 0xf;
+      }
+      pos += size;
+    }
+
+    // The weight of the last symbol is implied by the others adding up to a power of 2.
+    int total = 0;
+    for (int i = 0; i < weightCount; i++) {
+      if (weights[i] > MAX_HUFFMAN_BITS) {
+        throw corrupt("Huffman weight too large");
+      }
+      if (weights[i] > 0) {
+        total += 1 << (weights[i] - 1);
+      }
+    }
+    if (total == 0) {
+      throw corrupt("empty Huffman table");
+    }
+    int maxBits = highBit(total) + 1;
+    int rest = (1 << maxBits) - total;
+    if (maxBits > MAX_HUFFMAN_BITS || Integer.bitCount(rest) != 1) {
+      throw corrupt("bad Huffman weights");
+    }
+    weights[weightCount++] = highBit(rest) + 1;
+
+    // Symbols with the smallest weight (longest code) get the lowest codes, ties broken by
+    // symbol order.  Each symbol fills 2^(weight - 1) consecutive entries of the table.
+    int position = 0;
+    for (int weight = 1; weight <= maxBits; weight++) {
+      int span = 1 << (weight - 1);
+      byte numberOfBits = (byte) (maxBits + 1 - weight);
+      for (int symbol = 0; symbol < weightCount; symbol++) {
+        if (weights[symbol] == weight) {
+          fill(mHuffmanSymbols, position, span, (byte) symbol);
+          fill(mHuffmanNumberOfBits, position, span, numberOfBits);
+          position += span;
+        }
+      }
+    }
+    mHuffmanMaxBits = maxBits;
+    mHuffmanTableValid = true;
+    return pos;
+  }
+
+  /**
+   * Decode FSE compressed Huffman weights into {@link #mHuffmanWeights}.
+   *
+   * @return Number of weights decoded.
+   */
+  private int decodeHuffmanWeights(byte[] in, int off, int end) throws IOException {
+    FseTable table = mHuffmanWeightsTable;
+    int pos = off + readFseTable(in, off, end, table, 255, MAX_HUFFMAN_WEIGHTS_ACCURACY_LOG);
+    BackwardBitReader bits = mBits;
+    bits.init(in, pos, end);
+    int[] weights = mHuffmanWeights;
+    int state1 = bits.read(table.accuracyLog);
+    int state2 = bits.read(table.accuracyLog);
+    int count = 0;
+    // Two interleaved states; once the bits run out the other state has one symbol left.
+    while (true) {
+      if (count > 253) {
+        throw corrupt("too many Huffman weights");
+      }
+      weights[count++] = table.symbols[state1];
+      state1 = table.baselines[state1] + bits.read(table.numberOfBits[state1]);
+      if (bits.isOverflowed()) {
+        weights[count++] = table.symbols[state2];
+        return count;
+      }
+      weights[count++] = table.symbols[state2];
+      state2 = table.baselines[state2] + bits.read(table.numberOfBits[state2]);
+      if (bits.isOverflowed()) {
+        weights[count++] = table.symbols[state1];
+        return count;
+      }
+    }
+  }
+
+  private void decodeHuffmanStream(byte[] in, int off, int end, int literalsOffset, int count)
+      throws IOException {
+    BackwardBitReader bits = mBits;
+    bits.init(in, off, end);
+    byte[] literals = mLiterals;
+    byte[] symbols = mHuffmanSymbols;
+    byte[] numberOfBits = mHuffmanNumberOfBits;
+    int maxBits = mHuffmanMaxBits;
+    for (int i = 0; i < count; i++) {
+      int index = bits.peek(maxBits);
+      literals[literalsOffset + i] = symbols[index];
+      bits.skip(numberOfBits[index]);
+    }
+    if (!bits.isFinished()) {
+      throw corrupt("Huffman stream size mismatch");
+    }
+  }
+
+  private void decodeSequences(byte[] in, int off, int end) throws IOException {
+    checkAvailable(off, 1, end);
+    int pos = off;
+    int first = in[pos++] & 0xff;
+    int sequenceCount;
+    if (first < 128) {
+      sequenceCount = first;
+    } else if (first < 255) {
+      checkAvailable(pos, 1, end);
+      sequenceCount = ((first - 128) << 8) + (in[pos++] & 0xff);
+    } else {
+      checkAvailable(pos, 2, end);
+      sequenceCount = (int) readLittleEndian(in, pos, 2) + 0x7f00;
+      pos += 2;
+    }
+    if (sequenceCount == 0) {
+      if (pos != end) {
+        throw corrupt("data after empty sequences section");
+      }
+      appendLiterals(0, mLiteralsLength);
+      return;
+    }
+
+    checkAvailable(pos, 1, end);
+    int modes = in[pos++] & 0xff;
+    if ((modes & 3) != 0) {
+      throw corrupt("reserved sequence compression mode bits set");
+    }
+    pos = readSequenceTable(LITERAL_LENGTHS, modes >> 6, in, pos, end);
+    pos = readSequenceTable(OFFSETS, (modes >> 4) & 3, in, pos, end);
+    pos = readSequenceTable(MATCH_LENGTHS, (modes >> 2) & 3, in, pos, end);
+
+    FseTable literalLengths = mSequenceTables[LITERAL_LENGTHS];
+    FseTable offsets = mSequenceTables[OFFSETS];
+    FseTable matchLengths = mSequenceTables[MATCH_LENGTHS];
+    BackwardBitReader bits = mBits;
+    bits.init(in, pos, end);
+    int literalLengthState = bits.read(literalLengths.accuracyLog);
+    int offsetState = bits.read(offsets.accuracyLog);
+    int matchLengthState = bits.read(matchLengths.accuracyLog);
+
+    int blockLimit = mHistoryLength + mBlockMaximumSize;
+    int literalsPosition = 0;
+    for (int i = 0; i < sequenceCount; i++) {
+      int literalLengthCode = literalLengths.symbols[literalLengthState];
+      int offsetCode = offsets.symbols[offsetState];
+      int matchLengthCode = matchLengths.symbols[matchLengthState];
+
+      // Extra bits are read in the order offset, match length, literal length.
+      long offsetValue = (1L << offsetCode) + bits.read(offsetCode);
+      int matchLength =
+          MATCH_LENGTH_BASELINES[matchLengthCode] +
+          bits.read(MATCH_LENGTH_EXTRA_BITS[matchLengthCode]);
+      int literalLength =
+          LITERAL_LENGTH_BASELINES[literalLengthCode] +
+          bits.read(LITERAL_LENGTH_EXTRA_BITS[literalLengthCode]);
+      int offset = resolveOffset(offsetValue, literalLength);
+
+      if (i != sequenceCount - 1) {
+        // ... but the states are updated in the order literal length, match length, offset.
+        literalLengthState =
+            literalLengths.baselines[literalLengthState] +
+            bits.read(literalLengths.numberOfBits[literalLengthState]);
+        matchLengthState =
+            matchLengths.baselines[matchLengthState] +
+            bits.read(matchLengths.numberOfBits[matchLengthState]);
+        offsetState =
+            offsets.baselines[offsetState] +
+            bits.read(offsets.numberOfBits[offsetState]);
+      }
+
+      if (literalLength > mLiteralsLength - literalsPosition) {
+        throw corrupt("sequence uses more literals than available");
+      }
+      if (literalLength + matchLength > blockLimit - mHistoryLength) {
+        throw corrupt("block decodes to more than " + mBlockMaximumSize + " bytes");
+      }
+      appendLiterals(literalsPosition, literalLength);
+      literalsPosition += literalLength;
+      appendMatch(offset, matchLength);
+    }
+    if (!bits.isFinished()) {
+      throw corrupt("sequences bitstream size mismatch");
+    }
+    int remaining = mLiteralsLength - literalsPosition;
+    if (remaining > blockLimit - mHistoryLength) {
+      throw corrupt("block decodes to more than " + mBlockMaximumSize + " bytes");
+    }
+    appendLiterals(literalsPosition, remaining);
+  }
+
+  private int readSequenceTable(int kind, int mode, byte[] in, int off, int end)
+      throws IOException {
+    switch (mode) {
+      case MODE_PREDEFINED:
+        mSequenceTables[kind] = PREDEFINED_TABLES[kind];
+        return off;
+      case MODE_RLE:
+        checkAvailable(off, 1, end);
+        int symbol = in[off] & 0xff;
+        if (symbol > MAX_SYMBOLS[kind]) {
+          throw corrupt("sequence symbol out of range");
+        }
+        mScratchTables[kind].setRle(symbol);
+        mSequenceTables[kind] = mScratchTables[kind];
+        return off + 1;
+      case MODE_FSE_COMPRESSED:
+        FseTable table = mScratchTables[kind];
+        int size = readFseTable(in, off, end, table, MAX_SYMBOLS[kind], MAX_ACCURACY_LOGS[kind]);
+        mSequenceTables[kind] = table;
+        return off + size;
+      case MODE_REPEAT:
+        if (mSequenceTables[kind] == null) {
+          throw corrupt("repeated sequence table without a previous one");
+        }
+        return off;
+      default:
+        throw new IllegalArgumentException("Unknown mode " + mode);
+    }
+  }
+
+  private int resolveOffset(long offsetValue, int literalLength) throws IOException {
+    int[] repeatOffsets = mRepeatOffsets;
+    if (offsetValue > 3) {
+      if (offsetValue - 3 > mHistoryLength + MAX_BLOCK_SIZE) {
+        throw corrupt("offset beyond the window");
+      }
+      int offset = (int) (offsetValue - 3);
+      repeatOffsets[2] = repeatOffsets[1];
+      repeatOffsets[1] = repeatOffsets[0];
+      repeatOffsets[0] = offset;
+      return offset;
+    }
+    // Repeat offsets are shifted by one when there are no literals in the sequence.
+    int index = (int) offsetValue - 1 + (literalLength == 0 ? 1 : 0);
+    if (index == 0) {
+      return repeatOffsets[0];
+    }
+    int offset = index == 3 ? repeatOffsets[0] - 1 : repeatOffsets[index];
+    if (offset == 0) {
+      throw corrupt("zero offset");
+    }
+    if (index != 1) {
+      repeatOffsets[2] = repeatOffsets[1];
+    }
+    repeatOffsets[1] = repeatOffsets[0];
+    repeatOffsets[0] = offset;
+    return offset;
+  }
+
+  private void appendLiterals(int literalsOffset, int count) {
+    System.arraycopy(mLiterals, literalsOffset, mHistory, mHistoryLength, count);
+    mHistoryLength += count;
+  }
+
+  private void appendMatch(int offset, int length) throws IOException {
+    if (offset > mHistoryLength) {
+      throw corrupt("offset beyond the start of the frame");
+    }
+    byte[] history = mHistory;
+    int from = mHistoryLength - offset;
+    int to = mHistoryLength;
+    if (offset >= length) {
+      System.arraycopy(history, from, history, to, length);
+    } else {
+      // Overlapping copy, repeats the last offset bytes.
+      for (int i = 0; i < length; i++) {
+        history[to + i] = history[from + i];
+      }
+    }
+    mHistoryLength += length;
+  }
+
+  /**
+   * Read an FSE table description (RFC 8878 section 4.1.1) and build its decoding table.
+   *
+   * @return Number of bytes the description occupied.
+   */
+  private static int readFseTable(
+      byte[] in,
+      int off,
+      int end,
+      FseTable table,
+      int maxSymbol,
+      int maxAccuracyLog) throws IOException {
+    int bitPosition = 0;
+    int accuracyLog = readForwardBits(in, off, end, bitPosition, 4) + 5;
+    bitPosition += 4;
+    if (accuracyLog > maxAccuracyLog) {
+      throw corrupt("FSE accuracy log too large");
+    }
+    short[] probabilities = table.probabilities;
+    int remaining = (1 << accuracyLog) + 1;
+    int threshold = 1 << accuracyLog;
+    int bitCount = accuracyLog + 1;
+    int symbol = 0;
+    boolean previousZero = false;
+    while (remaining > 1 && symbol <= maxSymbol) {
+      if (previousZero) {
+        int zeroes = symbol;
+        int repeat;
+        do {
+          repeat = readForwardBits(in, off, end, bitPosition, 2);
+          bitPosition += 2;
+          zeroes += repeat;
+        } while (repeat == 3);
+        if (zeroes > maxSymbol) {
+          throw corrupt("FSE symbol out of range");
+        }
+        while (symbol < zeroes) {
+          probabilities[symbol++] = 0;
+        }
+      }
+      int max = (2 * threshold - 1) - remaining;
+      int value = readForwardBits(in, off, end, bitPosition, bitCount);
+      int count;
+      if ((value & (threshold - 1)) < max) {
+        count = value & (threshold - 1);
+        bitPosition += bitCount - 1;
+      } else {
+        count = value & (2 * threshold - 1);
+        if (count >= threshold) {
+          count -= max;
+        }
+        bitPosition += bitCount;
+      }
+      count--;
+      remaining -= count < 0 ? -count : count;
+      probabilities[symbol++] = (short) count;
+      previousZero = count == 0;
+      if (remaining < 1) {
+        throw corrupt("FSE probabilities overflow");
+      }
+      while (remaining < threshold) {
+        bitCount--;
+        threshold >>= 1;
+      }
+    }
+    int size = (bitPosition + 7) >> 3;
+    if (remaining != 1 || off + size > end) {
+      throw corrupt("bad FSE table description");
+    }
+    table.build(accuracyLog, symbol);
+    return size;
+  }
+
+  private static int readForwardBits(byte[] in, int off, int end, int bitPosition, int count) {
+    int index = off + (bitPosition >> 3);
+    long value = 0;
+    for (int i = 0; i < 4 && index + i < end; i++) {
+      value |= (long) (in[index + i] & 0xff) << (8 * i);
+    }
+    return (int) ((value >>> (bitPosition & 7)) & ((1L << count) - 1));
+  }
+
+  private static long readLittleEndian(byte[] in, int off, int size) {
+    long value = 0;
+    for (int i = size - 1; i >= 0; i--) {
+      value = (value << 8) | (in[off + i] & 0xff);
+    }
+    return value;
+  }
+
+  private static void fill(byte[] array, int off, int count, byte value) {
+    for (int i = off, end = off + count; i < end; i++) {
+      array[i] = value;
+    }
+  }
+
+  private static int highBit(int value) {
+    return 31 - Integer.numberOfLeadingZeros(value);
+  }
+
+  private static void checkAvailable(int off, int count, int end) throws IOException {
+    if (count < 0 || off + count > end) {
+      throw corrupt("truncated block");
+    }
+  }
+
+  private static IOException corrupt(String detail) {
+    return new IOException("Corrupt zstd data: " + detail);
+  }
+
+  /**
+   * Decoding table for a finite state entropy (tANS) coded stream.
+   */
+  private static final class FseTable {
+    public int accuracyLog;
+    public final int[] symbols;
+    public final int[] numberOfBits;
+    public final int[] baselines;
+
+    public final short[] probabilities = new short[256];
+    private final int[] mNextStates = new int[256];
+
+    public FseTable(int maxAccuracyLog) {
+      int size = 1 << maxAccuracyLog;
+      symbols = new int[size];
+      numberOfBits = new int[size];
+      baselines = new int[size];
+    }
+
+    public static FseTable predefined(int accuracyLog, short[] probabilities) {
+      FseTable table = new FseTable(accuracyLog);
+      System.arraycopy(probabilities, 0, table.probabilities, 0, probabilities.length);
+      try {
+        table.build(accuracyLog, probabilities.length);
+      } catch (IOException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+      return table;
+    }
+
+    /**
+     * Table which always yields {@code symbol} without consuming any bits.
+     */
+    public void setRle(int symbol) {
+      accuracyLog = 0;
+      symbols[0] = symbol;
+      numberOfBits[0] = 0;
+      baselines[0] = 0;
+    }
+
+    /**
+     * Spread the symbols according to {@link #probabilities} (RFC 8878 section 4.1.1).
+     */
+    public void build(int accuracyLog, int symbolCount) throws IOException {
+      int tableSize = 1 << accuracyLog;
+      int highThreshold = tableSize - 1;
+      for (int symbol = 0; symbol < symbolCount; symbol++) {
+        if (probabilities[symbol] == -1) {
+          symbols[highThreshold--] = symbol;
+          mNextStates[symbol] = 1;
+        } else {
+          mNextStates[symbol] = probabilities[symbol];
+        }
+      }
+
+      int step = (tableSize >> 1) + (tableSize >> 3) + 3;
+      int mask = tableSize - 1;
+      int position = 0;
+      for (int symbol = 0; symbol < symbolCount; symbol++) {
+        for (int i = 0; i < probabilities[symbol]; i++) {
+          symbols[position] = symbol;
+          do {
+            position = (position + step) & mask;
+          } while (position > highThreshold);
+        }
+      }
+      if (position != 0) {
+        throw corrupt("bad FSE probabilities");
+      }
+
+      for (int state = 0; state < tableSize; state++) {
+        int nextState = mNextStates[symbols[state]]++;
+        int bits = accuracyLog - highBit(nextState);
+        numberOfBits[state] = bits;
+        baselines[state] = (nextState << bits) - tableSize;
+      }
+      this.accuracyLog = accuracyLog;
+    }
+  }
+
+  /**
+   * Reads a bitstream from its end towards its start, as entropy coded zstd streams are
+   * written.  The highest set bit of the last byte marks where the data begins.  Reading past
+   * the start yields zeroes, which {@link #isOverflowed()} reports.
+   */
+  private static final class BackwardBitReader {
+    private byte[] mBuffer;
+    private int mStart;
+    private int mPosition;
+
+    public void init(byte[] buffer, int start, int end) throws IOException {
+      if (end <= start || buffer[end - 1] == 0) {
+        throw corrupt("bad bitstream end marker");
+      }
+      mBuffer = buffer;
+      mStart = start;
+      mPosition = (end - 1 - start) * 8 + highBit(buffer[end - 1] & 0xff);
+    }
+
+    public int read(int count) {
+      if (count == 0) {
+        return 0;
+      }
+      mPosition -= count;
+      return get(mPosition, count);
+    }
+
+    public int peek(int count) {
+      return get(mPosition - count, count);
+    }
+
+    public void skip(int count) {
+      mPosition -= count;
+    }
+
+    public boolean isOverflowed() {
+      return mPosition < 0;
+    }
+
+    public boolean isFinished() {
+      return mPosition == 0;
+    }
+
+    private int get(int bitPosition, int count) {
+      int firstByte = bitPosition >> 3;
+      int shift = bitPosition & 7;
+      long value = 0;
+      for (int i = (shift + count - 1) >> 3; i >= 0; i--) {
+        int index = firstByte + i;
+        value <<= 8;
+        if (index >= 0) {
+          value |= mBuffer[mStart + index] & 0xff;
+        }
+      }
+      return (int) ((value >>> shift) & ((1L << count) - 1));
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.protocol;
+
+import javax.annotation.Nullable;
+
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+
+import org.json.JSONObject;
+
+/**
+ * Calls one {@link ChromeDevtoolsMethod} directly rather than through reflection.  For each
+ * class declaring such methods the annotation processor generates a
+ * {@code <BinaryName>$$MethodInvokers} {@link Provider} in the same package; classes without one
+ * are invoked reflectively.
+ */
+public interface ChromeDevtoolsMethodInvoker {
+  String PROVIDER_SUFFIX = "$$MethodInvokers";
+
+  /**
+   * @param domain Instance of the class which declares the method (or a subclass).
+   * @return Whatever the method returned, or null if it is {@code void}.
+   * @throws JsonRpcException As thrown by the method.  Other checked exceptions are wrapped in
+   *     a {@link RuntimeException}, as are those thrown from a reflective call.
+   */
+  @Nullable
+  Object invoke(ChromeDevtoolsDomain domain, JsonRpcPeer peer, @Nullable JSONObject params)
+      throws JsonRpcException;
+
+  interface Provider {
+    /**
+     * @return Invoker for the method of this name declared by the class, or null if none was
+     *     generated for it.
+     */
+    @Nullable
+    ChromeDevtoolsMethodInvoker get(String methodName);
+  }
+}
@@ -228,7 +228,7 @@ public class CSS implements ChromeDevtoolsDomain {
     }
   }
 
-  private static class CSSComputedStyleProperty {
+  static class CSSComputedStyleProperty {
     @JsonProperty(required = true)
     public String name;
 
@@ -236,7 +236,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public String value;
   }
 
-  private static class RuleMatch {
+  static class RuleMatch {
     @JsonProperty
     public CSSRule rule;
 
@@ -244,7 +244,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public List<Integer> matchingSelectors;
   }
 
-  private static class SelectorList {
+  static class SelectorList {
     @JsonProperty
     public List<Selector> selectors;
 
@@ -252,7 +252,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public String text;
   }
 
-  private static class SourceRange {
+  static class SourceRange {
     @JsonProperty(required = true)
     public int startLine;
 
@@ -266,7 +266,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public int endColumn;
   }
 
-  private static class Selector {
+  static class Selector {
     @JsonProperty(required = true)
     public String value;
 
@@ -274,7 +274,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public SourceRange range;
   }
 
-  private static class CSSRule {
+  static class CSSRule {
     @JsonProperty
     public String styleSheetId;
 
@@ -288,7 +288,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public CSSStyle style;
   }
 
-  private static class CSSStyle {
+  static class CSSStyle {
     @JsonProperty
     public String styleSheetId;
 
@@ -305,7 +305,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public SourceRange range;
   }
 
-  private static class ShorthandEntry {
+  static class ShorthandEntry {
     @JsonProperty(required = true)
     public String name;
 
@@ -316,7 +316,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public Boolean important;
   }
 
-  private static class CSSProperty {
+  static class CSSProperty {
     @JsonProperty(required = true)
     public String name;
 
@@ -342,7 +342,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public SourceRange range;
   }
 
-  private static class PseudoIdMatches {
+  static class PseudoIdMatches {
     @JsonProperty(required = true)
     public int pseudoId;
 
@@ -354,12 +354,12 @@ public class CSS implements ChromeDevtoolsDomain {
     }
   }
 
-  private static class GetComputedStyleForNodeRequest {
+  static class GetComputedStyleForNodeRequest {
     @JsonProperty(required = true)
     public int nodeId;
   }
 
-  private static class InheritedStyleEntry {
+  static class InheritedStyleEntry {
     @JsonProperty(required = true)
     public CSSStyle inlineStyle;
 
@@ -367,12 +367,12 @@ public class CSS implements ChromeDevtoolsDomain {
     public List<RuleMatch> matchedCSSRules;
   }
 
-  private static class GetComputedStyleForNodeResult implements JsonRpcResult {
+  static class GetComputedStyleForNodeResult implements JsonRpcResult {
     @JsonProperty(required = true)
     public List<CSSComputedStyleProperty> computedStyle;
   }
 
-  private static class GetMatchedStylesForNodeRequest implements JsonRpcResult {
+  static class GetMatchedStylesForNodeRequest implements JsonRpcResult {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -383,7 +383,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public Boolean excludeInherited;
   }
 
-  private static class GetMatchedStylesForNodeResult implements JsonRpcResult {
+  static class GetMatchedStylesForNodeResult implements JsonRpcResult {
     @JsonProperty
     public List<RuleMatch> matchedCSSRules;
 
@@ -394,7 +394,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public List<InheritedStyleEntry> inherited;
   }
 
-  private static class SetPropertyTextRequest implements JsonRpcResult {
+  static class SetPropertyTextRequest implements JsonRpcResult {
     @JsonProperty(required = true)
     public String styleSheetId;
 
@@ -402,7 +402,7 @@ public class CSS implements ChromeDevtoolsDomain {
     public String text;
   }
 
-  private static class SetPropertyTextResult implements JsonRpcResult {
+  static class SetPropertyTextResult implements JsonRpcResult {
     @JsonProperty(required = true)
     public CSSStyle style;
   }
@@ -404,12 +404,12 @@ public class DOM implements ChromeDevtoolsDomain {
     }
   }
 
-  private static class GetDocumentResponse implements JsonRpcResult {
+  static class GetDocumentResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public Node root;
   }
 
-  private static class Node implements JsonRpcResult {
+  static class Node implements JsonRpcResult {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -435,7 +435,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public List<String> attributes;
   }
 
-  private static class AttributeModifiedEvent {
+  static class AttributeModifiedEvent {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -446,7 +446,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public String value;
   }
 
-  private static class AttributeRemovedEvent {
+  static class AttributeRemovedEvent {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -454,7 +454,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public String name;
   }
 
-  private static class ChildNodeInsertedEvent {
+  static class ChildNodeInsertedEvent {
     @JsonProperty(required = true)
     public int parentNodeId;
 
@@ -465,7 +465,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public Node node;
   }
 
-  private static class ChildNodeRemovedEvent {
+  static class ChildNodeRemovedEvent {
     @JsonProperty(required = true)
     public int parentNodeId;
 
@@ -473,7 +473,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public int nodeId;
   }
 
-  private static class HighlightNodeRequest {
+  static class HighlightNodeRequest {
     @JsonProperty(required = true)
     public HighlightConfig highlightConfig;
 
@@ -484,17 +484,17 @@ public class DOM implements ChromeDevtoolsDomain {
     public String objectId;
   }
 
-  private static class HighlightConfig {
+  static class HighlightConfig {
     @JsonProperty
     public RGBAColor contentColor;
   }
 
-  private static class InspectNodeRequestedEvent {
+  static class InspectNodeRequestedEvent {
     @JsonProperty
     public int nodeId;
   }
 
-  private static class SetInspectModeEnabledRequest {
+  static class SetInspectModeEnabledRequest {
     @JsonProperty(required = true)
     public boolean enabled;
 
@@ -505,7 +505,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public HighlightConfig highlightConfig;
   }
 
-  private static class RGBAColor {
+  static class RGBAColor {
     @JsonProperty(required = true)
     public int r;
 
@@ -531,7 +531,7 @@ public class DOM implements ChromeDevtoolsDomain {
     }
   }
 
-  private static class ResolveNodeRequest {
+  static class ResolveNodeRequest {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -539,7 +539,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public String objectGroup;
   }
 
-  private static class SetAttributesAsTextRequest {
+  static class SetAttributesAsTextRequest {
     @JsonProperty(required = true)
     public int nodeId;
 
@@ -547,12 +547,12 @@ public class DOM implements ChromeDevtoolsDomain {
     public String text;
   }
 
-  private static class ResolveNodeResponse implements JsonRpcResult {
+  static class ResolveNodeResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public Runtime.RemoteObject object;
   }
 
-  private static class PerformSearchRequest {
+  static class PerformSearchRequest {
     @JsonProperty(required = true)
     public String query;
 
@@ -560,7 +560,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public Boolean includeUserAgentShadowDOM;
   }
 
-  private static class PerformSearchResponse implements JsonRpcResult {
+  static class PerformSearchResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public String searchId;
 
@@ -568,7 +568,7 @@ public class DOM implements ChromeDevtoolsDomain {
     public int resultCount;
   }
 
-  private static class GetSearchResultsRequest {
+  static class GetSearchResultsRequest {
     @JsonProperty(required = true)
     public String searchId;
 
@@ -579,12 +579,12 @@ public class DOM implements ChromeDevtoolsDomain {
     public int toIndex;
   }
 
-  private static class GetSearchResultsResponse implements JsonRpcResult {
+  static class GetSearchResultsResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public List<Integer> nodeIds;
   }
 
-  private static class DiscardSearchResultsRequest {
+  static class DiscardSearchResultsRequest {
     @JsonProperty(required = true)
     public String searchId;
   }
@@ -311,12 +311,12 @@ public class Database implements ChromeDevtoolsDomain {
     }
   }
 
-  private static class GetDatabaseTableNamesRequest {
+  static class GetDatabaseTableNamesRequest {
     @JsonProperty(required = true)
     public String databaseId;
   }
 
-  private static class GetDatabaseTableNamesResponse implements JsonRpcResult {
+  static class GetDatabaseTableNamesResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public List<String> tableNames;
   }
@@ -29,12 +29,12 @@ public class HeapProfiler implements ChromeDevtoolsDomain {
     return response;
   }
 
-  private static class ProfileHeaderResponse implements JsonRpcResult {
+  static class ProfileHeaderResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public List<ProfileHeader> headers;
   }
 
-  private static class ProfileHeader {
+  static class ProfileHeader {
     @JsonProperty(required = true)
     public String title;
 
@@ -8,21 +8,29 @@
 package com.facebook.stetho.inspector.protocol.module;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 import android.content.Context;
+import android.util.Base64;
+import android.util.Base64OutputStream;
 
+import com.facebook.stetho.common.Utf8Charset;
 import com.facebook.stetho.common.Util;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.StreamingJsonRpcResult;
 import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
 import com.facebook.stetho.inspector.network.AsyncPrettyPrinterInitializer;
 import com.facebook.stetho.inspector.network.NetworkPeerManager;
 import com.facebook.stetho.inspector.network.ResponseBodyData;
 import com.facebook.stetho.inspector.network.ResponseBodyFileManager;
+import com.facebook.stetho.inspector.network.ResponseBodyStream;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
 import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.json.JsonEscapingOutputStream;
 import com.facebook.stetho.json.annotation.JsonProperty;
 import com.facebook.stetho.json.annotation.JsonValue;
 
@@ -30,6 +38,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 public class Network implements ChromeDevtoolsDomain {
+  private static final String TRUNCATED_BODY_MARKER =
+      "[Stetho: response body truncated to stay within the storage limit]";
+
   private final NetworkPeerManager mNetworkPeerManager;
   private final ResponseBodyFileManager mResponseBodyFileManager;
 
@@ -58,6 +69,12 @@ public class Network implements ChromeDevtoolsDomain {
       throws JsonRpcException {
     try {
       String requestId = params.getString("requestId");
+      // Bodies can be several megabytes, so unless a pretty printer has to see the whole thing
+      // they are copied from storage into the response as it is written to the socket.
+      ResponseBodyStream body = mResponseBodyFileManager.openResponseBody(requestId);
+      if (body != null) {
+        return new StreamingGetResponseBodyResponse(body);
+      }
       return readResponseBody(requestId);
     } catch (IOException e) {
       throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
@@ -83,6 +100,13 @@ public class Network implements ChromeDevtoolsDomain {
     }
     response.body = bodyData.data;
     response.base64Encoded = bodyData.base64Encoded;
+    // There's no way to annotate base64 data without corrupting it, a partial image will have
+    // to speak for itself.
+    if (bodyData.truncated && !bodyData.base64Encoded) {
+      response.body = response.body == null || response.body.isEmpty()
+          ? TRUNCATED_BODY_MARKER
+          : response.body + "\n" + TRUNCATED_BODY_MARKER;
+    }
     return response;
   }
 
@@ -98,7 +122,7 @@ public class Network implements ChromeDevtoolsDomain {
     mNetworkPeerManager.setPrettyPrinterInitializer(initializer);
   }
 
-  private static class GetResponseBodyResponse implements JsonRpcResult {
+  static class GetResponseBodyResponse implements JsonRpcResult {
     @JsonProperty(required = true)
     public String body;
 
@@ -106,6 +130,58 @@ public class Network implements ChromeDevtoolsDomain {
     public boolean base64Encoded;
   }
 
+  /**
+   * Writes the same JSON as {@link GetResponseBodyResponse}, escaping (or base64 encoding) the
+   * body on the fly.
+   */
+  static class StreamingGetResponseBodyResponse implements StreamingJsonRpcResult {
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    private static final byte[] BODY_PREFIX = "{\"body\":\"".getBytes(Utf8Charset.INSTANCE);
+    private static final byte[] BASE64_ENCODED_SUFFIX =
+        "\",\"base64Encoded\":true}".getBytes(Utf8Charset.INSTANCE);
+    private static final byte[] NOT_BASE64_ENCODED_SUFFIX =
+        "\",\"base64Encoded\":false}".getBytes(Utf8Charset.INSTANCE);
+
+    private final ResponseBodyStream mBody;
+
+    public StreamingGetResponseBodyResponse(ResponseBodyStream body) {
+      mBody = body;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      out.write(BODY_PREFIX);
+      // Neither stream closes out when closed.
+      JsonEscapingOutputStream escapingStream = new JsonEscapingOutputStream(out);
+      OutputStream bodyOut = mBody.base64Encoded
+          ? new Base64OutputStream(escapingStream, Base64.NO_WRAP)
+          : escapingStream;
+      InputStream in = mBody.inputStream;
+      byte[] buffer = new byte[COPY_BUFFER_SIZE];
+      long count = 0;
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        bodyOut.write(buffer, 0, n);
+        count += n;
+      }
+      // As in readResponseBody, base64 data is left to speak for itself.
+      if (mBody.truncated && !mBody.base64Encoded) {
+        if (count > 0) {
+          bodyOut.write('\n');
+        }
+        bodyOut.write(TRUNCATED_BODY_MARKER.getBytes(Utf8Charset.INSTANCE));
+      }
+      bodyOut.close();
+      out.write(mBody.base64Encoded ? BASE64_ENCODED_SUFFIX : NOT_BASE64_ENCODED_SUFFIX);
+    }
+
+    @Override
+    public void close() throws IOException {
+      mBody.close();
+    }
+  }
+
   public static class RequestWillBeSentParams {
     @JsonProperty(required = true)
     public String requestId;
@@ -196,12 +196,12 @@ public class Page implements ChromeDevtoolsDomain {
   public void setShowViewportSizeOnResize(JsonRpcPeer peer, JSONObject params) {
   }
 
-  private static class GetResourceTreeParams implements JsonRpcResult {
+  static class GetResourceTreeParams implements JsonRpcResult {
     @JsonProperty(required = true)
     public FrameResourceTree frameTree;
   }
 
-  private static class FrameResourceTree {
+  static class FrameResourceTree {
     @JsonProperty(required = true)
     public Frame frame;
 
@@ -212,7 +212,7 @@ public class Page implements ChromeDevtoolsDomain {
     public List<Resource> resources;
   }
 
-  private static class Frame {
+  static class Frame {
     @JsonProperty(required = true)
     public String id;
 
@@ -261,12 +261,12 @@ public class Page implements ChromeDevtoolsDomain {
     }
   }
 
-  private static class ExecutionContextCreatedParams {
+  static class ExecutionContextCreatedParams {
     @JsonProperty(required = true)
     public ExecutionContextDescription context;
   }
 
-  private static class ExecutionContextDescription {
+  static class ExecutionContextDescription {
     @JsonProperty(required = true)
     public String frameId;
 
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.protocol.module;
+
+import com.facebook.stetho.common.LatencyHistogram;
+import com.facebook.stetho.inspector.MethodCallStats;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.json.annotation.JsonProperty;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Non-standard domain reporting on Stetho itself, so that the cost of keeping the inspector
+ * attached can be measured from the other end of the connection.
+ */
+public class Stetho implements ChromeDevtoolsDomain {
+  public Stetho() {
+  }
+
+  /**
+   * Call counts and latencies of every protocol method called so far, most expensive (by total
+   * time) first.
+   */
+  @ChromeDevtoolsMethod
+  public GetMethodStatsResponse getMethodStats(JsonRpcPeer peer, JSONObject params) {
+    List<MethodCallStats> called = MethodCallStats.getCalledMethods();
+    List<MethodStats> methods = new ArrayList<>(called.size());
+    for (MethodCallStats stats : called) {
+      methods.add(toMethodStats(stats));
+    }
+    Collections.sort(methods, new Comparator<MethodStats>() {
+      @Override
+      public int compare(MethodStats lhs, MethodStats rhs) {
+        return Double.compare(rhs.totalTimeMs, lhs.totalTimeMs);
+      }
+    });
+
+    GetMethodStatsResponse response = new GetMethodStatsResponse();
+    response.methods = methods;
+    response.bucketUpperBoundsMs = getBucketUpperBoundsMs();
+    return response;
+  }
+
+  @ChromeDevtoolsMethod
+  public void resetMethodStats(JsonRpcPeer peer, JSONObject params) {
+    MethodCallStats.resetAll();
+  }
+
+  private static MethodStats toMethodStats(MethodCallStats stats) {
+    LatencyHistogram latency = stats.getLatency();
+    MethodStats methodStats = new MethodStats();
+    methodStats.method = stats.getMethodName();
+    methodStats.callCount = latency.getCount();
+    methodStats.errorCount = stats.getErrorCount();
+    methodStats.totalTimeMs = toMillis(latency.getTotalNanos());
+    methodStats.meanTimeMs = toMillis(latency.getMeanNanos());
+    methodStats.p50TimeMs = toMillis(latency.getPercentileNanos(50));
+    methodStats.p99TimeMs = toMillis(latency.getPercentileNanos(99));
+    methodStats.maxTimeMs = toMillis(latency.getMaxNanos());
+    int bucketCount = LatencyHistogram.getBucketCount();
+    methodStats.histogram = new ArrayList<>(bucketCount);
+    for (int i = 0; i < bucketCount; i++) {
+      methodStats.histogram.add(latency.getBucketValue(i));
+    }
+    return methodStats;
+  }
+
+  /**
+   * The last bucket has no upper bound and so is left out.
+   */
+  private static List<Double> getBucketUpperBoundsMs() {
+    int boundedCount = LatencyHistogram.getBucketCount() - 1;
+    List<Double> bounds = new ArrayList<>(boundedCount);
+    for (int i = 0; i < boundedCount; i++) {
+      bounds.add(toMillis(LatencyHistogram.getBucketUpperBoundNanos(i)));
+    }
+    return bounds;
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1000000.0;
+  }
+
+  public static class GetMethodStatsResponse implements JsonRpcResult {
+    @JsonProperty(required = true)
+    public List<MethodStats> methods;
+
+    /**
+     * Upper bounds of each {@link MethodStats#histogram} bucket but the last, which counts
+     * everything slower.
+     */
+    @JsonProperty(required = true)
+    public List<Double> bucketUpperBoundsMs;
+  }
+
+  public static class MethodStats {
+    @JsonProperty(required = true)
+    public String method;
+
+    @JsonProperty(required = true)
+    public long callCount;
+
+    @JsonProperty(required = true)
+    public long errorCount;
+
+    @JsonProperty(required = true)
+    public double totalTimeMs;
+
+    @JsonProperty(required = true)
+    public double meanTimeMs;
+
+    @JsonProperty(required = true)
+    public double p50TimeMs;
+
+    @JsonProperty(required = true)
+    public double p99TimeMs;
+
+    @JsonProperty(required = true)
+    public double maxTimeMs;
+
+    @JsonProperty(required = true)
+    public List<Long> histogram;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.protocol.module;
+
+import com.facebook.stetho.common.LatencyHistogram;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.json.annotation.JsonProperty;
+import com.facebook.stetho.telemetry.StethoTelemetry;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Non-standard domain exposing the live counters in {@link StethoTelemetry}.  The same numbers
+ * are available from the command line with {@code dumpapp telemetry}.
+ */
+public class Telemetry implements ChromeDevtoolsDomain {
+  public Telemetry() {
+  }
+
+  @ChromeDevtoolsMethod
+  public GetCountersResponse getCounters(JsonRpcPeer peer, JSONObject params) {
+    StethoTelemetry telemetry = StethoTelemetry.get();
+    GetCountersResponse response = new GetCountersResponse();
+
+    List<StethoTelemetry.DomainMessageCounts> messageCounts = telemetry.getMessageCounts();
+    response.messages = new ArrayList<>(messageCounts.size());
+    for (StethoTelemetry.DomainMessageCounts counts : messageCounts) {
+      DomainMessages messages = new DomainMessages();
+      messages.domain = counts.getDomain();
+      messages.messagesIn = counts.getMessagesIn();
+      messages.messagesOut = counts.getMessagesOut();
+      response.messages.add(messages);
+    }
+
+    response.serialization = Timing.of(telemetry.getSerializationTime());
+    response.webSocketWriteLatency = Timing.of(telemetry.getWebSocketWriteLatency());
+    response.webSocketQueuedFrames = telemetry.getWebSocketQueuedFrames();
+    response.webSocketQueuedBytes = telemetry.getWebSocketQueuedBytes();
+    response.webSocketPeakQueuedBytes = telemetry.getPeakWebSocketQueuedBytes();
+    response.postAndWait = Timing.of(telemetry.getPostAndWaitTime());
+    response.documentUpdateTree = Timing.of(telemetry.getDocumentUpdateTime());
+    return response;
+  }
+
+  @ChromeDevtoolsMethod
+  public void resetCounters(JsonRpcPeer peer, JSONObject params) {
+    StethoTelemetry.get().reset();
+  }
+
+  public static class GetCountersResponse implements JsonRpcResult {
+    @JsonProperty(required = true)
+    public List<DomainMessages> messages;
+
+    @JsonProperty(required = true)
+    public Timing serialization;
+
+    @JsonProperty(required = true)
+    public Timing webSocketWriteLatency;
+
+    @JsonProperty(required = true)
+    public long webSocketQueuedFrames;
+
+    @JsonProperty(required = true)
+    public long webSocketQueuedBytes;
+
+    @JsonProperty(required = true)
+    public long webSocketPeakQueuedBytes;
+
+    @JsonProperty(required = true)
+    public Timing postAndWait;
+
+    @JsonProperty(required = true)
+    public Timing documentUpdateTree;
+  }
+
+  public static class DomainMessages {
+    @JsonProperty(required = true)
+    public String domain;
+
+    @JsonProperty(required = true)
+    public long messagesIn;
+
+    @JsonProperty(required = true)
+    public long messagesOut;
+  }
+
+  public static class Timing {
+    @JsonProperty(required = true)
+    public long count;
+
+    @JsonProperty(required = true)
+    public double totalMs;
+
+    @JsonProperty(required = true)
+    public double meanMs;
+
+    @JsonProperty(required = true)
+    public double p50Ms;
+
+    @JsonProperty(required = true)
+    public double p99Ms;
+
+    @JsonProperty(required = true)
+    public double maxMs;
+
+    static Timing of(LatencyHistogram histogram) {
+      Timing timing = new Timing();
+      timing.count = histogram.getCount();
+      timing.totalMs = toMillis(histogram.getTotalNanos());
+      timing.meanMs = toMillis(histogram.getMeanNanos());
+      timing.p50Ms = toMillis(histogram.getPercentileNanos(50));
+      timing.p99Ms = toMillis(histogram.getPercentileNanos(99));
+      timing.maxMs = toMillis(histogram.getMaxNanos());
+      return timing;
+    }
+
+    private static double toMillis(long nanos) {
+      return nanos / 1000000.0;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reflection-free conversion for a single class annotated with
+ * {@link com.facebook.stetho.json.annotation.JsonProperty}.  Implementations are generated at
+ * compile time by the {@code stetho-json-processor} module and are named after the binary name
+ * of the target class with a {@code $$JsonCodec} suffix (for example
+ * {@code Network$Request$$JsonCodec}).  Use {@link JsonCodecs} to look them up.
+ */
+public interface JsonCodec<T> {
+  /**
+   * Write {@code value} as a single JSON object.
+   */
+  void write(JsonWriter writer, T value);
+
+  /**
+   * Create a new instance populated from {@code jsonObject}.
+   *
+   * @throws IllegalArgumentException if a property has an unexpected type.
+   */
+  T read(JSONObject jsonObject) throws JSONException;
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import javax.annotation.Nullable;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.facebook.stetho.common.ExceptionUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Lookup of generated {@link JsonCodec} implementations along with the runtime support that the
+ * generated code calls into.  Classes without a generated codec (for instance because they live
+ * outside of the packages handled by the annotation processor) transparently fall back to the
+ * reflective {@link ObjectMapper} implementation.
+ */
+public final class JsonCodecs {
+  public static final String CODEC_SUFFIX = "$$JsonCodec";
+
+  private static final Object NO_CODEC = new Object();
+
+  private static final ConcurrentHashMap<Class<?>, Object> sCodecs = new ConcurrentHashMap<>();
+
+  private static final ObjectMapper sFallbackMapper = new ObjectMapper();
+
+  private JsonCodecs() {
+  }
+
+  /**
+   * @return The generated codec for exactly {@code type} (not any of its super classes), or null
+   *     if none was generated.
+   */
+  @Nullable
+  public static <T> JsonCodec<T> get(Class<T> type) {
+    Object codec = sCodecs.get(type);
+    if (codec == null) {
+      codec = loadCodec(type);
+      sCodecs.putIfAbsent(type, codec);
+    }
+    return codec != NO_CODEC ? (JsonCodec<T>) codec : null;
+  }
+
+  private static Object loadCodec(Class<?> type) {
+    if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface()) {
+      return NO_CODEC;
+    }
+    try {
+      Class<?> codecClass = Class.forName(
+          type.getName() + CODEC_SUFFIX,
+          true /* initialize */,
+          type.getClassLoader());
+      return codecClass.newInstance();
+    } catch (ClassNotFoundException e) {
+      return NO_CODEC;
+    } catch (InstantiationException e) {
+      throw new IllegalStateException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Write any value supported by {@link ObjectMapper}, preferring generated codecs and falling
+   * back to reflection.
+   */
+  public static void writeValue(JsonWriter writer, @Nullable Object value) {
+    if (value == null || value == JSONObject.NULL) {
+      writer.nullValue();
+    } else if (value instanceof String) {
+      writer.value((String) value);
+    } else if (value instanceof Boolean) {
+      writer.value(((Boolean) value).booleanValue());
+    } else if (value instanceof Integer || value instanceof Long ||
+        value instanceof Short || value instanceof Byte) {
+      writer.value(((Number) value).longValue());
+    } else if (value instanceof Double) {
+      writer.value(((Double) value).doubleValue());
+    } else if (value instanceof Float) {
+      writer.value(((Float) value).floatValue());
+    } else if (value instanceof Character) {
+      writer.value(value.toString());
+    } else if (value instanceof JSONObject) {
+      writer.value((JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      writer.value((JSONArray) value);
+    } else if (value instanceof List) {
+      writeList(writer, (List<?>) value);
+    } else {
+      writeObject(writer, value);
+    }
+  }
+
+  private static void writeList(JsonWriter writer, List<?> list) {
+    writer.beginArray();
+    for (int i = 0, N = list.size(); i < N; i++) {
+      writeValue(writer, list.get(i));
+    }
+    writer.endArray();
+  }
+
+  private static void writeObject(JsonWriter writer, Object value) {
+    Class<Object> type = (Class<Object>) value.getClass();
+    JsonCodec<Object> codec = get(type);
+    if (codec != null) {
+      codec.write(writer, value);
+      return;
+    }
+
+    Method jsonValueMethod = sFallbackMapper.getJsonValueMethod(type);
+    if (jsonValueMethod != null) {
+      try {
+        writeValue(writer, jsonValueMethod.invoke(value));
+      } catch (IllegalAccessException e) {
+        throw new IllegalArgumentException(e);
+      } catch (InvocationTargetException e) {
+        throw ExceptionUtil.propagate(e.getCause());
+      }
+      return;
+    }
+
+    // Not convertValue, which would count this again in the time of the enclosing write.
+    writer.value(sFallbackMapper.convertValueReflectively(value, JSONObject.class));
+  }
+
+  /**
+   * Convert a value read from a {@link JSONObject} to {@code type}, which is expected to be a
+   * class that would be handled by {@link ObjectMapper}.
+   */
+  @Nullable
+  public static <T> T readValue(@Nullable Object value, Class<T> type) throws JSONException {
+    if (value == null || value == JSONObject.NULL) {
+      return null;
+    }
+    if (type.isInstance(value)) {
+      return (T) value;
+    }
+    if (!(value instanceof JSONObject)) {
+      throw new IllegalArgumentException(
+          "Expected JSONObject for " + type.getName() + ", got " + value.getClass().getName());
+    }
+    JsonCodec<T> codec = get(type);
+    if (codec != null) {
+      return codec.read((JSONObject) value);
+    }
+    return readReflectively((JSONObject) value, type);
+  }
+
+  /**
+   * Reflective conversion used by generated codecs for classes that they are not able to
+   * construct themselves.
+   */
+  public static <T> T readReflectively(JSONObject jsonObject, Class<T> type) {
+    return sFallbackMapper.convertValueReflectively(jsonObject, type);
+  }
+
+  @Nullable
+  public static List<Object> readList(@Nullable Object value, Class<?> elementType)
+      throws JSONException {
+    if (value == null || value == JSONObject.NULL) {
+      return null;
+    }
+    if (!(value instanceof JSONArray)) {
+      throw new IllegalArgumentException("Expected JSONArray, got " + value.getClass().getName());
+    }
+    JSONArray array = (JSONArray) value;
+    int length = array.length();
+    List<Object> list = new ArrayList<>(length);
+    for (int i = 0; i < length; i++) {
+      Object element = array.get(i);
+      if (elementType.isEnum()) {
+        list.add(readEnum(element, (Class<? extends Enum>) elementType));
+      } else if (elementType == Object.class ||
+          element instanceof String ||
+          element instanceof Number ||
+          element instanceof Boolean) {
+        list.add(element);
+      } else {
+        list.add(readValue(element, elementType));
+      }
+    }
+    return list;
+  }
+
+  @Nullable
+  public static <E extends Enum> E readEnum(@Nullable Object value, Class<E> type) {
+    if (value == null || value == JSONObject.NULL) {
+      return null;
+    }
+    return (E) sFallbackMapper.getEnumValue(readString(value), type);
+  }
+
+  @Nullable
+  public static String readString(@Nullable Object value) {
+    if (value == null || value == JSONObject.NULL) {
+      return null;
+    }
+    if (!(value instanceof String)) {
+      throw new IllegalArgumentException("Expected String, got " + value.getClass().getName());
+    }
+    return (String) value;
+  }
+
+  public static boolean isNull(@Nullable Object value) {
+    return value == null || value == JSONObject.NULL;
+  }
+
+  public static boolean readBoolean(Object value) {
+    if (!(value instanceof Boolean)) {
+      throw new IllegalArgumentException("Expected Boolean, got " + describe(value));
+    }
+    return (Boolean) value;
+  }
+
+  public static int readInt(Object value) {
+    return readNumber(value).intValue();
+  }
+
+  public static long readLong(Object value) {
+    return readNumber(value).longValue();
+  }
+
+  public static short readShort(Object value) {
+    return readNumber(value).shortValue();
+  }
+
+  public static byte readByte(Object value) {
+    return readNumber(value).byteValue();
+  }
+
+  public static double readDouble(Object value) {
+    return readNumber(value).doubleValue();
+  }
+
+  public static float readFloat(Object value) {
+    return readNumber(value).floatValue();
+  }
+
+  private static Number readNumber(Object value) {
+    if (!(value instanceof Number)) {
+      throw new IllegalArgumentException("Expected Number, got " + describe(value));
+    }
+    return (Number) value;
+  }
+
+  private static String describe(@Nullable Object value) {
+    return value != null ? value.getClass().getName() : "null";
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Turns UTF-8 text written to it into the contents of a JSON string (without the surrounding
+ * quotes), escaping exactly what {@link JsonWriter} escapes.  This lets arbitrarily large text be
+ * copied into a JSON document without ever decoding it into a {@link String}.
+ * <p>
+ * Input is not trusted to be well-formed: each maximal part of a malformed or truncated sequence
+ * is replaced with U+FFFD, as the Unicode standard recommends.  Sequences may be split across
+ * writes.  {@link #finish()} (or {@link #close()}) must be called at the end of the text
+ * to account for a trailing partial sequence; neither closes the underlying stream.
+ */
+@NotThreadSafe
+public final class JsonEscapingOutputStream extends OutputStream {
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /** Longest output for a single input byte: {@code \\u00XX}, or U+FFFD followed by that. */
+  private static final int MAX_EXPANSION = 9;
+
+  private static final byte[] HEX = {
+      '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+  };
+
+  private final OutputStream mOut;
+  private final byte[] mBuffer = new byte[BUFFER_SIZE];
+  private int mCount;
+
+  /** Bytes of the incomplete sequence seen so far. */
+  private final byte[] mSequence = new byte[4];
+  private int mSequenceLength;
+
+  /** Continuation bytes still expected to complete {@link #mSequence}. */
+  private int mRemaining;
+
+  /** Bounds of the next continuation byte, which are tighter than usual after some leads. */
+  private int mLowerBound = 0x80;
+  private int mUpperBound = 0xbf;
+
+  public JsonEscapingOutputStream(OutputStream out) {
+    mOut = out;
+  }
+
+  @Override
+  public void write(int oneByte) throws IOException {
+    if (mCount + MAX_EXPANSION > BUFFER_SIZE) {
+      flushBuffer();
+    }
+    process(oneByte & 0xff);
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int count) throws IOException {
+    int end = offset + count;
+    for (int i = offset; i < end; i++) {
+      if (mCount + MAX_EXPANSION > BUFFER_SIZE) {
+        flushBuffer();
+      }
+      int b = buffer[i] & 0xff;
+      if (mRemaining == 0 && b >= 0x20 && b < 0x80 && b != '"' && b != '\\') {
+        mBuffer[mCount++] = (byte) b;
+      } else {
+        process(b);
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    mOut.flush();
+  }
+
+  /**
+   * Replace a trailing partial sequence, if any, and write out everything buffered.  The stream
+   * may be written to again afterwards.
+   */
+  public void finish() throws IOException {
+    if (mRemaining > 0) {
+      resetSequence();
+      putReplacement();
+    }
+    flushBuffer();
+  }
+
+  @Override
+  public void close() throws IOException {
+    finish();
+  }
+
+  private void process(int b) {
+    if (mRemaining > 0) {
+      if (b >= mLowerBound && b <= mUpperBound) {
+        mSequence[mSequenceLength++] = (byte) b;
+        mLowerBound = 0x80;
+        mUpperBound = 0xbf;
+        if (--mRemaining == 0) {
+          putSequence();
+        }
+        return;
+      }
+      // The sequence so far is replaced as a whole and b is considered afresh.
+      resetSequence();
+      putReplacement();
+    }
+
+    if (b < 0x80) {
+      putAscii(b);
+    } else if (b >= 0xc2 && b <= 0xdf) {
+      startSequence(b, 1, 0x80, 0xbf);
+    } else if (b == 0xe0) {
+      // Overlong encodings.
+      startSequence(b, 2, 0xa0, 0xbf);
+    } else if (b == 0xed) {
+      // Surrogates.
+      startSequence(b, 2, 0x80, 0x9f);
+    } else if (b >= 0xe1 && b <= 0xef) {
+      startSequence(b, 2, 0x80, 0xbf);
+    } else if (b == 0xf0) {
+      // Overlong encodings.
+      startSequence(b, 3, 0x90, 0xbf);
+    } else if (b == 0xf4) {
+      // Beyond U+10FFFF.
+      startSequence(b, 3, 0x80, 0x8f);
+    } else if (b >= 0xf1 && b <= 0xf3) {
+      startSequence(b, 3, 0x80, 0xbf);
+    } else {
+      // Stray continuation byte or a lead byte that can never start a valid sequence.
+      putReplacement();
+    }
+  }
+
+  private void startSequence(int lead, int remaining, int lowerBound, int upperBound) {
+    mSequence[0] = (byte) lead;
+    mSequenceLength = 1;
+    mRemaining = remaining;
+    mLowerBound = lowerBound;
+    mUpperBound = upperBound;
+  }
+
+  private void resetSequence() {
+    mSequenceLength = 0;
+    mRemaining = 0;
+    mLowerBound = 0x80;
+    mUpperBound = 0xbf;
+  }
+
+  private void putSequence() {
+    byte[] sequence = mSequence;
+    int length = mSequenceLength;
+    mSequenceLength = 0;
+    // U+2028 and U+2029 are valid JSON but not valid JavaScript; escape as JsonWriter does.
+    if (length == 3 &&
+        sequence[0] == (byte) 0xe2 &&
+        sequence[1] == (byte) 0x80 &&
+        (sequence[2] == (byte) 0xa8 || sequence[2] == (byte) 0xa9)) {
+      putUnicodeEscape(sequence[2] == (byte) 0xa8 ? 0x2028 : 0x2029);
+      return;
+    }
+    System.arraycopy(sequence, 0, mBuffer, mCount, length);
+    mCount += length;
+  }
+
+  private void putAscii(int c) {
+    byte[] buffer = mBuffer;
+    if (c >= 0x20 && c != '"' && c != '\\') {
+      buffer[mCount++] = (byte) c;
+      return;
+    }
+    switch (c) {
+      case '"':
+      case '\\':
+        buffer[mCount++] = '\\';
+        buffer[mCount++] = (byte) c;
+        break;
+      case '\t':
+        buffer[mCount++] = '\\';
+        buffer[mCount++] = 't';
+        break;
+      case '\b':
+        buffer[mCount++] = '\\';
+        buffer[mCount++] = 'b';
+        break;
+      case '\n':
+        buffer[mCount++] = '\\';
+        buffer[mCount++] = 'n';
+        break;
+      case '\r':
+        buffer[mCount++] = '\\';
+        buffer[mCount++] = 'r';
+        break;
+      case '\f':
+        buffer[mCount++] = '\\';
+        buffer[mCount++] = 'f';
+        break;
+      default:
+        putUnicodeEscape(c);
+        break;
+    }
+  }
+
+  private void putUnicodeEscape(int c) {
+    byte[] buffer = mBuffer;
+    buffer[mCount++] = '\\';
+    buffer[mCount++] = 'u';
+    buffer[mCount++] = HEX[(c >> 12) & 0xf];
+    buffer[mCount++] = HEX[(c >> 8) & 0xf];
+    buffer[mCount++] = HEX[(c >> 4) & 0xf];
+    buffer[mCount++] = HEX[c & 0xf];
+  }
+
+  private void putReplacement() {
+    mBuffer[mCount++] = (byte) 0xef;
+    mBuffer[mCount++] = (byte) 0xbf;
+    mBuffer[mCount++] = (byte) 0xbd;
+  }
+
+  private void flushBuffer() throws IOException {
+    if (mCount > 0) {
+      mOut.write(mBuffer, 0, mCount);
+      mCount = 0;
+    }
+  }
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Pull parser over JSON text held in a {@link String}.  This is the input side counterpart of
+ * {@link JsonWriter}: callers walk the document token by token and can skip values they are not
+ * interested in without materializing them, or capture them as a {@link LazyJsonObject} to be
+ * parsed later.
+ * <p>
+ * Values that are materialized with {@link #nextValue()} or {@link #nextJSONObject()} are typed
+ * the way {@link org.json.JSONTokener} types them (in particular integral numbers become
+ * {@link Integer} when they fit and {@link Long} otherwise) so that the result is
+ * interchangeable with {@code new JSONObject(String)}.
+ */
+@NotThreadSafe
+public final class JsonReader {
+  public enum Token {
+    BEGIN_OBJECT,
+    BEGIN_ARRAY,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+  }
+
+  private static final int SCOPE_EMPTY_DOCUMENT = 0;
+  private static final int SCOPE_NONEMPTY_DOCUMENT = 1;
+  private static final int SCOPE_EMPTY_OBJECT = 2;
+  private static final int SCOPE_NONEMPTY_OBJECT = 3;
+  private static final int SCOPE_DANGLING_NAME = 4;
+  private static final int SCOPE_EMPTY_ARRAY = 5;
+  private static final int SCOPE_NONEMPTY_ARRAY = 6;
+
+  private final String mIn;
+  private final int mEnd;
+  private int mPos;
+
+  private int[] mScopes = new int[16];
+  private int mDepth;
+
+  public JsonReader(String in) {
+    this(in, 0, in.length());
+  }
+
+  /**
+   * Read the single JSON value found in {@code in} between {@code start} (inclusive) and
+   * {@code end} (exclusive).
+   */
+  public JsonReader(String in, int start, int end) {
+    mIn = in;
+    mPos = start;
+    mEnd = end;
+    mDepth = 1;
+    mScopes[0] = SCOPE_EMPTY_DOCUMENT;
+  }
+
+  public void beginObject() throws JSONException {
+    beforeValue();
+    expect('{');
+    push(SCOPE_EMPTY_OBJECT);
+  }
+
+  public void endObject() throws JSONException {
+    int scope = mScopes[mDepth - 1];
+    if (scope != SCOPE_EMPTY_OBJECT && scope != SCOPE_NONEMPTY_OBJECT) {
+      throw syntaxError("Not in an object");
+    }
+    skipWhitespace();
+    expect('}');
+    mDepth--;
+  }
+
+  public void beginArray() throws JSONException {
+    beforeValue();
+    expect('[');
+    push(SCOPE_EMPTY_ARRAY);
+  }
+
+  public void endArray() throws JSONException {
+    int scope = mScopes[mDepth - 1];
+    if (scope != SCOPE_EMPTY_ARRAY && scope != SCOPE_NONEMPTY_ARRAY) {
+      throw syntaxError("Not in an array");
+    }
+    skipWhitespace();
+    expect(']');
+    mDepth--;
+  }
+
+  /**
+   * @return Whether the current object or array has another element.
+   */
+  public boolean hasNext() throws JSONException {
+    skipWhitespace();
+    if (mPos >= mEnd) {
+      return false;
+    }
+    char c = mIn.charAt(mPos);
+    switch (mScopes[mDepth - 1]) {
+      case SCOPE_EMPTY_OBJECT:
+      case SCOPE_EMPTY_ARRAY:
+        return c != '}' && c != ']';
+      case SCOPE_NONEMPTY_OBJECT:
+      case SCOPE_NONEMPTY_ARRAY:
+        return c == ',';
+      default:
+        return false;
+    }
+  }
+
+  public String nextName() throws JSONException {
+    int scope = mScopes[mDepth - 1];
+    skipWhitespace();
+    if (scope == SCOPE_NONEMPTY_OBJECT) {
+      expect(',');
+      skipWhitespace();
+    } else if (scope != SCOPE_EMPTY_OBJECT) {
+      throw syntaxError("Not expecting a name");
+    }
+    expect('"');
+    String name = readString();
+    skipWhitespace();
+    expect(':');
+    mScopes[mDepth - 1] = SCOPE_DANGLING_NAME;
+    return name;
+  }
+
+  /**
+   * @return The type of the next value, without consuming it.
+   */
+  public Token peek() throws JSONException {
+    int pos = skipWhitespace(mPos);
+    if (mScopes[mDepth - 1] == SCOPE_NONEMPTY_ARRAY && pos < mEnd && mIn.charAt(pos) == ',') {
+      pos = skipWhitespace(pos + 1);
+    }
+    if (pos >= mEnd) {
+      throw syntaxError("End of input");
+    }
+    char c = mIn.charAt(pos);
+    switch (c) {
+      case '{':
+        return Token.BEGIN_OBJECT;
+      case '[':
+        return Token.BEGIN_ARRAY;
+      case '"':
+        return Token.STRING;
+      case 't':
+      case 'f':
+        return Token.BOOLEAN;
+      case 'n':
+        return Token.NULL;
+      default:
+        return Token.NUMBER;
+    }
+  }
+
+  public String nextString() throws JSONException {
+    beforeValue();
+    expect('"');
+    return readString();
+  }
+
+  public long nextLong() throws JSONException {
+    beforeValue();
+    int start = mPos;
+    long value = readSmallInteger();
+    if (mPos != start) {
+      return value;
+    }
+    Object literal = parseLiteral(readLiteral());
+    if (!(literal instanceof Number)) {
+      throw syntaxError("Expected a number but was " + literal);
+    }
+    return ((Number) literal).longValue();
+  }
+
+  public boolean nextBoolean() throws JSONException {
+    beforeValue();
+    Object value = parseLiteral(readLiteral());
+    if (!(value instanceof Boolean)) {
+      throw syntaxError("Expected a boolean but was " + value);
+    }
+    return (Boolean) value;
+  }
+
+  public void nextNull() throws JSONException {
+    beforeValue();
+    if (parseLiteral(readLiteral()) != JSONObject.NULL) {
+      throw syntaxError("Expected null");
+    }
+  }
+
+  /**
+   * Consume the next value, whatever it is, without materializing it.
+   */
+  public void skipValue() throws JSONException {
+    beforeValue();
+    skipRawValue();
+  }
+
+  /**
+   * Consume the next value, which must be an object or null, and capture it to be parsed later.
+   *
+   * @return The captured object, or null if the value was null.
+   */
+  @Nullable
+  public LazyJsonObject nextLazyJsonObject() throws JSONException {
+    beforeValue();
+    if (mPos < mEnd && mIn.charAt(mPos) != '{') {
+      if (parseLiteral(readLiteral()) != JSONObject.NULL) {
+        throw syntaxError("Expected an object");
+      }
+      return null;
+    }
+    int start = mPos;
+    skipRawValue();
+    return LazyJsonObject.fromSource(mIn, start, mPos);
+  }
+
+  public JSONObject nextJSONObject() throws JSONException {
+    Object value = nextValue();
+    if (!(value instanceof JSONObject)) {
+      throw syntaxError("Expected an object");
+    }
+    return (JSONObject) value;
+  }
+
+  /**
+   * Consume and materialize the next value.
+   *
+   * @return A {@link String}, {@link Boolean}, {@link Integer}, {@link Long}, {@link Double},
+   *     {@link JSONObject}, {@link JSONArray} or {@link JSONObject#NULL}.
+   */
+  public Object nextValue() throws JSONException {
+    switch (peek()) {
+      case BEGIN_OBJECT: {
+        JSONObject object = new JSONObject();
+        beginObject();
+        while (hasNext()) {
+          String name = nextName();
+          object.put(name, nextValue());
+        }
+        endObject();
+        return object;
+      }
+      case BEGIN_ARRAY: {
+        JSONArray array = new JSONArray();
+        beginArray();
+        while (hasNext()) {
+          array.put(nextValue());
+        }
+        endArray();
+        return array;
+      }
+      case STRING:
+        return nextString();
+      default:
+        beforeValue();
+        int start = mPos;
+        long value = readSmallInteger();
+        if (mPos != start) {
+          if (value <= Integer.MAX_VALUE && value >= Integer.MIN_VALUE) {
+            return (int) value;
+          }
+          return value;
+        }
+        return parseLiteral(readLiteral());
+    }
+  }
+
+  private void beforeValue() throws JSONException {
+    skipWhitespace();
+    switch (mScopes[mDepth - 1]) {
+      case SCOPE_EMPTY_DOCUMENT:
+        mScopes[mDepth - 1] = SCOPE_NONEMPTY_DOCUMENT;
+        break;
+      case SCOPE_DANGLING_NAME:
+        mScopes[mDepth - 1] = SCOPE_NONEMPTY_OBJECT;
+        break;
+      case SCOPE_EMPTY_ARRAY:
+        mScopes[mDepth - 1] = SCOPE_NONEMPTY_ARRAY;
+        break;
+      case SCOPE_NONEMPTY_ARRAY:
+        expect(',');
+        skipWhitespace();
+        break;
+      default:
+        throw syntaxError("Not expecting a value");
+    }
+  }
+
+  private void push(int scope) {
+    if (mDepth == mScopes.length) {
+      int[] newScopes = new int[mDepth * 2];
+      System.arraycopy(mScopes, 0, newScopes, 0, mDepth);
+      mScopes = newScopes;
+    }
+    mScopes[mDepth++] = scope;
+  }
+
+  private void expect(char c) throws JSONException {
+    if (mPos >= mEnd || mIn.charAt(mPos) != c) {
+      throw syntaxError("Expected '" + c + "'");
+    }
+    mPos++;
+  }
+
+  private void skipWhitespace() {
+    mPos = skipWhitespace(mPos);
+  }
+
+  private int skipWhitespace(int pos) {
+    while (pos < mEnd) {
+      char c = mIn.charAt(pos);
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        break;
+      }
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * Skip the value starting at the current position without tracking scopes, which are
+   * unaffected since the value is consumed in its entirety.
+   */
+  private void skipRawValue() throws JSONException {
+    if (mPos >= mEnd) {
+      throw syntaxError("End of input");
+    }
+    char c = mIn.charAt(mPos);
+    if (c == '"') {
+      mPos++;
+      skipString();
+    } else if (c == '{' || c == '[') {
+      int depth = 0;
+      while (mPos < mEnd) {
+        c = mIn.charAt(mPos++);
+        if (c == '"') {
+          skipString();
+        } else if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          if (--depth == 0) {
+            return;
+          }
+        }
+      }
+      throw syntaxError("Unterminated object or array");
+    } else {
+      parseLiteral(readLiteral());
+    }
+  }
+
+  private void skipString() throws JSONException {
+    while (mPos < mEnd) {
+      char c = mIn.charAt(mPos++);
+      if (c == '"') {
+        return;
+      } else if (c == '\\') {
+        mPos++;
+      }
+    }
+    throw syntaxError("Unterminated string");
+  }
+
+  /**
+   * Read the rest of a string whose opening quote has been consumed.
+   */
+  private String readString() throws JSONException {
+    int start = mPos;
+    StringBuilder builder = null;
+    while (mPos < mEnd) {
+      char c = mIn.charAt(mPos++);
+      if (c == '"') {
+        if (builder == null) {
+          return mIn.substring(start, mPos - 1);
+        }
+        builder.append(mIn, start, mPos - 1);
+        return builder.toString();
+      } else if (c == '\\') {
+        if (builder == null) {
+          builder = new StringBuilder();
+        }
+        builder.append(mIn, start, mPos - 1);
+        builder.append(readEscapeCharacter());
+        start = mPos;
+      }
+    }
+    throw syntaxError("Unterminated string");
+  }
+
+  private char readEscapeCharacter() throws JSONException {
+    if (mPos >= mEnd) {
+      throw syntaxError("Unterminated escape sequence");
+    }
+    char escaped = mIn.charAt(mPos++);
+    switch (escaped) {
+      case 'u':
+        if (mPos + 4 > mEnd) {
+          throw syntaxError("Unterminated escape sequence");
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(mIn.charAt(mPos++), 16);
+          if (digit < 0) {
+            throw syntaxError("Invalid escape sequence");
+          }
+          value = (value << 4) | digit;
+        }
+        return (char) value;
+      case 't':
+        return '\t';
+      case 'b':
+        return '\b';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 'f':
+        return '\f';
+      default:
+        return escaped;
+    }
+  }
+
+  /**
+   * Fast path for the integers which make up most numbers in the protocol (ids, node ids and so
+   * on), avoiding the intermediate {@link String} of {@link #readLiteral()}.
+   *
+   * @return The value read, or 0 without consuming anything if the next literal is not an
+   *     integer of at most 18 digits.
+   */
+  private long readSmallInteger() {
+    int pos = mPos;
+    boolean negative = pos < mEnd && mIn.charAt(pos) == '-';
+    if (negative) {
+      pos++;
+    }
+    int digitsStart = pos;
+    long value = 0;
+    while (pos < mEnd && pos - digitsStart <= 18) {
+      char c = mIn.charAt(pos);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      value = value * 10 + (c - '0');
+      pos++;
+    }
+    int digits = pos - digitsStart;
+    if (digits == 0 || digits > 18 || (pos < mEnd && !isLiteralDelimiter(mIn.charAt(pos)))) {
+      return 0;
+    }
+    mPos = pos;
+    return negative ? -value : value;
+  }
+
+  private static boolean isLiteralDelimiter(char c) {
+    return c == ',' || c == ':' || c == '}' || c == ']' || c == '{' || c == '[' ||
+        c == '"' || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+  }
+
+  private String readLiteral() throws JSONException {
+    int start = mPos;
+    while (mPos < mEnd) {
+      if (isLiteralDelimiter(mIn.charAt(mPos))) {
+        break;
+      }
+      mPos++;
+    }
+    if (start == mPos) {
+      throw syntaxError("Expected a value");
+    }
+    return mIn.substring(start, mPos);
+  }
+
+  private Object parseLiteral(String literal) throws JSONException {
+    if ("null".equalsIgnoreCase(literal)) {
+      return JSONObject.NULL;
+    } else if ("true".equalsIgnoreCase(literal)) {
+      return Boolean.TRUE;
+    } else if ("false".equalsIgnoreCase(literal)) {
+      return Boolean.FALSE;
+    }
+    if (literal.indexOf('.') == -1) {
+      try {
+        long longValue = Long.parseLong(literal);
+        if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+          return (int) longValue;
+        }
+        return longValue;
+      } catch (NumberFormatException e) {
+        // Fall through to try it as a double.
+      }
+    }
+    try {
+      return Double.valueOf(literal);
+    } catch (NumberFormatException e) {
+      throw syntaxError("Unexpected literal " + literal);
+    }
+  }
+
+  private JSONException syntaxError(String message) {
+    return new JSONException(message + " at character " + mPos);
+  }
+}
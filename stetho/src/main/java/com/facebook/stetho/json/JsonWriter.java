@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.facebook.stetho.common.Utf8Charset;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Streams JSON text directly into a growable UTF-8 byte buffer.  This is the output side of the
+ * generated {@link JsonCodec} classes and avoids building (and then stringifying) an
+ * intermediate {@link JSONObject} tree for every message we send.
+ * <p>
+ * Formatting follows {@link JSONObject#toString()} so that output is interchangeable with the
+ * reflective {@link ObjectMapper} path: integral doubles are written without a fraction and
+ * non-finite doubles are written as the strings {@code "NaN"}, {@code "Infinity"} and
+ * {@code "-Infinity"}, which Chrome accepts.
+ */
+@NotThreadSafe
+public final class JsonWriter {
+  private static final int DEFAULT_CAPACITY = 256;
+
+  /**
+   * Strings are escaped this many chars at a time so that room for the worst case only has to be
+   * reserved per chunk rather than for the whole (possibly multi-megabyte) string.
+   */
+  private static final int QUOTE_CHUNK_LENGTH = 1024;
+
+  private static final byte[] HEX = {
+      '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+  };
+  private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+  private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+  private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+  private static final char LINE_SEPARATOR = 0x2028;
+  private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+  private static final byte[] MIN_LONG =
+      Long.toString(Long.MIN_VALUE).getBytes(Utf8Charset.INSTANCE);
+
+  private static final int SCOPE_EMPTY_DOCUMENT = 0;
+  private static final int SCOPE_NONEMPTY_DOCUMENT = 1;
+  private static final int SCOPE_EMPTY_OBJECT = 2;
+  private static final int SCOPE_NONEMPTY_OBJECT = 3;
+  private static final int SCOPE_DANGLING_NAME = 4;
+  private static final int SCOPE_EMPTY_ARRAY = 5;
+  private static final int SCOPE_NONEMPTY_ARRAY = 6;
+
+  private byte[] mBuffer;
+  private int mCount;
+
+  private int[] mScopes = new int[16];
+  private int mDepth;
+
+  public JsonWriter() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public JsonWriter(int initialCapacity) {
+    mBuffer = new byte[Math.max(initialCapacity, 16)];
+    reset();
+  }
+
+  /**
+   * Discard all output so that this writer (and its buffer) can be reused for another document.
+   */
+  public void reset() {
+    mCount = 0;
+    mDepth = 1;
+    mScopes[0] = SCOPE_EMPTY_DOCUMENT;
+  }
+
+  public JsonWriter beginObject() {
+    beforeValue();
+    pushScope(SCOPE_EMPTY_OBJECT);
+    writeByte('{');
+    return this;
+  }
+
+  public JsonWriter endObject() {
+    int scope = peekScope();
+    if (scope != SCOPE_EMPTY_OBJECT && scope != SCOPE_NONEMPTY_OBJECT) {
+      throw new IllegalStateException("Not in an object");
+    }
+    mDepth--;
+    writeByte('}');
+    return this;
+  }
+
+  public JsonWriter beginArray() {
+    beforeValue();
+    pushScope(SCOPE_EMPTY_ARRAY);
+    writeByte('[');
+    return this;
+  }
+
+  public JsonWriter endArray() {
+    int scope = peekScope();
+    if (scope != SCOPE_EMPTY_ARRAY && scope != SCOPE_NONEMPTY_ARRAY) {
+      throw new IllegalStateException("Not in an array");
+    }
+    mDepth--;
+    writeByte(']');
+    return this;
+  }
+
+  public JsonWriter name(String name) {
+    int scope = peekScope();
+    if (scope == SCOPE_NONEMPTY_OBJECT) {
+      writeByte(',');
+    } else if (scope != SCOPE_EMPTY_OBJECT) {
+      throw new IllegalStateException("Name not expected here: " + name);
+    }
+    mScopes[mDepth - 1] = SCOPE_DANGLING_NAME;
+    writeQuoted(name);
+    writeByte(':');
+    return this;
+  }
+
+  public JsonWriter value(@Nullable String value) {
+    if (value == null) {
+      return nullValue();
+    }
+    beforeValue();
+    writeQuoted(value);
+    return this;
+  }
+
+  public JsonWriter value(boolean value) {
+    beforeValue();
+    writeBytes(value ? TRUE : FALSE);
+    return this;
+  }
+
+  public JsonWriter value(long value) {
+    beforeValue();
+    writeLong(value);
+    return this;
+  }
+
+  public JsonWriter value(double value) {
+    if (Double.isNaN(value)) {
+      return value("NaN");
+    } else if (value == Double.POSITIVE_INFINITY) {
+      return value("Infinity");
+    } else if (value == Double.NEGATIVE_INFINITY) {
+      return value("-Infinity");
+    }
+    beforeValue();
+    long longValue = (long) value;
+    if (value == longValue) {
+      writeLong(longValue);
+    } else {
+      writeAscii(Double.toString(value));
+    }
+    return this;
+  }
+
+  /**
+   * Floats are formatted with {@link Float#toString(float)} so that, for example, {@code 0.1f}
+   * is not written as {@code 0.10000000149011612}.
+   */
+  public JsonWriter value(float value) {
+    if (Float.isNaN(value) || Float.isInfinite(value)) {
+      return value((double) value);
+    }
+    beforeValue();
+    long longValue = (long) value;
+    if (value == longValue) {
+      writeLong(longValue);
+    } else {
+      writeAscii(Float.toString(value));
+    }
+    return this;
+  }
+
+  public JsonWriter nullValue() {
+    beforeValue();
+    writeBytes(NULL);
+    return this;
+  }
+
+  public JsonWriter value(@Nullable JSONObject value) {
+    if (value == null) {
+      return nullValue();
+    }
+    beginObject();
+    Iterator<String> keys = value.keys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      name(key);
+      jsonValue(value.opt(key));
+    }
+    return endObject();
+  }
+
+  public JsonWriter value(@Nullable JSONArray value) {
+    if (value == null) {
+      return nullValue();
+    }
+    beginArray();
+    for (int i = 0, N = value.length(); i < N; i++) {
+      jsonValue(value.opt(i));
+    }
+    return endArray();
+  }
+
+  /**
+   * Write a value held by a {@link JSONObject} or {@link JSONArray}, using the same rules as
+   * {@link JSONObject#toString()}.
+   */
+  private void jsonValue(@Nullable Object value) {
+    if (value == null || value == JSONObject.NULL) {
+      nullValue();
+    } else if (value instanceof String) {
+      value((String) value);
+    } else if (value instanceof JSONObject) {
+      value((JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      value((JSONArray) value);
+    } else if (value instanceof Boolean) {
+      value(((Boolean) value).booleanValue());
+    } else if (value instanceof Integer || value instanceof Long ||
+        value instanceof Short || value instanceof Byte) {
+      value(((Number) value).longValue());
+    } else if (value instanceof Double) {
+      value(((Double) value).doubleValue());
+    } else if (value instanceof Float) {
+      value(((Float) value).floatValue());
+    } else if (value instanceof Number) {
+      beforeValue();
+      writeAscii(value.toString());
+    } else {
+      value(value.toString());
+    }
+  }
+
+  /**
+   * @return Number of bytes written so far.
+   */
+  public int size() {
+    return mCount;
+  }
+
+  /**
+   * Direct access to the internal buffer, valid up to {@link #size()} until the next write or
+   * {@link #reset()}.
+   */
+  public byte[] getBuffer() {
+    return mBuffer;
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(mBuffer, mCount);
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(mBuffer, 0, mCount);
+  }
+
+  @Override
+  public String toString() {
+    return new String(mBuffer, 0, mCount, Utf8Charset.INSTANCE);
+  }
+
+  private int peekScope() {
+    return mScopes[mDepth - 1];
+  }
+
+  private void pushScope(int scope) {
+    if (mDepth == mScopes.length) {
+      mScopes = Arrays.copyOf(mScopes, mDepth * 2);
+    }
+    mScopes[mDepth++] = scope;
+  }
+
+  private void beforeValue() {
+    switch (peekScope()) {
+      case SCOPE_EMPTY_DOCUMENT:
+        mScopes[mDepth - 1] = SCOPE_NONEMPTY_DOCUMENT;
+        break;
+      case SCOPE_DANGLING_NAME:
+        mScopes[mDepth - 1] = SCOPE_NONEMPTY_OBJECT;
+        break;
+      case SCOPE_EMPTY_ARRAY:
+        mScopes[mDepth - 1] = SCOPE_NONEMPTY_ARRAY;
+        break;
+      case SCOPE_NONEMPTY_ARRAY:
+        writeByte(',');
+        break;
+      case SCOPE_NONEMPTY_DOCUMENT:
+        throw new IllegalStateException("JSON must have only one top-level value");
+      default:
+        throw new IllegalStateException("Value not expected here, missing name?");
+    }
+  }
+
+  private void ensureCapacity(int extra) {
+    int required = mCount + extra;
+    if (required > mBuffer.length) {
+      mBuffer = Arrays.copyOf(mBuffer, Math.max(required, mBuffer.length * 2));
+    }
+  }
+
+  private void writeByte(int b) {
+    ensureCapacity(1);
+    mBuffer[mCount++] = (byte) b;
+  }
+
+  private void writeBytes(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+    mCount += bytes.length;
+  }
+
+  private void writeAscii(String value) {
+    int length = value.length();
+    ensureCapacity(length);
+    byte[] buffer = mBuffer;
+    int count = mCount;
+    for (int i = 0; i < length; i++) {
+      buffer[count++] = (byte) value.charAt(i);
+    }
+    mCount = count;
+  }
+
+  private void writeLong(long value) {
+    if (value == Long.MIN_VALUE) {
+      writeBytes(MIN_LONG);
+      return;
+    }
+    ensureCapacity(20);
+    if (value < 0) {
+      mBuffer[mCount++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long bound = 10; digits < 19 && value >= bound; bound *= 10) {
+      digits++;
+    }
+    int pos = mCount + digits;
+    mCount = pos;
+    do {
+      mBuffer[--pos] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value != 0);
+  }
+
+  private void writeQuoted(String value) {
+    writeByte('"');
+    int length = value.length();
+    int i = 0;
+    while (i < length) {
+      int chunkEnd = Math.min(length, i + QUOTE_CHUNK_LENGTH);
+      // Worst case is 6 bytes per char (\\u00XX); a surrogate pair is 2 chars for 4 bytes, so a
+      // pair straddling the end of the chunk still fits.
+      ensureCapacity((chunkEnd - i) * 6);
+      i = writeQuotedChunk(value, i, chunkEnd);
+    }
+    writeByte('"');
+  }
+
+  /**
+   * @return Index of the first char not written, which is past {@code end} if a surrogate pair
+   *     straddled it.
+   */
+  private int writeQuotedChunk(String value, int start, int end) {
+    int length = value.length();
+    byte[] buffer = mBuffer;
+    int count = mCount;
+    int i;
+    for (i = start; i < end; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        if (c >= 0x20 && c != '"' && c != '\\') {
+          buffer[count++] = (byte) c;
+          continue;
+        }
+        buffer[count++] = '\\';
+        switch (c) {
+          case '"':
+          case '\\':
+            buffer[count++] = (byte) c;
+            break;
+          case '\t':
+            buffer[count++] = 't';
+            break;
+          case '\b':
+            buffer[count++] = 'b';
+            break;
+          case '\n':
+            buffer[count++] = 'n';
+            break;
+          case '\r':
+            buffer[count++] = 'r';
+            break;
+          case '\f':
+            buffer[count++] = 'f';
+            break;
+          default:
+            count = writeUnicodeEscape(buffer, count, c);
+            break;
+        }
+      } else if (c < 0x800) {
+        buffer[count++] = (byte) (0xc0 | (c >> 6));
+        buffer[count++] = (byte) (0x80 | (c & 0x3f));
+      } else if (c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+        // Valid JSON but not valid JavaScript; escape as JSONStringer does.
+        buffer[count++] = '\\';
+        count = writeUnicodeEscape(buffer, count, c);
+      } else if (Character.isHighSurrogate(c) &&
+          i + 1 < length &&
+          Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        // Unpaired surrogate, can't be represented in UTF-8.
+        buffer[count++] = '?';
+      } else {
+        buffer[count++] = (byte) (0xe0 | (c >> 12));
+        buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[count++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    mCount = count;
+    return i;
+  }
+
+  private static int writeUnicodeEscape(byte[] buffer, int count, char c) {
+    buffer[count++] = 'u';
+    buffer[count++] = HEX[(c >> 12) & 0xf];
+    buffer[count++] = HEX[(c >> 8) & 0xf];
+    buffer[count++] = HEX[(c >> 4) & 0xf];
+    buffer[count++] = HEX[c & 0xf];
+    return count;
+  }
+}
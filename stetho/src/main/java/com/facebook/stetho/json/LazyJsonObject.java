@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A JSON object which has been located in the text of a larger document by {@link JsonReader}
+ * but which is only parsed when somebody asks for it.
+ */
+@ThreadSafe
+public final class LazyJsonObject {
+  @Nullable private final String mSource;
+  private final int mStart;
+  private final int mEnd;
+
+  @GuardedBy("this")
+  @Nullable
+  private JSONObject mObject;
+
+  private LazyJsonObject(
+      @Nullable String source,
+      int start,
+      int end,
+      @Nullable JSONObject object) {
+    mSource = source;
+    mStart = start;
+    mEnd = end;
+    mObject = object;
+  }
+
+  /**
+   * Wrap an object which has already been parsed.
+   */
+  public static LazyJsonObject of(JSONObject object) {
+    return new LazyJsonObject(null /* source */, 0, 0, object);
+  }
+
+  /**
+   * @param source Text containing the object between {@code start} (inclusive) and {@code end}
+   *     (exclusive).  It is only checked to the extent of finding where the object ends.
+   */
+  public static LazyJsonObject fromSource(String source, int start, int end) {
+    return new LazyJsonObject(source, start, end, null /* object */);
+  }
+
+  /**
+   * Parse the object on first use.
+   *
+   * @throws JSONException If the source text turns out not to be a valid object.
+   */
+  public synchronized JSONObject get() throws JSONException {
+    if (mObject == null) {
+      mObject = new JsonReader(mSource, mStart, mEnd).nextJSONObject();
+    }
+    return mObject;
+  }
+}
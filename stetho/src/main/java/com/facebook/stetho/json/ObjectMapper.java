@@ -8,7 +8,6 @@
 package com.facebook.stetho.json;
 
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
@@ -19,13 +18,16 @@ import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.facebook.stetho.common.ExceptionUtil;
 import com.facebook.stetho.json.annotation.JsonProperty;
 import com.facebook.stetho.json.annotation.JsonValue;
+import com.facebook.stetho.telemetry.StethoTelemetry;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -38,15 +40,26 @@ import org.json.JSONObject;
  * It would be awesome if there were a lightweight library that supported converting between
  * arbitrary {@link Object} and {@link JSONObject} representations.
  * <p>
- * Admittedly the other approach would be to use an Annotation Processor to create static conversion
- * functions that discover something like a {@link JsonProperty} and create a function at compile
- * time however since this is just being used for a simple debug utility and Kit-Kat caches the
- * results of reflection this class is sufficient for stethos needs.
+ * Classes in the protocol packages have static conversion functions generated at compile time by
+ * the {@code stetho-json-processor} annotation processor (see {@link JsonCodec}).  When one is
+ * available it is used in place of reflection; everything else goes through the reflective
+ * implementation here.
  */
 public class ObjectMapper {
+  /**
+   * Nesting of {@link #convertValue} and {@link #writeValue} calls on this thread.  Nested
+   * objects (including those handed back to reflection by generated codecs) call back in, so
+   * only the outermost call records serialization time.
+   */
+  private static final ThreadLocal<int[]> sSerializationDepth = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
 
-  @GuardedBy("mJsonValueMethodCache")
-  private final Map<Class<?>, Method> mJsonValueMethodCache = new IdentityHashMap<>();
+  private final ConcurrentHashMap<Class<?>, ClassDescriptor> mClassDescriptors =
+      new ConcurrentHashMap<>();
 
   /**
    * Support mapping between arbitrary classes and {@link JSONObject}.
@@ -72,6 +85,57 @@ public class ObjectMapper {
       return (T) fromValue;
     }
 
+    int[] depth = sSerializationDepth.get();
+    long startNanos = System.nanoTime();
+    depth[0]++;
+    try {
+      return _convertValue(fromValue, toValueType);
+    } finally {
+      recordSerializationTime(depth, startNanos);
+    }
+  }
+
+  private <T> T _convertValue(Object fromValue, Class<T> toValueType)
+      throws IllegalArgumentException {
+    if (fromValue instanceof JSONObject) {
+      JsonCodec<T> codec = JsonCodecs.get(toValueType);
+      if (codec != null) {
+        try {
+          return codec.read((JSONObject) fromValue);
+        } catch (JSONException e) {
+          throw new IllegalArgumentException(e);
+        }
+      }
+    }
+
+    return convertValueReflectively(fromValue, toValueType);
+  }
+
+  /**
+   * Stream {@code value} as JSON text, using a generated {@link JsonCodec} if one exists for its
+   * class and reflection otherwise.  This is considerably cheaper than
+   * {@code convertValue(value, JSONObject.class).toString()} as no intermediate
+   * {@link JSONObject} tree is built.
+   */
+  public void writeValue(JsonWriter writer, @Nullable Object value) {
+    int[] depth = sSerializationDepth.get();
+    long startNanos = System.nanoTime();
+    depth[0]++;
+    try {
+      JsonCodecs.writeValue(writer, value);
+    } finally {
+      recordSerializationTime(depth, startNanos);
+    }
+  }
+
+  private static void recordSerializationTime(int[] depth, long startNanos) {
+    if (--depth[0] == 0) {
+      StethoTelemetry.get().getSerializationTime().record(System.nanoTime() - startNanos);
+    }
+  }
+
+  <T> T convertValueReflectively(Object fromValue, Class<T> toValueType)
+      throws IllegalArgumentException {
     try {
       if (fromValue instanceof JSONObject) {
         return _convertFromJSONObject((JSONObject) fromValue, toValueType);
@@ -97,23 +161,19 @@ public class ObjectMapper {
   private <T> T _convertFromJSONObject(JSONObject jsonObject, Class<T> type)
       throws NoSuchMethodException, IllegalAccessException, InvocationTargetException,
       InstantiationException, JSONException {
-    Constructor<T> constructor = type.getDeclaredConstructor((Class[]) null);
-    constructor.setAccessible(true);
-    T instance = constructor.newInstance();
-    Field[] fields = type.getFields();
+    ClassDescriptor descriptor = getClassDescriptor(type);
+    T instance = (T) descriptor.getConstructor().newInstance();
+    FieldDescriptor[] fields = descriptor.fields;
     for (int i = 0; i < fields.length; ++i) {
-      Field field = fields[i];
-      if (Modifier.isStatic(field.getModifiers())) {
-        continue;
-      }
-      Object value = jsonObject.opt(field.getName());
+      FieldDescriptor field = fields[i];
+      Object value = jsonObject.opt(field.name);
       Object setValue = getValueForField(field, value);
       try {
-        field.set(instance, setValue);
+        field.field.set(instance, setValue);
       } catch (IllegalArgumentException e) {
         throw new IllegalArgumentException(
             "Class: " + type.getSimpleName() + " " +
-            "Field: " + field.getName() + " type " + (setValue != null ?
+            "Field: " + field.name + " type " + (setValue != null ?
                 setValue.getClass().getName()
                 : "null"),
             e);
@@ -122,28 +182,28 @@ public class ObjectMapper {
     return instance;
   }
 
-  private Object getValueForField(Field field, Object value)
+  private Object getValueForField(FieldDescriptor field, Object value)
       throws JSONException {
     try {
       if (value != null) {
         if (value == JSONObject.NULL) {
           return null;
         }
-        if (value.getClass() == field.getType()) {
+        if (value.getClass() == field.type) {
           return value;
         }
         if (value instanceof JSONObject) {
-          return convertValue(value, field.getType());
+          return convertValue(value, field.type);
         } else {
-          if (field.getType().isEnum()) {
-            return getEnumValue((String) value, field.getType().asSubclass(Enum.class));
+          if (field.type.isEnum()) {
+            return getEnumValue((String) value, field.type.asSubclass(Enum.class));
           } else if (value instanceof JSONArray) {
             return convertArrayToList(field, (JSONArray) value);
           } else if (value instanceof Number) {
             // Need to convert value to Number This happens because json treats 1 as an Integer even
             // if the field is supposed to be a Long
             Number numberValue = (Number) value;
-            Class<?> clazz = field.getType();
+            Class<?> clazz = field.type;
             if (clazz == Integer.class || clazz == int.class) {
               return numberValue.intValue();
             } else if (clazz == Long.class || clazz == long.class) {
@@ -163,58 +223,28 @@ public class ObjectMapper {
         }
       }
     } catch (IllegalAccessException e) {
-      throw new IllegalArgumentException("Unable to set value for field " + field.getName(), e);
+      throw new IllegalArgumentException("Unable to set value for field " + field.name, e);
     }
     return value;
   }
 
-  private Enum getEnumValue(String value, Class<? extends Enum> clazz) {
-    Method method = getJsonValueMethod(clazz);
-    if (method != null) {
-      return getEnumByMethod(value, clazz, method);
-    } else {
-      return Enum.valueOf(clazz, value);
-    }
-  }
-
   /**
-   * In this case we know that there is an {@link Enum} decorated with {@link JsonValue}. This means
-   * that we need to iterate through all of the values of the {@link Enum} returned by the given
-   * {@link Method} to check the given value.
-   * @param value
-   * @param clazz
-   * @param method
-   * @return
+   * Look up the constant whose {@link JsonValue} (or name, if there is no {@link JsonValue}
+   * method) matches the given value.  When several constants share a value the first declared
+   * wins.
    */
-  private Enum getEnumByMethod(String value, Class<? extends Enum> clazz, Method method) {
-    Enum[] enumValues = clazz.getEnumConstants();
-    // Start at the front to ensure first always wins
-    for (int i = 0; i < enumValues.length; ++i) {
-      Enum enumValue = enumValues[i];
-      try {
-        Object o = method.invoke(enumValue);
-        if (o != null) {
-          if (o.toString().equals(value)) {
-            return enumValue;
-          }
-        }
-      } catch (Exception ex) {
-        throw new IllegalArgumentException(ex);
-      }
+  Enum getEnumValue(String value, Class<? extends Enum> clazz) {
+    Enum enumValue = getClassDescriptor(clazz).getEnumConstantsByValue().get(value);
+    if (enumValue == null) {
+      throw new IllegalArgumentException("No enum constant " + clazz.getName() + "." + value);
     }
-    throw new IllegalArgumentException("No enum constant " + clazz.getName() + "." + value);
+    return enumValue;
   }
 
-  private List<Object> convertArrayToList(Field field, JSONArray array)
+  private List<Object> convertArrayToList(FieldDescriptor field, JSONArray array)
       throws IllegalAccessException, JSONException {
-    if (List.class.isAssignableFrom(field.getType())) {
-      ParameterizedType parameterizedType = (ParameterizedType) field.getGenericType();
-      Type[] types = parameterizedType.getActualTypeArguments();
-      if (types.length != 1) {
-        throw new IllegalArgumentException("Only able to handle a single type in a list " +
-            field.getName());
-      }
-      Class arrayClass = (Class)types[0];
+    if (List.class.isAssignableFrom(field.type)) {
+      Class arrayClass = field.getListElementType();
       List<Object> objectList = new ArrayList<Object>();
       for (int i = 0; i < array.length(); ++i) {
         if (arrayClass.isEnum()) {
@@ -233,42 +263,35 @@ public class ObjectMapper {
       return objectList;
     } else {
       throw new IllegalArgumentException("only know how to deserialize List<?> on field "
-          + field.getName());
+          + field.name);
     }
   }
 
   private JSONObject _convertToJSONObject(Object fromValue)
       throws JSONException, InvocationTargetException, IllegalAccessException {
     JSONObject jsonObject = new JSONObject();
-    Field[] fields = fromValue.getClass().getFields();
-    for (int i = 0; i < fields.length; ++i) {
-      Field field = fields[i];
-      if (Modifier.isStatic(field.getModifiers())) {
-        continue;
+    FieldDescriptor[] properties = getClassDescriptor(fromValue.getClass()).properties;
+    for (int i = 0; i < properties.length; ++i) {
+      FieldDescriptor property = properties[i];
+      // AutoBox here ...
+      Object value = property.field.get(fromValue);
+      Class clazz = property.type;
+      if (value != null) {
+        clazz = value.getClass();
       }
-      JsonProperty property = field.getAnnotation(JsonProperty.class);
-      if (property != null) {
-        // AutoBox here ...
-        Object value = field.get(fromValue);
-        Class clazz = field.getType();
-        if (value != null) {
-          clazz = value.getClass();
-        }
-        String name = field.getName();
-        if (property.required() && value == null) {
-          value = JSONObject.NULL;
-        } else if (value == JSONObject.NULL) {
-          // Leave it as null in this case.
-        } else {
-          value = getJsonValue(value, clazz, field);
-        }
-        jsonObject.put(name, value);
+      if (property.required && value == null) {
+        value = JSONObject.NULL;
+      } else if (value == JSONObject.NULL) {
+        // Leave it as null in this case.
+      } else {
+        value = getJsonValue(value, clazz);
       }
+      jsonObject.put(property.name, value);
     }
     return jsonObject;
   }
 
-  private Object getJsonValue(Object value, Class<?> clazz, Field field)
+  private Object getJsonValue(Object value, Class<?> clazz)
       throws InvocationTargetException, IllegalAccessException {
     if (value == null) {
       // Now technically we /could/ return JsonNode.NULL here but Chrome's webkit inspector croaks
@@ -279,9 +302,9 @@ public class ObjectMapper {
       return convertListToJsonArray(value);
     }
     // Finally check to see if there is a JsonValue present
-    Method m = getJsonValueMethod(clazz);
-    if (m != null) {
-      return m.invoke(value);
+    ClassDescriptor descriptor = getClassDescriptor(clazz);
+    if (descriptor.jsonValueMethod != null) {
+      return descriptor.getJsonValue(value);
     }
     if (!canDirectlySerializeClass(clazz)) {
       return convertValue(value, JSONObject.class);
@@ -308,7 +331,7 @@ public class ObjectMapper {
     List<Object> list = (List<Object>) value;
     for(Object obj : list) {
       // Send null, if this is an array of arrays we are screwed
-      array.put(obj != null ? getJsonValue(obj, obj.getClass(), null /* field */) : null);
+      array.put(obj != null ? getJsonValue(obj, obj.getClass()) : null);
     }
     return array;
   }
@@ -319,15 +342,20 @@ public class ObjectMapper {
    * @return the first method annotated with {@link JsonValue} or null if one does not exist.
    */
   @Nullable
-  private Method getJsonValueMethod(Class<?> clazz) {
-    synchronized (mJsonValueMethodCache) {
-      Method method = mJsonValueMethodCache.get(clazz);
-      if (method == null && !mJsonValueMethodCache.containsKey(clazz)) {
-        method = getJsonValueMethodImpl(clazz);
-        mJsonValueMethodCache.put(clazz, method);
+  Method getJsonValueMethod(Class<?> clazz) {
+    return getClassDescriptor(clazz).jsonValueMethod;
+  }
+
+  private ClassDescriptor getClassDescriptor(Class<?> clazz) {
+    ClassDescriptor descriptor = mClassDescriptors.get(clazz);
+    if (descriptor == null) {
+      descriptor = new ClassDescriptor(clazz);
+      ClassDescriptor existing = mClassDescriptors.putIfAbsent(clazz, descriptor);
+      if (existing != null) {
+        descriptor = existing;
       }
-      return method;
     }
+    return descriptor;
   }
 
   @Nullable
@@ -359,4 +387,166 @@ public class ObjectMapper {
         clazz.equals(Float.class);
   }
 
+  /**
+   * Everything about a class that the reflective conversions need, computed once.  Instances
+   * are immutable apart from the lazily resolved members, which are idempotent, so they are safe
+   * to share between threads without locking.
+   */
+  private static class ClassDescriptor {
+    private final Class<?> mClass;
+
+    /**
+     * All public, non-static fields (including inherited ones), as assigned when reading.
+     */
+    public final FieldDescriptor[] fields;
+
+    /**
+     * The subset of {@link #fields} annotated with {@link JsonProperty}, as written.
+     */
+    public final FieldDescriptor[] properties;
+
+    @Nullable
+    public final Method jsonValueMethod;
+
+    @Nullable
+    private volatile Constructor<?> mConstructor;
+
+    @Nullable
+    private volatile Map<String, Enum> mEnumConstantsByValue;
+
+    @Nullable
+    private volatile Map<Object, Object> mEnumJsonValues;
+
+    public ClassDescriptor(Class<?> clazz) {
+      mClass = clazz;
+      jsonValueMethod = getJsonValueMethodImpl(clazz);
+
+      Field[] classFields = clazz.getFields();
+      List<FieldDescriptor> fields = new ArrayList<>(classFields.length);
+      List<FieldDescriptor> properties = new ArrayList<>(classFields.length);
+      for (int i = 0; i < classFields.length; ++i) {
+        Field field = classFields[i];
+        if (Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+        FieldDescriptor descriptor = new FieldDescriptor(field);
+        fields.add(descriptor);
+        if (descriptor.property != null) {
+          properties.add(descriptor);
+        }
+      }
+      this.fields = fields.toArray(new FieldDescriptor[fields.size()]);
+      this.properties = properties.toArray(new FieldDescriptor[properties.size()]);
+    }
+
+    public Constructor<?> getConstructor() throws NoSuchMethodException {
+      Constructor<?> constructor = mConstructor;
+      if (constructor == null) {
+        constructor = mClass.getDeclaredConstructor((Class[]) null);
+        constructor.setAccessible(true);
+        mConstructor = constructor;
+      }
+      return constructor;
+    }
+
+    public Map<String, Enum> getEnumConstantsByValue() {
+      Map<String, Enum> byValue = mEnumConstantsByValue;
+      if (byValue == null) {
+        byValue = new HashMap<>();
+        Enum[] enumValues = (Enum[]) mClass.getEnumConstants();
+        // Iterate backwards so that the first constant with a given value wins.
+        for (int i = enumValues.length - 1; i >= 0; --i) {
+          Enum enumValue = enumValues[i];
+          if (jsonValueMethod == null) {
+            byValue.put(enumValue.name(), enumValue);
+          } else {
+            Object o = invokeJsonValueMethod(enumValue);
+            if (o != null) {
+              byValue.put(o.toString(), enumValue);
+            }
+          }
+        }
+        mEnumConstantsByValue = byValue;
+      }
+      return byValue;
+    }
+
+    /**
+     * Invoke {@link #jsonValueMethod}.  For enums the results are cached since the set of
+     * possible receivers is fixed.
+     */
+    public Object getJsonValue(Object value)
+        throws InvocationTargetException, IllegalAccessException {
+      if (!mClass.isEnum()) {
+        return jsonValueMethod.invoke(value);
+      }
+      Map<Object, Object> jsonValues = mEnumJsonValues;
+      if (jsonValues == null) {
+        jsonValues = new IdentityHashMap<>();
+        for (Object enumValue : mClass.getEnumConstants()) {
+          jsonValues.put(enumValue, jsonValueMethod.invoke(enumValue));
+        }
+        mEnumJsonValues = jsonValues;
+      }
+      return jsonValues.get(value);
+    }
+
+    private Object invokeJsonValueMethod(Object receiver) {
+      try {
+        return jsonValueMethod.invoke(receiver);
+      } catch (Exception ex) {
+        throw new IllegalArgumentException(ex);
+      }
+    }
+  }
+
+  private static class FieldDescriptor {
+    public final Field field;
+    public final String name;
+    public final Class<?> type;
+
+    @Nullable
+    public final JsonProperty property;
+
+    /**
+     * Whether this is a {@link JsonProperty} with {@code required = true}.
+     */
+    public final boolean required;
+
+    @Nullable
+    private final Class<?> mListElementType;
+
+    public FieldDescriptor(Field field) {
+      this.field = field;
+      this.name = field.getName();
+      this.type = field.getType();
+      this.property = field.getAnnotation(JsonProperty.class);
+      this.required = property != null && property.required();
+      mListElementType = resolveListElementType(field);
+    }
+
+    public Class<?> getListElementType() {
+      if (mListElementType == null) {
+        throw new IllegalArgumentException("Only able to handle a single type in a list " +
+            name);
+      }
+      return mListElementType;
+    }
+
+    @Nullable
+    private static Class<?> resolveListElementType(Field field) {
+      if (!List.class.isAssignableFrom(field.getType())) {
+        return null;
+      }
+      Type genericType = field.getGenericType();
+      if (!(genericType instanceof ParameterizedType)) {
+        return null;
+      }
+      Type[] types = ((ParameterizedType) genericType).getActualTypeArguments();
+      if (types.length != 1 || !(types[0] instanceof Class)) {
+        return null;
+      }
+      return (Class<?>) types[0];
+    }
+  }
 }
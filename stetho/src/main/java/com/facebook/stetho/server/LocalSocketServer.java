@@ -14,23 +14,52 @@ import com.facebook.stetho.common.LogUtil;
 import com.facebook.stetho.common.Util;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.BindException;
 import java.net.SocketException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LocalSocketServer {
   private static final String WORKER_THREAD_NAME_PREFIX = "StethoWorker";
   private static final int MAX_BIND_RETRIES = 2;
   private static final int TIME_BETWEEN_BIND_RETRIES_MS = 1000;
 
+  /**
+   * Default number of connections served at once.  Each DevTools window and dumpapp invocation
+   * holds a connection for as long as it is open, so this needs some headroom beyond the
+   * short-lived discovery requests.
+   */
+  public static final int DEFAULT_MAX_WORKERS = 16;
+
+  /**
+   * Pass as {@code maxWorkers} to serve every connection on a new thread of its own.
+   */
+  public static final int UNBOUNDED_WORKERS = 0;
+
+  private static final long WORKER_IDLE_TIMEOUT_MS = 30 * 1000;
+
+  /**
+   * How long to stop accepting new connections while every worker is busy before giving up
+   * on the connection which is waiting and closing it.
+   */
+  private static final long ACCEPT_BACKPRESSURE_TIMEOUT_MS = 5 * 1000;
+
   private final String mFriendlyName;
   private final String mAddress;
   private final SocketHandler mSocketHandler;
   private final AtomicInteger mThreadId = new AtomicInteger();
 
+  @Nullable
+  private final WorkerPool mWorkerPool;
+
+  private final AtomicLong mAcceptedConnectionCount = new AtomicLong();
+  private final AtomicInteger mActiveConnectionCount = new AtomicInteger();
+  private final AtomicLong mRejectedConnectionCount = new AtomicLong();
+
   private Thread mListenerThread;
   private boolean mStopped;
   private LocalServerSocket mServerSocket;
@@ -44,15 +73,57 @@ public class LocalSocketServer {
       String friendlyName,
       String address,
       SocketHandler socketHandler) {
+    this(friendlyName, address, socketHandler, DEFAULT_MAX_WORKERS);
+  }
+
+  /**
+   * @param maxWorkers maximum number of connections served at once, or
+   *     {@link #UNBOUNDED_WORKERS} for a new thread per connection.  Worker threads are reused
+   *     between connections and exit after being idle for a while.
+   */
+  public LocalSocketServer(
+      String friendlyName,
+      String address,
+      SocketHandler socketHandler,
+      int maxWorkers) {
     mFriendlyName = Util.throwIfNull(friendlyName);
     mAddress = Util.throwIfNull(address);
     mSocketHandler = socketHandler;
+    Util.throwIfNot(maxWorkers >= 0, "maxWorkers must not be negative, got %s", maxWorkers);
+    mWorkerPool = maxWorkers != UNBOUNDED_WORKERS
+        ? new WorkerPool(
+            WORKER_THREAD_NAME_PREFIX + "-" + mFriendlyName,
+            maxWorkers,
+            WORKER_IDLE_TIMEOUT_MS)
+        : null;
   }
 
   public String getName() {
     return mFriendlyName;
   }
 
+  /**
+   * @return Total number of connections accepted, including those subsequently rejected.
+   */
+  public long getAcceptedConnectionCount() {
+    return mAcceptedConnectionCount.get();
+  }
+
+  /**
+   * @return Number of connections currently being served.
+   */
+  public int getActiveConnectionCount() {
+    return mActiveConnectionCount.get();
+  }
+
+  /**
+   * @return Number of connections closed without being served because every worker stayed
+   *     busy for too long.
+   */
+  public long getRejectedConnectionCount() {
+    return mRejectedConnectionCount.get();
+  }
+
   /**
    * Binds to the address and listens for connections.
    * <p/>
@@ -81,15 +152,15 @@ public class LocalSocketServer {
         // Use previously accepted socket the first time around, otherwise wait to
         // accept another.
         LocalSocket socket = mServerSocket.accept();
+        mAcceptedConnectionCount.incrementAndGet();
 
-        // Start worker thread
-        Thread t = new WorkerThread(socket, mSocketHandler);
-        t.setName(
-            WORKER_THREAD_NAME_PREFIX +
-            "-" + mFriendlyName +
-            "-" + mThreadId.incrementAndGet());
-        t.setDaemon(true);
-        t.start();
+        if (!startWorker(socket)) {
+          mRejectedConnectionCount.incrementAndGet();
+          LogUtil.w("Rejecting connection, all " + mFriendlyName + " workers are busy");
+          closeQuietly(socket);
+        }
+      } catch (InterruptedException e) {
+        break;
       } catch (SocketException se) {
         // ignore exception if interrupting the thread
         if (Thread.interrupted()) {
@@ -104,9 +175,39 @@ public class LocalSocketServer {
       }
     }
 
+    if (mWorkerPool != null) {
+      mWorkerPool.shutdown();
+    }
     LogUtil.i("Server shutdown on @" + address);
   }
 
+  /**
+   * Serve the socket on a worker.  When pooled, this blocks (and so stops accepting further
+   * connections) while every worker is busy.
+   *
+   * @return False if no worker became available in time.
+   */
+  private boolean startWorker(LocalSocket socket) throws InterruptedException {
+    Runnable task = new ConnectionTask(socket);
+    if (mWorkerPool != null) {
+      try {
+        return mWorkerPool.execute(task, ACCEPT_BACKPRESSURE_TIMEOUT_MS);
+      } catch (InterruptedException e) {
+        closeQuietly(socket);
+        throw e;
+      }
+    }
+
+    Thread t = new Thread(task);
+    t.setName(
+        WORKER_THREAD_NAME_PREFIX +
+        "-" + mFriendlyName +
+        "-" + mThreadId.incrementAndGet());
+    t.setDaemon(true);
+    t.start();
+    return true;
+  }
+
   /**
    * Stops the listener thread and unbinds the address.
    */
@@ -150,26 +251,30 @@ public class LocalSocketServer {
     throw firstException;
   }
 
-  private static class WorkerThread extends Thread {
+  private static void closeQuietly(LocalSocket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignore) {
+    }
+  }
+
+  private class ConnectionTask implements Runnable {
     private final LocalSocket mSocket;
-    private final SocketHandler mSocketHandler;
 
-    public WorkerThread(LocalSocket socket, SocketHandler socketHandler) {
+    public ConnectionTask(LocalSocket socket) {
       mSocket = socket;
-      mSocketHandler = socketHandler;
     }
 
     @Override
     public void run() {
+      mActiveConnectionCount.incrementAndGet();
       try {
         mSocketHandler.onAccepted(mSocket);
       } catch (IOException ex) {
         LogUtil.w("I/O error: %s", ex);
       } finally {
-        try {
-          mSocket.close();
-        } catch (IOException ignore) {
-        }
+        mActiveConnectionCount.decrementAndGet();
+        closeQuietly(mSocket);
       }
     }
   }
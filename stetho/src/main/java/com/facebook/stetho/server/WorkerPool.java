@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.server;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.facebook.stetho.common.Util;
+
+/**
+ * Fixed upper bound of daemon worker threads which are created on demand and reaped after
+ * sitting idle.  Unlike a plain {@link ThreadPoolExecutor} no work is ever queued: a task either
+ * gets a worker of its own or, after waiting a bounded amount of time for one to free up, is
+ * refused so that the caller can push back on its own producer.
+ */
+@ThreadSafe
+class WorkerPool {
+  private final Semaphore mPermits;
+  private final ThreadPoolExecutor mExecutor;
+
+  public WorkerPool(final String threadNamePrefix, int maxWorkers, long idleTimeoutMs) {
+    Util.throwIfNot(maxWorkers > 0, "maxWorkers must be positive, got %s", maxWorkers);
+    mPermits = new Semaphore(maxWorkers);
+    // Permits, not the executor, bound the number of running tasks.  The unbounded queue only
+    // absorbs the brief window in which a finished worker has released its permit but not yet
+    // gone back to waiting for work.
+    mExecutor = new ThreadPoolExecutor(
+        maxWorkers /* corePoolSize */,
+        maxWorkers /* maximumPoolSize */,
+        idleTimeoutMs,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger mThreadId = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, threadNamePrefix + "-" + mThreadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    mExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Run {@code task} on a worker, waiting up to {@code timeoutMs} for one to become available.
+   *
+   * @return True if the task was handed to a worker; false if none became available in time or
+   *     the pool has been shut down.
+   */
+  public boolean execute(final Runnable task, long timeoutMs) throws InterruptedException {
+    if (!mPermits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+      return false;
+    }
+    try {
+      mExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            mPermits.release();
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      mPermits.release();
+      return false;
+    }
+  }
+
+  /**
+   * @return Number of live worker threads, busy or idle.
+   */
+  public int getWorkerCount() {
+    return mExecutor.getPoolSize();
+  }
+
+  /**
+   * Refuse new tasks.  Tasks which are already running are allowed to finish.
+   */
+  public void shutdown() {
+    mExecutor.shutdown();
+  }
+}
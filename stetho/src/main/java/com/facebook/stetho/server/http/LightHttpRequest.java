@@ -11,14 +11,67 @@ import android.net.Uri;
 
 public class LightHttpRequest extends LightHttpMessage {
   public String method;
-  public Uri uri;
+
+  /**
+   * Request target exactly as it appeared in the request line, such as
+   * {@code /dumpapp?argv=prefs}.
+   */
+  public String target;
+
+  /**
+   * Decoded path component of {@link #target}.
+   */
+  public String path;
+
   public String protocol;
 
+  private Uri mUri;
+
+  /**
+   * Full parsed form of {@link #target}.  Parsing is deferred until this is first called since
+   * most requests only need {@link #path}.
+   */
+  public Uri getUri() {
+    if (mUri == null) {
+      mUri = Uri.parse(target);
+    }
+    return mUri;
+  }
+
+  /**
+   * Set {@link #target} and derive {@link #path} from it.
+   */
+  public void setTarget(String target) {
+    this.target = target;
+    mUri = null;
+
+    int length = target.length();
+    int end = length;
+    boolean simple = length > 0 && target.charAt(0) == '/';
+    for (int i = 0; simple && i < length; i++) {
+      char c = target.charAt(i);
+      if (c == '?' || c == '#') {
+        end = i;
+        break;
+      } else if (c == '%') {
+        simple = false;
+      }
+    }
+    if (simple) {
+      path = end == length ? target : target.substring(0, end);
+    } else {
+      // Needs decoding, or is in absolute form; leave it to Uri.
+      path = getUri().getPath();
+    }
+  }
+
   @Override
   public void reset() {
     super.reset();
     this.method = null;
-    this.uri = null;
+    this.target = null;
+    this.path = null;
     this.protocol = null;
+    mUri = null;
   }
 }
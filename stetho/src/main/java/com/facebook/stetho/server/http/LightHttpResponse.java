@@ -7,11 +7,19 @@
 
 package com.facebook.stetho.server.http;
 
+import android.support.annotation.Nullable;
+
 public class LightHttpResponse extends LightHttpMessage {
   public int code;
   public String reasonPhrase;
   public LightHttpBody body;
 
+  /**
+   * If set, written as-is in place of all of the above.
+   */
+  @Nullable
+  public PreEncodedHttpResponse preEncoded;
+
   public void prepare() {
     if (body != null) {
       addHeader(HttpHeaders.CONTENT_TYPE, body.contentType());
@@ -25,5 +33,6 @@ public class LightHttpResponse extends LightHttpMessage {
     this.code = -1;
     this.reasonPhrase = null;
     this.body = null;
+    this.preEncoded = null;
   }
 }
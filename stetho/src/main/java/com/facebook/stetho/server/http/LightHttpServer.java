@@ -7,9 +7,7 @@
 
 package com.facebook.stetho.server.http;
 
-import android.net.Uri;
 import android.support.annotation.Nullable;
-import android.util.Log;
 
 import com.facebook.stetho.server.LeakyBufferedInputStream;
 import com.facebook.stetho.server.SocketLike;
@@ -32,6 +30,46 @@ import java.io.StringWriter;
 public class LightHttpServer {
   private static final String TAG = "LightHttpServer";
 
+  private static final KnownStrings KNOWN_METHODS = new KnownStrings(
+      "GET",
+      "POST",
+      "PUT",
+      "DELETE",
+      "HEAD",
+      "OPTIONS");
+
+  private static final KnownStrings KNOWN_PROTOCOLS = new KnownStrings(
+      "HTTP/1.1",
+      "HTTP/1.0");
+
+  private static final KnownStrings KNOWN_HEADER_NAMES = new KnownStrings(
+      "Host",
+      "Connection",
+      "Upgrade",
+      "User-Agent",
+      "Accept",
+      "Accept-Encoding",
+      "Accept-Language",
+      "Cache-Control",
+      "Pragma",
+      "Origin",
+      HttpHeaders.CONTENT_TYPE,
+      HttpHeaders.CONTENT_LENGTH,
+      "Sec-WebSocket-Key",
+      "Sec-WebSocket-Version",
+      "Sec-WebSocket-Extensions");
+
+  private static final KnownStrings KNOWN_HEADER_VALUES = new KnownStrings(
+      "localhost",
+      "keep-alive",
+      "close",
+      "Upgrade",
+      "websocket",
+      "13",
+      "*/*",
+      "no-cache",
+      "gzip, deflate");
+
   private final HandlerRegistry mHandlerRegistry;
 
   public LightHttpServer(HandlerRegistry handlerRegistry) {
@@ -42,7 +80,9 @@ public class LightHttpServer {
     LeakyBufferedInputStream input = new LeakyBufferedInputStream(socket.getInput(), 1024);
     OutputStream output = socket.getOutput();
     HttpMessageReader reader = new HttpMessageReader(input);
-    HttpMessageWriter writer = new HttpMessageWriter(new BufferedOutputStream(output));
+    // Created on first use since pre-encoded responses (like all of those served by
+    // ChromeDiscoveryHandler) don't need it.
+    HttpMessageWriter writer = null;
 
     SocketLike anotherSocketLike = new SocketLike(socket, input);
     LightHttpRequest scratchRequest = new LightHttpRequest();
@@ -51,7 +91,6 @@ public class LightHttpServer {
 
     // This loops assumes we are always using keep-alive connections.  If we're wrong, we
     // expect the client to just close the connection.
-    Log.i("247144", "readRequestMessage(scratchRequest, reader) 之前");
     while ((request = readRequestMessage(scratchRequest, reader)) != null) {
       final LightHttpResponse response = scratchResponse;
       response.reset();
@@ -59,14 +98,19 @@ public class LightHttpServer {
       // Note, if we're upgrading to websockets, this will block for the lifetime of the
       // websocket session...
       boolean keepGoing = dispatchToHandler(anotherSocketLike, request, response);
-      Log.i("247144", "keepGoing：：" + keepGoing);
       if (!keepGoing) {
         // Orderly shutdown, ignore response and break the loop.
         break;
       }
 
-      writeFullResponse(response, writer, output);
-      Log.i("247144", "writeFullResponse");
+      if (response.preEncoded != null) {
+        response.preEncoded.writeTo(output);
+      } else {
+        if (writer == null) {
+          writer = new HttpMessageWriter(new BufferedOutputStream(output));
+        }
+        writeFullResponse(response, writer, output);
+      }
     }
   }
 
@@ -75,7 +119,7 @@ public class LightHttpServer {
       LightHttpRequest request,
       LightHttpResponse response)
       throws IOException {
-    HttpHandler handler = mHandlerRegistry.lookup(request.uri.getPath());
+    HttpHandler handler = mHandlerRegistry.lookup(request.path);
     if (handler == null) {
       response.code = HttpStatus.HTTP_NOT_FOUND;
       response.reasonPhrase = "Not found";
@@ -100,60 +144,120 @@ public class LightHttpServer {
     }
   }
   
-  static int i = 0;
-
+  // @VisibleForTesting
   @Nullable
-  private static LightHttpRequest readRequestMessage(
+  static LightHttpRequest readRequestMessage(
       LightHttpRequest request,
       HttpMessageReader reader)
       throws IOException {
     request.reset();
-    
-    i++;
-    Log.i("247144", "readRequestMessage 阻塞中");
-    String requestLine = reader.readLine();
-    Log.i("247144", i + "___" + requestLine);
-    if (requestLine == null) {
+
+    if (!reader.readLineBytes()) {
       return null;
     }
 
     // Zero tolerance on URI encoding, that URI better not have a space in it...
-    String[] requestParts = requestLine.split(" ", 3);
-    if (requestParts.length != 3) {
-      throw new IOException("Invalid request line: " + requestLine);
+    byte[] line = reader.getLineBuffer();
+    int lineLength = reader.getLineLength();
+    int methodEnd = indexOf(line, 0, lineLength, (byte) ' ');
+    int targetEnd = methodEnd >= 0 ? indexOf(line, methodEnd + 1, lineLength, (byte) ' ') : -1;
+    if (targetEnd < 0) {
+      throw new IOException("Invalid request line: " + reader.getLineAsString());
     }
 
-    request.method = requestParts[0];
-    request.uri = Uri.parse(requestParts[1]);
-    request.protocol = requestParts[2];
+    request.method = KNOWN_METHODS.get(line, 0, methodEnd);
+    request.setTarget(asciiString(line, methodEnd + 1, targetEnd - methodEnd - 1));
+    request.protocol = KNOWN_PROTOCOLS.get(line, targetEnd + 1, lineLength - targetEnd - 1);
 
-    readHeaders(request, reader, i);
+    readHeaders(request, reader);
 
     return request;
   }
 
   private static void readHeaders(
       LightHttpMessage message,
-      HttpMessageReader reader, int i) throws IOException {
-    String headerLine;
+      HttpMessageReader reader) throws IOException {
     while (true) {
-      headerLine = reader.readLine();
-      Log.i("247144", i + "___" + headerLine);
-      if (headerLine == null) {
+      if (!reader.readLineBytes()) {
         throw new EOFException();
-      } else if ("".equals(headerLine)) {
+      }
+      byte[] line = reader.getLineBuffer();
+      int lineLength = reader.getLineLength();
+      if (lineLength == 0) {
         break;
-      } else {
-        String[] headerParts = headerLine.split(": ", 2);
-        if (headerParts.length != 2) {
-          throw new IOException("Malformed header: " + headerLine);
+      }
+
+      int nameEnd = indexOf(line, 0, lineLength, (byte) ':');
+      if (nameEnd <= 0) {
+        throw new IOException("Malformed header: " + reader.getLineAsString());
+      }
+      int valueStart = nameEnd + 1;
+      while (valueStart < lineLength && (line[valueStart] == ' ' || line[valueStart] == '\t')) {
+        valueStart++;
+      }
+
+      message.headerNames.add(KNOWN_HEADER_NAMES.get(line, 0, nameEnd));
+      message.headerValues.add(
+          KNOWN_HEADER_VALUES.get(line, valueStart, lineLength - valueStart));
+    }
+  }
+
+  private static int indexOf(byte[] haystack, int offset, int limit, byte needle) {
+    for (int i = offset; i < limit; i++) {
+      if (haystack[i] == needle) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @SuppressWarnings("deprecation")
+  private static String asciiString(byte[] buf, int offset, int length) {
+    // Decodes each byte as the char with the same value, just like HttpMessageReader always has.
+    return new String(buf, 0 /* hibyte */, offset, length);
+  }
+
+  /**
+   * Small set of strings which are matched directly against ASCII bytes so that common tokens
+   * can be returned as constants rather than decoded into a new String on every request.
+   * Matching is exact (case sensitive), so anything not in the set decodes to an equal String.
+   */
+  private static class KnownStrings {
+    private final String[] mStrings;
+    private final byte[][] mBytes;
+
+    public KnownStrings(String... strings) {
+      mStrings = strings;
+      mBytes = new byte[strings.length][];
+      for (int i = 0; i < strings.length; i++) {
+        String str = strings[i];
+        byte[] bytes = new byte[str.length()];
+        for (int j = 0; j < bytes.length; j++) {
+          bytes[j] = (byte) str.charAt(j);
         }
-        String name = headerParts[0];
-        String value = headerParts[1];
+        mBytes[i] = bytes;
+      }
+    }
 
-        message.headerNames.add(name);
-        message.headerValues.add(value);
+    public String get(byte[] buf, int offset, int length) {
+      for (int i = 0; i < mBytes.length; i++) {
+        if (regionMatches(mBytes[i], buf, offset, length)) {
+          return mStrings[i];
+        }
       }
+      return asciiString(buf, offset, length);
+    }
+
+    private static boolean regionMatches(byte[] expected, byte[] buf, int offset, int length) {
+      if (expected.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (expected[i] != buf[offset + i]) {
+          return false;
+        }
+      }
+      return true;
     }
   }
 
@@ -182,15 +286,27 @@ public class LightHttpServer {
   }
 
   /**
-   * Efficient, unbuffered variation of {@link InputStreamReader} which assumes the input is
-   * always ASCII.  This is especially useful when you are certain that the client and server
-   * are both mechanized and will not contain non-ASCII characters in the control messages upon
-   * which this reader is applied.
+   * Efficient variation of {@link InputStreamReader} which assumes the input is always ASCII.
+   * This is especially useful when you are certain that the client and server are both
+   * mechanized and will not contain non-ASCII characters in the control messages upon which
+   * this reader is applied.
+   * <p />
+   * Lines are located by scanning a bulk copy of the stream's buffer (taken under
+   * {@link BufferedInputStream#mark}) rather than reading one byte at a time, and only the bytes
+   * of each line returned are actually consumed from the stream.  The copy is discarded after a
+   * blank line so that callers may read a message body directly from the stream after the
+   * headers; the stream must otherwise not be read from while lines are being read.
    */
   public static class HttpMessageReader {
+    private static final int CHUNK_SIZE = 1024;
+    private static final int INITIAL_LINE_CAPACITY = 128;
+
     private final BufferedInputStream mIn;
-    private final StringBuilder mBuffer = new StringBuilder();
-    private final NewLineDetector mNewLineDetector = new NewLineDetector();
+    private final byte[] mChunk = new byte[CHUNK_SIZE];
+    private int mChunkPos;
+    private int mChunkCount;
+    private byte[] mLine = new byte[INITIAL_LINE_CAPACITY];
+    private int mLineLength;
 
     public HttpMessageReader(BufferedInputStream in) {
       mIn = in;
@@ -198,64 +314,83 @@ public class LightHttpServer {
 
     @Nullable
     public String readLine() throws IOException {
+      return readLineBytes() ? getLineAsString() : null;
+    }
+
+    /**
+     * Read the next CRLF terminated line into {@link #getLineBuffer()}, without the CRLF.
+     *
+     * @return False if the stream ended first.
+     */
+    boolean readLineBytes() throws IOException {
+      mLineLength = 0;
       while (true) {
-        int b = mIn.read();
-        if (b < 0) {
-          return null;
+        if (mChunkPos == mChunkCount && !fillChunk()) {
+          return false;
         }
-
-        char c = (char)b;
-        mNewLineDetector.accept(c);
-
-        switch (mNewLineDetector.state()) {
-          case NewLineDetector.STATE_ON_CRLF:
-            String result = mBuffer.toString();
-            mBuffer.setLength(0);
-            return result;
-          case NewLineDetector.STATE_ON_CR:
-            break;
-          case NewLineDetector.STATE_ON_OTHER:
-            mBuffer.append(c);
-            break;
+        int start = mChunkPos;
+        int newline = indexOf(mChunk, start, mChunkCount, (byte) '\n');
+        int end = newline >= 0 ? newline + 1 : mChunkCount;
+        appendToLine(start, end - start);
+        skipFully(end - start);
+        mChunkPos = end;
+
+        if (newline >= 0 && mLineLength >= 2 && mLine[mLineLength - 2] == '\r') {
+          mLineLength -= 2;
+          if (mLineLength == 0) {
+            mChunkPos = mChunkCount = 0;
+          }
+          return true;
         }
       }
     }
 
-    private static class NewLineDetector {
-      private static final int STATE_ON_OTHER = 1;
-      private static final int STATE_ON_CR = 2;
-      private static final int STATE_ON_CRLF = 3;
-
-      private int state = STATE_ON_OTHER;
-
-      public void accept(char c) {
-        switch (state) {
-          case STATE_ON_OTHER:
-            if (c == '\r') {
-              state = STATE_ON_CR;
-            }
-            break;
-          case STATE_ON_CR:
-            if (c == '\n') {
-              state = STATE_ON_CRLF;
-            } else {
-              state = STATE_ON_OTHER;
-            }
-            break;
-          case STATE_ON_CRLF:
-            if (c == '\r') {
-              state = STATE_ON_CR;
-            } else {
-              state = STATE_ON_OTHER;
-            }
-            break;
-          default:
-            throw new IllegalArgumentException("Unknown state: " + state);
-        }
+    byte[] getLineBuffer() {
+      return mLine;
+    }
+
+    int getLineLength() {
+      return mLineLength;
+    }
+
+    String getLineAsString() {
+      return asciiString(mLine, 0, mLineLength);
+    }
+
+    private boolean fillChunk() throws IOException {
+      mIn.mark(CHUNK_SIZE);
+      int n;
+      try {
+        n = mIn.read(mChunk, 0, CHUNK_SIZE);
+      } finally {
+        mIn.reset();
+      }
+      if (n <= 0) {
+        mChunkPos = mChunkCount = 0;
+        return false;
       }
+      mChunkPos = 0;
+      mChunkCount = n;
+      return true;
+    }
+
+    private void appendToLine(int offset, int count) {
+      if (mLineLength + count > mLine.length) {
+        byte[] newLine = new byte[Math.max(mLine.length * 2, mLineLength + count)];
+        System.arraycopy(mLine, 0, newLine, 0, mLineLength);
+        mLine = newLine;
+      }
+      System.arraycopy(mChunk, offset, mLine, mLineLength, count);
+      mLineLength += count;
+    }
 
-      public int state() {
-        return state;
+    private void skipFully(int count) throws IOException {
+      while (count > 0) {
+        long skipped = mIn.skip(count);
+        if (skipped <= 0) {
+          throw new EOFException();
+        }
+        count -= skipped;
       }
     }
   }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.server.http;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A complete response (status line, headers and body) encoded once up front so that handlers
+ * serving the same static content over and over can have it written with a single call.  Set it
+ * as {@link LightHttpResponse#preEncoded}.
+ */
+public final class PreEncodedHttpResponse {
+  private final byte[] mEncoded;
+
+  private PreEncodedHttpResponse(byte[] encoded) {
+    mEncoded = encoded;
+  }
+
+  public static PreEncodedHttpResponse create(int code, String reasonPhrase, LightHttpBody body) {
+    LightHttpResponse response = new LightHttpResponse();
+    response.code = code;
+    response.reasonPhrase = reasonPhrase;
+    response.body = body;
+    response.prepare();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256 + body.contentLength());
+    try {
+      LightHttpServer.writeResponseMessage(
+          response,
+          new LightHttpServer.HttpMessageWriter(new BufferedOutputStream(out)));
+      body.writeTo(out);
+    } catch (IOException e) {
+      // Impossible with ByteArrayOutputStream.
+      throw new RuntimeException(e);
+    }
+    return new PreEncodedHttpResponse(out.toByteArray());
+  }
+
+  public void writeTo(OutputStream output) throws IOException {
+    output.write(mEncoded);
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.telemetry;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.facebook.stetho.common.LatencyHistogram;
+
+/**
+ * Process wide counters describing what Stetho itself costs the app: protocol traffic, time
+ * spent serializing, WebSocket write latency and backlog, main thread blocking and DOM tree
+ * updates.  Everything is recorded with atomics so that leaving it enabled adds no contention
+ * to the paths being measured.
+ * <p>
+ * Per-method dispatch costs are kept separately in
+ * {@link com.facebook.stetho.inspector.MethodCallStats}.
+ */
+@ThreadSafe
+public final class StethoTelemetry {
+  /**
+   * Domain that messages without a method (responses to requests we sent) are counted under.
+   */
+  public static final String NO_DOMAIN = "(none)";
+
+  /**
+   * Domain that messages are counted under once {@link #MAX_DOMAINS} is reached, or if their
+   * method has no domain at all.
+   */
+  public static final String OTHER_DOMAIN = "(other)";
+
+  /**
+   * Bounds {@link #mMessagesByMethod} in case a peer makes up method names.
+   */
+  private static final int MAX_CACHED_METHODS = 1024;
+
+  /**
+   * Bounds {@link #mMessagesByDomain} likewise, well above the number of real domains.
+   */
+  static final int MAX_DOMAINS = 128;
+
+  private static final StethoTelemetry sInstance = new StethoTelemetry();
+
+  private final ConcurrentHashMap<String, DomainMessageCounts> mMessagesByDomain =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The same counts keyed by full method name, so that counting a message doesn't need to
+   * extract the domain name each time.
+   */
+  private final ConcurrentHashMap<String, DomainMessageCounts> mMessagesByMethod =
+      new ConcurrentHashMap<>();
+
+  private final LatencyHistogram mSerializationTime = new LatencyHistogram();
+  private final LatencyHistogram mWebSocketWriteLatency = new LatencyHistogram();
+  private final LatencyHistogram mPostAndWaitTime = new LatencyHistogram();
+  private final LatencyHistogram mDocumentUpdateTime = new LatencyHistogram();
+
+  private final AtomicLong mWebSocketQueuedFrames = new AtomicLong();
+  private final AtomicLong mWebSocketQueuedBytes = new AtomicLong();
+  private final AtomicLong mPeakWebSocketQueuedBytes = new AtomicLong();
+
+  // @VisibleForTesting
+  StethoTelemetry() {
+  }
+
+  public static StethoTelemetry get() {
+    return sInstance;
+  }
+
+  /**
+   * @param method Protocol method of the message (e.g. {@code Network.enable}) or null for a
+   *     response.
+   */
+  public void recordMessageIn(@Nullable String method) {
+    getDomainCounts(method).mIn.incrementAndGet();
+  }
+
+  /**
+   * @param method Protocol method of the message, or for a response the method of the request
+   *     it answers.
+   */
+  public void recordMessageOut(@Nullable String method) {
+    getDomainCounts(method).mOut.incrementAndGet();
+  }
+
+  /**
+   * Record sending the same message to several peers.
+   */
+  public void recordMessagesOut(@Nullable String method, int count) {
+    getDomainCounts(method).mOut.addAndGet(count);
+  }
+
+  /**
+   * Time taken by {@link com.facebook.stetho.json.ObjectMapper} to convert or stream a value.
+   */
+  public LatencyHistogram getSerializationTime() {
+    return mSerializationTime;
+  }
+
+  /**
+   * Time from a WebSocket frame being queued until the batch it was written in was flushed.
+   */
+  public LatencyHistogram getWebSocketWriteLatency() {
+    return mWebSocketWriteLatency;
+  }
+
+  /**
+   * Time threads spent blocked in
+   * {@link com.facebook.stetho.common.android.HandlerUtil#postAndWait} waiting for the
+   * handler's (usually the main) thread.
+   */
+  public LatencyHistogram getPostAndWaitTime() {
+    return mPostAndWaitTime;
+  }
+
+  /**
+   * Duration of each {@code Document.updateTree} pass.
+   */
+  public LatencyHistogram getDocumentUpdateTime() {
+    return mDocumentUpdateTime;
+  }
+
+  public void onWebSocketFrameQueued(int length) {
+    mWebSocketQueuedFrames.incrementAndGet();
+    long queuedBytes = mWebSocketQueuedBytes.addAndGet(length);
+    long peak;
+    do {
+      peak = mPeakWebSocketQueuedBytes.get();
+    } while (queuedBytes > peak && !mPeakWebSocketQueuedBytes.compareAndSet(peak, queuedBytes));
+  }
+
+  public void onWebSocketFramesDequeued(int count, long length) {
+    mWebSocketQueuedFrames.addAndGet(-count);
+    mWebSocketQueuedBytes.addAndGet(-length);
+  }
+
+  /**
+   * @return Frames currently waiting to be written, summed over all sessions.
+   */
+  public long getWebSocketQueuedFrames() {
+    return mWebSocketQueuedFrames.get();
+  }
+
+  /**
+   * @return Bytes currently waiting to be written, summed over all sessions.
+   */
+  public long getWebSocketQueuedBytes() {
+    return mWebSocketQueuedBytes.get();
+  }
+
+  public long getPeakWebSocketQueuedBytes() {
+    return mPeakWebSocketQueuedBytes.get();
+  }
+
+  /**
+   * @return Message counts of every domain that has sent or received anything.
+   */
+  public List<DomainMessageCounts> getMessageCounts() {
+    return new ArrayList<>(mMessagesByDomain.values());
+  }
+
+  /**
+   * Clear all counters except the current WebSocket queue depth, which describes frames still
+   * in flight.
+   */
+  public void reset() {
+    for (DomainMessageCounts counts : mMessagesByDomain.values()) {
+      counts.mIn.set(0);
+      counts.mOut.set(0);
+    }
+    mSerializationTime.reset();
+    mWebSocketWriteLatency.reset();
+    mPostAndWaitTime.reset();
+    mDocumentUpdateTime.reset();
+    mPeakWebSocketQueuedBytes.set(mWebSocketQueuedBytes.get());
+  }
+
+  private DomainMessageCounts getDomainCounts(@Nullable String method) {
+    String key = method != null ? method : NO_DOMAIN;
+    DomainMessageCounts counts = mMessagesByMethod.get(key);
+    if (counts == null) {
+      String domain = getDomain(method);
+      counts = mMessagesByDomain.get(domain);
+      if (counts == null) {
+        if (mMessagesByDomain.size() >= MAX_DOMAINS) {
+          // Racing threads may overshoot by a few, which is harmless.
+          domain = OTHER_DOMAIN;
+        }
+        DomainMessageCounts newCounts = new DomainMessageCounts(domain);
+        counts = mMessagesByDomain.putIfAbsent(domain, newCounts);
+        if (counts == null) {
+          counts = newCounts;
+        }
+      }
+      if (mMessagesByMethod.size() < MAX_CACHED_METHODS) {
+        mMessagesByMethod.put(key, counts);
+      }
+    }
+    return counts;
+  }
+
+  private static String getDomain(@Nullable String method) {
+    if (method == null) {
+      return NO_DOMAIN;
+    }
+    int dot = method.indexOf('.');
+    return dot > 0 ? method.substring(0, dot) : OTHER_DOMAIN;
+  }
+
+  @ThreadSafe
+  public static final class DomainMessageCounts {
+    private final String mDomain;
+    private final AtomicLong mIn = new AtomicLong();
+    private final AtomicLong mOut = new AtomicLong();
+
+    private DomainMessageCounts(String domain) {
+      mDomain = domain;
+    }
+
+    public String getDomain() {
+      return mDomain;
+    }
+
+    public long getMessagesIn() {
+      return mIn.get();
+    }
+
+    public long getMessagesOut() {
+      return mOut.get();
+    }
+  }
+}
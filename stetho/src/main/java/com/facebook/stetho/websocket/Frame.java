@@ -94,6 +94,7 @@ import java.util.Random;
  * 原码、反码、补码{https://www.cnblogs.com/zhangziqiu/archive/2011/03/30/computercode.html}
  */
 public class Frame {
+  public static final byte OPCODE_CONTINUATION = 0x0;
   public static final byte OPCODE_TEXT_FRAME = 0x1;
   public static final byte OPCODE_BINARY_FRAME = 0x2;
   public static final byte OPCODE_CONNECTION_CLOSE = 0x8;
@@ -111,6 +112,17 @@ public class Frame {
   public byte[] payloadData;
 
   public void readFrom(BufferedInputStream input) throws IOException {
+    readHeaderFrom(input);
+    // 拿到用户输入文本
+    payloadData = new byte[(int)payloadLen];
+    readPayloadFrom(input, payloadData, 0);
+  }
+
+  /**
+   * Read everything up to the payload, leaving {@link #payloadData} untouched.  The masking key
+   * array is reused from the previous frame read by this instance.
+   */
+  public void readHeaderFrom(InputStream input) throws IOException {
     // 读第一个字节，8位内容：0~7 FIN + RSV1、2、3 + Opcode
     // 调试的时候拿到input中buf第一个字节是-127，因为计算机中用补码进行运算，-127=0b11111111，第一位是符号位，
     // 减1然后除符号位取反，得到原码为0b10000001，就是FIN为true，RSV1、2、3为false，Opcode为0x1
@@ -121,14 +133,29 @@ public class Frame {
     hasMask = (maskAndFirstLengthBits & 0x80) != 0;
     // 用户输入文本长度 后7位最大值为0b1111111=127, 125的话就是长度，126、127都是标识值，需要继续read后面2字节或者8字节拿到长度
     payloadLen = decodeLength((byte)(maskAndFirstLengthBits & ~0x80), input);
+    if (payloadLen < 0 || payloadLen > Integer.MAX_VALUE) {
+      throw new IOException("Unsupported payload length: " + payloadLen);
+    }
     // 如果有掩码的话，拿到4位是掩码的key
-    maskingKey = hasMask ? decodeMaskingKey(input) : null;
-    // 拿到用户输入文本
-    payloadData = new byte[(int)payloadLen];
-    readBytesOrThrow(input, payloadData, 0, (int)payloadLen);
-    if (maskingKey != null) {
+    if (hasMask) {
+      if (maskingKey == null) {
+        maskingKey = new byte[4];
+      }
+      readBytesOrThrow(input, maskingKey, 0, maskingKey.length);
+    } else {
+      maskingKey = null;
+    }
+  }
+
+  /**
+   * Read the payload of the frame whose header was just read by {@link #readHeaderFrom} into
+   * {@code buf} at {@code offset}, unmasking it in place.
+   */
+  public void readPayloadFrom(InputStream input, byte[] buf, int offset) throws IOException {
+    readBytesOrThrow(input, buf, offset, (int)payloadLen);
+    if (hasMask) {
       // 掩码解密文本
-      MaskingHelper.unmask(maskingKey, payloadData, 0, (int)payloadLen);
+      MaskingHelper.unmask(maskingKey, buf, offset, (int)payloadLen);
     }
   }
 
@@ -227,12 +254,6 @@ public class Frame {
     }
   }
 
-  private static byte[] decodeMaskingKey(InputStream in) throws IOException {
-    byte[] key = new byte[4];
-    readBytesOrThrow(in, key, 0, key.length);
-    return key;
-  }
-
   private static void readBytesOrThrow(InputStream in, byte[] buf, int offset, int count)
       throws IOException {
     while (count > 0) {
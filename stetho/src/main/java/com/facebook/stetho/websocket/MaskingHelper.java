@@ -11,7 +11,8 @@ class MaskingHelper {
   public static void unmask(byte[] key, byte[] data, int offset, int count) {
     int index = 0;
     while (count-- > 0) {
-      data[offset++] ^= key[index++ % key.length];
+      data[offset++] ^= key[index];
+      index = (index + 1) & 3;
     }
   }
   
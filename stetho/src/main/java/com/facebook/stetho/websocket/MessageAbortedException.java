@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import java.io.IOException;
+
+/**
+ * A {@link StreamingMessage} failed and could be neither completed nor replaced, so the
+ * session was closed with {@link CloseCodes#UNEXPECTED_CONDITION} rather than leave the peer
+ * with a truncated message or none at all.
+ */
+class MessageAbortedException extends IOException {
+  public MessageAbortedException(String message, IOException cause) {
+    super(message, cause);
+  }
+}
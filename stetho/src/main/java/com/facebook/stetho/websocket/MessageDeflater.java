@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compresses outgoing messages as per the {@code permessage-deflate} extension (RFC 7692).
+ * <p>
+ * {@link Deflater#SYNC_FLUSH} is not available before API 19 so every message is compressed as
+ * a complete DEFLATE stream with a final block, which requires {@code server_no_context_takeover}
+ * to have been negotiated.  The {@link Deflater} itself and the output buffer are reused across
+ * messages.  A message too large to hold whole can instead be fed in pieces through
+ * {@link #beginMessage()}, {@link #setInput} and {@link #drain}.  Not thread safe; the session's
+ * writer thread is the only user.
+ */
+class MessageDeflater {
+  private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+  private final Deflater mDeflater;
+  private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+  private boolean mTrailerPending;
+
+  public MessageDeflater(int level) {
+    mDeflater = new Deflater(level, true /* nowrap */);
+  }
+
+  /**
+   * Compress {@code length} bytes of {@code payload} into {@link #getBuffer()}.
+   *
+   * @return Number of compressed bytes available in {@link #getBuffer()}.
+   */
+  public int deflate(byte[] payload, int offset, int length) {
+    mDeflater.reset();
+    mDeflater.setInput(payload, offset, length);
+    mDeflater.finish();
+    int count = 0;
+    while (!mDeflater.finished()) {
+      if (count == mBuffer.length) {
+        grow();
+      }
+      count += mDeflater.deflate(mBuffer, count, mBuffer.length - count);
+    }
+    // Begin the empty stored block which RFC 7692 section 7.2.1 has us append, then strip its
+    // remaining 0x00 0x00 0xff 0xff.  After a final block that leaves a single zero byte.
+    if (count == mBuffer.length) {
+      grow();
+    }
+    mBuffer[count++] = 0;
+    return count;
+  }
+
+  /**
+   * Start compressing a message whose input arrives through {@link #setInput}.  Discards
+   * whatever was left of the previous one.
+   */
+  public void beginMessage() {
+    mDeflater.reset();
+    mTrailerPending = true;
+  }
+
+  /**
+   * Feed the next piece of the message.  {@code data} must not be modified until
+   * {@link #drain} returns 0.
+   *
+   * @param last True if this piece ends the message.
+   */
+  public void setInput(byte[] data, int offset, int length, boolean last) {
+    mDeflater.setInput(data, offset, length);
+    if (last) {
+      mDeflater.finish();
+    }
+  }
+
+  /**
+   * Compress as much of the input given so far as fits into {@code length} (at least 1) bytes
+   * of {@code out}.
+   *
+   * @return Number of bytes written, 0 once all of the input has been consumed or, after the
+   *     last piece, once the message including its trailing zero byte is complete.
+   */
+  public int drain(byte[] out, int offset, int length) {
+    int count = mDeflater.deflate(out, offset, length);
+    if (count == 0 && mTrailerPending && mDeflater.finished()) {
+      // See deflate().
+      mTrailerPending = false;
+      out[offset] = 0;
+      count = 1;
+    }
+    return count;
+  }
+
+  public byte[] getBuffer() {
+    return mBuffer;
+  }
+
+  /**
+   * Release the native resources held by the {@link Deflater}.  This instance is unusable
+   * afterwards.
+   */
+  public void end() {
+    mDeflater.end();
+  }
+
+  private void grow() {
+    byte[] newBuffer = new byte[mBuffer.length * 2];
+    System.arraycopy(mBuffer, 0, newBuffer, 0, mBuffer.length);
+    mBuffer = newBuffer;
+  }
+}
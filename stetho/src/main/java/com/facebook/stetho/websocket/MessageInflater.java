@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses incoming messages as per the {@code permessage-deflate} extension (RFC 7692).
+ * The {@link Inflater} keeps its window across messages so that peers are free to use context
+ * takeover.  Not thread safe; the session's read loop is the only user.
+ */
+class MessageInflater {
+  private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+  /**
+   * Tail which the sender stripped from every message (RFC 7692 section 7.2.2).
+   */
+  private static final byte[] EMPTY_STORED_BLOCK = { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+  private final Inflater mInflater = new Inflater(true /* nowrap */);
+  private byte[] mInput = new byte[INITIAL_BUFFER_SIZE];
+  private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+  /**
+   * Decompress a complete message into {@link #getBuffer()}.
+   *
+   * @return Number of decompressed bytes available in {@link #getBuffer()}.
+   * @throws IOException If the payload is not valid DEFLATE data.
+   */
+  public int inflate(byte[] payload, int length) throws IOException {
+    int inputLength = length + EMPTY_STORED_BLOCK.length;
+    if (mInput.length < inputLength) {
+      mInput = new byte[Math.max(inputLength, mInput.length * 2)];
+    }
+    System.arraycopy(payload, 0, mInput, 0, length);
+    System.arraycopy(EMPTY_STORED_BLOCK, 0, mInput, length, EMPTY_STORED_BLOCK.length);
+
+    mInflater.setInput(mInput, 0, inputLength);
+    int count = 0;
+    try {
+      while (true) {
+        if (count == mBuffer.length) {
+          byte[] newBuffer = new byte[mBuffer.length * 2];
+          System.arraycopy(mBuffer, 0, newBuffer, 0, count);
+          mBuffer = newBuffer;
+        }
+        int n = mInflater.inflate(mBuffer, count, mBuffer.length - count);
+        count += n;
+        if (mInflater.finished()) {
+          break;
+        }
+        // A full buffer may mean there is more output pending even with all input consumed.
+        if (count < mBuffer.length && (n == 0 || mInflater.needsInput())) {
+          if (mInflater.needsDictionary()) {
+            throw new IOException("Compressed message requires a preset dictionary");
+          }
+          break;
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Invalid compressed message: " + e.getMessage());
+    }
+    if (mInflater.finished()) {
+      // The peer ended the stream with a final block, so the next message starts a new one.
+      mInflater.reset();
+    }
+    return count;
+  }
+
+  public byte[] getBuffer() {
+    return mBuffer;
+  }
+
+  /**
+   * Release the native resources held by the {@link Inflater}.  This instance is unusable
+   * afterwards.
+   */
+  public void end() {
+    mInflater.end();
+  }
+}
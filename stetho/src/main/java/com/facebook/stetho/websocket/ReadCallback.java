@@ -7,6 +7,12 @@
 
 package com.facebook.stetho.websocket;
 
+/**
+ * Receives complete messages and control frames from {@link ReadHandler}.  The arrays passed are
+ * reused by the read loop and are only valid for the duration of the call.
+ */
 interface ReadCallback {
   void onCompleteFrame(byte opcode, byte[] payload, int payloadLen);
+
+  void onCompleteTextFrame(char[] text, int textLen);
 }
@@ -7,25 +7,69 @@
 
 package com.facebook.stetho.websocket;
 
-import android.util.Log;
-
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.annotation.Nullable;
+
+/**
+ * Reads frames into buffers which are reused for the lifetime of the session.  Payloads are read
+ * straight into place and unmasked there, and uncompressed text is decoded to UTF-16 frame by
+ * frame as it arrives so that it never needs to be assembled as bytes at all.  Control frames,
+ * which may arrive in between the fragments of a message, are handled as soon as they are read.
+ */
 class ReadHandler {
+  private static final int MAX_CONTROL_PAYLOAD_LENGTH = 125;
+
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+
+  /**
+   * Buffers that had to grow beyond this for an unusually large message are dropped afterwards
+   * rather than kept for the rest of the session.
+   */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
   private final BufferedInputStream mBufferedInput;
   private final SimpleEndpoint mEndpoint;
+  @Nullable private final MessageInflater mInflater;
+
+  private final Frame mFrame = new Frame();
+  private final byte[] mControlPayload = new byte[MAX_CONTROL_PAYLOAD_LENGTH];
+  private final Utf8Decoder mTextDecoder = new Utf8Decoder();
 
   /**
-   * Used to build a larger payload over multiple frames.
+   * Used to build a larger payload over multiple frames, or to hold a single text frame while it
+   * is decoded.
    */
-  private final ByteArrayOutputStream mCurrentPayload = new ByteArrayOutputStream();
+  private byte[] mPayload = new byte[INITIAL_BUFFER_SIZE];
+  private int mPayloadLength;
+
+  /**
+   * Opcode of the message in progress, or {@link Frame#OPCODE_CONTINUATION} if there is none.
+   */
+  private byte mMessageOpcode = Frame.OPCODE_CONTINUATION;
+
+  /**
+   * Whether the message in progress had RSV1 set on its first frame, meaning that it is
+   * compressed with {@code permessage-deflate}.
+   */
+  private boolean mMessageCompressed;
 
   public ReadHandler(InputStream bufferedInput, SimpleEndpoint endpoint) {
+    this(bufferedInput, endpoint, null /* inflater */);
+  }
+
+  /**
+   * @param inflater Decompressor to use if {@code permessage-deflate} was negotiated, or null.
+   */
+  public ReadHandler(
+      InputStream bufferedInput,
+      SimpleEndpoint endpoint,
+      @Nullable MessageInflater inflater) {
     mBufferedInput = new BufferedInputStream(bufferedInput, 1024);
     mEndpoint = endpoint;
+    mInflater = inflater;
   }
 
   /**
@@ -35,18 +79,91 @@ class ReadHandler {
    * @throws IOException Socket exception during the read loop.
    */
   public void readLoop(ReadCallback readCallback) throws IOException {
-    Frame frame = new Frame();
+    Frame frame = mFrame;
     do {
-      Log.i("247144", "ReadHandler frame.readFrom————>阻塞");
       // 阻塞等待客户端命令
-      frame.readFrom(mBufferedInput);
-      mCurrentPayload.write(frame.payloadData, 0, (int)frame.payloadLen);
-      Log.i("247144", "ReadHandler mCurrentPayload————>" + mCurrentPayload.toString());
-      if (frame.fin) {
-        byte[] completePayload = mCurrentPayload.toByteArray();
-        readCallback.onCompleteFrame(frame.opcode, completePayload, completePayload.length);
-        mCurrentPayload.reset();
+      frame.readHeaderFrom(mBufferedInput);
+      if ((frame.opcode & 0x8) != 0) {
+        readControlFrame(frame, readCallback);
+      } else {
+        readDataFrame(frame, readCallback);
       }
     } while (frame.opcode != Frame.OPCODE_CONNECTION_CLOSE);
   }
+
+  private void readControlFrame(Frame frame, ReadCallback readCallback) throws IOException {
+    if (!frame.fin || frame.rsv1 || frame.payloadLen > MAX_CONTROL_PAYLOAD_LENGTH) {
+      throw new IOException("Invalid control frame");
+    }
+    frame.readPayloadFrom(mBufferedInput, mControlPayload, 0);
+    readCallback.onCompleteFrame(frame.opcode, mControlPayload, (int) frame.payloadLen);
+  }
+
+  private void readDataFrame(Frame frame, ReadCallback readCallback) throws IOException {
+    if (frame.opcode == Frame.OPCODE_CONTINUATION) {
+      if (mMessageOpcode == Frame.OPCODE_CONTINUATION) {
+        throw new IOException("Continuation frame without a message in progress");
+      }
+    } else {
+      if (mMessageOpcode != Frame.OPCODE_CONTINUATION) {
+        throw new IOException("New message while the previous one is still incomplete");
+      }
+      if (frame.rsv1 && mInflater == null) {
+        throw new IOException("RSV1 set but no extension was negotiated");
+      }
+      mMessageOpcode = frame.opcode;
+      mMessageCompressed = frame.rsv1;
+      mPayloadLength = 0;
+      mTextDecoder.reset();
+    }
+
+    int payloadLen = (int) frame.payloadLen;
+    if (mMessageOpcode == Frame.OPCODE_TEXT_FRAME && !mMessageCompressed) {
+      ensurePayloadCapacity(payloadLen);
+      frame.readPayloadFrom(mBufferedInput, mPayload, 0);
+      mTextDecoder.decode(mPayload, 0, payloadLen);
+    } else {
+      if (mPayloadLength + payloadLen < 0) {
+        throw new IOException("Message too large");
+      }
+      ensurePayloadCapacity(mPayloadLength + payloadLen);
+      frame.readPayloadFrom(mBufferedInput, mPayload, mPayloadLength);
+      mPayloadLength += payloadLen;
+    }
+
+    if (frame.fin) {
+      byte opcode = mMessageOpcode;
+      mMessageOpcode = Frame.OPCODE_CONTINUATION;
+      deliverMessage(opcode, readCallback);
+      if (mPayload.length > MAX_RETAINED_BUFFER_SIZE) {
+        mPayload = new byte[INITIAL_BUFFER_SIZE];
+      }
+    }
+  }
+
+  private void deliverMessage(byte opcode, ReadCallback readCallback) throws IOException {
+    byte[] payload = mPayload;
+    int payloadLen = mPayloadLength;
+    if (mMessageCompressed) {
+      payloadLen = mInflater.inflate(payload, payloadLen);
+      payload = mInflater.getBuffer();
+      if (opcode == Frame.OPCODE_TEXT_FRAME) {
+        mTextDecoder.decode(payload, 0, payloadLen);
+      }
+    }
+    if (opcode == Frame.OPCODE_TEXT_FRAME) {
+      mTextDecoder.finish();
+      readCallback.onCompleteTextFrame(mTextDecoder.getChars(), mTextDecoder.getLength());
+    } else {
+      readCallback.onCompleteFrame(opcode, payload, payloadLen);
+    }
+  }
+
+  private void ensurePayloadCapacity(int capacity) {
+    if (capacity > mPayload.length) {
+      byte[] newPayload = new byte[Math.max(capacity, mPayload.length * 2)];
+      System.arraycopy(mPayload, 0, newPayload, 0, mPayloadLength);
+      mPayload = newPayload;
+    }
+  }
 }
@@ -33,7 +33,7 @@ public interface SimpleEndpoint {
    * WebSocket packets.
    *
    * @param session Unique handle for this session.
-   * @param message Complete payload data.
+   * @param message Complete payload data, which is only valid for the duration of this call.
    * @param messageLen Maximum number of bytes of {@code message} to read.
    */
   void onMessage(SimpleSession session, byte[] message, int messageLen);
@@ -12,6 +12,20 @@ package com.facebook.stetho.websocket;
  */
 public interface SimpleSession {
   void sendText(String payload);
+
+  /**
+   * Send a text message whose payload is already UTF-8 encoded, avoiding an intermediate
+   * {@link String}.  Only the first {@code payloadLen} bytes of {@code payload} are sent and the
+   * array is not retained once this method returns so callers are free to reuse it.
+   */
+  void sendText(byte[] payload, int payloadLen);
+
+  /**
+   * Send a text message which is produced incrementally rather than built up front.  See
+   * {@link StreamingMessage}.
+   */
+  void sendText(StreamingMessage message);
+
   void sendBinary(byte[] payload);
 
   /**
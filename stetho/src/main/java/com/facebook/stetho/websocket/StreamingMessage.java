@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A text message too large to be built in memory first.  It is produced on the session's
+ * writer thread once everything queued before it has been sent, and goes out as a fragmented
+ * message whose pieces are written to the socket as they are produced.
+ * <p>
+ * {@link #close()} is always called exactly once, whether or not the message could be sent.
+ */
+public interface StreamingMessage extends Closeable {
+  /**
+   * Write the message as UTF-8.  If this fails before any of the message has been sent,
+   * {@link #writeFailureTo} is given the chance to send a replacement.  If part of it has
+   * already been sent, it cannot be completed or retracted and the session is closed with
+   * {@link CloseCodes#UNEXPECTED_CONDITION}.
+   */
+  void writeTo(OutputStream out) throws IOException;
+
+  /**
+   * Write a complete message, as UTF-8, to be sent in place of this one after {@link #writeTo}
+   * failed with {@code error} before anything was sent, so that the peer is not left waiting.
+   * If this fails too the session is closed.
+   */
+  void writeFailureTo(OutputStream out, IOException error) throws IOException;
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+/**
+ * Incremental UTF-8 decoder which appends to a reusable char buffer.  Input may be split
+ * anywhere, including in the middle of a multi-byte sequence, which lets text messages be decoded
+ * frame by frame as they arrive.  Malformed input is replaced with U+FFFD much like
+ * {@link String#String(byte[], java.nio.charset.Charset)} would do.  Not thread safe.
+ */
+class Utf8Decoder {
+  private static final char REPLACEMENT_CHAR = '\ufffd';
+
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+
+  /**
+   * Buffers that had to grow beyond this for an unusually large message are dropped by
+   * {@link #reset()} rather than kept for the rest of the session.
+   */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+  private char[] mChars = new char[INITIAL_BUFFER_SIZE];
+  private int mLength;
+
+  /**
+   * Code point of the sequence being decoded so far, and how many continuation bytes it still
+   * needs.
+   */
+  private int mCodePoint;
+  private int mRemaining;
+
+  /**
+   * Smallest code point which may legally be encoded with the length of the current sequence.
+   */
+  private int mMinCodePoint;
+
+  public void reset() {
+    if (mChars.length > MAX_RETAINED_BUFFER_SIZE) {
+      mChars = new char[INITIAL_BUFFER_SIZE];
+    }
+    mLength = 0;
+    mRemaining = 0;
+  }
+
+  public void decode(byte[] buf, int offset, int count) {
+    // Every byte produces at most one char except for the last byte of a 4 byte sequence, whose
+    // first byte(s) produced none, and a byte ending a truncated sequence which produces two.
+    ensureCapacity(mLength + count + 2);
+    char[] chars = mChars;
+    int length = mLength;
+    int end = offset + count;
+    for (int i = offset; i < end; i++) {
+      int b = buf[i] & 0xff;
+      if (mRemaining > 0) {
+        if ((b & 0xc0) == 0x80) {
+          mCodePoint = (mCodePoint << 6) | (b & 0x3f);
+          if (--mRemaining == 0) {
+            length = appendCodePoint(chars, length, mCodePoint, mMinCodePoint);
+          }
+          continue;
+        }
+        // Truncated sequence; replace it and start over with this byte.
+        chars[length++] = REPLACEMENT_CHAR;
+        mRemaining = 0;
+      }
+      if (b < 0x80) {
+        chars[length++] = (char) b;
+      } else if (b >= 0xc2 && b < 0xe0) {
+        startSequence(b & 0x1f, 1, 0x80);
+      } else if (b >= 0xe0 && b < 0xf0) {
+        startSequence(b & 0x0f, 2, 0x800);
+      } else if (b >= 0xf0 && b < 0xf5) {
+        startSequence(b & 0x07, 3, 0x10000);
+      } else {
+        chars[length++] = REPLACEMENT_CHAR;
+      }
+    }
+    mLength = length;
+  }
+
+  /**
+   * Complete the message, replacing a trailing incomplete sequence if there is one.
+   */
+  public void finish() {
+    if (mRemaining > 0) {
+      ensureCapacity(mLength + 1);
+      mChars[mLength++] = REPLACEMENT_CHAR;
+      mRemaining = 0;
+    }
+  }
+
+  public char[] getChars() {
+    return mChars;
+  }
+
+  public int getLength() {
+    return mLength;
+  }
+
+  private void startSequence(int bits, int remaining, int minCodePoint) {
+    mCodePoint = bits;
+    mRemaining = remaining;
+    mMinCodePoint = minCodePoint;
+  }
+
+  private static int appendCodePoint(char[] chars, int length, int codePoint, int minCodePoint) {
+    if (codePoint < minCodePoint ||
+        codePoint > Character.MAX_CODE_POINT ||
+        (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+      chars[length++] = REPLACEMENT_CHAR;
+    } else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+      chars[length++] = (char) codePoint;
+    } else {
+      codePoint -= Character.MIN_SUPPLEMENTARY_CODE_POINT;
+      chars[length++] = (char) (Character.MIN_HIGH_SURROGATE + (codePoint >> 10));
+      chars[length++] = (char) (Character.MIN_LOW_SURROGATE + (codePoint & 0x3ff));
+    }
+    return length;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > mChars.length) {
+      char[] newChars = new char[Math.max(capacity, mChars.length * 2)];
+      System.arraycopy(mChars, 0, newChars, 0, mLength);
+      mChars = newChars;
+    }
+  }
+}
@@ -45,11 +45,23 @@ public class WebSocketHandler implements HttpHandler {
   private static final String HEADER_SEC_WEBSOCKET_ACCEPT = "Sec-WebSocket-Accept";
   private static final String HEADER_SEC_WEBSOCKET_PROTOCOL = "Sec-WebSocket-Protocol";
   private static final String HEADER_SEC_WEBSOCKET_VERSION = "Sec-WebSocket-Version";
+  private static final String HEADER_SEC_WEBSOCKET_EXTENSIONS = "Sec-WebSocket-Extensions";
 
   private static final String HEADER_UPGRADE_WEBSOCKET = "websocket";
   private static final String HEADER_CONNECTION_UPGRADE = "Upgrade";
   private static final String HEADER_SEC_WEBSOCKET_VERSION_13 = "13";
 
+  private static final String EXTENSION_PERMESSAGE_DEFLATE = "permessage-deflate";
+  private static final String PARAM_SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+  private static final String PARAM_CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+  private static final String PARAM_SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+  private static final String PARAM_CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+  /**
+   * {@link java.util.zip.Deflater} offers no control over its window size.
+   */
+  private static final String DEFLATER_WINDOW_BITS = "15";
+
   // Are you kidding me?  The WebSocket spec requires that we append this weird hardcoded String
   // to the key we receive from the client, SHA-1 that, and base64 encode it back to the client.
   // I'm guessing this is to prevent replay attacks of some kind but given that there's no actual
@@ -107,13 +119,22 @@ public class WebSocketHandler implements HttpHandler {
       response.addHeader(HEADER_SEC_WEBSOCKET_ACCEPT, generateServerKey(clientKey));
     }
 
+    String deflateResponse = negotiatePerMessageDeflate(request);
+    if (deflateResponse != null) {
+      response.addHeader(HEADER_SEC_WEBSOCKET_EXTENSIONS, deflateResponse);
+    }
+
     InputStream in = socketLike.getInput();
     OutputStream out = socketLike.getOutput();
     LightHttpServer.writeResponseMessage(
         response,
         new LightHttpServer.HttpMessageWriter(new BufferedOutputStream(out)));
 
-    WebSocketSession session = new WebSocketSession(in, out, mEndpoint);
+    WebSocketSession session = new WebSocketSession(
+        in,
+        out,
+        mEndpoint,
+        deflateResponse != null /* perMessageDeflate */);
     // 建立连接
     session.handle();
   }
@@ -129,6 +150,66 @@ public class WebSocketHandler implements HttpHandler {
     }
   }
 
+  /**
+   * Pick the first {@code permessage-deflate} offer (RFC 7692) that we can honour.  We always
+   * compress each message independently (see {@link MessageDeflater}) and so always respond with
+   * {@code server_no_context_takeover}.  Offers limiting our window are declined since the
+   * platform {@link java.util.zip.Deflater} cannot do that; the client's window size is of no
+   * concern to our {@link java.util.zip.Inflater}.
+   *
+   * @return The extension response to send, or null if compression is not to be used.
+   */
+  // @VisibleForTesting
+  @Nullable
+  static String negotiatePerMessageDeflate(LightHttpRequest request) {
+    for (int i = 0, N = request.headerNames.size(); i < N; i++) {
+      if (!HEADER_SEC_WEBSOCKET_EXTENSIONS.equalsIgnoreCase(request.headerNames.get(i))) {
+        continue;
+      }
+      for (String offer : request.headerValues.get(i).split(",")) {
+        String response = acceptPerMessageDeflateOffer(offer);
+        if (response != null) {
+          return response;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private static String acceptPerMessageDeflateOffer(String offer) {
+    String[] parts = offer.split(";");
+    if (!EXTENSION_PERMESSAGE_DEFLATE.equalsIgnoreCase(parts[0].trim())) {
+      return null;
+    }
+    StringBuilder response = new StringBuilder(EXTENSION_PERMESSAGE_DEFLATE)
+        .append("; ").append(PARAM_SERVER_NO_CONTEXT_TAKEOVER);
+    for (int i = 1; i < parts.length; i++) {
+      String param = parts[i].trim();
+      String value = null;
+      int equals = param.indexOf('=');
+      if (equals >= 0) {
+        value = param.substring(equals + 1).trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+          value = value.substring(1, value.length() - 1);
+        }
+        param = param.substring(0, equals).trim();
+      }
+      if (PARAM_SERVER_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(param) ||
+          PARAM_CLIENT_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(param) ||
+          PARAM_CLIENT_MAX_WINDOW_BITS.equalsIgnoreCase(param)) {
+        // Nothing for us to do either way.
+      } else if (PARAM_SERVER_MAX_WINDOW_BITS.equalsIgnoreCase(param) &&
+          DEFLATER_WINDOW_BITS.equals(value)) {
+        response.append("; ").append(PARAM_SERVER_MAX_WINDOW_BITS)
+            .append('=').append(DEFLATER_WINDOW_BITS);
+      } else {
+        return null;
+      }
+    }
+    return response.toString();
+  }
+
   @Nullable
   private static String getFirstHeaderValue(LightHttpMessage message, String headerName) {
     return message.getFirstHeaderValue(headerName);
@@ -12,26 +12,59 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nullable;
 
 /**
  * Binding driver between raw socket I/O and a high-level WebSocket interface.  This implementation
- * is generally very weak and doesn't offer sensible optimizations such as re-used buffers,
- * efficient UTF-8 encoding/decoding, or the full spectrum of features defined in the RFC.
+ * is generally very weak and doesn't offer the full spectrum of features defined in the RFC.
  */
 class WebSocketSession implements SimpleSession {
+  private static final long WRITE_DRAIN_TIMEOUT_MS = 1000;
+
+  /**
+   * Messages smaller than this are not worth compressing since every message is compressed on
+   * its own (see {@link MessageDeflater}).
+   */
+  private static final int MIN_COMPRESSED_MESSAGE_LENGTH = 1024;
+
+  /**
+   * Inspection sessions are bandwidth bound over {@code adb forward} but still share the device
+   * CPU with the app being inspected.
+   */
+  private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+
   private final ReadHandler mReadHandler;
   private final WriteHandler mWriteHandler;
   private final SimpleEndpoint mEndpoint;
+  @Nullable private final MessageInflater mInflater;
 
   private AtomicBoolean mIsOpen = new AtomicBoolean(false);
   private volatile boolean mSentClose;
 
+  /**
+   * @param perMessageDeflate Whether {@code permessage-deflate} was negotiated during the
+   *     upgrade.
+   */
   public WebSocketSession(
       InputStream rawSocketInput,
       OutputStream rawSocketOutput,
-      SimpleEndpoint endpoint) {
-    mReadHandler = new ReadHandler(rawSocketInput, endpoint);
-    mWriteHandler = new WriteHandler(rawSocketOutput);
+      SimpleEndpoint endpoint,
+      boolean perMessageDeflate) {
+    MessageDeflater deflater = null;
+    if (perMessageDeflate) {
+      mInflater = new MessageInflater();
+      deflater = new MessageDeflater(COMPRESSION_LEVEL);
+    } else {
+      mInflater = null;
+    }
+    mReadHandler = new ReadHandler(rawSocketInput, endpoint, mInflater);
+    mWriteHandler = new WriteHandler(
+        rawSocketOutput,
+        WriteHandler.DEFAULT_MAX_QUEUED_BYTES,
+        deflater,
+        MIN_COMPRESSED_MESSAGE_LENGTH);
     mEndpoint = endpoint;
   }
 
@@ -48,17 +81,44 @@ class WebSocketSession implements SimpleSession {
     } catch (IOException e) {
       markAndSignalClosed(CloseCodes.CLOSED_ABNORMALLY, null /* reasonPhrase */);
       throw e;
+    } finally {
+      // Give the writer a chance to deliver our close frame before the caller closes the socket.
+      try {
+        mWriteHandler.shutdown(WRITE_DRAIN_TIMEOUT_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (mInflater != null) {
+        mInflater.end();
+      }
     }
   }
 
   @Override
   public void sendText(String payload) {
-    doWrite(FrameHelper.createTextFrame(payload));
+    if (signalErrorIfNotOpen()) {
+      return;
+    }
+    mWriteHandler.writeText(payload, mErrorForwardingWriteCallback);
+  }
+
+  @Override
+  public void sendText(byte[] payload, int payloadLen) {
+    doWrite(Frame.OPCODE_TEXT_FRAME, payload, payloadLen);
+  }
+
+  @Override
+  public void sendText(StreamingMessage message) {
+    if (signalErrorIfNotOpen()) {
+      WriteHandler.closeQuietly(message);
+      return;
+    }
+    mWriteHandler.writeStreamingText(message, mErrorForwardingWriteCallback);
   }
 
   @Override
   public void sendBinary(byte[] payload) {
-    doWrite(FrameHelper.createBinaryFrame(payload));
+    doWrite(Frame.OPCODE_BINARY_FRAME, payload, payload.length);
   }
 
   @Override
@@ -100,6 +160,13 @@ class WebSocketSession implements SimpleSession {
     mWriteHandler.write(frame, mErrorForwardingWriteCallback);
   }
 
+  private void doWrite(byte opcode, byte[] payload, int payloadLen) {
+    if (signalErrorIfNotOpen()) {
+      return;
+    }
+    mWriteHandler.writeFrame(opcode, payload, payloadLen, mErrorForwardingWriteCallback);
+  }
+
   /**
    * Signals an error to the {@link SimpleEndpoint} if the session is closed.
    *
@@ -130,9 +197,6 @@ class WebSocketSession implements SimpleSession {
         case Frame.OPCODE_CONNECTION_PONG:
           handlePong(payload, payloadLen);
           break;
-        case Frame.OPCODE_TEXT_FRAME:
-          handleTextFrame(payload, payloadLen);
-          break;
         case Frame.OPCODE_BINARY_FRAME:
           handleBinaryFrame(payload, payloadLen);
           break;
@@ -142,6 +206,11 @@ class WebSocketSession implements SimpleSession {
       }
     }
 
+    @Override
+    public void onCompleteTextFrame(char[] text, int textLen) {
+      mEndpoint.onMessage(WebSocketSession.this, new String(text, 0, textLen));
+    }
+
     private void handleClose(byte[] payload, int payloadLen) {
       int closeCode;
       String closeReasonPhrase;
@@ -170,10 +239,6 @@ class WebSocketSession implements SimpleSession {
       // Great, whatever...
     }
 
-    private void handleTextFrame(byte[] payload, int payloadLen) {
-      mEndpoint.onMessage(WebSocketSession.this, new String(payload, 0, payloadLen));
-    }
-
     private void handleBinaryFrame(byte[] payload, int payloadLen) {
       mEndpoint.onMessage(WebSocketSession.this, payload, payloadLen);
     }
@@ -182,6 +247,11 @@ class WebSocketSession implements SimpleSession {
   private final WriteCallback mErrorForwardingWriteCallback = new WriteCallback() {
     @Override
     public void onFailure(IOException e) {
+      if (e instanceof MessageAbortedException) {
+        // The writer already sent the close frame in place of the rest of the message.
+        markSentClose();
+        markAndSignalClosed(CloseCodes.UNEXPECTED_CONDITION, e.getMessage());
+      }
       signalError(e);
     }
 
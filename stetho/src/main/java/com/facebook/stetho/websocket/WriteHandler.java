@@ -7,27 +7,943 @@
 
 package com.facebook.stetho.websocket;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
 
+import com.facebook.stetho.common.LatencyHistogram;
+import com.facebook.stetho.telemetry.StethoTelemetry;
+
+/**
+ * Outbound half of a WebSocket session.  Producers never touch the socket: each frame is fully
+ * encoded (unmasked, header included) on the calling thread and appended to a queue which is
+ * drained by a single writer thread.  Frames of up to {@link #POOLED_BUFFER_SIZE} bytes, which is
+ * nearly all of them, are encoded into buffers that the writer hands back once the frame has been
+ * copied out, so a steady stream of messages does not allocate; larger frames are encoded into an
+ * array of exactly the right size, which is the price of handing them to another thread.  The writer takes
+ * everything that is queued at once, coalesces the frames into as few socket writes as possible
+ * and flushes once per batch before reporting success to the frames' callbacks.
+ * <p>
+ * When {@code permessage-deflate} was negotiated, data frames of at least the configured threshold
+ * are queued uncompressed and compressed by the writer thread, which owns the session's
+ * {@link MessageDeflater}.  Messages that do not shrink are sent as they are.
+ * <p>
+ * The queue is bounded by the total size of the frames waiting in it or being written.  Frames
+ * that would exceed the bound fail immediately rather than blocking the producer (a single frame
+ * larger than the bound is still accepted when nothing else is pending).
+ * <p>
+ * A {@link StreamingMessage} takes its place in the queue like any frame but is only produced
+ * when the writer reaches it, directly into a series of fragments of at most
+ * {@link #FRAGMENT_SIZE} bytes which join the batch as they fill.  Streamed messages are not
+ * counted against the queue bound.  With {@code permessage-deflate} they are always compressed,
+ * fed through the deflater as they are produced: the first fragment carries RSV1 and each
+ * fragment is filled with compressed data rather than with the message itself.
+ */
 @ThreadSafe
 class WriteHandler {
-  private final BufferedOutputStream mBufferedOutput;
+  public static final long DEFAULT_MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+
+  private static final int MAX_HEADER_LENGTH = 10;
+
+  /**
+   * Frames are copied into a single buffer of this size and written together; frames larger than
+   * this go to the socket straight from the array they were encoded into.
+   */
+  private static final int COALESCE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Payload size of each frame of a {@link StreamingMessage} but the last.
+   */
+  // @VisibleForTesting
+  static final int FRAGMENT_SIZE = 32 * 1024;
+
+  /**
+   * Size of the recycled buffers that frames are encoded into when they fit.
+   */
+  // @VisibleForTesting
+  static final int POOLED_BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Free buffers kept for reuse; any more are dropped when returned.
+   */
+  private static final int MAX_FREE_BUFFERS = 16;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private static final byte FLAG_FIN = (byte) 0x80;
+  private static final byte FLAG_RSV1 = 0x40;
+
+  private final OutputStream mOutput;
+  private final long mMaxQueuedBytes;
+  @Nullable private final MessageDeflater mDeflater;
+  private final int mMinCompressedLength;
+
+  @GuardedBy("this")
+  private final ArrayDeque<PendingWrite> mQueue = new ArrayDeque<>();
+
+  @GuardedBy("this")
+  private long mQueuedBytes;
+
+  @GuardedBy("this")
+  private final ArrayList<byte[]> mFreeBuffers = new ArrayList<>();
+
+  @GuardedBy("this")
+  private long mAllocatedBufferCount;
+
+  @GuardedBy("this")
+  private long mPeakQueuedBytes;
+
+  @GuardedBy("this")
+  private long mRejectedFrameCount;
+
+  @GuardedBy("this")
+  private Thread mWriterThread;
+
+  @GuardedBy("this")
+  private boolean mShutdown;
+
+  /**
+   * Set once a write to the socket has failed, after which everything fails with this error.
+   */
+  @GuardedBy("this")
+  private IOException mWriteError;
+
+  @GuardedBy("this")
+  private long mFlushCount;
+
+  @GuardedBy("this")
+  private long mFramesWritten;
+
+  @GuardedBy("this")
+  private long mBytesWritten;
+
+  @GuardedBy("this")
+  private long mTotalFlushTimeNanos;
+
+  @GuardedBy("this")
+  private long mMaxFlushTimeNanos;
+
+  @GuardedBy("this")
+  private long mMaxQueueLatencyNanos;
+
+  @GuardedBy("this")
+  private long mCompressedFrameCount;
+
+  // Only touched by the writer thread.
+  private final byte[] mCoalesceBuffer = new byte[COALESCE_BUFFER_SIZE];
+  private final byte[] mHeaderBuffer = new byte[MAX_HEADER_LENGTH];
+  private int mCoalescedLength;
+  @Nullable private byte[] mFragmentBuffer;
+  @Nullable private byte[] mCompressedFragmentBuffer;
 
   public WriteHandler(OutputStream rawSocketOutput) {
-    mBufferedOutput = new BufferedOutputStream(rawSocketOutput, 1024);
+    this(rawSocketOutput, DEFAULT_MAX_QUEUED_BYTES);
+  }
+
+  public WriteHandler(OutputStream rawSocketOutput, long maxQueuedBytes) {
+    this(rawSocketOutput, maxQueuedBytes, null /* deflater */, 0 /* minCompressedLength */);
+  }
+
+  /**
+   * @param deflater Compressor to use if {@code permessage-deflate} was negotiated, or null.
+   *     Released when the writer thread exits.
+   * @param minCompressedLength Data frames with smaller payloads are never compressed.
+   */
+  public WriteHandler(
+      OutputStream rawSocketOutput,
+      long maxQueuedBytes,
+      @Nullable MessageDeflater deflater,
+      int minCompressedLength) {
+    mOutput = rawSocketOutput;
+    mMaxQueuedBytes = maxQueuedBytes;
+    mDeflater = deflater;
+    mMinCompressedLength = minCompressedLength;
+  }
+
+  public void write(Frame frame, WriteCallback callback) {
+    if (frame.hasMask) {
+      throw new IllegalArgumentException("Masked frames are not supported");
+    }
+    enqueueFrame(encodeFirstByte(frame), frame.payloadData, (int) frame.payloadLen, callback);
+  }
+
+  /**
+   * Queue a single (final) text frame, encoding {@code payload} directly into the frame.
+   */
+  public void writeText(String payload, WriteCallback callback) {
+    byte firstByte = (byte) (FLAG_FIN | Frame.OPCODE_TEXT_FRAME);
+    int payloadLength = utf8Length(payload);
+    if (shouldCompress(firstByte, payloadLength)) {
+      byte[] data = obtainBuffer(payloadLength);
+      encodeUTF8(payload, data, 0);
+      enqueue(new PendingWrite(firstByte, data, payloadLength, callback));
+    } else {
+      int frameLength = headerLength(payloadLength) + payloadLength;
+      byte[] data = obtainBuffer(frameLength);
+      int offset = putHeader(data, firstByte, payloadLength);
+      encodeUTF8(payload, data, offset);
+      enqueue(new PendingWrite(data, frameLength, callback));
+    }
+  }
+
+  /**
+   * Queue a single (final) frame.  {@code payload} is copied and not retained after this call
+   * returns.
+   */
+  public void writeFrame(
+      byte opcode,
+      byte[] payload,
+      int payloadLength,
+      WriteCallback callback) {
+    enqueueFrame((byte) (FLAG_FIN | opcode), payload, payloadLength, callback);
+  }
+
+  /**
+   * Queue a text message to be produced on the writer thread once everything queued before it
+   * has been written.  {@code callback} fails if either the socket or the message itself fails.
+   * In the latter case the connection remains usable if a replacement could be sent in place of
+   * the message; otherwise the session is closed, everything queued after the message fails and
+   * {@code callback} is given a {@link MessageAbortedException}.
+   */
+  public void writeStreamingText(StreamingMessage message, WriteCallback callback) {
+    enqueue(new PendingWrite(message, callback));
+  }
+
+  /**
+   * Stop accepting frames and give the writer thread up to {@code timeoutMs} to send what is
+   * already queued (typically the close frame).
+   *
+   * @return True if the queue was fully drained.
+   */
+  public boolean shutdown(long timeoutMs) throws InterruptedException {
+    Thread writerThread;
+    synchronized (this) {
+      mShutdown = true;
+      notifyAll();
+      writerThread = mWriterThread;
+    }
+    if (writerThread != null) {
+      writerThread.join(timeoutMs);
+    } else if (mDeflater != null) {
+      mDeflater.end();
+    }
+    synchronized (this) {
+      return mQueue.isEmpty();
+    }
+  }
+
+  public synchronized int getQueuedFrameCount() {
+    return mQueue.size();
+  }
+
+  public synchronized long getQueuedByteCount() {
+    return mQueuedBytes;
+  }
+
+  public synchronized long getPeakQueuedByteCount() {
+    return mPeakQueuedBytes;
+  }
+
+  public synchronized long getRejectedFrameCount() {
+    return mRejectedFrameCount;
+  }
+
+  /**
+   * Number of batches written, each of which was completed by exactly one flush of the socket.
+   */
+  public synchronized long getFlushCount() {
+    return mFlushCount;
+  }
+
+  public synchronized long getFramesWritten() {
+    return mFramesWritten;
+  }
+
+  public synchronized long getBytesWritten() {
+    return mBytesWritten;
+  }
+
+  /**
+   * Total time spent writing and flushing batches to the socket.
+   */
+  public synchronized long getTotalFlushTimeNanos() {
+    return mTotalFlushTimeNanos;
+  }
+
+  public synchronized long getMaxFlushTimeNanos() {
+    return mMaxFlushTimeNanos;
+  }
+
+  /**
+   * Longest time any frame spent between being queued and its batch being flushed.
+   */
+  public synchronized long getMaxQueueLatencyNanos() {
+    return mMaxQueueLatencyNanos;
+  }
+
+  public synchronized long getCompressedFrameCount() {
+    return mCompressedFrameCount;
+  }
+
+  /**
+   * Number of {@link #POOLED_BUFFER_SIZE} buffers ever allocated, which stays small unless many
+   * frames are queued at once.
+   */
+  public synchronized long getAllocatedBufferCount() {
+    return mAllocatedBufferCount;
+  }
+
+  /**
+   * @return A buffer of at least {@code length} bytes, recycled if possible.
+   */
+  private byte[] obtainBuffer(int length) {
+    if (length > POOLED_BUFFER_SIZE) {
+      return new byte[length];
+    }
+    synchronized (this) {
+      int freeCount = mFreeBuffers.size();
+      if (freeCount > 0) {
+        return mFreeBuffers.remove(freeCount - 1);
+      }
+      mAllocatedBufferCount++;
+    }
+    return new byte[POOLED_BUFFER_SIZE];
+  }
+
+  @GuardedBy("this")
+  private void recycleBuffer(PendingWrite write) {
+    // Frames that happen to be exactly this long are just as good for reuse.
+    if (write.data.length == POOLED_BUFFER_SIZE && mFreeBuffers.size() < MAX_FREE_BUFFERS) {
+      mFreeBuffers.add(write.data);
+    }
+  }
+
+  private void enqueueFrame(
+      byte firstByte,
+      byte[] payload,
+      int payloadLength,
+      WriteCallback callback) {
+    if (shouldCompress(firstByte, payloadLength)) {
+      byte[] data = obtainBuffer(payloadLength);
+      System.arraycopy(payload, 0, data, 0, payloadLength);
+      enqueue(new PendingWrite(firstByte, data, payloadLength, callback));
+    } else {
+      int frameLength = headerLength(payloadLength) + payloadLength;
+      byte[] data = obtainBuffer(frameLength);
+      int offset = putHeader(data, firstByte, payloadLength);
+      System.arraycopy(payload, 0, data, offset, payloadLength);
+      enqueue(new PendingWrite(data, frameLength, callback));
+    }
+  }
+
+  private boolean shouldCompress(byte firstByte, int payloadLength) {
+    if (mDeflater == null || payloadLength < mMinCompressedLength) {
+      return false;
+    }
+    int opcode = firstByte & 0xf;
+    return opcode == Frame.OPCODE_TEXT_FRAME || opcode == Frame.OPCODE_BINARY_FRAME;
   }
 
-  public synchronized void write(Frame frame, WriteCallback callback) {
+  private void enqueue(PendingWrite write) {
+    int length = write.length;
+    IOException error;
+    synchronized (this) {
+      if (mWriteError != null) {
+        error = mWriteError;
+      } else if (mShutdown) {
+        error = new IOException("Session is closed");
+      } else if (mQueuedBytes + length > mMaxQueuedBytes && mQueuedBytes > 0) {
+        mRejectedFrameCount++;
+        error = new IOException(
+            "Write queue full (" + mQueuedBytes + " bytes pending, limit " + mMaxQueuedBytes + ")");
+      } else {
+        write.enqueueTimeNanos = System.nanoTime();
+        mQueue.addLast(write);
+        mQueuedBytes += length;
+        mPeakQueuedBytes = Math.max(mPeakQueuedBytes, mQueuedBytes);
+        StethoTelemetry.get().onWebSocketFrameQueued(length);
+        if (mWriterThread == null) {
+          mWriterThread = new Thread(mWriterLoop, "StethoWebSocketWriter");
+          mWriterThread.setDaemon(true);
+          mWriterThread.start();
+        } else {
+          notifyAll();
+        }
+        return;
+      }
+      recycleBuffer(write);
+    }
+    closeQuietly(write.message);
+    write.callback.onFailure(error);
+  }
+
+  private final Runnable mWriterLoop = new Runnable() {
+    @Override
+    public void run() {
+      ArrayDeque<PendingWrite> batch = new ArrayDeque<>();
+      while (true) {
+        synchronized (WriteHandler.this) {
+          while (mQueue.isEmpty() && !mShutdown) {
+            try {
+              WriteHandler.this.wait();
+            } catch (InterruptedException e) {
+              // Only shutdown() ends this thread.
+            }
+          }
+          if (mQueue.isEmpty()) {
+            if (mDeflater != null) {
+              mDeflater.end();
+            }
+            return;
+          }
+          batch.addAll(mQueue);
+          mQueue.clear();
+        }
+        writeBatch(batch);
+        batch.clear();
+      }
+    }
+  };
+
+  private void writeBatch(ArrayDeque<PendingWrite> batch) {
+    long startTime = System.nanoTime();
+    long batchBytes = 0;
+    long wireBytes = 0;
+    int compressedFrames = 0;
+    IOException error = null;
+    // Writes which were not attempted because a streamed message closed the session.
+    ArrayDeque<PendingWrite> skipped = null;
     try {
-      frame.writeTo(mBufferedOutput);
-      mBufferedOutput.flush();
-      callback.onSuccess();
+      Iterator<PendingWrite> iterator = batch.iterator();
+      while (iterator.hasNext()) {
+        PendingWrite write = iterator.next();
+        if (write.message != null) {
+          wireBytes += writeStreamingMessage(write);
+          boolean aborted = write.messageError instanceof MessageAbortedException;
+          if (mDeflater != null && !aborted) {
+            compressedFrames++;
+          }
+          if (aborted) {
+            // Nothing may follow the close frame.
+            skipped = new ArrayDeque<>();
+            while (iterator.hasNext()) {
+              skipped.add(iterator.next());
+              iterator.remove();
+            }
+          }
+          continue;
+        }
+        byte[] data = write.data;
+        int length = write.length;
+        batchBytes += length;
+        if (!write.compress) {
+          wireBytes += length;
+          appendToBatch(data, 0, length);
+          continue;
+        }
+        int compressedLength = mDeflater.deflate(data, 0, length);
+        if (compressedLength < length) {
+          compressedFrames++;
+          wireBytes += putHeaderAndAppend((byte) (write.firstByte | FLAG_RSV1), compressedLength);
+          appendToBatch(mDeflater.getBuffer(), 0, compressedLength);
+        } else {
+          wireBytes += putHeaderAndAppend(write.firstByte, length);
+          appendToBatch(data, 0, length);
+        }
+      }
+      if (mCoalescedLength > 0) {
+        mOutput.write(mCoalesceBuffer, 0, mCoalescedLength);
+      }
+      mOutput.flush();
     } catch (IOException e) {
-      callback.onFailure(e);
+      error = e;
+    } finally {
+      mCoalescedLength = 0;
+      for (PendingWrite write : batch) {
+        closeQuietly(write.message);
+      }
+    }
+    long endTime = System.nanoTime();
+
+    StethoTelemetry telemetry = StethoTelemetry.get();
+    telemetry.onWebSocketFramesDequeued(batch.size(), batchBytes);
+    if (error == null) {
+      LatencyHistogram writeLatency = telemetry.getWebSocketWriteLatency();
+      for (PendingWrite write : batch) {
+        writeLatency.record(endTime - write.enqueueTimeNanos);
+      }
+    }
+
+    IOException failedError = error;
+    if (failedError == null && skipped != null) {
+      failedError = new IOException("Session is closed");
+    }
+    ArrayDeque<PendingWrite> failed = null;
+    synchronized (this) {
+      mQueuedBytes -= batchBytes;
+      // Everything has been copied out or written by now.
+      for (PendingWrite write : batch) {
+        recycleBuffer(write);
+      }
+      if (error == null) {
+        long flushTime = endTime - startTime;
+        mFlushCount++;
+        mFramesWritten += batch.size();
+        mBytesWritten += wireBytes;
+        mCompressedFrameCount += compressedFrames;
+        mTotalFlushTimeNanos += flushTime;
+        mMaxFlushTimeNanos = Math.max(mMaxFlushTimeNanos, flushTime);
+        mMaxQueueLatencyNanos =
+            Math.max(mMaxQueueLatencyNanos, endTime - batch.peekFirst().enqueueTimeNanos);
+      }
+      if (failedError != null) {
+        // Nothing after a failed write can be delivered intact.
+        mWriteError = failedError;
+        failed = skipped != null ? skipped : new ArrayDeque<PendingWrite>();
+        failed.addAll(mQueue);
+        mQueue.clear();
+        for (PendingWrite write : failed) {
+          recycleBuffer(write);
+        }
+        telemetry.onWebSocketFramesDequeued(failed.size(), mQueuedBytes);
+        mQueuedBytes = 0;
+      }
+    }
+
+    if (error == null) {
+      for (PendingWrite write : batch) {
+        if (write.messageError != null) {
+          write.callback.onFailure(write.messageError);
+        } else {
+          write.callback.onSuccess();
+        }
+      }
+    } else {
+      for (PendingWrite write : batch) {
+        write.callback.onFailure(error);
+      }
+    }
+    if (failed != null) {
+      for (PendingWrite write : failed) {
+        closeQuietly(write.message);
+        write.callback.onFailure(failedError);
+      }
+    }
+  }
+
+  /**
+   * Produce {@code write}'s message into the batch.  If the message fails before any of it has
+   * been appended, its replacement is sent instead.  If part of it is already out, or there is
+   * no replacement, a close frame follows, since finishing the message would hand the peer a
+   * truncated one.  The message's failure is recorded in {@link PendingWrite#messageError} (as a
+   * {@link MessageAbortedException} in the second case); only a failure of the socket is thrown.
+   *
+   * @return Number of bytes appended to the batch.
+   */
+  private long writeStreamingMessage(PendingWrite write) throws IOException {
+    if (mFragmentBuffer == null) {
+      mFragmentBuffer = new byte[FRAGMENT_SIZE];
+      if (mDeflater != null) {
+        mCompressedFragmentBuffer = new byte[FRAGMENT_SIZE];
+      }
+    }
+    FragmentingOutputStream out =
+        new FragmentingOutputStream(mFragmentBuffer, mCompressedFragmentBuffer);
+    IOException messageError = produce(write.message, out, null /* failure */);
+    if (messageError == null) {
+      out.finish();
+      return out.wireBytes;
+    }
+    write.messageError = messageError;
+    if (!out.isStarted()) {
+      out.discard();
+      if (produce(write.message, out, messageError) == null) {
+        out.finish();
+        return out.wireBytes;
+      }
+    }
+    write.messageError = new MessageAbortedException(
+        "Streamed message failed part way, closing the session",
+        messageError);
+    Frame closeFrame = FrameHelper.createCloseFrame(
+        CloseCodes.UNEXPECTED_CONDITION,
+        "Message could not be completed");
+    int closePayloadLength = (int) closeFrame.payloadLen;
+    long wireBytes =
+        out.wireBytes + putHeaderAndAppend(encodeFirstByte(closeFrame), closePayloadLength);
+    appendToBatch(closeFrame.payloadData, 0, closePayloadLength);
+    return wireBytes;
+  }
+
+  /**
+   * Write {@code message}, or its replacement if {@code failure} is given, into {@code out}.
+   *
+   * @return The message's own failure, or null if it was written completely.
+   * @throws IOException If the socket failed.
+   */
+  @Nullable
+  private static IOException produce(
+      StreamingMessage message,
+      FragmentingOutputStream out,
+      @Nullable IOException failure) throws IOException {
+    try {
+      if (failure == null) {
+        message.writeTo(out);
+      } else {
+        message.writeFailureTo(out, failure);
+      }
+    } catch (IOException | RuntimeException e) {
+      if (out.socketError != null) {
+        throw out.socketError;
+      }
+      return e instanceof IOException ? (IOException) e : new IOException(e);
+    }
+    if (out.socketError != null) {
+      // The message swallowed the error but nothing can be written after it anyway.
+      throw out.socketError;
+    }
+    return null;
+  }
+
+  /**
+   * Splits whatever is written to it into the frames of one message, each appended to the batch
+   * once the next byte shows that it is not the last.  When compressing, what is written is
+   * staged in one buffer and fed through {@link #mDeflater} into another, and it is the latter
+   * which is split into frames.
+   */
+  private class FragmentingOutputStream extends OutputStream {
+    private final byte[] mBuffer;
+    private int mCount;
+    @Nullable private final byte[] mCompressedBuffer;
+    private int mCompressedCount;
+    private boolean mStarted;
+    private boolean mFinished;
+
+    @Nullable public IOException socketError;
+    public long wireBytes;
+
+    /**
+     * @param compressedBuffer Buffer for the compressed frames, or null to send the message as
+     *     it is written.
+     */
+    public FragmentingOutputStream(byte[] buffer, @Nullable byte[] compressedBuffer) {
+      mBuffer = buffer;
+      mCompressedBuffer = compressedBuffer;
+      if (compressedBuffer != null) {
+        mDeflater.beginMessage();
+      }
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+      checkWritable();
+      if (mCount == mBuffer.length) {
+        flushBuffer(false /* last */);
+      }
+      mBuffer[mCount++] = (byte) oneByte;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+      checkWritable();
+      while (count > 0) {
+        if (mCount == mBuffer.length) {
+          flushBuffer(false /* last */);
+        }
+        int n = Math.min(count, mBuffer.length - mCount);
+        System.arraycopy(buffer, offset, mBuffer, mCount, n);
+        mCount += n;
+        offset += n;
+        count -= n;
+      }
+    }
+
+    public void finish() throws IOException {
+      if (mCompressedBuffer != null) {
+        flushBuffer(true /* last */);
+      }
+      appendFragment(true /* fin */);
+      mFinished = true;
+    }
+
+    /**
+     * @return True once any part of the message has been appended to the batch, after which
+     *     it can no longer be taken back.
+     */
+    public boolean isStarted() {
+      return mStarted;
+    }
+
+    /**
+     * Forget what has been written but not yet appended to the batch.
+     */
+    public void discard() {
+      mCount = 0;
+      if (mCompressedBuffer != null) {
+        mCompressedCount = 0;
+        mDeflater.beginMessage();
+      }
+    }
+
+    private void checkWritable() throws IOException {
+      if (socketError != null) {
+        throw socketError;
+      }
+      if (mFinished) {
+        throw new IOException("Message already sent");
+      }
+    }
+
+    /**
+     * Empty {@link #mBuffer}, either into a fragment of its own or through the deflater.  In the
+     * latter case the final fragment is left for {@link #finish()} to append.
+     */
+    private void flushBuffer(boolean last) throws IOException {
+      if (mCompressedBuffer == null) {
+        appendFragment(false /* fin */);
+        return;
+      }
+      mDeflater.setInput(mBuffer, 0, mCount, last);
+      while (true) {
+        if (mCompressedCount == mCompressedBuffer.length) {
+          appendFragment(false /* fin */);
+        }
+        int n = mDeflater.drain(
+            mCompressedBuffer,
+            mCompressedCount,
+            mCompressedBuffer.length - mCompressedCount);
+        if (n == 0) {
+          break;
+        }
+        mCompressedCount += n;
+      }
+      mCount = 0;
+    }
+
+    private void appendFragment(boolean fin) throws IOException {
+      byte firstByte = mStarted ? Frame.OPCODE_CONTINUATION : Frame.OPCODE_TEXT_FRAME;
+      if (fin) {
+        firstByte |= FLAG_FIN;
+      }
+      byte[] data = mBuffer;
+      int count = mCount;
+      if (mCompressedBuffer != null) {
+        data = mCompressedBuffer;
+        count = mCompressedCount;
+        // RFC 7692 section 6.1: only the first frame of a compressed message is marked.
+        if (!mStarted) {
+          firstByte |= FLAG_RSV1;
+        }
+      }
+      try {
+        wireBytes += putHeaderAndAppend(firstByte, count);
+        appendToBatch(data, 0, count);
+      } catch (IOException e) {
+        socketError = e;
+        throw e;
+      }
+      mStarted = true;
+      if (mCompressedBuffer != null) {
+        mCompressedCount = 0;
+      } else {
+        mCount = 0;
+      }
+    }
+  }
+
+  static void closeQuietly(@Nullable StreamingMessage message) {
+    if (message != null) {
+      try {
+        message.close();
+      } catch (IOException e) {
+        // Nothing left to report it to; the message has already succeeded or failed.
+      }
+    }
+  }
+
+  /**
+   * Append the header for a frame whose payload the caller appends next.
+   *
+   * @return Length of the whole frame on the wire.
+   */
+  private int putHeaderAndAppend(byte firstByte, int payloadLength) throws IOException {
+    int headerLength = putHeader(mHeaderBuffer, firstByte, payloadLength);
+    appendToBatch(mHeaderBuffer, 0, headerLength);
+    return headerLength + payloadLength;
+  }
+
+  private void appendToBatch(byte[] data, int offset, int length) throws IOException {
+    if (mCoalescedLength + length > COALESCE_BUFFER_SIZE && mCoalescedLength > 0) {
+      mOutput.write(mCoalesceBuffer, 0, mCoalescedLength);
+      mCoalescedLength = 0;
+    }
+    if (length > COALESCE_BUFFER_SIZE) {
+      mOutput.write(data, offset, length);
+    } else {
+      System.arraycopy(data, offset, mCoalesceBuffer, mCoalescedLength, length);
+      mCoalescedLength += length;
+    }
+  }
+
+  private static int headerLength(long payloadLength) {
+    if (payloadLength <= 125) {
+      return 2;
+    } else if (payloadLength <= 0xffff) {
+      return 4;
+    } else {
+      return MAX_HEADER_LENGTH;
+    }
+  }
+
+  /**
+   * @return Offset in {@code buf} at which the payload starts.
+   */
+  private static int putHeader(byte[] buf, byte firstByte, long payloadLength) {
+    buf[0] = firstByte;
+    if (payloadLength <= 125) {
+      buf[1] = (byte) payloadLength;
+      return 2;
+    } else if (payloadLength <= 0xffff) {
+      buf[1] = 126;
+      buf[2] = (byte) ((payloadLength >> 8) & 0xff);
+      buf[3] = (byte) (payloadLength & 0xff);
+      return 4;
+    } else {
+      buf[1] = 127;
+      for (int i = 0; i < 8; i++) {
+        buf[2 + i] = (byte) ((payloadLength >> (56 - 8 * i)) & 0xff);
+      }
+      return MAX_HEADER_LENGTH;
+    }
+  }
+
+  private static int utf8Length(String str) {
+    int length = str.length();
+    int utf8Length = length;
+    for (int i = 0; i < length; i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        // Counted already.
+      } else if (c < 0x800) {
+        utf8Length += 1;
+      } else if (isSurrogatePair(str, i)) {
+        utf8Length += 2;
+        i++;
+      } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+        utf8Length += 2;
+      }
+    }
+    return utf8Length;
+  }
+
+  /**
+   * Encode {@code str} as UTF-8 into {@code buf} at {@code offset}, which must have exactly
+   * {@link #utf8Length} bytes available.  Unpaired surrogates are replaced with {@code '?'}, as
+   * {@link String#getBytes} does.
+   */
+  private static void encodeUTF8(String str, byte[] buf, int offset) {
+    int length = str.length();
+    int pos = offset;
+    for (int i = 0; i < length; i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        buf[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        buf[pos++] = (byte) (0xc0 | (c >> 6));
+        buf[pos++] = (byte) (0x80 | (c & 0x3f));
+      } else if (isSurrogatePair(str, i)) {
+        int codePoint = Character.toCodePoint(c, str.charAt(++i));
+        buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+        buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+        buf[pos++] = (byte) (0xe0 | (c >> 12));
+        buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buf[pos++] = (byte) (0x80 | (c & 0x3f));
+      } else {
+        buf[pos++] = '?';
+      }
+    }
+  }
+
+  private static boolean isSurrogatePair(String str, int index) {
+    char c = str.charAt(index);
+    if (c < Character.MIN_HIGH_SURROGATE || c > Character.MAX_HIGH_SURROGATE ||
+        index + 1 >= str.length()) {
+      return false;
+    }
+    char next = str.charAt(index + 1);
+    return next >= Character.MIN_LOW_SURROGATE && next <= Character.MAX_LOW_SURROGATE;
+  }
+
+  private static byte encodeFirstByte(Frame frame) {
+    byte b = 0;
+    if (frame.fin) {
+      b |= 0x80;
+    }
+    if (frame.rsv1) {
+      b |= 0x40;
+    }
+    if (frame.rsv2) {
+      b |= 0x20;
+    }
+    if (frame.rsv3) {
+      b |= 0x10;
+    }
+    b |= (frame.opcode & 0xf);
+    return b;
+  }
+
+  private static class PendingWrite {
+    /**
+     * Either the complete encoded frame or, if {@link #compress} is set, only its payload, in the
+     * first {@link #length} bytes.
+     */
+    public final byte[] data;
+    public final int length;
+    public final byte firstByte;
+    public final boolean compress;
+    @Nullable public final StreamingMessage message;
+    public final WriteCallback callback;
+    public long enqueueTimeNanos;
+
+    /**
+     * Set by the writer thread if {@link #message} failed.
+     */
+    @Nullable public IOException messageError;
+
+    public PendingWrite(byte[] frame, int length, WriteCallback callback) {
+      this.data = frame;
+      this.length = length;
+      this.firstByte = frame[0];
+      this.compress = false;
+      this.message = null;
+      this.callback = callback;
+    }
+
+    public PendingWrite(byte firstByte, byte[] payload, int length, WriteCallback callback) {
+      this.data = payload;
+      this.length = length;
+      this.firstByte = firstByte;
+      this.compress = true;
+      this.message = null;
+      this.callback = callback;
+    }
+
+    public PendingWrite(StreamingMessage message, WriteCallback callback) {
+      this.data = EMPTY;
+      this.length = 0;
+      this.firstByte = Frame.OPCODE_TEXT_FRAME;
+      this.compress = false;
+      this.message = message;
+      this.callback = callback;
     }
   }
 }
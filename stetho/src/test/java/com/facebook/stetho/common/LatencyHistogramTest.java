@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.common;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMeanNanos());
+    assertEquals(0, histogram.getPercentileNanos(99));
+  }
+
+  @Test
+  public void testBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(50));
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(51));
+    histogram.record(TimeUnit.MINUTES.toNanos(1));
+
+    assertEquals(1, histogram.getBucketValue(0));
+    assertEquals(1, histogram.getBucketValue(1));
+    assertEquals(1, histogram.getBucketValue(LatencyHistogram.getBucketCount() - 1));
+    assertEquals(3, histogram.getCount());
+    assertEquals(TimeUnit.MINUTES.toNanos(1), histogram.getMaxNanos());
+    assertEquals(
+        TimeUnit.MICROSECONDS.toNanos(101) + TimeUnit.MINUTES.toNanos(1),
+        histogram.getTotalNanos());
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(10));
+    }
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(7));
+
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(50), histogram.getPercentileNanos(50));
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(50), histogram.getPercentileNanos(99));
+    // Capped at the maximum rather than the 10ms bucket bound.
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(7), histogram.getPercentileNanos(100));
+  }
+
+  @Test
+  public void testReset() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1000);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMaxNanos());
+    assertEquals(0, histogram.getBucketValue(0));
+  }
+}
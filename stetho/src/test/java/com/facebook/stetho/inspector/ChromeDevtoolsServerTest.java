@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector;
+
+import android.os.Build;
+import com.facebook.stetho.common.Utf8Charset;
+import com.facebook.stetho.inspector.jsonrpc.DeferredResult;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.StreamingJsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.json.annotation.JsonProperty;
+import com.facebook.stetho.websocket.SimpleSession;
+import com.facebook.stetho.websocket.StreamingMessage;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ChromeDevtoolsServer}
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class ChromeDevtoolsServerTest {
+  private ChromeDevtoolsServer mServer;
+  private Echo mEcho;
+  private RecordingSession mSession;
+
+  @Before
+  public void setup() {
+    mServer = new ChromeDevtoolsServer(
+        Collections.<ChromeDevtoolsDomain>singletonList(mEcho = new Echo()));
+    mSession = new RecordingSession();
+    mServer.onOpen(mSession);
+  }
+
+  @Test
+  public void testResult() throws JSONException {
+    mServer.onMessage(
+        mSession,
+        "{\"id\":7,\"method\":\"Echo.echo\",\"params\":{\"value\":\"hi\"}}");
+    JSONObject response = mSession.getOnlyMessage();
+    assertEquals(7, response.getLong("id"));
+    assertEquals("hi", response.getJSONObject("result").getString("value"));
+    assertFalse(response.has("error"));
+  }
+
+  @Test
+  public void testEmptyResult() throws JSONException {
+    mServer.onMessage(mSession, "{\"id\":1,\"method\":\"Echo.nothing\"}");
+    JSONObject response = mSession.getOnlyMessage();
+    assertEquals(0, response.getJSONObject("result").length());
+  }
+
+  @Test
+  public void testMethodNotFound() throws JSONException {
+    mServer.onMessage(mSession, "{\"id\":2,\"method\":\"Echo.missing\"}");
+    JSONObject response = mSession.getOnlyMessage();
+    assertEquals(-32601, response.getJSONObject("error").getInt("code"));
+    assertFalse(response.has("result"));
+  }
+
+  @Test
+  public void testNotificationHasNoResponse() {
+    mServer.onMessage(mSession, "{\"method\":\"Echo.nothing\"}");
+    assertEquals(0, mSession.messages.size());
+  }
+
+  @Test
+  public void testDeferredResult() throws JSONException {
+    mServer.onMessage(mSession, "{\"id\":3,\"method\":\"Echo.later\"}");
+    assertEquals(0, mSession.messages.size());
+
+    EchoResult result = new EchoResult();
+    result.value = "done";
+    mEcho.pending.set(result);
+    JSONObject response = mSession.getOnlyMessage();
+    assertEquals(3, response.getLong("id"));
+    assertEquals("done", response.getJSONObject("result").getString("value"));
+  }
+
+  @Test
+  public void testStreamingResult() throws JSONException {
+    mServer.onMessage(mSession, "{\"id\":4,\"method\":\"Echo.stream\"}");
+    JSONObject response = mSession.getOnlyMessage();
+    assertEquals(4, response.getLong("id"));
+    assertEquals("streamed", response.getJSONObject("result").getString("value"));
+    assertTrue(mEcho.streamed.closed);
+  }
+
+  @Test
+  public void testStreamingResultFailure() throws JSONException {
+    mServer.onMessage(mSession, "{\"id\":5,\"method\":\"Echo.streamFailure\"}");
+    JSONObject response = mSession.getOnlyMessage();
+    assertEquals(5, response.getLong("id"));
+    assertFalse(response.has("result"));
+    JSONObject error = response.getJSONObject("error");
+    assertEquals(JsonRpcError.ErrorCode.INTERNAL_ERROR.getProtocolValue(), error.getInt("code"));
+    assertEquals("Body evicted", error.getString("message"));
+    assertTrue(mEcho.streamed.closed);
+  }
+
+  @Test
+  public void testStreamingNotificationClosed() {
+    mServer.onMessage(mSession, "{\"method\":\"Echo.stream\"}");
+    assertEquals(0, mSession.messages.size());
+    assertTrue(mEcho.streamed.closed);
+  }
+
+  public static class Echo implements ChromeDevtoolsDomain {
+    public DeferredResult<EchoResult> pending;
+    public StreamedResult streamed;
+
+    @ChromeDevtoolsMethod
+    public DeferredResult<EchoResult> later(JsonRpcPeer peer, JSONObject params) {
+      pending = new DeferredResult<>();
+      return pending;
+    }
+
+    @ChromeDevtoolsMethod
+    public EchoResult echo(JsonRpcPeer peer, JSONObject params) {
+      EchoResult result = new EchoResult();
+      result.value = params.optString("value");
+      return result;
+    }
+
+    @ChromeDevtoolsMethod
+    public StreamingJsonRpcResult stream(JsonRpcPeer peer, JSONObject params) {
+      streamed = new StreamedResult();
+      return streamed;
+    }
+
+    @ChromeDevtoolsMethod
+    public StreamingJsonRpcResult streamFailure(JsonRpcPeer peer, JSONObject params) {
+      streamed = new StreamedResult();
+      streamed.failure = new IOException("Body evicted");
+      return streamed;
+    }
+
+    @ChromeDevtoolsMethod
+    public void nothing(JsonRpcPeer peer, JSONObject params) {
+    }
+  }
+
+  public static class StreamedResult implements StreamingJsonRpcResult {
+    public IOException failure;
+    public boolean closed;
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+      out.write("{\"value\":\"streamed\"}".getBytes(Utf8Charset.INSTANCE));
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  public static class EchoResult implements JsonRpcResult {
+    @JsonProperty(required = true)
+    public String value;
+  }
+
+  private static class RecordingSession implements SimpleSession {
+    public final List<String> messages = new ArrayList<>();
+
+    public JSONObject getOnlyMessage() throws JSONException {
+      assertEquals(1, messages.size());
+      return new JSONObject(messages.get(0));
+    }
+
+    @Override
+    public void sendText(String payload) {
+      messages.add(payload);
+    }
+
+    @Override
+    public void sendText(byte[] payload, int payloadLen) {
+      messages.add(new String(payload, 0, payloadLen, Utf8Charset.INSTANCE));
+    }
+
+    @Override
+    public void sendText(StreamingMessage message) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+        try {
+          message.writeTo(out);
+        } catch (IOException e) {
+          out.reset();
+          message.writeFailureTo(out, e);
+        }
+        message.close();
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+      messages.add(new String(out.toByteArray(), Utf8Charset.INSTANCE));
+    }
+
+    @Override
+    public void sendBinary(byte[] payload) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close(int closeReason, String reasonPhrase) {
+      throw new AssertionError("Unexpected close: " + reasonPhrase);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector;
+
+import android.os.Build;
+import com.facebook.stetho.server.http.LightHttpRequest;
+import com.facebook.stetho.server.http.LightHttpResponse;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ChromeDiscoveryHandler}
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class ChromeDiscoveryHandlerTest {
+  private FakeAppDiscoveryHandler mHandler;
+
+  @Before
+  public void setup() {
+    mHandler = new FakeAppDiscoveryHandler();
+  }
+
+  @Test
+  public void testPageListIsReusedUntilTitleChanges() throws IOException, JSONException {
+    LightHttpResponse first = poll("/json");
+    LightHttpResponse second = poll("/json");
+    assertSame(first.preEncoded, second.preEncoded);
+
+    mHandler.title = "Other";
+    LightHttpResponse third = poll("/json");
+    assertNotSame(first.preEncoded, third.preEncoded);
+
+    String encoded = encode(third);
+    assertTrue(encoded, encoded.startsWith("HTTP/1.1 200 OK\r\n"));
+    String body = encoded.substring(encoded.indexOf("\r\n\r\n") + 4);
+    assertEquals("Other", new JSONArray(body).getJSONObject(0).getString("title"));
+    assertTrue(
+        encoded,
+        encoded.contains("Content-Length: " + body.getBytes("UTF-8").length + "\r\n"));
+  }
+
+  @Test
+  public void testVersion() throws IOException {
+    String encoded = encode(poll("/json/version"));
+    assertTrue(encoded, encoded.contains("\"Android-Package\":\"com.example\""));
+    assertTrue(encoded, encoded.contains("\"Browser\":\"Example\\/1.0\""));
+  }
+
+  private LightHttpResponse poll(String path) {
+    LightHttpRequest request = new LightHttpRequest();
+    request.method = "GET";
+    request.setTarget(path);
+    LightHttpResponse response = new LightHttpResponse();
+    assertTrue(mHandler.handleRequest(null /* socket */, request, response));
+    return response;
+  }
+
+  private static String encode(LightHttpResponse response) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    response.preEncoded.writeTo(out);
+    return out.toString("UTF-8");
+  }
+
+  private static class FakeAppDiscoveryHandler extends ChromeDiscoveryHandler {
+    public String title = "Example";
+
+    public FakeAppDiscoveryHandler() {
+      super(null /* context */, "/inspector");
+    }
+
+    @Override
+    protected String getPageTitle() {
+      return title;
+    }
+
+    @Override
+    protected String getPackageName() {
+      return "com.example";
+    }
+
+    @Override
+    protected CharSequence getAppLabel() {
+      return "Example";
+    }
+
+    @Override
+    protected String getAppVersionName() {
+      return "1.0";
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector;
+
+import android.os.Build;
+import com.facebook.stetho.inspector.jsonrpc.DeferredResult;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcException;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.inspector.jsonrpc.protocol.JsonRpcError;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsDomain;
+import com.facebook.stetho.inspector.protocol.ChromeDevtoolsMethod;
+import com.facebook.stetho.json.LazyJsonObject;
+import com.facebook.stetho.json.ObjectMapper;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link MethodDispatcher}
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class MethodDispatcherTest {
+  private Slow mSlow;
+  private Counted mCounted;
+  private MethodDispatcher mDispatcher;
+  private volatile RuntimeException mUncaughtOnExecutor;
+
+  @Before
+  public void setup() {
+    mSlow = new Slow();
+    mCounted = new Counted();
+    final Executor lane = Executors.newSingleThreadExecutor();
+    final Executor slowExecutor = new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        lane.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              command.run();
+            } catch (RuntimeException e) {
+              mUncaughtOnExecutor = e;
+            }
+          }
+        });
+      }
+    };
+    mDispatcher = new MethodDispatcher(
+        new ObjectMapper(),
+        Arrays.<ChromeDevtoolsDomain>asList(mSlow, mCounted),
+        new MethodExecutorPolicy() {
+          @Override
+          public Executor getExecutor(String domainName, String methodName) {
+            return domainName.equals("Slow") && !methodName.equals("fast") ?
+                slowExecutor :
+                null;
+          }
+        });
+  }
+
+  @Test(timeout = 5000)
+  public void testSlowMethodDoesNotBlockFastMethod() throws Exception {
+    DeferredResult<JsonRpcResult> slow = mDispatcher.dispatchAsync(null, "Slow.block", null);
+    mSlow.started.await();
+
+    DeferredResult<JsonRpcResult> fast = mDispatcher.dispatchAsync(null, "Slow.fast", null);
+    assertTrue(fast.isDone());
+    assertFalse(slow.isDone());
+
+    mSlow.unblock.countDown();
+    assertNull(slow.get());
+  }
+
+  @Test(timeout = 5000)
+  public void testUncheckedExceptionOnExecutor() throws InterruptedException {
+    DeferredResult<JsonRpcResult> result = mDispatcher.dispatchAsync(null, "Slow.crash", null);
+    try {
+      result.get();
+      fail("Expected JsonRpcException");
+    } catch (JsonRpcException e) {
+      assertEquals(JsonRpcError.ErrorCode.INTERNAL_ERROR, e.getErrorMessage().code);
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testListenerExceptionOnExecutor() throws Exception {
+    DeferredResult<JsonRpcResult> slow = mDispatcher.dispatchAsync(null, "Slow.block", null);
+    mSlow.started.await();
+    slow.addListener(new DeferredResult.Listener<JsonRpcResult>() {
+      @Override
+      public void onResult(JsonRpcResult result) {
+        throw new IllegalStateException("Response could not be sent");
+      }
+
+      @Override
+      public void onException(JsonRpcException e) {
+        fail("Unexpected exception: " + e);
+      }
+    });
+    mSlow.unblock.countDown();
+    assertNull(slow.get());
+
+    // Runs on the same executor, so the first call has been wrapped up by now.
+    DeferredResult<JsonRpcResult> next = mDispatcher.dispatchAsync(null, "Slow.block", null);
+    assertNull(next.get());
+    assertNull(mUncaughtOnExecutor);
+  }
+
+  @Test
+  public void testMethodNotFound() throws InterruptedException {
+    DeferredResult<JsonRpcResult> result = mDispatcher.dispatchAsync(null, "Slow.missing", null);
+    assertTrue(result.isDone());
+    try {
+      result.get();
+      fail("Expected JsonRpcException");
+    } catch (JsonRpcException e) {
+      assertEquals(JsonRpcError.ErrorCode.METHOD_NOT_FOUND, e.getErrorMessage().code);
+    }
+  }
+
+  @Test
+  public void testInvalidParams() throws InterruptedException {
+    String message = "{\"params\":{\"a\":]}";
+    DeferredResult<JsonRpcResult> result = mDispatcher.dispatchAsync(
+        null,
+        "Slow.fast",
+        LazyJsonObject.fromSource(message, 10, message.length() - 1));
+    assertTrue(result.isDone());
+    try {
+      result.get();
+      fail("Expected JsonRpcException");
+    } catch (JsonRpcException e) {
+      assertEquals(JsonRpcError.ErrorCode.INVALID_PARAMS, e.getErrorMessage().code);
+    }
+  }
+
+  @Test
+  public void testCallStats() throws JsonRpcException, InterruptedException {
+    MethodCallStats okStats = MethodCallStats.forMethod("Counted.ok");
+    MethodCallStats failStats = MethodCallStats.forMethod("Counted.fail");
+    long okCalls = okStats.getCallCount();
+    long failCalls = failStats.getCallCount();
+    long failErrors = failStats.getErrorCount();
+
+    mDispatcher.dispatchAsync(null, "Counted.ok", null).get();
+    mDispatcher.dispatchForResult(null, "Counted.ok", null);
+    try {
+      mDispatcher.dispatchForResult(null, "Counted.fail", null);
+      fail("Expected JsonRpcException");
+    } catch (JsonRpcException e) {
+      // Expected.
+    }
+
+    assertEquals(2, mCounted.okCalls);
+    assertEquals(okCalls + 2, okStats.getCallCount());
+    assertEquals(failCalls + 1, failStats.getCallCount());
+    assertEquals(failErrors + 1, failStats.getErrorCount());
+    assertTrue(MethodCallStats.getCalledMethods().contains(okStats));
+  }
+
+  @Test
+  public void testDeferredCallStats() throws JsonRpcException, InterruptedException {
+    MethodCallStats stats = MethodCallStats.forMethod("Counted.later");
+    long calls = stats.getCallCount();
+
+    DeferredResult<JsonRpcResult> result = mDispatcher.dispatchAsync(null, "Counted.later", null);
+    assertEquals(calls, stats.getCallCount());
+
+    mCounted.later.set(null);
+    assertNull(result.get());
+    assertEquals(calls + 1, stats.getCallCount());
+  }
+
+  public static class Slow implements ChromeDevtoolsDomain {
+    public final CountDownLatch started = new CountDownLatch(1);
+    public final CountDownLatch unblock = new CountDownLatch(1);
+
+    @ChromeDevtoolsMethod
+    public void block(JsonRpcPeer peer, JSONObject params) throws InterruptedException {
+      started.countDown();
+      unblock.await();
+    }
+
+    @ChromeDevtoolsMethod
+    public void fast(JsonRpcPeer peer, JSONObject params) {
+    }
+
+    @ChromeDevtoolsMethod
+    public void crash(JsonRpcPeer peer, JSONObject params) {
+      throw new IllegalStateException("crash");
+    }
+  }
+
+  public static class Counted implements ChromeDevtoolsDomain {
+    public int okCalls;
+    public final DeferredResult<JsonRpcResult> later = new DeferredResult<>();
+
+    @ChromeDevtoolsMethod
+    public void ok(JsonRpcPeer peer, JSONObject params) {
+      okCalls++;
+    }
+
+    @ChromeDevtoolsMethod
+    public void fail(JsonRpcPeer peer, JSONObject params) throws JsonRpcException {
+      throw new JsonRpcException(new JsonRpcError(JsonRpcError.ErrorCode.INTERNAL_ERROR,
+          "fail",
+          null /* data */));
+    }
+
+    @ChromeDevtoolsMethod
+    public DeferredResult<JsonRpcResult> later(JsonRpcPeer peer, JSONObject params) {
+      return later;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.helper;
+
+import android.os.Build;
+import com.facebook.stetho.common.Utf8Charset;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.json.JsonWriter;
+import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.json.annotation.JsonProperty;
+import com.facebook.stetho.websocket.SimpleSession;
+import com.facebook.stetho.websocket.StreamingMessage;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class ChromePeerManagerTest {
+  @Test
+  public void testNotificationEncodedOnce() {
+    List<RecordingSession> sessions = new ArrayList<>();
+    int singlePeerConversions = sendToPeers(1, sessions);
+    sessions.clear();
+    int multiPeerConversions = sendToPeers(4, sessions);
+
+    assertEquals(singlePeerConversions, multiPeerConversions);
+    byte[] expected = sessions.get(0).messages.get(0);
+    for (RecordingSession session : sessions) {
+      assertEquals(1, session.messages.size());
+      assertSame(expected, session.messages.get(0));
+    }
+  }
+
+  @Test
+  public void testNoPeersSkipsEncoding() {
+    CountingObjectMapper objectMapper = new CountingObjectMapper();
+    RecordingSession session = new RecordingSession();
+    JsonRpcPeer peer = new JsonRpcPeer(objectMapper, session);
+    ChromePeerManager peerManager = new ChromePeerManager();
+    peerManager.addPeer(peer);
+    peerManager.removePeer(peer);
+
+    peerManager.sendNotificationToPeers("Test.event", new TestParams());
+    assertEquals(0, objectMapper.conversions);
+    assertEquals(0, session.messages.size());
+  }
+
+  private static int sendToPeers(int peerCount, List<RecordingSession> sessions) {
+    CountingObjectMapper objectMapper = new CountingObjectMapper();
+    ChromePeerManager peerManager = new ChromePeerManager();
+    for (int i = 0; i < peerCount; i++) {
+      RecordingSession session = new RecordingSession();
+      sessions.add(session);
+      peerManager.addPeer(new JsonRpcPeer(objectMapper, session));
+    }
+
+    TestParams params = new TestParams();
+    params.value = "hello";
+    peerManager.sendNotificationToPeers("Test.event", params);
+    return objectMapper.conversions;
+  }
+
+  public static class TestParams {
+    @JsonProperty
+    public String value;
+  }
+
+  private static class CountingObjectMapper extends ObjectMapper {
+    public int conversions;
+
+    @Override
+    public <T> T convertValue(Object fromValue, Class<T> toValueType) {
+      conversions++;
+      return super.convertValue(fromValue, toValueType);
+    }
+
+    @Override
+    public void writeValue(JsonWriter writer, Object value) {
+      conversions++;
+      super.writeValue(writer, value);
+    }
+  }
+
+  private static class RecordingSession implements SimpleSession {
+    public final List<byte[]> messages = new ArrayList<>();
+
+    @Override
+    public void sendText(String payload) {
+      messages.add(payload.getBytes(Utf8Charset.INSTANCE));
+    }
+
+    @Override
+    public void sendText(byte[] payload, int payloadLen) {
+      assertEquals(payload.length, payloadLen);
+      messages.add(payload);
+    }
+
+    @Override
+    public void sendText(StreamingMessage message) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sendBinary(byte[] payload) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close(int closeReason, String reasonPhrase) {
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class BrotliDecodingOutputStreamTest {
+  private static final int META_BLOCK_SIZE = 4096;
+
+  /** Decoded output is released a window at a time, 64KB for the streams written here. */
+  private static final int WINDOW_SIZE = 64 * 1024;
+
+  @Test
+  public void testChunkedWrites() throws IOException {
+    byte[] data = ZstdDecodingOutputStreamTest.words(20000);
+    byte[] encoded = storeUncompressed(data);
+    for (int chunkSize : new int[] { 1, 7, 1000, encoded.length }) {
+      assertArrayEquals("chunkSize=" + chunkSize, data, decode(encoded, chunkSize));
+    }
+  }
+
+  @Test
+  public void testTruncatedPastLimit() throws IOException {
+    byte[] data = ZstdDecodingOutputStreamTest.words(4 * WINDOW_SIZE);
+    byte[] encoded = storeUncompressed(data);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream decodingStream = new BrotliDecodingOutputStream(out, encoded.length / 2);
+    decodingStream.write(encoded, 0, 1000);
+    decodingStream.write(encoded, 1000, encoded.length - 1000);
+    try {
+      decodingStream.close();
+      fail("Truncated stream was accepted");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+    }
+
+    // What fit is still decoded.
+    byte[] decoded = out.toByteArray();
+    assertTrue(decoded.length > 0);
+    assertArrayEquals(Arrays.copyOf(data, decoded.length), decoded);
+  }
+
+  @Test
+  public void testTrailingGarbageIgnored() throws IOException {
+    byte[] data = ZstdDecodingOutputStreamTest.words(100);
+    byte[] encoded = storeUncompressed(data);
+    byte[] withGarbage = Arrays.copyOf(encoded, encoded.length + 3 * META_BLOCK_SIZE);
+    Arrays.fill(withGarbage, encoded.length, withGarbage.length, (byte) 0xff);
+    assertArrayEquals(data, decode(withGarbage, 1000));
+  }
+
+  @Test
+  public void testTruncatedStream() throws IOException {
+    byte[] data = ZstdDecodingOutputStreamTest.words(4 * WINDOW_SIZE);
+    byte[] encoded = storeUncompressed(data);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream decodingStream = BrotliDecodingOutputStream.create(out);
+    decodingStream.write(encoded, 0, encoded.length / 2);
+    try {
+      decodingStream.close();
+      fail("Truncated stream was accepted");
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertTrue(out.size() > 0);
+    // Reported once, closing again is harmless.
+    decodingStream.close();
+  }
+
+  @Test
+  public void testWriteAfterClose() throws IOException {
+    OutputStream decodingStream = BrotliDecodingOutputStream.create(new ByteArrayOutputStream());
+    decodingStream.write(storeUncompressed(new byte[0]));
+    decodingStream.close();
+    try {
+      decodingStream.write(0);
+      fail("Write after close was accepted");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  private static byte[] decode(byte[] encoded, int chunkSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream decodingStream = BrotliDecodingOutputStream.create(out);
+    for (int i = 0; i < encoded.length; i += chunkSize) {
+      int count = Math.min(chunkSize, encoded.length - i);
+      if (count == 1) {
+        decodingStream.write(encoded[i]);
+      } else {
+        decodingStream.write(encoded, i, count);
+      }
+    }
+    decodingStream.close();
+    return out.toByteArray();
+  }
+
+  /**
+   * Encode {@code data} as a series of uncompressed meta-blocks, which lets tests produce
+   * Brotli streams of any size without an encoder.
+   */
+  private static byte[] storeUncompressed(byte[] data) {
+    BitWriter writer = new BitWriter();
+    // WBITS = 16.
+    writer.writeBits(0, 1);
+    for (int offset = 0; offset < data.length; offset += META_BLOCK_SIZE) {
+      int length = Math.min(META_BLOCK_SIZE, data.length - offset);
+      // ISLAST = 0, MNIBBLES = 4, MLEN - 1, ISUNCOMPRESSED = 1.
+      writer.writeBits(0, 1);
+      writer.writeBits(0, 2);
+      writer.writeBits(length - 1, 16);
+      writer.writeBits(1, 1);
+      writer.alignToByte();
+      writer.out.write(data, offset, length);
+    }
+    // ISLAST = 1, ISLASTEMPTY = 1.
+    writer.writeBits(3, 2);
+    writer.alignToByte();
+    return writer.out.toByteArray();
+  }
+
+  private static class BitWriter {
+    public final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int mBits;
+    private int mBitCount;
+
+    public void writeBits(int value, int count) {
+      for (int i = 0; i < count; i++) {
+        mBits |= ((value >> i) & 1) << mBitCount;
+        if (++mBitCount == 8) {
+          alignToByte();
+        }
+      }
+    }
+
+    public void alignToByte() {
+      if (mBitCount > 0) {
+        out.write(mBits);
+        mBits = 0;
+        mBitCount = 0;
+      }
+    }
+  }
+}
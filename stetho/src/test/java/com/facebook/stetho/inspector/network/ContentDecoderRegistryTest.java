@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ContentDecoderRegistryTest {
+  /** {@code words(1000)} compressed by the reference brotli encoder at quality 11. */
+  private static final String WORDS_1000_BROTLI =
+      "1be7030014a1d2a1dcd6afa4cf5d1fd4b0891b42659309d55448dfbbf91524bc9308cced1645b096" +
+      "10dd981efbdaae9581a0be9dcad0f487fcd38eba1e9d0fd465435fdddc10489b270a070dc8ad2867" +
+      "ed68dc9dbb12c4557ed102721d3d6845612645077825d339f1a478367f28f12b395abc7449efc68a" +
+      "1c776a096f295f291709569e976af7caea2a457f27401c297d41ad5a7b5b1837928a8f7e637686fb" +
+      "962207b6a621801156b144af7320dd078f09af55ba7e63b494228f6d31c01c27c84742070b8db804" +
+      "f39eb84a7e945164da10ecdae4f67f3675056960689a7c02";
+
+  @Test
+  public void testDefaults() {
+    ContentDecoderRegistry registry = createRegistry();
+    assertNotNull(registry.lookup("gzip"));
+    assertNotNull(registry.lookup("x-gzip"));
+    assertNotNull(registry.lookup("deflate"));
+    assertNotNull(registry.lookup("zstd"));
+    assertNotNull(registry.lookup("identity"));
+    assertNotNull(registry.lookup(" GZip "));
+    assertNull(registry.lookup("compress"));
+  }
+
+  @Test
+  public void testBrotliWhenAvailable() throws IOException {
+    assertTrue(ContentDecoderRegistry.isBrotliAvailable());
+    assertArrayEquals(
+        ZstdDecodingOutputStreamTest.words(1000),
+        decode(createRegistry(), "br", ZstdDecodingOutputStreamTest.fromHex(WORDS_1000_BROTLI)));
+  }
+
+  @Test
+  public void testChainedEncodings() throws IOException {
+    byte[] data = ZstdDecodingOutputStreamTest.words(5000);
+
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    OutputStream encodingStream = new DeflaterOutputStream(new GZIPOutputStream(encoded));
+    encodingStream.write(data);
+    encodingStream.close();
+
+    assertArrayEquals(
+        data,
+        decode(createRegistry(), "deflate, GZIP", encoded.toByteArray()));
+  }
+
+  @Test
+  public void testUnknownEncodingInChain() throws IOException {
+    ContentDecoderRegistry registry = createRegistry();
+    assertNull(registry.createDecodingStream("gzip, compress", new ByteArrayOutputStream()));
+  }
+
+  @Test
+  public void testCustomDecoder() throws IOException {
+    ContentDecoderRegistry registry = createRegistry();
+    registry.register("X-Upper", new ContentDecoder() {
+      @Override
+      public OutputStream decode(OutputStream out) {
+        return new FilterOutputStream(out) {
+          @Override
+          public void write(int oneByte) throws IOException {
+            out.write(Character.toLowerCase((char) oneByte));
+          }
+        };
+      }
+    });
+    assertArrayEquals("hello".getBytes(), decode(registry, "x-upper", "HELLO".getBytes()));
+
+    assertTrue(registry.unregister("x-upper"));
+    assertNull(registry.lookup("X-Upper"));
+    assertFalse(registry.unregister("x-upper"));
+  }
+
+  private static ContentDecoderRegistry createRegistry() {
+    ContentDecoderRegistry registry = new ContentDecoderRegistry();
+    registry.registerDefaults();
+    return registry;
+  }
+
+  private static byte[] decode(ContentDecoderRegistry registry, String encoding, byte[] data)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream decodingStream = registry.createDecodingStream(encoding, out);
+    assertNotNull(decodingStream);
+    decodingStream.write(data);
+    decodingStream.close();
+    return out.toByteArray();
+  }
+}
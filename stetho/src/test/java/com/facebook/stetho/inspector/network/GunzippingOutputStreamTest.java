@@ -12,9 +12,16 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
 
 import static org.junit.Assert.*;
 
@@ -31,4 +38,122 @@ public class GunzippingOutputStreamTest {
     zippingStream.close();
     assertArrayEquals(data, out.toByteArray());
   }
+
+  @Test
+  public void testGunzipOneByteAtATime() throws IOException {
+    byte[] data = randomText(100000);
+    byte[] gzipped = gzip(data);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream unzippingStream = GunzippingOutputStream.create(out);
+    for (byte b : gzipped) {
+      unzippingStream.write(b);
+    }
+    unzippingStream.close();
+    assertArrayEquals(data, out.toByteArray());
+  }
+
+  @Test
+  public void testOptionalHeaderFields() throws IOException {
+    byte[] data = randomText(1000);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream unzippingStream = GunzippingOutputStream.create(out);
+    unzippingStream.write(gzipWithAllHeaderFields(data));
+    unzippingStream.close();
+    assertArrayEquals(data, out.toByteArray());
+  }
+
+  @Test
+  public void testConcatenatedMembersAndTrailingGarbage() throws IOException {
+    byte[] first = randomText(5000);
+    byte[] second = randomText(7000);
+
+    ByteArrayOutputStream in = new ByteArrayOutputStream();
+    in.write(gzip(first));
+    in.write(gzip(second));
+    in.write(new byte[] { 1, 2, 3 });
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream unzippingStream = GunzippingOutputStream.create(out);
+    unzippingStream.write(in.toByteArray());
+    unzippingStream.close();
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(first);
+    expected.write(second);
+    assertArrayEquals(expected.toByteArray(), out.toByteArray());
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncated() throws IOException {
+    byte[] gzipped = gzip(randomText(1000));
+    OutputStream unzippingStream = GunzippingOutputStream.create(new ByteArrayOutputStream());
+    unzippingStream.write(gzipped, 0, gzipped.length - 4);
+    unzippingStream.close();
+  }
+
+  @Test(expected = ZipException.class)
+  public void testCorruptTrailer() throws IOException {
+    byte[] gzipped = gzip(randomText(1000));
+    gzipped[gzipped.length - 8] ^= 1;
+    OutputStream unzippingStream = GunzippingOutputStream.create(new ByteArrayOutputStream());
+    unzippingStream.write(gzipped);
+  }
+
+  @Test(expected = ZipException.class)
+  public void testNotGzip() throws IOException {
+    OutputStream unzippingStream = GunzippingOutputStream.create(new ByteArrayOutputStream());
+    unzippingStream.write("this is not gzip".getBytes());
+  }
+
+  private static byte[] randomText(int length) {
+    Random random = new Random(length);
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) ('a' + random.nextInt(8));
+    }
+    return data;
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GZIPOutputStream zippingStream = new GZIPOutputStream(out);
+    zippingStream.write(data);
+    zippingStream.close();
+    return out.toByteArray();
+  }
+
+  /**
+   * Gzip with FEXTRA, FNAME, FCOMMENT and FHCRC set, which {@link GZIPOutputStream} never
+   * writes.
+   */
+  private static byte[] gzipWithAllHeaderFields(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, (byte) 0xff });
+    out.write(new byte[] { 3, 0, 'x', 'y', 'z' });
+    out.write("name.txt\0".getBytes());
+    out.write("comment\0".getBytes());
+    CRC32 headerCrc = new CRC32();
+    headerCrc.update(out.toByteArray());
+    writeLittleEndian(out, headerCrc.getValue(), 2);
+
+    DeflaterOutputStream deflatingStream =
+        new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    deflatingStream.write(data);
+    deflatingStream.finish();
+
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    writeLittleEndian(out, crc.getValue(), 4);
+    writeLittleEndian(out, data.length, 4);
+    return out.toByteArray();
+  }
+
+  private static void writeLittleEndian(OutputStream out, long value, int size)
+      throws IOException {
+    for (int i = 0; i < size; i++) {
+      out.write((int) (value >> (8 * i)) & 0xff);
+    }
+  }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import com.facebook.stetho.inspector.helper.ChromePeerManager;
+import com.facebook.stetho.inspector.protocol.module.Network;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class NetworkEventDispatcherTest {
+  @Test(timeout = 5000)
+  public void testDeliversInOrder() throws InterruptedException {
+    RecordingPeerManager peerManager = new RecordingPeerManager(3);
+    NetworkEventDispatcher dispatcher =
+        new NetworkEventDispatcher(16, NetworkEventDispatcher.OverflowPolicy.DROP);
+    dispatcher.post(peerManager, "Network.requestWillBeSent", "1");
+    dispatcher.post(peerManager, "Network.responseReceived", "2");
+    dispatcher.post(peerManager, "Network.loadingFinished", "3");
+    peerManager.awaitDelivered();
+
+    assertEquals(3, peerManager.methods.size());
+    assertEquals("Network.requestWillBeSent", peerManager.methods.get(0));
+    assertEquals("Network.loadingFinished", peerManager.methods.get(2));
+    assertEquals(0, dispatcher.getDroppedEventCount());
+  }
+
+  @Test(timeout = 5000)
+  public void testDropWhenFull() throws InterruptedException {
+    BlockingPeerManager peerManager = new BlockingPeerManager();
+    NetworkEventDispatcher dispatcher =
+        new NetworkEventDispatcher(1, NetworkEventDispatcher.OverflowPolicy.DROP);
+    dispatcher.post(peerManager, "first", "1");
+    peerManager.awaitBlocked();
+
+    assertTrue(dispatcher.post(peerManager, "second", "2"));
+    assertFalse(dispatcher.post(peerManager, "third", dataReceived("1", 10)));
+    assertEquals(1, dispatcher.getDroppedEventCount());
+    peerManager.unblock();
+  }
+
+  @Test(timeout = 5000)
+  public void testCoalesceDataReceived() throws InterruptedException {
+    BlockingPeerManager peerManager = new BlockingPeerManager();
+    NetworkEventDispatcher dispatcher =
+        new NetworkEventDispatcher(1, NetworkEventDispatcher.OverflowPolicy.COALESCE);
+    dispatcher.post(peerManager, "first", "1");
+    peerManager.awaitBlocked();
+
+    dispatcher.post(peerManager, "Network.dataReceived", dataReceived("1", 10));
+    assertTrue(dispatcher.post(peerManager, "Network.dataReceived", dataReceived("1", 20)));
+    assertTrue(dispatcher.post(peerManager, "Network.dataReceived", dataReceived("1", 30)));
+    assertEquals(1, dispatcher.getCoalescedEventCount());
+    assertEquals(0, dispatcher.getDroppedEventCount());
+
+    peerManager.unblock();
+    peerManager.awaitDelivered(3);
+    int totalLength = 0;
+    for (Object params : peerManager.params) {
+      if (params instanceof Network.DataReceivedParams) {
+        totalLength += ((Network.DataReceivedParams) params).dataLength;
+      }
+    }
+    assertEquals(60, totalLength);
+  }
+
+  @Test(timeout = 5000)
+  public void testCoalesceKeepsRequestStages() throws InterruptedException {
+    BlockingPeerManager peerManager = new BlockingPeerManager();
+    NetworkEventDispatcher dispatcher =
+        new NetworkEventDispatcher(1, NetworkEventDispatcher.OverflowPolicy.COALESCE);
+    dispatcher.post(peerManager, "first", "1");
+    peerManager.awaitBlocked();
+
+    Network.ResponseReceivedParams responseReceived = new Network.ResponseReceivedParams();
+    responseReceived.requestId = "1";
+    assertTrue(dispatcher.post(peerManager, "Network.responseReceived", responseReceived));
+    assertTrue(dispatcher.post(peerManager, "Network.dataReceived", dataReceived("1", 10)));
+    assertTrue(dispatcher.post(peerManager, "Network.dataReceived", dataReceived("1", 20)));
+    Network.LoadingFinishedParams loadingFinished = new Network.LoadingFinishedParams();
+    loadingFinished.requestId = "1";
+    assertTrue(dispatcher.post(peerManager, "Network.loadingFinished", loadingFinished));
+    Network.LoadingFailedParams loadingFailed = new Network.LoadingFailedParams();
+    loadingFailed.requestId = "2";
+    assertTrue(dispatcher.post(peerManager, "Network.loadingFailed", loadingFailed));
+    // Other events are still only as good as the room left for them.
+    assertFalse(dispatcher.post(peerManager, "Network.webSocketFrameSent", "x"));
+    assertEquals(1, dispatcher.getDroppedEventCount());
+    assertEquals(1, dispatcher.getCoalescedEventCount());
+    assertEquals(3, dispatcher.getQueueSize());
+
+    peerManager.unblock();
+    peerManager.awaitDelivered(5);
+    assertEquals(5, peerManager.params.size());
+    assertSame(responseReceived, peerManager.params.get(1));
+    assertEquals(30, ((Network.DataReceivedParams) peerManager.params.get(2)).dataLength);
+    assertSame(loadingFinished, peerManager.params.get(3));
+    assertSame(loadingFailed, peerManager.params.get(4));
+  }
+
+  private static Network.DataReceivedParams dataReceived(String requestId, int length) {
+    Network.DataReceivedParams params = new Network.DataReceivedParams();
+    params.requestId = requestId;
+    params.dataLength = length;
+    params.encodedDataLength = length;
+    return params;
+  }
+
+  private static class RecordingPeerManager extends ChromePeerManager {
+    public final List<String> methods = new ArrayList<>();
+    public final List<Object> params = new ArrayList<>();
+    private final CountDownLatch mDelivered;
+
+    public RecordingPeerManager(int expectedCount) {
+      mDelivered = new CountDownLatch(expectedCount);
+    }
+
+    @Override
+    public void sendNotificationToPeers(String method, Object params) {
+      synchronized (this) {
+        this.methods.add(method);
+        this.params.add(params);
+      }
+      mDelivered.countDown();
+    }
+
+    public void awaitDelivered() throws InterruptedException {
+      mDelivered.await();
+    }
+  }
+
+  private static class BlockingPeerManager extends ChromePeerManager {
+    public final List<Object> params = new ArrayList<>();
+    private final CountDownLatch mBlocked = new CountDownLatch(1);
+    private final CountDownLatch mUnblock = new CountDownLatch(1);
+
+    @Override
+    public void sendNotificationToPeers(String method, Object params) {
+      synchronized (this) {
+        this.params.add(params);
+        notifyAll();
+      }
+      mBlocked.countDown();
+      try {
+        mUnblock.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void awaitBlocked() throws InterruptedException {
+      mBlocked.await();
+    }
+
+    public void unblock() {
+      mUnblock.countDown();
+    }
+
+    public synchronized void awaitDelivered(int count) throws InterruptedException {
+      while (params.size() < count) {
+        wait();
+      }
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.os.Build;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import static org.junit.Assert.*;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class ResponseBodyFileManagerTest {
+  @Rule
+  public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = mTemporaryFolder.newFolder();
+  }
+
+  @Test
+  public void testReadBack() throws IOException {
+    ResponseBodyFileManager manager = new ResponseBodyFileManager(mDirectory, 100, 100, 100);
+    writeBody(manager, "1", "hello");
+
+    ResponseBodyData bodyData = manager.readFile("1");
+    assertEquals("hello", bodyData.data);
+    assertFalse(bodyData.base64Encoded);
+    assertFalse(bodyData.truncated);
+  }
+
+  @Test
+  public void testBase64EncodedOnRead() throws IOException {
+    ResponseBodyFileManager manager = new ResponseBodyFileManager(mDirectory, 100, 100, 100);
+    OutputStream out = manager.openResponseBodyFile("1", true /* base64Encode */);
+    out.write(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, (byte) 0xff });
+    out.close();
+
+    // Stored as is.
+    assertEquals(11, manager.getTotalBytes());
+    ResponseBodyData bodyData = manager.readFile("1");
+    assertEquals("AAECAwQFBgcICf8=", bodyData.data);
+    assertTrue(bodyData.base64Encoded);
+  }
+
+  @Test
+  public void testBodyCapped() throws IOException {
+    ResponseBodyFileManager manager = new ResponseBodyFileManager(mDirectory, 100, 5, 100);
+    writeBody(manager, "1", "hello world");
+
+    ResponseBodyData bodyData = manager.readFile("1");
+    assertEquals("hello", bodyData.data);
+    assertTrue(bodyData.truncated);
+    assertEquals(5, manager.getTotalBytes());
+  }
+
+  @Test
+  public void testEvicted() throws IOException {
+    ResponseBodyFileManager manager = new ResponseBodyFileManager(mDirectory, 20, 10, 10);
+    writeBody(manager, "1", "aaaaaaaaaa");
+    writeBody(manager, "2", "bbbbbbbbbb");
+    writeBody(manager, "3", "cccccccccc");
+
+    ResponseBodyData evicted = manager.readFile("1");
+    assertEquals("", evicted.data);
+    assertTrue(evicted.truncated);
+    assertEquals("bbbbbbbbbb", manager.readFile("2").data);
+    assertEquals("cccccccccc", manager.readFile("3").data);
+  }
+
+  @Test
+  public void testOpenResponseBody() throws IOException {
+    ResponseBodyFileManager manager = new ResponseBodyFileManager(mDirectory, 100, 5, 100);
+    OutputStream out = manager.openResponseBodyFile("1", true /* base64Encode */);
+    out.write(new byte[] { 0, 1, 2, 3, 4, 5, 6 });
+    out.close();
+
+    // Served raw; encoding is up to the caller.
+    ResponseBodyStream body = manager.openResponseBody("1");
+    assertTrue(body.base64Encoded);
+    assertTrue(body.truncated);
+    assertEquals("0001020304", toHex(body.inputStream));
+    body.close();
+  }
+
+  @Test
+  public void testOpenResponseBodyEvicted() throws IOException {
+    ResponseBodyFileManager manager = new ResponseBodyFileManager(mDirectory, 20, 10, 10);
+    writeBody(manager, "1", "aaaaaaaaaa");
+    writeBody(manager, "2", "bbbbbbbbbb");
+    writeBody(manager, "3", "cccccccccc");
+
+    ResponseBodyStream body = manager.openResponseBody("1");
+    assertFalse(body.base64Encoded);
+    assertTrue(body.truncated);
+    assertEquals(-1, body.inputStream.read());
+  }
+
+  @Test
+  public void testOpenResponseBodyPrettyPrinted() throws IOException {
+    ResponseBodyFileManager manager = new ResponseBodyFileManager(mDirectory, 100, 100, 100);
+    writeBody(manager, "1", "hello");
+    manager.associateAsyncPrettyPrinterWithId("1", new AsyncPrettyPrinter() {
+      @Override
+      public void printTo(PrintWriter output, InputStream payload) {
+        output.print("pretty");
+      }
+
+      @Override
+      public PrettyPrinterDisplayType getPrettifiedType() {
+        return PrettyPrinterDisplayType.TEXT;
+      }
+    });
+
+    // Pretty printers need the whole body, which readFile provides.
+    assertNull(manager.openResponseBody("1"));
+  }
+
+  @Test
+  public void testCleanupFiles() throws IOException {
+    File legacy = new File(mDirectory, "network-response-body-42");
+    assertTrue(legacy.createNewFile());
+    File stale = new File(mDirectory, "network-response-bodies-7");
+    assertTrue(stale.createNewFile());
+    File unrelated = new File(mDirectory, "unrelated");
+    assertTrue(unrelated.createNewFile());
+
+    ResponseBodyFileManager manager = new ResponseBodyFileManager(mDirectory, 100, 100, 100);
+    manager.cleanupFiles();
+    writeBody(manager, "1", "hello");
+    manager.cleanupFiles();
+
+    assertFalse(legacy.exists());
+    assertFalse(stale.exists());
+    assertTrue(unrelated.exists());
+    assertEquals(1, mDirectory.listFiles().length);
+    assertEquals(0, manager.getTotalBytes());
+    try {
+      manager.readFile("1");
+      fail();
+    } catch (FileNotFoundException e) {
+      // Expected.
+    }
+  }
+
+  private static String toHex(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != -1) {
+      out.write(Character.forDigit(b >> 4, 16));
+      out.write(Character.forDigit(b & 0xf, 16));
+    }
+    return out.toString("US-ASCII");
+  }
+
+  private static void writeBody(ResponseBodyFileManager manager, String requestId, String body)
+      throws IOException {
+    OutputStream out = manager.openResponseBodyFile(requestId, false /* base64Encode */);
+    out.write(body.getBytes("UTF-8"));
+    out.close();
+  }
+}
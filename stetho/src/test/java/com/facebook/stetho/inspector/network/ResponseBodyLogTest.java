@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ResponseBodyLogTest {
+  @Rule
+  public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private File mDirectory;
+  private final List<String> mEvictedIds = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = mTemporaryFolder.newFolder();
+  }
+
+  @Test
+  public void testInterleavedBodies() throws IOException {
+    ResponseBodyLog log = createLog(10000, 10000, 100);
+    OutputStream first = log.open("1", false /* base64Encoded */);
+    OutputStream second = log.open("2", true /* base64Encoded */);
+    byte[] firstBody = body(1000, 1);
+    byte[] secondBody = body(1000, 2);
+    for (int i = 0; i < 1000; i += 30) {
+      first.write(firstBody, i, Math.min(30, 1000 - i));
+      second.write(secondBody[i]);
+      second.write(secondBody, i + 1, Math.min(29, 999 - i));
+    }
+
+    ResponseBodyLog.Snapshot firstSnapshot = log.read("1");
+    assertFalse(firstSnapshot.base64Encoded);
+    assertFalse(firstSnapshot.truncated);
+    assertArrayEquals(firstBody, readFully(firstSnapshot.inputStream));
+    assertTrue(log.read("2").base64Encoded);
+    assertArrayEquals(secondBody, readFully(log.read("2").inputStream));
+    assertEquals(2000, log.getTotalBytes());
+    // Segments roll over once full, so the last write to each one overshoots.
+    assertEquals(17, log.getSegmentCount());
+    assertEquals(17, mDirectory.listFiles().length);
+  }
+
+  @Test
+  public void testLargeBodyMapped() throws IOException {
+    ResponseBodyLog log = createLog(
+        4 * ResponseBodyLog.DEFAULT_SEGMENT_BYTES,
+        4 * ResponseBodyLog.DEFAULT_SEGMENT_BYTES,
+        ResponseBodyLog.DEFAULT_SEGMENT_BYTES);
+    byte[] body = body(ResponseBodyLog.DEFAULT_SEGMENT_BYTES * 3 / 2, 3);
+    OutputStream out = log.open("1", false /* base64Encoded */);
+    for (int i = 0; i < body.length; i += 8192) {
+      out.write(body, i, Math.min(8192, body.length - i));
+    }
+    out.close();
+
+    assertEquals(2, log.getSegmentCount());
+    assertArrayEquals(body, readFully(log.read("1").inputStream));
+  }
+
+  @Test
+  public void testReadKeepsSegment() throws IOException {
+    ResponseBodyLog log = createLog(30, 10, 10);
+    writeBody(log, "1", body(10, 1));
+    writeBody(log, "2", body(10, 2));
+    writeBody(log, "3", body(10, 3));
+    log.read("1").inputStream.close();
+    writeBody(log, "4", body(10, 4));
+
+    assertNull(log.read("2"));
+    assertEquals(Arrays.asList("2"), mEvictedIds);
+    assertArrayEquals(body(10, 1), readFully(log.read("1").inputStream));
+    assertEquals(30, log.getTotalBytes());
+    assertEquals(3, mDirectory.listFiles().length);
+  }
+
+  @Test
+  public void testEvictedWhileWriting() throws IOException {
+    ResponseBodyLog log = createLog(30, 15, 10);
+    OutputStream out = log.open("1", false /* base64Encoded */);
+    out.write(body(10, 1));
+    writeBody(log, "2", body(10, 2));
+    writeBody(log, "3", body(10, 3));
+    writeBody(log, "4", body(10, 4));
+    out.write(body(5, 1));
+    out.close();
+
+    assertNull(log.read("1"));
+    assertEquals(30, log.getTotalBytes());
+  }
+
+  @Test
+  public void testReplaced() throws IOException {
+    ResponseBodyLog log = createLog(100, 100, 100);
+    OutputStream out = log.open("1", false /* base64Encoded */);
+    out.write(body(10, 1));
+    writeBody(log, "1", body(20, 2));
+    out.write(body(10, 1));
+
+    assertArrayEquals(body(20, 2), readFully(log.read("1").inputStream));
+  }
+
+  private ResponseBodyLog createLog(long maxTotalBytes, long maxBodyBytes, int segmentBytes) {
+    return new ResponseBodyLog(
+        mDirectory,
+        maxTotalBytes,
+        maxBodyBytes,
+        segmentBytes,
+        new ResponseBodyLog.EvictionListener() {
+          @Override
+          public void onEvicted(String requestId) {
+            mEvictedIds.add(requestId);
+          }
+        });
+  }
+
+  private static void writeBody(ResponseBodyLog log, String requestId, byte[] body)
+      throws IOException {
+    OutputStream out = log.open(requestId, false /* base64Encoded */);
+    out.write(body);
+    out.close();
+  }
+
+  private static byte[] body(int length, int seed) {
+    byte[] body = new byte[length];
+    for (int i = 0; i < length; i++) {
+      body[i] = (byte) (i * seed + i / 251);
+    }
+    return body;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import android.os.Build;
+import com.facebook.stetho.inspector.helper.ChromePeerManager;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class ResponseBodyWriterTest {
+  @Test(timeout = 5000)
+  public void testWritesInOrder() throws InterruptedException {
+    ResponseBodyWriter writer = new ResponseBodyWriter(ResponseBodyWriter.DEFAULT_CAPACITY);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    RecordingResponseHandler handler = new RecordingResponseHandler();
+    ResponseBodyWriter.Sink sink =
+        writer.open("1", output, null, new ChromePeerManager(), handler);
+
+    byte[] body = new byte[ResponseBodyWriter.CHUNK_SIZE * 5 + 17];
+    for (int i = 0; i < body.length; i++) {
+      body[i] = (byte) i;
+    }
+    sink.write(body[0]);
+    for (int off = 1; off < body.length; off += 1000) {
+      sink.write(body, off, Math.min(1000, body.length - off));
+    }
+    sink.finish();
+    sink.close();
+    writer.awaitIdle();
+
+    assertArrayEquals(body, output.toByteArray());
+    assertEquals(body.length, handler.bytesRead);
+    assertEquals(Arrays.asList("eof"), handler.events);
+    assertEquals(0, writer.getDroppedByteCount());
+  }
+
+  @Test(timeout = 5000)
+  public void testDropTruncatesBody() throws InterruptedException {
+    ResponseBodyWriter writer = new ResponseBodyWriter(ResponseBodyWriter.CHUNK_SIZE);
+    BlockingOutputStream blockingOutput = new BlockingOutputStream();
+    ResponseBodyWriter.Sink first = writer.open(
+        "1",
+        blockingOutput,
+        null,
+        new ChromePeerManager(),
+        new RecordingResponseHandler());
+    first.write(new byte[ResponseBodyWriter.CHUNK_SIZE], 0, ResponseBodyWriter.CHUNK_SIZE);
+    blockingOutput.awaitBlocked();
+
+    // The only buffer is stuck behind the first body.
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    RecordingResponseHandler handler = new RecordingResponseHandler();
+    ResponseBodyWriter.Sink second =
+        writer.open("2", output, null, new ChromePeerManager(), handler);
+    second.write(new byte[10], 0, 10);
+    second.write(0);
+    assertEquals(11, writer.getDroppedByteCount());
+
+    blockingOutput.unblock();
+    second.write(new byte[10], 0, 10);
+    second.finish();
+    first.finish();
+    writer.awaitIdle();
+
+    assertEquals(21, writer.getDroppedByteCount());
+    assertEquals(0, output.size());
+    assertEquals(21, handler.bytesRead);
+    assertEquals(Arrays.asList("eof"), handler.events);
+  }
+
+  @Test(timeout = 5000)
+  public void testAbandonedSinkReleasesChunk() throws InterruptedException {
+    ResponseBodyWriter writer = new ResponseBodyWriter(ResponseBodyWriter.CHUNK_SIZE);
+    openAndAbandon(writer);
+
+    // The chunk only comes back once the abandoned sink has been collected.
+    long droppedBefore = -1;
+    for (int i = 0; i < 50 && droppedBefore != writer.getDroppedByteCount(); i++) {
+      System.gc();
+      Thread.sleep(10);
+      droppedBefore = writer.getDroppedByteCount();
+      ResponseBodyWriter.Sink sink = writer.open(
+          "2",
+          new ByteArrayOutputStream(),
+          null,
+          new ChromePeerManager(),
+          new RecordingResponseHandler());
+      sink.write(0);
+      sink.close();
+      writer.awaitIdle();
+    }
+    assertEquals(droppedBefore, writer.getDroppedByteCount());
+  }
+
+  private static void openAndAbandon(ResponseBodyWriter writer) {
+    ResponseBodyWriter.Sink sink = writer.open(
+        "1",
+        new ByteArrayOutputStream(),
+        null,
+        new ChromePeerManager(),
+        new RecordingResponseHandler());
+    sink.write(new byte[10], 0, 10);
+  }
+
+  @Test(timeout = 5000)
+  public void testErrorReportedInOrder() throws InterruptedException {
+    ResponseBodyWriter writer = new ResponseBodyWriter(ResponseBodyWriter.DEFAULT_CAPACITY);
+    RecordingResponseHandler handler = new RecordingResponseHandler();
+    ResponseBodyWriter.Sink sink = writer.open(
+        "1",
+        new ByteArrayOutputStream(),
+        null,
+        new ChromePeerManager(),
+        handler);
+    sink.write(new byte[100], 0, 100);
+    sink.fail(new IOException());
+    sink.close();
+    writer.awaitIdle();
+
+    assertEquals(100, handler.bytesRead);
+    assertEquals(Arrays.asList("error"), handler.events);
+  }
+
+  private static class RecordingResponseHandler implements ResponseHandler {
+    public final List<String> events = new ArrayList<>();
+    public int bytesRead;
+
+    @Override
+    public void onRead(int numBytes) {
+      assertTrue("Read after end of body", events.isEmpty());
+      bytesRead += numBytes;
+    }
+
+    @Override
+    public void onReadDecoded(int numBytes) {
+    }
+
+    @Override
+    public void onEOF() {
+      events.add("eof");
+    }
+
+    @Override
+    public void onError(IOException e) {
+      events.add("error");
+    }
+  }
+
+  private static class BlockingOutputStream extends ByteArrayOutputStream {
+    private final CountDownLatch mBlocked = new CountDownLatch(1);
+    private final CountDownLatch mUnblock = new CountDownLatch(1);
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      mBlocked.countDown();
+      try {
+        mUnblock.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      super.write(b, off, len);
+    }
+
+    public void awaitBlocked() throws InterruptedException {
+      mBlocked.await();
+    }
+
+    public void unblock() {
+      mUnblock.countDown();
+    }
+  }
+}
@@ -45,6 +45,7 @@ public class ResponseHandlingInputStreamTest {
     }
   }
 
+  private ResponseBodyWriter mResponseBodyWriter;
   private ByteArrayOutputStream mTestOutputStream;
   private ResponseHandlingInputStream mResponseHandlingInputStream;
   private NetworkPeerManager mNetworkPeerManager;
@@ -52,6 +53,7 @@ public class ResponseHandlingInputStreamTest {
 
   @Before
   public void setup() {
+    mResponseBodyWriter = new ResponseBodyWriter(ResponseBodyWriter.DEFAULT_CAPACITY);
     mTestOutputStream = new ByteArrayOutputStream();
     // The only place this is used is when trying to write to the console. Since we are going to
     // mock ResponseHandlingInputStream#writeToConsole passing null is fine.
@@ -63,14 +65,14 @@ public class ResponseHandlingInputStreamTest {
         mTestOutputStream,
         null /* decompressedCounter */,
         mNetworkPeerManager,
-        new DefaultResponseHandler(mNetworkEventReporter, TEST_REQUEST_ID));
+        new DefaultResponseHandler(mNetworkEventReporter, TEST_REQUEST_ID),
+        mResponseBodyWriter);
   }
 
   @Test
-  public void testReadOneByte() throws IOException {
+  public void testReadOneByte() throws Exception {
     int result = mResponseHandlingInputStream.read();
     assertEquals(TEST_RESPONSE_BODY[0], positionToByte(result));
-    assertBufferMatchesResponseBody(mTestOutputStream.toByteArray(), 1);
 
     PowerMockito.mockStatic(CLog.class);
     PowerMockito.doNothing().when(CLog.class);
@@ -80,17 +82,17 @@ public class ResponseHandlingInputStreamTest {
         Mockito.any(Console.MessageSource.class),
         Mockito.anyString());
     mResponseHandlingInputStream.close();
+    assertTeedFullBody();
     PowerMockito.verifyStatic();
   }
 
   @Test
-  public void testReadPartial() throws IOException {
+  public void testReadPartial() throws Exception {
     int numBytesToRead = TEST_RESPONSE_BODY.length / 2;
     byte[] tempReadingBuffer = new byte[numBytesToRead];
     int result = mResponseHandlingInputStream.read(tempReadingBuffer, 0, numBytesToRead);
     assertEquals(numBytesToRead, result);
     assertBufferMatchesResponseBody(tempReadingBuffer, numBytesToRead);
-    assertBufferMatchesResponseBody(mTestOutputStream.toByteArray(), numBytesToRead);
 
     PowerMockito.mockStatic(CLog.class);
     PowerMockito.doNothing().when(CLog.class);
@@ -100,29 +102,29 @@ public class ResponseHandlingInputStreamTest {
         Mockito.any(Console.MessageSource.class),
         Mockito.anyString());
     mResponseHandlingInputStream.close();
+    assertTeedFullBody();
     PowerMockito.verifyStatic();
   }
 
   @Test
-  public void testReadFully() throws IOException {
+  public void testReadFully() throws Exception {
     byte[] tempReadingBuffer = new byte[TEST_RESPONSE_BODY.length];
     int result = mResponseHandlingInputStream.read(tempReadingBuffer);
     assertEquals(TEST_RESPONSE_BODY.length, result);
     assertBufferMatchesResponseBody(tempReadingBuffer, TEST_RESPONSE_BODY.length);
-    assertBufferMatchesResponseBody(mTestOutputStream.toByteArray(), TEST_RESPONSE_BODY.length);
 
     PowerMockito.mockStatic(CLog.class);
     PowerMockito.verifyZeroInteractions(CLog.class);
     mResponseHandlingInputStream.close();
+    assertTeedFullBody();
     PowerMockito.verifyStatic();
   }
 
   @Test
-  public void testSkipFew() throws IOException {
+  public void testSkipFew() throws Exception {
     long numBytesToSkip = TEST_RESPONSE_BODY.length / 2;
     long result = mResponseHandlingInputStream.skip(numBytesToSkip);
     assertEquals(numBytesToSkip, result);
-    assertBufferMatchesResponseBody(mTestOutputStream.toByteArray(), (int) numBytesToSkip);
 
     PowerMockito.mockStatic(CLog.class);
     PowerMockito.doNothing().when(CLog.class);
@@ -132,23 +134,24 @@ public class ResponseHandlingInputStreamTest {
         Mockito.any(Console.MessageSource.class),
         Mockito.anyString());
     mResponseHandlingInputStream.close();
+    assertTeedFullBody();
     PowerMockito.verifyStatic();
   }
 
   @Test
-  public void testSkipMany() throws IOException {
+  public void testSkipMany() throws Exception {
     long numBytesToSkip = TEST_RESPONSE_BODY.length * 2;
     long result = mResponseHandlingInputStream.skip(numBytesToSkip);
     assertEquals((long) TEST_RESPONSE_BODY.length, result);
-    assertBufferMatchesResponseBody(mTestOutputStream.toByteArray(), TEST_RESPONSE_BODY.length);
     PowerMockito.verifyZeroInteractions(CLog.class);
     mResponseHandlingInputStream.close();
+    assertTeedFullBody();
   }
 
   private static final class TestIOException extends IOException {}
 
   @Test
-  public void testSwallowException() throws IOException {
+  public void testSwallowException() throws Exception {
     OutputStream exceptionOutputStream = new OutputStream() {
       @Override
       public void write(int oneByte) throws IOException {
@@ -161,13 +164,25 @@ public class ResponseHandlingInputStreamTest {
         exceptionOutputStream,
         null /* decompressedCounter */,
         mNetworkPeerManager,
-        new DefaultResponseHandler(mNetworkEventReporter, TEST_REQUEST_ID));
+        new DefaultResponseHandler(mNetworkEventReporter, TEST_REQUEST_ID),
+        mResponseBodyWriter);
 
     PowerMockito.mockStatic(CLog.class);
     responseHandlingInputStream.read();
+    responseHandlingInputStream.close();
+    mResponseBodyWriter.awaitIdle();
     PowerMockito.verifyStatic();
   }
 
+  /**
+   * The tee happens on the writer thread, wait for it and check that everything read (including
+   * whatever {@link ResponseHandlingInputStream#close()} drained) made it to the output.
+   */
+  private void assertTeedFullBody() throws InterruptedException {
+    mResponseBodyWriter.awaitIdle();
+    assertBufferMatchesResponseBody(mTestOutputStream.toByteArray(), TEST_RESPONSE_BODY.length);
+  }
+
   /**
    * Returns the truncated byte value of position.
    */
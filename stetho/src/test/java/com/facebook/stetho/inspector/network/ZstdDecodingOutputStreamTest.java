@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.inspector.network;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ZstdDecodingOutputStreamTest {
+  /**
+   * {@code words(1000)} compressed by the reference zstd at level 19 with a content checksum.
+   * Exercises Huffman coded literals and FSE coded sequences.
+   */
+  private static final String WORDS_1000_ZSTD =
+      "28b52ffd64e802650700a2c40e12a0bb01a01301cbfafef9fd03004044193d0a882f4c59a32ac004" +
+      "d5b988d4deaf56465c03d447bef19088ef982ef299d0d56bb2d3cf9a8edcf7095ea8a13365d93f03" +
+      "101cc428ed112008ca2322056216b8d0668542dbe258396b1da9fee446c52c97e17807286d4df66c" +
+      "72faf8502d212148965920ce568936b2965452180ef74284e39bc9d7a2a0bf444264231be430421a" +
+      "15a8ccfedef870244e8c9d36d8e20f25971cb64220924417cbd340a776010a8ec3fac749c9cf99b5" +
+      "7517cb471fd3087ef56dca4f66823c474f38ee44b6b40c0b5d5f6908df920f6b9ee6ede56d181d3f" +
+      "2a05063b5401f70a8f7e";
+
+  /**
+   * {@code pattern(300000)} compressed by the reference zstd at level 3, which spans several
+   * blocks and relies on matches reaching back across block boundaries.
+   */
+  private static final String PATTERN_300000_ZSTD =
+      "28b52ffda0e0930400940200e403000102030405060708090a0b0c0d0e0f10111213141516171819" +
+      "1a1b1c1d1e1f202122232425262728292a2b2c2d2e2f303132333435363738393a3b3c3d0400f938" +
+      "d821403a8d865a86063304720c05840000102d3e0410006e721d229d173c0df9154d0000081d0100" +
+      "dc131d0801";
+
+  /** 1000 zero bytes, which the reference zstd encodes as a single RLE block. */
+  private static final String ZEROS_1000_ZSTD = "28b52ffd60e8024d00001000000100e32b8005";
+
+  private static final String[] WORDS = {
+      "stetho", "network", "inspector", "response", "body",
+      "chrome", "devtools", "json", "frame", "domain",
+  };
+
+  @Test
+  public void testCompressedText() throws IOException {
+    assertArrayEquals(words(1000), decode(fromHex(WORDS_1000_ZSTD), Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testOneByteAtATime() throws IOException {
+    assertArrayEquals(words(1000), decode(fromHex(WORDS_1000_ZSTD), 1));
+  }
+
+  @Test
+  public void testMultipleBlocks() throws IOException {
+    assertArrayEquals(pattern(300000), decode(fromHex(PATTERN_300000_ZSTD), 4096));
+  }
+
+  @Test
+  public void testRleBlock() throws IOException {
+    assertArrayEquals(new byte[1000], decode(fromHex(ZEROS_1000_ZSTD), 7));
+  }
+
+  @Test
+  public void testConcatenatedAndSkippableFrames() throws IOException {
+    ByteArrayOutputStream in = new ByteArrayOutputStream();
+    in.write(fromHex(WORDS_1000_ZSTD));
+    in.write(fromHex("502a4d18" + "03000000" + "010203"));
+    in.write(fromHex(ZEROS_1000_ZSTD));
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(words(1000));
+    expected.write(new byte[1000]);
+    assertArrayEquals(expected.toByteArray(), decode(in.toByteArray(), 5));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncated() throws IOException {
+    byte[] compressed = fromHex(WORDS_1000_ZSTD);
+    OutputStream decodingStream = ZstdDecodingOutputStream.create(new ByteArrayOutputStream());
+    decodingStream.write(compressed, 0, compressed.length - 10);
+    decodingStream.close();
+  }
+
+  @Test(expected = EOFException.class)
+  public void testEmpty() throws IOException {
+    ZstdDecodingOutputStream.create(new ByteArrayOutputStream()).close();
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotZstd() throws IOException {
+    OutputStream decodingStream = ZstdDecodingOutputStream.create(new ByteArrayOutputStream());
+    decodingStream.write("this is not zstd".getBytes());
+  }
+
+  private static byte[] decode(byte[] compressed, int writeSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputStream decodingStream = ZstdDecodingOutputStream.create(out);
+    for (int off = 0; off < compressed.length; off += writeSize) {
+      decodingStream.write(compressed, off, Math.min(writeSize, compressed.length - off));
+    }
+    decodingStream.close();
+    return out.toByteArray();
+  }
+
+  static byte[] words(int length) {
+    Random random = new Random(length);
+    StringBuilder builder = new StringBuilder();
+    while (builder.length() < length) {
+      builder.append(WORDS[random.nextInt(WORDS.length)]);
+      builder.append(random.nextInt(8) == 0 ? '\n' : ' ');
+    }
+    return builder.substring(0, length).getBytes();
+  }
+
+  private static byte[] pattern(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (i % 61 + (i / 100000));
+    }
+    return data;
+  }
+
+  static byte[] fromHex(String hex) {
+    byte[] data = new byte[hex.length() / 2];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+    return data;
+  }
+}
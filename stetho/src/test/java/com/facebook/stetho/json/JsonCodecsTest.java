@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import android.os.Build;
+import com.facebook.stetho.inspector.protocol.module.Console;
+import com.facebook.stetho.inspector.protocol.module.Network;
+import com.facebook.stetho.inspector.protocol.module.Page;
+import com.facebook.stetho.json.annotation.JsonProperty;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link JsonCodecs} and the codecs generated for the protocol classes.
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class JsonCodecsTest {
+  @Test
+  public void testCodecGenerated() {
+    assertNotNull(JsonCodecs.get(Network.RequestWillBeSentParams.class));
+    assertNull(JsonCodecs.get(NotGenerated.class));
+  }
+
+  @Test
+  public void testWriteMatchesReflection() throws JSONException {
+    Network.RequestWillBeSentParams params = createParams();
+    JSONObject reflective = new ObjectMapper().convertValueReflectively(params, JSONObject.class);
+
+    JsonWriter writer = new JsonWriter();
+    JsonCodecs.writeValue(writer, params);
+    assertJsonEquals(reflective, new JSONObject(writer.toString()));
+  }
+
+  @Test
+  public void testReadMatchesReflection() throws JSONException {
+    ObjectMapper objectMapper = new ObjectMapper();
+    JSONObject jsonObject = objectMapper.convertValueReflectively(createParams(), JSONObject.class);
+
+    Network.RequestWillBeSentParams generated =
+        objectMapper.convertValue(jsonObject, Network.RequestWillBeSentParams.class);
+    Network.RequestWillBeSentParams reflective =
+        objectMapper.convertValueReflectively(jsonObject, Network.RequestWillBeSentParams.class);
+    assertJsonEquals(
+        objectMapper.convertValueReflectively(reflective, JSONObject.class),
+        objectMapper.convertValueReflectively(generated, JSONObject.class));
+    assertEquals(Page.ResourceType.XHR, generated.type);
+    assertEquals(Network.InitiatorType.SCRIPT, generated.initiator.type);
+  }
+
+  @Test
+  public void testFallbackForClassWithoutCodec() throws JSONException {
+    NotGenerated value = new NotGenerated();
+    value.name = "fallback";
+    JsonWriter writer = new JsonWriter();
+    JsonCodecs.writeValue(writer, value);
+    assertEquals("{\"name\":\"fallback\"}", writer.toString());
+    assertEquals(
+        "fallback",
+        JsonCodecs.readValue(new JSONObject(writer.toString()), NotGenerated.class).name);
+  }
+
+  private static Network.RequestWillBeSentParams createParams() throws JSONException {
+    JSONObject headers = new JSONObject();
+    headers.put("Content-Type", "application/json");
+
+    Network.Request request = new Network.Request();
+    request.url = "http://example.com/";
+    request.method = "POST";
+    request.headers = headers;
+    request.postData = "{\"key\":\"\u00e9\"}";
+
+    Console.CallFrame callFrame = new Console.CallFrame("fn", "http://example.com/a.js", 1, 2);
+
+    Network.Initiator initiator = new Network.Initiator();
+    initiator.type = Network.InitiatorType.SCRIPT;
+    initiator.stackTrace = new ArrayList<>();
+    initiator.stackTrace.add(callFrame);
+
+    Network.RequestWillBeSentParams params = new Network.RequestWillBeSentParams();
+    params.requestId = "1";
+    params.frameId = "1";
+    params.loaderId = "1";
+    params.documentURL = request.url;
+    params.request = request;
+    params.timestamp = 1.5;
+    params.initiator = initiator;
+    params.type = Page.ResourceType.XHR;
+    return params;
+  }
+
+  /**
+   * Key order is not significant, so compare after round tripping through a sorted form.
+   */
+  private static void assertJsonEquals(JSONObject expected, JSONObject actual)
+      throws JSONException {
+    assertEquals(sorted(expected).toString(), sorted(actual).toString());
+  }
+
+  private static Object sorted(Object value) throws JSONException {
+    if (value instanceof JSONObject) {
+      JSONObject jsonObject = (JSONObject) value;
+      TreeMap<String, Object> map = new TreeMap<>();
+      Iterator<String> keys = jsonObject.keys();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        map.put(key, sorted(jsonObject.get(key)));
+      }
+      return map;
+    } else if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      ArrayList<Object> list = new ArrayList<>();
+      for (int i = 0; i < array.length(); i++) {
+        list.add(sorted(array.get(i)));
+      }
+      return list;
+    }
+    return value;
+  }
+
+  public static class NotGenerated {
+    @JsonProperty
+    public String name;
+  }
+}
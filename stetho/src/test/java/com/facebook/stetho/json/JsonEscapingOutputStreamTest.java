@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import com.facebook.stetho.common.Utf8Charset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link JsonEscapingOutputStream}
+ */
+@RunWith(JUnit4.class)
+public class JsonEscapingOutputStreamTest {
+  @Test
+  public void testMatchesJsonWriter() throws IOException {
+    StringBuilder b = new StringBuilder();
+    for (char c = 0; c < 0x80; c++) {
+      b.append(c);
+    }
+    b.append("\u00e9\u20ac\ud83d\ude00 \u2028 \u2029 \u2027\u202a \"quoted\" back\\slash");
+    String text = b.toString();
+    byte[] utf8 = text.getBytes(Utf8Charset.INSTANCE);
+
+    for (int chunkSize : new int[] { 1, 2, 3, 7, utf8.length }) {
+      assertEquals("chunkSize=" + chunkSize, expected(text), escape(utf8, chunkSize));
+    }
+  }
+
+  @Test
+  public void testMalformedInput() throws IOException {
+    // Each maximal part of an invalid sequence is replaced with one U+FFFD, as recommended by
+    // the Unicode standard (the JDK's own decoder differs for encoded surrogates).
+    assertMalformed("a\ufffd\ufffdb", 'a', 0x80, 0xbf, 'b');
+    assertMalformed("\ufffd\ufffd\ufffd\ufffd\ufffd", 0xc0, 0xaf, 0xf5, 0x80, 0xff);
+    // Overlong encodings.
+    assertMalformed(
+        "\ufffd\ufffd\ufffd\ufffd\ufffd\ufffda",
+        0xe0, 0x80, 0xaf, 0xf0, 0x80, 0x80, 'a');
+    // Encoded surrogate.
+    assertMalformed("\ufffd\ufffd\ufffd", 0xed, 0xa0, 0x80);
+    // Beyond U+10FFFF.
+    assertMalformed("\ufffd\ufffd\ufffd\ufffd", 0xf4, 0x90, 0x80, 0x80);
+    // Sequences cut short by another character, a new sequence and the end of input.
+    assertMalformed(
+        "\ufffd\\n\ufffd\u00e9\ufffd",
+        0xe2, 0x82, '\n', 0xf0, 0x9f, 0xc3, 0xa9, 0xe2, 0x82);
+  }
+
+  @Test
+  public void testLargeInput() throws IOException {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      b.append("x\u00e9\"\ud83d\ude00\n\u2028");
+    }
+    String text = b.toString();
+    assertEquals(expected(text), escape(text.getBytes(Utf8Charset.INSTANCE), 1000));
+  }
+
+  @Test
+  public void testWriteAfterFinish() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonEscapingOutputStream escapingStream = new JsonEscapingOutputStream(out);
+    escapingStream.write(new byte[] { 'a', (byte) 0xc3 });
+    escapingStream.finish();
+    escapingStream.write('"');
+    escapingStream.close();
+    assertEquals("a\ufffd\\\"", new String(out.toByteArray(), Utf8Charset.INSTANCE));
+  }
+
+  private static void assertMalformed(String expected, int... input) throws IOException {
+    byte[] bytes = new byte[input.length];
+    for (int i = 0; i < input.length; i++) {
+      bytes[i] = (byte) input[i];
+    }
+    assertEquals(expected, escape(bytes, 1));
+    assertEquals(expected, escape(bytes, bytes.length));
+  }
+
+  private static String escape(byte[] utf8, int chunkSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonEscapingOutputStream escapingStream = new JsonEscapingOutputStream(out);
+    for (int i = 0; i < utf8.length; i += chunkSize) {
+      int count = Math.min(chunkSize, utf8.length - i);
+      if (count == 1) {
+        escapingStream.write(utf8[i]);
+      } else {
+        escapingStream.write(utf8, i, count);
+      }
+    }
+    escapingStream.finish();
+    return new String(out.toByteArray(), Utf8Charset.INSTANCE);
+  }
+
+  private static String expected(String text) {
+    String quoted = new JsonWriter().value(text).toString();
+    return quoted.substring(1, quoted.length() - 1);
+  }
+}
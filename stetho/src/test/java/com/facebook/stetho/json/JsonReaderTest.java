@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import android.os.Build;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link JsonReader}
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class JsonReaderTest {
+  @Test
+  public void testPullTopLevel() throws JSONException {
+    String message =
+        "{\"params\": {\"nodeId\": 5, \"nested\": [\"}\", {\"a\": \"\\\"]\"}]}, " +
+        "\"id\": 12345678901, \"method\": \"DOM.\\u0067etNode\", \"extra\": [1, 2.5, null]}";
+    JsonReader reader = new JsonReader(message);
+    LazyJsonObject params = null;
+    long id = 0;
+    String method = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("id".equals(name)) {
+        assertEquals(JsonReader.Token.NUMBER, reader.peek());
+        id = reader.nextLong();
+      } else if ("method".equals(name)) {
+        method = reader.nextString();
+      } else if ("params".equals(name)) {
+        params = reader.nextLazyJsonObject();
+      } else {
+        assertEquals(JsonReader.Token.BEGIN_ARRAY, reader.peek());
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    assertFalse(reader.hasNext());
+
+    assertEquals(12345678901L, id);
+    assertEquals("DOM.getNode", method);
+    JSONObject paramsObject = params.get();
+    assertEquals(5, paramsObject.getInt("nodeId"));
+    assertEquals("\"]", paramsObject.getJSONArray("nested").getJSONObject(1).getString("a"));
+  }
+
+  @Test
+  public void testNullParams() throws JSONException {
+    JsonReader reader = new JsonReader("{\"params\":null}");
+    reader.beginObject();
+    assertEquals("params", reader.nextName());
+    assertNull(reader.nextLazyJsonObject());
+    reader.endObject();
+  }
+
+  @Test
+  public void testMatchesJSONObject() throws JSONException {
+    String json = "{\"int\":1,\"long\":4294967296,\"double\":1.5,\"exp\":1e3,\"neg\":-7," +
+        "\"bool\":true,\"null\":null,\"str\":\"a\\nb\\u00e9\",\"arr\":[[],{}],\"obj\":{\"x\":[1]}}";
+    JSONObject expected = new JSONObject(json);
+    JSONObject actual = new JsonReader(json).nextJSONObject();
+    assertEquals(expected.toString(), actual.toString());
+    assertTrue(actual.get("int") instanceof Integer);
+    assertTrue(actual.get("long") instanceof Long);
+    assertTrue(actual.get("exp") instanceof Double);
+    assertEquals(JSONObject.NULL, actual.get("null"));
+  }
+
+  @Test
+  public void testLazyJsonObjectParsesOnce() throws JSONException {
+    String json = "[{\"a\":1}]";
+    LazyJsonObject lazy = LazyJsonObject.fromSource(json, 1, json.length() - 1);
+    JSONObject first = lazy.get();
+    assertEquals(1, first.getInt("a"));
+    assertTrue(first == lazy.get());
+  }
+
+  @Test
+  public void testMalformed() {
+    assertMalformed("{\"a\" 1}");
+    assertMalformed("{\"a\":1");
+    assertMalformed("{\"a\":[1,2}");
+    assertMalformed("{\"a\":\"unterminated}");
+    assertMalformed("{\"a\":bogus}");
+  }
+
+  private static void assertMalformed(String json) {
+    try {
+      new JsonReader(json).nextJSONObject();
+      fail("Expected JSONException for " + json);
+    } catch (JSONException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.json;
+
+import android.os.Build;
+import com.facebook.stetho.common.Utf8Charset;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link JsonWriter}
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class JsonWriterTest {
+  @Test
+  public void testObject() {
+    JsonWriter writer = new JsonWriter();
+    writer.beginObject()
+        .name("a").value(1)
+        .name("b").value(true)
+        .name("c").nullValue()
+        .name("d").beginArray().value("x").value(2.5).endArray()
+        .name("e").beginObject().endObject()
+        .endObject();
+    assertEquals("{\"a\":1,\"b\":true,\"c\":null,\"d\":[\"x\",2.5],\"e\":{}}", writer.toString());
+  }
+
+  @Test
+  public void testNumbers() {
+    assertEquals("[0,-1,9223372036854775807,-9223372036854775808,3,0.1,0.1,1.0E-7," +
+            "\"NaN\",\"Infinity\",\"-Infinity\"]",
+        new JsonWriter()
+            .beginArray()
+            .value(0)
+            .value(-1)
+            .value(Long.MAX_VALUE)
+            .value(Long.MIN_VALUE)
+            .value(3.0)
+            .value(0.1)
+            .value(0.1f)
+            .value(1e-7)
+            .value(Double.NaN)
+            .value(Double.POSITIVE_INFINITY)
+            .value(Double.NEGATIVE_INFINITY)
+            .endArray()
+            .toString());
+  }
+
+  @Test
+  public void testStringEscaping() throws JSONException {
+    String value = "quote\" backslash\\ newline\n tab\t ctrl\u0001 latin\u00e9 cjk\u4e2d " +
+        "emoji\ud83d\ude00 separator\u2028";
+    JsonWriter writer = new JsonWriter(16);
+    writer.beginArray().value(value).endArray();
+
+    assertEquals(value, new JSONArray(writer.toString()).getString(0));
+    assertArrayEquals(
+        writer.toString().getBytes(Utf8Charset.INSTANCE),
+        writer.toByteArray());
+  }
+
+  @Test
+  public void testMatchesJSONObject() throws JSONException {
+    JSONObject nested = new JSONObject();
+    nested.put("list", new JSONArray(Arrays.asList(1, "two", false)));
+    nested.put("null", JSONObject.NULL);
+    JSONObject jsonObject = new JSONObject();
+    jsonObject.put("nested", nested);
+    jsonObject.put("double", 1234.5);
+    jsonObject.put("long", 12345678901L);
+
+    JsonWriter writer = new JsonWriter();
+    writer.value(jsonObject);
+    assertEquals(jsonObject.toString(), writer.toString());
+  }
+
+  @Test
+  public void testLongString() {
+    // Long enough to be escaped in several chunks, with surrogate pairs straddling some of the
+    // chunk boundaries.
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      b.append(i % 7 == 0 ? "\ud83d\ude00" : "x\u00e9\n\"\u20ac".substring(i % 5, i % 5 + 1));
+    }
+    String value = b.toString();
+
+    JsonWriter writer = new JsonWriter();
+    writer.value(value);
+    assertEquals(JSONObject.quote(value), writer.toString());
+  }
+
+  @Test
+  public void testReset() {
+    JsonWriter writer = new JsonWriter();
+    writer.beginArray().value("first").endArray();
+    writer.reset();
+    writer.value("second");
+    assertEquals("\"second\"", writer.toString());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testValueWithoutName() {
+    new JsonWriter().beginObject().value(1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMultipleTopLevelValues() {
+    new JsonWriter().value(1).value(2);
+  }
+}
@@ -8,8 +8,10 @@
 package com.facebook.stetho.json;
 
 import android.os.Build;
+import com.facebook.stetho.common.LatencyHistogram;
 import com.facebook.stetho.json.annotation.JsonProperty;
 import com.facebook.stetho.json.annotation.JsonValue;
+import com.facebook.stetho.telemetry.StethoTelemetry;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -28,6 +30,7 @@ import java.util.Objects;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Tests for {@link ObjectMapper}
@@ -43,6 +46,29 @@ public class ObjectMapperTest {
     mObjectMapper = new ObjectMapper();
   }
 
+  @Test
+  public void testSerializationTimedOnce() throws JSONException {
+    Nested inner = new Nested();
+    inner.name = "inner";
+    Nested middle = new Nested();
+    middle.name = "middle";
+    middle.child = inner;
+    Nested outer = new Nested();
+    outer.name = "outer";
+    outer.child = middle;
+
+    LatencyHistogram serializationTime = StethoTelemetry.get().getSerializationTime();
+    long count = serializationTime.getCount();
+    JSONObject jsonObject = mObjectMapper.convertValue(outer, JSONObject.class);
+    assertEquals(count + 1, serializationTime.getCount());
+
+    mObjectMapper.convertValue(jsonObject, Nested.class);
+    assertEquals(count + 2, serializationTime.getCount());
+    assertEquals(
+        "inner",
+        jsonObject.getJSONObject("child").getJSONObject("child").getString("name"));
+  }
+
   @Test
   public void testJsonProperty() throws IOException, JSONException {
     JsonPropertyString c = new JsonPropertyString();
@@ -103,6 +129,18 @@ public class ObjectMapperTest {
     assertEquals(expected, jsonObject.toString());
   }
 
+  @Test
+  public void testEnumLookup() {
+    assertEquals(TestEnum.VALUE_THREE, mObjectMapper.getEnumValue("three", TestEnum.class));
+    assertEquals(PlainEnum.B, mObjectMapper.getEnumValue("B", PlainEnum.class));
+    try {
+      mObjectMapper.getEnumValue("VALUE_ONE", TestEnum.class);
+      fail("Expected lookup by name to fail when a @JsonValue method is present");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
   @Test
   public void testListString() throws JSONException {
     JsonPropertyStringList jpsl = new JsonPropertyStringList();
@@ -286,6 +324,11 @@ public class ObjectMapperTest {
     }
   }
 
+  public enum PlainEnum {
+    A,
+    B,
+  }
+
   private static class JsonPropertyMultitypedList {
     @JsonProperty
     public List<Object> multitypedList;
@@ -295,4 +338,12 @@ public class ObjectMapperTest {
     @JsonProperty
     public List<List<String>> listOfLists;
   }
+
+  public static class Nested {
+    @JsonProperty
+    public String name;
+
+    @JsonProperty
+    public Nested child;
+  }
 }
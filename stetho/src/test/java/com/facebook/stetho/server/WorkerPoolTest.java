@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.server;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class WorkerPoolTest {
+  @Test(timeout = 5000)
+  public void testBoundedWorkers() throws InterruptedException {
+    WorkerPool pool = new WorkerPool("test", 2, 60 * 1000);
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch unblock = new CountDownLatch(1);
+    assertTrue(pool.execute(new BlockingTask(started, unblock), 0));
+    assertTrue(pool.execute(new BlockingTask(started, unblock), 0));
+    started.await();
+
+    assertFalse(pool.execute(new BlockingTask(started, unblock), 10));
+    assertEquals(2, pool.getWorkerCount());
+
+    unblock.countDown();
+    CountDownLatch ran = new CountDownLatch(1);
+    assertTrue(pool.execute(new BlockingTask(ran, unblock), 1000));
+    ran.await();
+    pool.shutdown();
+  }
+
+  @Test(timeout = 5000)
+  public void testIdleWorkersAreReaped() throws InterruptedException {
+    WorkerPool pool = new WorkerPool("test", 4, 10);
+    CountDownLatch ran = new CountDownLatch(1);
+    assertTrue(pool.execute(new BlockingTask(ran, new CountDownLatch(0)), 0));
+    ran.await();
+    while (pool.getWorkerCount() > 0) {
+      Thread.sleep(5);
+    }
+    pool.shutdown();
+  }
+
+  @Test
+  public void testRejectsAfterShutdown() throws InterruptedException {
+    WorkerPool pool = new WorkerPool("test", 1, 60 * 1000);
+    pool.shutdown();
+    assertFalse(pool.execute(new BlockingTask(new CountDownLatch(1), new CountDownLatch(0)), 0));
+  }
+
+  private static class BlockingTask implements Runnable {
+    private final CountDownLatch mStarted;
+    private final CountDownLatch mUnblock;
+
+    public BlockingTask(CountDownLatch started, CountDownLatch unblock) {
+      mStarted = started;
+      mUnblock = unblock;
+    }
+
+    @Override
+    public void run() {
+      mStarted.countDown();
+      try {
+        mUnblock.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
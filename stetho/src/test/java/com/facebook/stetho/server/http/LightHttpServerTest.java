@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.server.http;
+
+import android.os.Build;
+import com.facebook.stetho.server.LeakyBufferedInputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link LightHttpServer}
+ */
+@Config(emulateSdk = Build.VERSION_CODES.JELLY_BEAN)
+@RunWith(RobolectricTestRunner.class)
+public class LightHttpServerTest {
+  @Test
+  public void testKeepAliveRequests() throws IOException {
+    LightHttpServer.HttpMessageReader reader = newReader(
+        "GET /json/version HTTP/1.1\r\n" +
+        "Host: localhost\r\n" +
+        "X-Custom:  spaced value\r\n" +
+        "\r\n" +
+        "GET /json?x=%20y HTTP/1.1\r\n" +
+        "\r\n");
+    LightHttpRequest request = new LightHttpRequest();
+
+    assertSame(request, LightHttpServer.readRequestMessage(request, reader));
+    assertEquals("GET", request.method);
+    assertEquals("/json/version", request.path);
+    assertEquals("HTTP/1.1", request.protocol);
+    assertEquals("localhost", request.getFirstHeaderValue("Host"));
+    assertEquals("spaced value", request.getFirstHeaderValue("X-Custom"));
+
+    assertSame(request, LightHttpServer.readRequestMessage(request, reader));
+    assertEquals("/json", request.path);
+    assertEquals("/json?x=%20y", request.target);
+    assertEquals(0, request.headerNames.size());
+
+    assertNull(LightHttpServer.readRequestMessage(request, reader));
+  }
+
+  @Test
+  public void testBodyIsLeftInStream() throws IOException {
+    LeakyBufferedInputStream in = new LeakyBufferedInputStream(
+        new ByteArrayInputStream(
+            ("POST /dumpapp HTTP/1.1\r\nContent-Length: 4\r\n\r\nbody").getBytes("US-ASCII")),
+        1024);
+    LightHttpServer.HttpMessageReader reader = new LightHttpServer.HttpMessageReader(in);
+    LightHttpRequest request = LightHttpServer.readRequestMessage(new LightHttpRequest(), reader);
+    assertEquals("4", request.getFirstHeaderValue(HttpHeaders.CONTENT_LENGTH));
+
+    InputStream body = in.leakBufferAndStream();
+    byte[] buf = new byte[8];
+    assertEquals(4, body.read(buf));
+    assertEquals("body", new String(buf, 0, 4, "US-ASCII"));
+  }
+
+  @Test
+  public void testLongLine() throws IOException {
+    StringBuilder longValue = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      longValue.append((char) ('a' + i % 26));
+    }
+    LightHttpServer.HttpMessageReader reader = newReader(
+        "GET / HTTP/1.1\r\nCookie: " + longValue + "\r\n\r\n");
+    LightHttpRequest request = LightHttpServer.readRequestMessage(new LightHttpRequest(), reader);
+    assertEquals(longValue.toString(), request.getFirstHeaderValue("Cookie"));
+  }
+
+  @Test
+  public void testInvalidRequestLine() throws IOException {
+    try {
+      LightHttpServer.readRequestMessage(new LightHttpRequest(), newReader("GET\r\n\r\n"));
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertEquals("Invalid request line: GET", e.getMessage());
+    }
+  }
+
+  private static LightHttpServer.HttpMessageReader newReader(String input) throws IOException {
+    return new LightHttpServer.HttpMessageReader(
+        new LeakyBufferedInputStream(
+            new ByteArrayInputStream(input.getBytes("US-ASCII")),
+            1024));
+  }
+}
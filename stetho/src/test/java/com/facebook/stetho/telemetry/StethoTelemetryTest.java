@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.telemetry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class StethoTelemetryTest {
+  private StethoTelemetry mTelemetry;
+
+  @Before
+  public void setUp() {
+    mTelemetry = StethoTelemetry.get();
+    mTelemetry.reset();
+  }
+
+  @Test
+  public void testMessagesByDomain() {
+    mTelemetry.recordMessageIn("TestDomain.enable");
+    mTelemetry.recordMessageIn("TestDomain.disable");
+    mTelemetry.recordMessageOut("TestDomain.enable");
+    mTelemetry.recordMessagesOut("TestDomain.event", 3);
+    mTelemetry.recordMessageIn(null /* method */);
+
+    StethoTelemetry.DomainMessageCounts counts = findCounts("TestDomain");
+    assertEquals(2, counts.getMessagesIn());
+    assertEquals(4, counts.getMessagesOut());
+    assertEquals(1, findCounts(StethoTelemetry.NO_DOMAIN).getMessagesIn());
+  }
+
+  @Test
+  public void testMadeUpDomainsBounded() {
+    StethoTelemetry telemetry = new StethoTelemetry();
+    telemetry.recordMessageIn("Network.enable");
+    for (int i = 0; i < StethoTelemetry.MAX_DOMAINS * 2; i++) {
+      telemetry.recordMessageIn("Fake" + i + ".enable");
+      telemetry.recordMessageIn("nodot" + i);
+    }
+
+    // Network, the first dot-less message's (other) and as many fakes as fit.
+    assertEquals(StethoTelemetry.MAX_DOMAINS, telemetry.getMessageCounts().size());
+    long otherIn = -1;
+    for (StethoTelemetry.DomainMessageCounts counts : telemetry.getMessageCounts()) {
+      if (StethoTelemetry.OTHER_DOMAIN.equals(counts.getDomain())) {
+        otherIn = counts.getMessagesIn();
+      }
+    }
+    // Every message without a domain, plus the fake domains which did not fit.
+    assertEquals(
+        StethoTelemetry.MAX_DOMAINS * 2 + StethoTelemetry.MAX_DOMAINS * 2 -
+            (StethoTelemetry.MAX_DOMAINS - 2),
+        otherIn);
+  }
+
+  @Test
+  public void testWebSocketQueue() {
+    long queuedFrames = mTelemetry.getWebSocketQueuedFrames();
+    long queuedBytes = mTelemetry.getWebSocketQueuedBytes();
+
+    mTelemetry.onWebSocketFrameQueued(100);
+    mTelemetry.onWebSocketFrameQueued(50);
+    mTelemetry.onWebSocketFramesDequeued(2, 150);
+    mTelemetry.onWebSocketFrameQueued(10);
+
+    assertEquals(queuedFrames + 1, mTelemetry.getWebSocketQueuedFrames());
+    assertEquals(queuedBytes + 10, mTelemetry.getWebSocketQueuedBytes());
+    assertEquals(queuedBytes + 150, mTelemetry.getPeakWebSocketQueuedBytes());
+
+    mTelemetry.onWebSocketFramesDequeued(1, 10);
+  }
+
+  @Test
+  public void testReset() {
+    mTelemetry.recordMessageIn("TestDomain.enable");
+    mTelemetry.getSerializationTime().record(1000);
+
+    mTelemetry.reset();
+
+    assertEquals(0, findCounts("TestDomain").getMessagesIn());
+    assertEquals(0, mTelemetry.getSerializationTime().getCount());
+  }
+
+  private StethoTelemetry.DomainMessageCounts findCounts(String domain) {
+    for (StethoTelemetry.DomainMessageCounts counts : mTelemetry.getMessageCounts()) {
+      if (domain.equals(counts.getDomain())) {
+        return counts;
+      }
+    }
+    fail("No messages counted for " + domain);
+    return null;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class MessageDeflaterTest {
+  @Test
+  public void testRoundTrip() throws IOException {
+    MessageDeflater deflater = new MessageDeflater(Deflater.BEST_SPEED);
+    MessageInflater inflater = new MessageInflater();
+    for (int size : new int[] { 0, 1, 1000, 100 * 1024 }) {
+      byte[] message = createMessage(size);
+      int compressedLength = deflater.deflate(message, 0, message.length);
+      if (size > 1000) {
+        assertTrue(compressedLength < message.length / 5);
+      }
+      byte[] compressed = Arrays.copyOf(deflater.getBuffer(), compressedLength);
+      int length = inflater.inflate(compressed, compressed.length);
+      assertArrayEquals(message, Arrays.copyOf(inflater.getBuffer(), length));
+    }
+    deflater.end();
+    inflater.end();
+  }
+
+  @Test
+  public void testInflateWithContextTakeover() throws IOException {
+    // Example from RFC 7692 section 7.2.3.2: "Hello" twice, the second referring to the first.
+    MessageInflater inflater = new MessageInflater();
+    byte[] first = { (byte) 0xf2, 0x48, (byte) 0xcd, (byte) 0xc9, (byte) 0xc9, 0x07, 0x00 };
+    byte[] second = { (byte) 0xf2, 0x00, 0x11, 0x00, 0x00 };
+    assertEquals("Hello", inflateToString(inflater, first));
+    assertEquals("Hello", inflateToString(inflater, second));
+    inflater.end();
+  }
+
+  @Test
+  public void testInflateFinalBlock() throws IOException {
+    // Example from RFC 7692 section 7.2.3.3: a message ending in a block with BFINAL set.
+    MessageInflater inflater = new MessageInflater();
+    byte[] message =
+        { (byte) 0xf3, 0x48, (byte) 0xcd, (byte) 0xc9, (byte) 0xc9, 0x07, 0x00, 0x00 };
+    assertEquals("Hello", inflateToString(inflater, message));
+    assertEquals("Hello", inflateToString(inflater, message));
+    inflater.end();
+  }
+
+  @Test
+  public void testInflateInvalid() {
+    MessageInflater inflater = new MessageInflater();
+    byte[] garbage = { (byte) 0xff, (byte) 0xff, (byte) 0xff };
+    try {
+      inflater.inflate(garbage, garbage.length);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    inflater.end();
+  }
+
+  private static String inflateToString(MessageInflater inflater, byte[] message)
+      throws IOException {
+    int length = inflater.inflate(message, message.length);
+    return new String(inflater.getBuffer(), 0, length, "UTF-8");
+  }
+
+  private static byte[] createMessage(int size) {
+    StringBuilder b = new StringBuilder(size + 64);
+    for (int i = 0; b.length() < size; i++) {
+      b.append("{\"nodeId\":").append(i).append(",\"nodeName\":\"DIV\",\"attributes\":[]},");
+    }
+    b.setLength(size);
+    return b.toString().getBytes();
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class ReadHandlerTest {
+  @Test
+  public void testFragmentedTextWithInterleavedPing() throws IOException {
+    byte[] text = "{\"method\":\"caf\u00e9 \ud83d\ude00\"}".getBytes("UTF-8");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // Split in the middle of the 4 byte sequence.
+    int split = text.length - 5;
+    writeFrame(out, false, Frame.OPCODE_TEXT_FRAME, Arrays.copyOfRange(text, 0, split));
+    writeFrame(out, true, Frame.OPCODE_CONNECTION_PING, "ping".getBytes("UTF-8"));
+    writeFrame(
+        out,
+        true,
+        Frame.OPCODE_CONTINUATION,
+        Arrays.copyOfRange(text, split, text.length));
+    writeFrame(out, true, Frame.OPCODE_BINARY_FRAME, new byte[] { 1, 2, 3 });
+    writeFrame(out, true, Frame.OPCODE_CONNECTION_CLOSE, new byte[] { 0x03, (byte) 0xe8 });
+
+    RecordingCallback callback = read(out.toByteArray(), null /* inflater */);
+    assertEquals(
+        Arrays.asList(
+            "opcode=9 ping",
+            "text={\"method\":\"caf\u00e9 \ud83d\ude00\"}",
+            "opcode=2 [1, 2, 3]",
+            "opcode=8 [3, -24]"),
+        callback.events);
+  }
+
+  @Test
+  public void testLargeMessagesReuseBuffers() throws IOException {
+    char[] large = new char[300 * 1024];
+    Arrays.fill(large, 'x');
+    String largeText = new String(large);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeFrame(out, true, Frame.OPCODE_TEXT_FRAME, largeText.getBytes("UTF-8"));
+    writeFrame(out, true, Frame.OPCODE_TEXT_FRAME, "small".getBytes("UTF-8"));
+    writeFrame(out, true, Frame.OPCODE_CONNECTION_CLOSE, new byte[0]);
+
+    RecordingCallback callback = read(out.toByteArray(), null /* inflater */);
+    assertEquals("text=" + largeText, callback.events.get(0));
+    assertEquals("text=small", callback.events.get(1));
+  }
+
+  @Test
+  public void testCompressedText() throws IOException {
+    byte[] text = "{\"id\":1,\"method\":\"DOM.getDocument\"}".getBytes("UTF-8");
+    MessageDeflater deflater = new MessageDeflater(Deflater.DEFAULT_COMPRESSION);
+    int compressedLength = deflater.deflate(text, 0, text.length);
+    byte[] compressed = Arrays.copyOf(deflater.getBuffer(), compressedLength);
+    deflater.end();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Frame frame = FrameHelper.createTextFrame(compressed, compressed.length);
+    frame.rsv1 = true;
+    frame.hasMask = true;
+    BufferedOutputStream buffered = new BufferedOutputStream(out);
+    frame.writeTo(buffered);
+    buffered.flush();
+    writeFrame(out, true, Frame.OPCODE_CONNECTION_CLOSE, new byte[0]);
+
+    RecordingCallback callback = read(out.toByteArray(), new MessageInflater());
+    assertEquals("text={\"id\":1,\"method\":\"DOM.getDocument\"}", callback.events.get(0));
+  }
+
+  @Test
+  public void testUnexpectedContinuation() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeFrame(out, true, Frame.OPCODE_CONTINUATION, new byte[1]);
+    try {
+      read(out.toByteArray(), null /* inflater */);
+      fail();
+    } catch (IOException e) {
+      assertEquals("Continuation frame without a message in progress", e.getMessage());
+    }
+  }
+
+  private static RecordingCallback read(byte[] data, MessageInflater inflater)
+      throws IOException {
+    RecordingCallback callback = new RecordingCallback();
+    new ReadHandler(new ByteArrayInputStream(data), null /* endpoint */, inflater)
+        .readLoop(callback);
+    return callback;
+  }
+
+  /**
+   * Write a masked frame, as a client would.
+   */
+  private static void writeFrame(ByteArrayOutputStream out, boolean fin, byte opcode, byte[] data)
+      throws IOException {
+    Frame frame = new Frame();
+    frame.fin = fin;
+    frame.opcode = opcode;
+    frame.hasMask = true;
+    frame.payloadLen = data.length;
+    frame.payloadData = data;
+    BufferedOutputStream buffered = new BufferedOutputStream(out);
+    frame.writeTo(buffered);
+    buffered.flush();
+  }
+
+  private static class RecordingCallback implements ReadCallback {
+    public final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onCompleteFrame(byte opcode, byte[] payload, int payloadLen) {
+      String data = opcode == Frame.OPCODE_CONNECTION_PING
+          ? new String(payload, 0, payloadLen)
+          : Arrays.toString(Arrays.copyOf(payload, payloadLen));
+      events.add("opcode=" + opcode + " " + data);
+    }
+
+    @Override
+    public void onCompleteTextFrame(char[] text, int textLen) {
+      events.add("text=" + new String(text, 0, textLen));
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.UnsupportedEncodingException;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class Utf8DecoderTest {
+  @Test
+  public void testDecodeSplitAnywhere() throws UnsupportedEncodingException {
+    String text = "a\u00e9\u20ac\ud83d\ude00z";
+    byte[] bytes = text.getBytes("UTF-8");
+    Utf8Decoder decoder = new Utf8Decoder();
+    for (int split = 0; split <= bytes.length; split++) {
+      decoder.reset();
+      decoder.decode(bytes, 0, split);
+      decoder.decode(bytes, split, bytes.length - split);
+      decoder.finish();
+      assertEquals(text, toString(decoder));
+    }
+  }
+
+  @Test
+  public void testMalformed() {
+    assertEquals("a\ufffdb", decode(0x61, 0x80, 0x62));
+    // Overlong encoding of '/'.
+    assertEquals("\ufffd\ufffd", decode(0xc0, 0xaf));
+    // Encoded surrogate.
+    assertEquals("\ufffd", decode(0xed, 0xa0, 0x80));
+    // Truncated sequences, in the middle and at the end.
+    assertEquals("\ufffdx\ufffd", decode(0xe2, 0x82, 0x78, 0xf0, 0x9f));
+  }
+
+  private static String decode(int... input) {
+    byte[] bytes = new byte[input.length];
+    for (int i = 0; i < input.length; i++) {
+      bytes[i] = (byte) input[i];
+    }
+    Utf8Decoder decoder = new Utf8Decoder();
+    decoder.decode(bytes, 0, bytes.length);
+    decoder.finish();
+    return toString(decoder);
+  }
+
+  private static String toString(Utf8Decoder decoder) {
+    return new String(decoder.getChars(), 0, decoder.getLength());
+  }
+}
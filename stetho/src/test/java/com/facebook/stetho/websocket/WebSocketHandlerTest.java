@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import com.facebook.stetho.server.http.LightHttpRequest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(JUnit4.class)
+public class WebSocketHandlerTest {
+  @Test
+  public void testNegotiatePerMessageDeflate() {
+    assertEquals(
+        "permessage-deflate; server_no_context_takeover",
+        negotiate("permessage-deflate; client_max_window_bits"));
+    assertEquals(
+        "permessage-deflate; server_no_context_takeover; server_max_window_bits=15",
+        negotiate("permessage-deflate; server_max_window_bits=\"15\"; client_no_context_takeover"));
+  }
+
+  @Test
+  public void testNegotiateFallsBackToLaterOffer() {
+    assertEquals(
+        "permessage-deflate; server_no_context_takeover",
+        negotiate("permessage-deflate; server_max_window_bits=10, permessage-deflate"));
+    assertEquals(
+        "permessage-deflate; server_no_context_takeover",
+        negotiate("x-webkit-deflate-frame", "permessage-deflate"));
+  }
+
+  @Test
+  public void testNegotiateDeclined() {
+    assertNull(negotiate());
+    assertNull(negotiate("x-webkit-deflate-frame"));
+    assertNull(negotiate("permessage-deflate; server_max_window_bits=12"));
+    assertNull(negotiate("permessage-deflate; unknown_param"));
+  }
+
+  private static String negotiate(String... extensionHeaders) {
+    LightHttpRequest request = new LightHttpRequest();
+    request.addHeader("Sec-WebSocket-Key", "dGhlIHNhbXBsZSBub25jZQ==");
+    for (String extensions : extensionHeaders) {
+      request.addHeader("Sec-WebSocket-Extensions", extensions);
+    }
+    return WebSocketHandler.negotiatePerMessageDeflate(request);
+  }
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.stetho.websocket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class WriteHandlerTest {
+  private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+  @Test
+  public void testPayloadLengthEncodings() throws IOException, InterruptedException {
+    int[] lengths = { 0, 125, 126, 8 * 1024, 0xffff, 0x10000, 200 * 1024 };
+    for (int length : lengths) {
+      byte[] payload = new byte[length + 3];
+      Arrays.fill(payload, (byte) 'x');
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      RecordingCallback callback = new RecordingCallback();
+      WriteHandler handler = new WriteHandler(out);
+      handler.writeFrame(Frame.OPCODE_BINARY_FRAME, payload, length, callback);
+      assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+      assertTrue(callback.succeeded);
+
+      Frame frame = readFrame(out.toByteArray());
+      assertTrue(frame.fin);
+      assertFalse(frame.hasMask);
+      assertEquals(Frame.OPCODE_BINARY_FRAME, frame.opcode);
+      assertEquals(length, frame.payloadLen);
+      assertArrayEquals(Arrays.copyOf(payload, length), frame.payloadData);
+    }
+  }
+
+  @Test
+  public void testTextEncoding() throws IOException, InterruptedException {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      b.append("a\u00e9\u20ac\ud83d\ude00");
+    }
+    // Unpaired surrogates at the end and in the middle.
+    b.append("\ud83dz\ude00\ud83d");
+    String text = b.toString();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WriteHandler handler = new WriteHandler(out);
+    handler.writeText(text, new RecordingCallback());
+    handler.writeText("second", new RecordingCallback());
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+
+    BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()));
+    Frame first = new Frame();
+    first.readFrom(in);
+    assertEquals(Frame.OPCODE_TEXT_FRAME, first.opcode);
+    assertArrayEquals(text.getBytes("UTF-8"), first.payloadData);
+
+    Frame second = new Frame();
+    second.readFrom(in);
+    assertEquals("second", new String(second.payloadData, "UTF-8"));
+  }
+
+  @Test
+  public void testWriteFrame() throws IOException, InterruptedException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WriteHandler handler = new WriteHandler(out);
+    handler.write(
+        FrameHelper.createCloseFrame(CloseCodes.NORMAL_CLOSURE, "bye"),
+        new RecordingCallback());
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+
+    Frame frame = readFrame(out.toByteArray());
+    assertTrue(frame.fin);
+    assertEquals(Frame.OPCODE_CONNECTION_CLOSE, frame.opcode);
+    assertEquals(5, frame.payloadLen);
+    assertEquals("bye", new String(frame.payloadData, 2, 3, "UTF-8"));
+  }
+
+  @Test
+  public void testFailure() throws InterruptedException {
+    RecordingCallback first = new RecordingCallback();
+    WriteHandler handler = new WriteHandler(new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Broken pipe");
+      }
+    });
+    handler.writeText("hello", first);
+    handler.shutdown(SHUTDOWN_TIMEOUT_MS);
+    assertFalse(first.succeeded);
+    assertEquals("Broken pipe", first.failure.getMessage());
+
+    RecordingCallback second = new RecordingCallback();
+    handler.writeText("again", second);
+    assertEquals("Broken pipe", second.failure.getMessage());
+  }
+
+  @Test
+  public void testCoalescesQueuedFrames() throws IOException, InterruptedException {
+    BlockingOutputStream out = new BlockingOutputStream();
+    WriteHandler handler = new WriteHandler(out);
+    handler.writeText("first", new RecordingCallback());
+    out.firstWriteStarted.await();
+
+    // Everything queued while the writer is stuck goes out in one batch.
+    RecordingCallback[] callbacks = new RecordingCallback[50];
+    for (int i = 0; i < callbacks.length; i++) {
+      callbacks[i] = new RecordingCallback();
+      handler.writeText("message " + i, callbacks[i]);
+    }
+    assertEquals(callbacks.length, handler.getQueuedFrameCount());
+    out.unblock.countDown();
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+
+    for (RecordingCallback callback : callbacks) {
+      assertTrue(callback.succeeded);
+    }
+    assertEquals(2, handler.getFlushCount());
+    assertEquals(2, out.flushCount);
+    assertEquals(1 + callbacks.length, handler.getFramesWritten());
+    assertEquals(0, handler.getQueuedByteCount());
+
+    BufferedInputStream in =
+        new BufferedInputStream(new ByteArrayInputStream(out.data.toByteArray()));
+    Frame frame = new Frame();
+    frame.readFrom(in);
+    assertEquals("first", new String(frame.payloadData, "UTF-8"));
+    for (int i = 0; i < callbacks.length; i++) {
+      frame.readFrom(in);
+      assertEquals("message " + i, new String(frame.payloadData, "UTF-8"));
+    }
+  }
+
+  @Test
+  public void testQueueLimit() throws InterruptedException {
+    BlockingOutputStream out = new BlockingOutputStream();
+    WriteHandler handler = new WriteHandler(out, 100 /* maxQueuedBytes */);
+    RecordingCallback first = new RecordingCallback();
+    handler.writeFrame(Frame.OPCODE_BINARY_FRAME, new byte[60], 60, first);
+    out.firstWriteStarted.await();
+
+    RecordingCallback rejected = new RecordingCallback();
+    handler.writeFrame(Frame.OPCODE_BINARY_FRAME, new byte[60], 60, rejected);
+    assertFalse(rejected.succeeded);
+    assertTrue(rejected.failure.getMessage().startsWith("Write queue full"));
+    assertEquals(1, handler.getRejectedFrameCount());
+
+    RecordingCallback accepted = new RecordingCallback();
+    handler.writeFrame(Frame.OPCODE_BINARY_FRAME, new byte[20], 20, accepted);
+    out.unblock.countDown();
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+    assertTrue(first.succeeded);
+    assertTrue(accepted.succeeded);
+  }
+
+  @Test
+  public void testCompression() throws IOException, InterruptedException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WriteHandler handler = new WriteHandler(
+        out,
+        WriteHandler.DEFAULT_MAX_QUEUED_BYTES,
+        new MessageDeflater(Deflater.BEST_SPEED),
+        100 /* minCompressedLength */);
+    char[] repetitive = new char[10000];
+    Arrays.fill(repetitive, 'a');
+    String large = new String(repetitive);
+    handler.writeText(large, new RecordingCallback());
+    handler.writeText("small", new RecordingCallback());
+    handler.write(FrameHelper.createPongFrame(new byte[200], 200), new RecordingCallback());
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+    assertEquals(1, handler.getCompressedFrameCount());
+
+    BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()));
+    Frame frame = new Frame();
+    frame.readFrom(in);
+    assertTrue(frame.rsv1);
+    assertEquals(Frame.OPCODE_TEXT_FRAME, frame.opcode);
+    assertTrue(frame.payloadLen < 1000);
+    MessageInflater inflater = new MessageInflater();
+    int length = inflater.inflate(frame.payloadData, (int) frame.payloadLen);
+    assertEquals(large, new String(inflater.getBuffer(), 0, length, "UTF-8"));
+
+    frame.readFrom(in);
+    assertFalse(frame.rsv1);
+    assertEquals("small", new String(frame.payloadData, "UTF-8"));
+
+    frame.readFrom(in);
+    assertFalse(frame.rsv1);
+    assertEquals(Frame.OPCODE_CONNECTION_PONG, frame.opcode);
+  }
+
+  @Test
+  public void testRecyclesBuffers() throws IOException, InterruptedException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WriteHandler handler = new WriteHandler(out);
+    for (int i = 0; i < 50; i++) {
+      RecordingCallback callback = new RecordingCallback();
+      handler.writeText("message " + i, callback);
+      callback.awaitSuccess();
+    }
+    byte[] large = new byte[WriteHandler.POOLED_BUFFER_SIZE * 2];
+    handler.writeFrame(Frame.OPCODE_BINARY_FRAME, large, large.length, new RecordingCallback());
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+
+    // Each frame was written before the next was queued, so one buffer served them all.
+    assertEquals(1, handler.getAllocatedBufferCount());
+    BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()));
+    for (int i = 0; i < 50; i++) {
+      assertEquals("message " + i, new String(readFrom(in).payloadData, "UTF-8"));
+    }
+    assertEquals(large.length, readFrom(in).payloadLen);
+  }
+
+  @Test
+  public void testStreamingText() throws IOException, InterruptedException {
+    final byte[] text = new byte[WriteHandler.FRAGMENT_SIZE * 5 / 2];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = (byte) ('a' + i % 26);
+    }
+    RecordingMessage message = new RecordingMessage() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        out.write(text[0]);
+        out.write(text, 1, 99);
+        out.write(text, 100, text.length - 100);
+      }
+    };
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WriteHandler handler = new WriteHandler(out);
+    handler.writeText("before", new RecordingCallback());
+    RecordingCallback callback = new RecordingCallback();
+    handler.writeStreamingText(message, callback);
+    handler.writeText("after", new RecordingCallback());
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+    assertTrue(callback.succeeded);
+    assertTrue(message.closed);
+
+    BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals("before", new String(readFrom(in).payloadData, "UTF-8"));
+    Frame first = readFrom(in);
+    assertFalse(first.fin);
+    assertEquals(Frame.OPCODE_TEXT_FRAME, first.opcode);
+    assertEquals(WriteHandler.FRAGMENT_SIZE, first.payloadLen);
+    Frame second = readFrom(in);
+    assertFalse(second.fin);
+    assertEquals(Frame.OPCODE_CONTINUATION, second.opcode);
+    Frame last = readFrom(in);
+    assertTrue(last.fin);
+    assertEquals(Frame.OPCODE_CONTINUATION, last.opcode);
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    payload.write(first.payloadData);
+    payload.write(second.payloadData);
+    payload.write(last.payloadData);
+    assertArrayEquals(text, payload.toByteArray());
+    assertEquals("after", new String(readFrom(in).payloadData, "UTF-8"));
+  }
+
+  @Test
+  public void testStreamingTextCompressed() throws IOException, InterruptedException {
+    // Random letters compress to well over a fragment, so both buffers fill repeatedly.
+    final byte[] text = new byte[WriteHandler.FRAGMENT_SIZE * 3];
+    Random random = new Random(42);
+    for (int i = 0; i < text.length; i++) {
+      text[i] = (byte) ('a' + random.nextInt(26));
+    }
+    RecordingMessage message = new RecordingMessage() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        out.write(text, 0, 1000);
+        out.write(text, 1000, text.length - 1000);
+      }
+    };
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WriteHandler handler = new WriteHandler(
+        out,
+        WriteHandler.DEFAULT_MAX_QUEUED_BYTES,
+        new MessageDeflater(Deflater.BEST_SPEED),
+        100 /* minCompressedLength */);
+    RecordingCallback callback = new RecordingCallback();
+    handler.writeStreamingText(message, callback);
+    handler.writeText("after", new RecordingCallback());
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+    assertTrue(callback.succeeded);
+    assertEquals(1, handler.getCompressedFrameCount());
+
+    BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()));
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    Frame frame = readFrom(in);
+    assertTrue(frame.rsv1);
+    assertEquals(Frame.OPCODE_TEXT_FRAME, frame.opcode);
+    int fragments = 1;
+    while (!frame.fin) {
+      assertEquals(WriteHandler.FRAGMENT_SIZE, frame.payloadLen);
+      payload.write(frame.payloadData);
+      frame = readFrom(in);
+      assertFalse(frame.rsv1);
+      assertEquals(Frame.OPCODE_CONTINUATION, frame.opcode);
+      fragments++;
+    }
+    payload.write(frame.payloadData);
+    assertTrue(fragments > 1);
+    assertTrue(payload.size() < text.length);
+
+    MessageInflater inflater = new MessageInflater();
+    int length = inflater.inflate(payload.toByteArray(), payload.size());
+    assertArrayEquals(text, Arrays.copyOf(inflater.getBuffer(), length));
+    assertEquals("after", new String(readFrom(in).payloadData, "UTF-8"));
+  }
+
+  @Test
+  public void testStreamingTextFailure() throws IOException, InterruptedException {
+    RecordingMessage message = new RecordingMessage() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        out.write(new byte[] { 'a', 'b' });
+        throw new IOException("Body evicted");
+      }
+    };
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WriteHandler handler = new WriteHandler(out);
+    RecordingCallback callback = new RecordingCallback();
+    handler.writeStreamingText(message, callback);
+    RecordingCallback after = new RecordingCallback();
+    handler.writeText("after", after);
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+    assertEquals("Body evicted", callback.failure.getMessage());
+    assertTrue(message.closed);
+    assertTrue(after.succeeded);
+
+    // Nothing had been sent yet, so the replacement goes out instead.
+    BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()));
+    Frame frame = readFrom(in);
+    assertTrue(frame.fin);
+    assertEquals(Frame.OPCODE_TEXT_FRAME, frame.opcode);
+    assertEquals("failed: Body evicted", new String(frame.payloadData, "UTF-8"));
+    assertEquals("after", new String(readFrom(in).payloadData, "UTF-8"));
+  }
+
+  @Test
+  public void testStreamingTextFailurePartWay() throws IOException, InterruptedException {
+    final byte[] text = new byte[WriteHandler.FRAGMENT_SIZE + 10];
+    Arrays.fill(text, (byte) 'a');
+    RecordingMessage message = new RecordingMessage() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        out.write(text);
+        throw new IOException("Body evicted");
+      }
+    };
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WriteHandler handler = new WriteHandler(out);
+    RecordingCallback callback = new RecordingCallback();
+    handler.writeStreamingText(message, callback);
+    RecordingCallback after = new RecordingCallback();
+    handler.writeText("after", after);
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+    assertTrue(callback.failure instanceof MessageAbortedException);
+    assertEquals("Body evicted", callback.failure.getCause().getMessage());
+    assertTrue(message.closed);
+    assertEquals("Session is closed", after.failure.getMessage());
+
+    // The first fragment is already out, so rather than finish a truncated message the
+    // session is closed.
+    BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()));
+    Frame first = readFrom(in);
+    assertFalse(first.fin);
+    assertEquals(WriteHandler.FRAGMENT_SIZE, first.payloadLen);
+    Frame close = readFrom(in);
+    assertTrue(close.fin);
+    assertEquals(Frame.OPCODE_CONNECTION_CLOSE, close.opcode);
+    int code = ((close.payloadData[0] & 0xff) << 8) | (close.payloadData[1] & 0xff);
+    assertEquals(CloseCodes.UNEXPECTED_CONDITION, code);
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testStreamingTextReplacementFailure() throws IOException, InterruptedException {
+    RecordingMessage message = new RecordingMessage() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        throw new IOException("Body evicted");
+      }
+
+      @Override
+      public void writeFailureTo(OutputStream out, IOException error) {
+        throw new IllegalStateException("No replacement");
+      }
+    };
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WriteHandler handler = new WriteHandler(out);
+    RecordingCallback callback = new RecordingCallback();
+    handler.writeStreamingText(message, callback);
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+    assertTrue(callback.failure instanceof MessageAbortedException);
+    assertTrue(message.closed);
+
+    BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(Frame.OPCODE_CONNECTION_CLOSE, readFrom(in).opcode);
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testStreamingTextRejected() throws InterruptedException {
+    WriteHandler handler = new WriteHandler(new ByteArrayOutputStream());
+    assertTrue(handler.shutdown(SHUTDOWN_TIMEOUT_MS));
+
+    RecordingMessage message = new RecordingMessage() {
+      @Override
+      public void writeTo(OutputStream out) {
+        throw new AssertionError();
+      }
+    };
+    RecordingCallback callback = new RecordingCallback();
+    handler.writeStreamingText(message, callback);
+    assertEquals("Session is closed", callback.failure.getMessage());
+    assertTrue(message.closed);
+  }
+
+  private static Frame readFrom(BufferedInputStream in) throws IOException {
+    Frame frame = new Frame();
+    frame.readFrom(in);
+    return frame;
+  }
+
+  private static Frame readFrame(byte[] data) throws IOException {
+    ByteArrayInputStream in = new ByteArrayInputStream(data);
+    Frame frame = new Frame();
+    frame.readFrom(new BufferedInputStream(in));
+    assertEquals(0, in.available());
+    return frame;
+  }
+
+  private static class BlockingOutputStream extends OutputStream {
+    public final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+    public final CountDownLatch unblock = new CountDownLatch(1);
+    public final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    public int flushCount;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      firstWriteStarted.countDown();
+      try {
+        unblock.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      data.write(b, off, len);
+    }
+
+    @Override
+    public void flush() {
+      flushCount++;
+    }
+  }
+
+  private abstract static class RecordingMessage implements StreamingMessage {
+    public volatile boolean closed;
+
+    @Override
+    public void writeFailureTo(OutputStream out, IOException error) throws IOException {
+      out.write(("failed: " + error.getMessage()).getBytes("UTF-8"));
+    }
+
+    @Override
+    public void close() {
+      assertFalse(closed);
+      closed = true;
+    }
+  }
+
+  private static class RecordingCallback implements WriteCallback {
+    public volatile boolean succeeded;
+    public volatile IOException failure;
+
+    @Override
+    public void onFailure(IOException e) {
+      failure = e;
+    }
+
+    @Override
+    public void onSuccess() {
+      succeeded = true;
+    }
+
+    public void awaitSuccess() throws InterruptedException {
+      long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MS;
+      while (!succeeded) {
+        assertTrue(failure == null && System.currentTimeMillis() < deadline);
+        Thread.sleep(1);
+      }
+    }
+  }
+}